@@ -18,7 +18,9 @@
 
 package com.forrestguice.suntimeswidget.calendar;
 
+import android.content.ContentValues;
 import android.graphics.Color;
+import android.provider.CalendarContract;
 import android.support.test.filters.LargeTest;
 import android.support.test.rule.ActivityTestRule;
 import android.support.test.runner.AndroidJUnit4;
@@ -30,6 +32,7 @@ import org.junit.runner.RunWith;
 
 import java.util.Calendar;
 
+import static junit.framework.Assert.assertEquals;
 import static junit.framework.Assert.assertNotNull;
 import static junit.framework.Assert.assertTrue;
 
@@ -92,4 +95,44 @@ public class CalendarAdapterTest
         assertTrue(CALENDAR_TEST0 + " shouldn't exist", !adapter.hasCalendar(CALENDAR_TEST0));
     }
 
+    @Test
+    public void test_upsertCalendarEvents()
+    {
+        adapter.removeCalendar(CALENDAR_TEST0);
+        long calendarID = adapter.createCalendar(CALENDAR_TEST0, "test0", Color.RED);
+        assertTrue(CALENDAR_TEST0 + " should exist", (calendarID != -1));
+
+        Calendar[] times = new Calendar[3];
+        ContentValues[] values = new ContentValues[times.length];
+        for (int i=0; i<times.length; i++)
+        {
+            times[i] = Calendar.getInstance();
+            times[i].add(Calendar.DATE, i);
+            values[i] = SuntimesCalendarAdapter.putEventIdentity(adapter.createEventContentValues(calendarID, "event " + i, "desc", null, times[i]), CALENDAR_TEST0, 0);
+            assertNotNull(values[i].getAsString(CalendarContract.Events._SYNC_ID));
+        }
+        adapter.createCalendarEvents(values);
+        assertEquals(3, adapter.queryCalendarEventIDs(calendarID).length);
+
+        Calendar start = Calendar.getInstance();
+        start.add(Calendar.DATE, -1);
+        Calendar end = Calendar.getInstance();
+        end.add(Calendar.DATE, times.length + 1);
+
+        adapter.beginUpsert(calendarID, new long[] { start.getTimeInMillis(), end.getTimeInMillis() });
+        adapter.createCalendarEvents(new ContentValues[] {
+                SuntimesCalendarAdapter.putEventIdentity(adapter.createEventContentValues(calendarID, "event 0", "desc", null, times[0]), CALENDAR_TEST0, 0),   // unchanged
+                SuntimesCalendarAdapter.putEventIdentity(adapter.createEventContentValues(calendarID, "event 1*", "desc", null, times[1]), CALENDAR_TEST0, 0)   // changed (2 is removed)
+        });
+        SuntimesCalendarAdapter.EventUpsert session = adapter.endUpsert(calendarID, true);
+        assertNotNull(session);
+        assertEquals(1, session.numUnchanged);
+        assertEquals(1, session.numUpdated);
+        assertEquals(1, session.numRemoved);
+        assertEquals(0, session.getInsertedIDs().length);
+        assertEquals(2, adapter.queryCalendarEventIDs(calendarID).length);
+
+        assertTrue(CALENDAR_TEST0 + " should be removed", adapter.removeCalendar(CALENDAR_TEST0));
+    }
+
 }
@@ -20,7 +20,8 @@ package com.forrestguice.suntimeswidget.calendar;
 import android.os.Parcel;
 import android.os.Parcelable;
 import android.support.annotation.Nullable;
-import android.util.Log;
+
+import com.forrestguice.suntimeswidget.calendar.core.CalendarEventValues;
 
 /**
  * CalendarEvents
@@ -33,46 +34,16 @@ public class CalendarEventFlags implements Parcelable
         values = new boolean[0];
     }
 
-    public CalendarEventFlags(String... data)
-    {
-        boolean[] v = new boolean[data.length];
-        for (int i=0; i<data.length; i++) {
-            v[i] = Boolean.parseBoolean(data[i]);
-        }
-        setValues(v);
+    public CalendarEventFlags(String... data) {
+        setValues(CalendarEventValues.parseFlags(data));
     }
 
     public CalendarEventFlags(boolean... data) {
         setValues(data);
     }
 
-    @SuppressWarnings("ForLoopReplaceableByForEach")
-    public CalendarEventFlags(boolean[]... data)
-    {
-        int size = 0;
-        for (boolean[] d : data) {
-            size += d.length;
-        }
-
-        int c = 0;
-        values = new boolean[size];
-        outerLoop:
-        for (int i=0; i<data.length; i++)
-        {
-            boolean[] d = data[i];
-            for (int j=0; j<d.length; j++)
-            {
-                if (c < size)
-                {
-                    values[c] = d[j];
-                    c++;
-
-                } else {
-                    Log.w("CalendarEvents", "Out of bounds! " + c + " >= " + size);
-                    break outerLoop;
-                }
-            }
-        }
+    public CalendarEventFlags(boolean[]... data) {
+        values = CalendarEventValues.concat(data);
     }
 
     public CalendarEventFlags(CalendarEventFlags other) {
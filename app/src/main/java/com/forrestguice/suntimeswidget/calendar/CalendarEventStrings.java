@@ -20,7 +20,8 @@ package com.forrestguice.suntimeswidget.calendar;
 import android.os.Parcel;
 import android.os.Parcelable;
 import android.support.annotation.Nullable;
-import android.util.Log;
+
+import com.forrestguice.suntimeswidget.calendar.core.CalendarEventValues;
 
 /**
  * CalendarEventStrings
@@ -37,33 +38,8 @@ public class CalendarEventStrings implements Parcelable
         setValues(data);
     }
 
-    @SuppressWarnings("ForLoopReplaceableByForEach")
-    public CalendarEventStrings(String[]... data)
-    {
-        int size = 0;
-        for (String[] d : data) {
-            size += d.length;
-        }
-
-        int c = 0;
-        values = new String[size];
-        outerLoop:
-        for (int i=0; i<data.length; i++)
-        {
-            String[] d = data[i];
-            for (int j=0; j<d.length; j++)
-            {
-                if (c < size)
-                {
-                    values[c] = d[j];
-                    c++;
-
-                } else {
-                    Log.w("CalendarEventStrings", "Out of bounds! " + c + " >= " + size);
-                    break outerLoop;
-                }
-            }
-        }
+    public CalendarEventStrings(String[]... data) {
+        values = CalendarEventValues.concat(data);
     }
 
     public CalendarEventStrings(CalendarEventStrings other) {
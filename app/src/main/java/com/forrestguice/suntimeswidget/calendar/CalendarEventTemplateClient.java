@@ -0,0 +1,208 @@
+/**
+    Copyright (C) 2023 Forrest Guice
+    This file is part of SuntimesCalendars.
+
+    SuntimesCalendars is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    SuntimesCalendars is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with SuntimesCalendars.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package com.forrestguice.suntimeswidget.calendar;
+
+import android.content.ContentResolver;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import java.util.HashMap;
+
+import static com.forrestguice.suntimeswidget.calendar.CalendarEventTemplateContract.AUTHORITY;
+import static com.forrestguice.suntimeswidget.calendar.CalendarEventTemplateContract.COLUMN_CONFIG_TEMPLATE_VERSION;
+import static com.forrestguice.suntimeswidget.calendar.CalendarEventTemplateContract.COLUMN_TEMPLATE_CALENDAR;
+import static com.forrestguice.suntimeswidget.calendar.CalendarEventTemplateContract.COLUMN_TEMPLATE_DESCRIPTION;
+import static com.forrestguice.suntimeswidget.calendar.CalendarEventTemplateContract.COLUMN_TEMPLATE_FLAGS;
+import static com.forrestguice.suntimeswidget.calendar.CalendarEventTemplateContract.COLUMN_TEMPLATE_FLAG_LABELS;
+import static com.forrestguice.suntimeswidget.calendar.CalendarEventTemplateContract.COLUMN_TEMPLATE_LOCATION;
+import static com.forrestguice.suntimeswidget.calendar.CalendarEventTemplateContract.COLUMN_TEMPLATE_STRINGS;
+import static com.forrestguice.suntimeswidget.calendar.CalendarEventTemplateContract.COLUMN_TEMPLATE_TITLE;
+import static com.forrestguice.suntimeswidget.calendar.CalendarEventTemplateContract.QUERY_CONFIG;
+import static com.forrestguice.suntimeswidget.calendar.CalendarEventTemplateContract.QUERY_TEMPLATES_ALL;
+import static com.forrestguice.suntimeswidget.calendar.CalendarEventTemplateContract.QUERY_TEMPLATES_ALL_PROJECTION;
+import static com.forrestguice.suntimeswidget.calendar.CalendarEventTemplateContract.STRINGS_DELIMITER;
+
+/**
+ * CalendarEventTemplateClient
+ * A client-side cache of CalendarEventTemplateProvider's `templates/all` query. Cached values are reused until the
+ * provider's template version changes (or an observer invalidates them); checking an unchanged cache costs a single
+ * `config` query.
+ */
+@SuppressWarnings("Convert2Diamond")
+public class CalendarEventTemplateClient
+{
+    public static final String TAG = "TemplateClient";
+    public static final long VERSION_UNKNOWN = -1;
+
+    protected long version = VERSION_UNKNOWN;
+    protected volatile boolean valid = false;
+    protected final HashMap<String, String[]> rows = new HashMap<String, String[]>();
+    protected ContentObserver observer = null;
+
+    /**
+     * @return the provider's template version, or VERSION_UNKNOWN if unavailable (e.g. the provider is older than version 2)
+     */
+    public static long queryVersion(@NonNull ContentResolver resolver)
+    {
+        long retValue = VERSION_UNKNOWN;
+        Uri uri = Uri.parse("content://" + AUTHORITY + "/" + QUERY_CONFIG);
+        String[] projection = new String[] { COLUMN_CONFIG_TEMPLATE_VERSION };
+        try {
+            Cursor cursor = resolver.query(uri, projection, null, null, null);
+            if (cursor != null)
+            {
+                if (cursor.moveToFirst() && !cursor.isNull(0)) {
+                    retValue = cursor.getLong(0);
+                }
+                cursor.close();
+            }
+        } catch (SecurityException e) {
+            Log.e(TAG, "queryVersion: permission denied! " + e);
+        }
+        return retValue;
+    }
+
+    /**
+     * Reloads cached values if the template version has changed (or is unknown).
+     * @return true values were reloaded, false cached values are current
+     */
+    public synchronized boolean refresh(@NonNull ContentResolver resolver)
+    {
+        long v = queryVersion(resolver);
+        if (valid && v != VERSION_UNKNOWN && v == version) {
+            return false;
+        }
+
+        rows.clear();
+        Uri uri = Uri.parse("content://" + AUTHORITY + "/" + QUERY_TEMPLATES_ALL);
+        try {
+            Cursor cursor = resolver.query(uri, QUERY_TEMPLATES_ALL_PROJECTION, null, null, null);
+            if (cursor != null)
+            {
+                int n = QUERY_TEMPLATES_ALL_PROJECTION.length;
+                while (cursor.moveToNext())
+                {
+                    String[] row = new String[n];
+                    for (int i=0; i<n; i++) {
+                        row[i] = cursor.isNull(i) ? null : cursor.getString(i);
+                    }
+                    rows.put(row[columnIndex(COLUMN_TEMPLATE_CALENDAR)], row);
+                }
+                cursor.close();
+            }
+        } catch (SecurityException e) {
+            Log.e(TAG, "refresh: permission denied! " + e);
+        }
+        version = v;
+        valid = true;
+        return true;
+    }
+
+    public void invalidate() {
+        valid = false;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Invalidates the cache whenever the provider signals a change (the next `refresh` skips the version check).
+     */
+    public void registerObserver(@NonNull ContentResolver resolver)
+    {
+        if (observer == null)
+        {
+            observer = new ContentObserver(null)
+            {
+                @Override
+                public void onChange(boolean selfChange) {
+                    invalidate();
+                }
+            };
+            resolver.registerContentObserver(Uri.parse("content://" + AUTHORITY + "/" + QUERY_CONFIG), false, observer);
+        }
+    }
+
+    public void unregisterObserver(@NonNull ContentResolver resolver)
+    {
+        if (observer != null)
+        {
+            resolver.unregisterContentObserver(observer);
+            observer = null;
+        }
+    }
+
+    public synchronized String[] getCalendars() {
+        return rows.keySet().toArray(new String[0]);
+    }
+
+    @Nullable
+    public synchronized CalendarEventTemplate getTemplate(String calendar)
+    {
+        String[] row = rows.get(calendar);
+        if (row != null && (row[columnIndex(COLUMN_TEMPLATE_TITLE)] != null || row[columnIndex(COLUMN_TEMPLATE_DESCRIPTION)] != null || row[columnIndex(COLUMN_TEMPLATE_LOCATION)] != null)) {
+            return new CalendarEventTemplate(row[columnIndex(COLUMN_TEMPLATE_TITLE)], row[columnIndex(COLUMN_TEMPLATE_DESCRIPTION)], row[columnIndex(COLUMN_TEMPLATE_LOCATION)]);
+        } else return null;
+    }
+
+    @Nullable
+    public synchronized CalendarEventStrings getStrings(String calendar)
+    {
+        String[] values = getValues(calendar, COLUMN_TEMPLATE_STRINGS);
+        return (values != null ? new CalendarEventStrings(values) : null);
+    }
+
+    @Nullable
+    public synchronized CalendarEventFlags getFlags(String calendar)
+    {
+        String[] values = getValues(calendar, COLUMN_TEMPLATE_FLAGS);
+        return (values != null ? new CalendarEventFlags(values) : null);
+    }
+
+    @Nullable
+    public synchronized CalendarEventStrings getFlagLabels(String calendar)
+    {
+        String[] values = getValues(calendar, COLUMN_TEMPLATE_FLAG_LABELS);
+        return (values != null ? new CalendarEventStrings(values) : null);
+    }
+
+    @Nullable
+    protected String[] getValues(String calendar, String column)
+    {
+        String[] row = rows.get(calendar);
+        String value = (row != null ? row[columnIndex(column)] : null);
+        return (value != null ? value.split("\\" + STRINGS_DELIMITER, -1) : null);
+    }
+
+    protected static int columnIndex(String column)
+    {
+        for (int i=0; i<QUERY_TEMPLATES_ALL_PROJECTION.length; i++) {
+            if (QUERY_TEMPLATES_ALL_PROJECTION[i].equals(column)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -26,25 +26,38 @@ package com.forrestguice.suntimeswidget.calendar;
  * content://[AUTHORITY]/templates                 .. get list of all calendars with templates (multiple rows (string-array))
  * content://[AUTHORITY]/template/[calendarName]   .. get template for given calendar (one row of template elements)
  * content://[AUTHORITY]/strings/[calendarName]    .. get template strings for given calendar (multiple rows (string-array))
+ * content://[AUTHORITY]/flags/[calendarName]      .. get template flags for given calendar (multiple rows (boolean-array))
+ * content://[AUTHORITY]/templates/all             .. get templates, strings, and flags for all calendars (one row per calendar)
  *
  * The `template` and `strings` queries return an empty result if values are still undefined (defaults).
+ *
+ * Observers are notified (ContentResolver.notifyChange) on `template/[calendarName]`, `strings/[calendarName]`, or
+ * `flags/[calendarName]` when values change (as well as `templates`, `templates/all`, and `config`). The `config`
+ * query includes a template version that increases with every change; clients may cache results until it changes.
+ *
+ * ------------------------------------------------------------------------------------------------
+ * CHANGES
+ *   0 initial version
+ *   1 adds QUERY_TEMPLATES_ALL (templates/all) and STRINGS_DELIMITER
+ *   2 adds COLUMN_CONFIG_TEMPLATE_VERSION; the provider now calls notifyChange when templates, strings, or flags change
  */
 public interface CalendarEventTemplateContract
 {
     String AUTHORITY = "com.forrestguice.suntimescalendars.template.provider";
     String READ_PERMISSION = "suntimes.permission.READ_CALCULATOR";
-    String VERSION_NAME = "v0.0.0";
-    int VERSION_CODE = 0;
+    String VERSION_NAME = "v0.2.0";
+    int VERSION_CODE = 2;
 
     /**
      * CONFIG
      */
     String COLUMN_CONFIG_PROVIDER_VERSION = "provider_version";             // String (provider version string)
     String COLUMN_CONFIG_PROVIDER_VERSION_CODE = "provider_version_code";   // int (provider version code)
+    String COLUMN_CONFIG_TEMPLATE_VERSION = "template_version";             // long (template version; increases when templates change) @since 2
 
     String QUERY_CONFIG = "config";
     String[] QUERY_CONFIG_PROJECTION = new String[] {
-            COLUMN_CONFIG_PROVIDER_VERSION, COLUMN_CONFIG_PROVIDER_VERSION_CODE
+            COLUMN_CONFIG_PROVIDER_VERSION, COLUMN_CONFIG_PROVIDER_VERSION_CODE, COLUMN_CONFIG_TEMPLATE_VERSION
     };
 
     /**
@@ -65,6 +78,18 @@ public interface CalendarEventTemplateContract
     String QUERY_TEMPLATES = "templates";
     String[] QUERY_TEMPLATES_PROJECTION = new String[] { COLUMN_TEMPLATE_CALENDAR };
 
+    /**
+     * content://[AUTHORITY]/templates/all             .. get templates, strings, and flags for all calendars (one row per calendar)
+     * The string, flag, and flag label columns are joined using `STRINGS_DELIMITER`; strings are null if undefined (defaults).
+     * @since 1
+     */
+    String QUERY_TEMPLATES_ALL = "templates/all";
+    String[] QUERY_TEMPLATES_ALL_PROJECTION = new String[] { COLUMN_TEMPLATE_CALENDAR,
+            COLUMN_TEMPLATE_TITLE, COLUMN_TEMPLATE_DESCRIPTION, COLUMN_TEMPLATE_LOCATION,
+            COLUMN_TEMPLATE_STRINGS, COLUMN_TEMPLATE_FLAGS, COLUMN_TEMPLATE_FLAG_LABELS
+    };
+    String STRINGS_DELIMITER = "|";
+
     /**
      * content://[AUTHORITY]/template/[calendarName]   .. get template for given calendar
      */
@@ -31,9 +31,12 @@ import android.util.Log;
 
 import com.forrestguice.suntimeswidget.calendar.task.SuntimesCalendar;
 
+import java.util.Map;
+
 import static com.forrestguice.suntimeswidget.calendar.CalendarEventTemplateContract.AUTHORITY;
 import static com.forrestguice.suntimeswidget.calendar.CalendarEventTemplateContract.COLUMN_CONFIG_PROVIDER_VERSION;
 import static com.forrestguice.suntimeswidget.calendar.CalendarEventTemplateContract.COLUMN_CONFIG_PROVIDER_VERSION_CODE;
+import static com.forrestguice.suntimeswidget.calendar.CalendarEventTemplateContract.COLUMN_CONFIG_TEMPLATE_VERSION;
 import static com.forrestguice.suntimeswidget.calendar.CalendarEventTemplateContract.COLUMN_TEMPLATE_CALENDAR;
 import static com.forrestguice.suntimeswidget.calendar.CalendarEventTemplateContract.COLUMN_TEMPLATE_DESCRIPTION;
 import static com.forrestguice.suntimeswidget.calendar.CalendarEventTemplateContract.COLUMN_TEMPLATE_FLAGS;
@@ -49,7 +52,10 @@ import static com.forrestguice.suntimeswidget.calendar.CalendarEventTemplateCont
 import static com.forrestguice.suntimeswidget.calendar.CalendarEventTemplateContract.QUERY_STRINGS_PROJECTION;
 import static com.forrestguice.suntimeswidget.calendar.CalendarEventTemplateContract.QUERY_TEMPLATE;
 import static com.forrestguice.suntimeswidget.calendar.CalendarEventTemplateContract.QUERY_TEMPLATES;
+import static com.forrestguice.suntimeswidget.calendar.CalendarEventTemplateContract.QUERY_TEMPLATES_ALL;
+import static com.forrestguice.suntimeswidget.calendar.CalendarEventTemplateContract.QUERY_TEMPLATES_ALL_PROJECTION;
 import static com.forrestguice.suntimeswidget.calendar.CalendarEventTemplateContract.QUERY_TEMPLATES_PROJECTION;
+import static com.forrestguice.suntimeswidget.calendar.CalendarEventTemplateContract.STRINGS_DELIMITER;
 import static com.forrestguice.suntimeswidget.calendar.CalendarEventTemplateContract.VERSION_CODE;
 import static com.forrestguice.suntimeswidget.calendar.CalendarEventTemplateContract.VERSION_NAME;
 
@@ -62,6 +68,7 @@ public class CalendarEventTemplateProvider extends ContentProvider
 
     private static final int URIMATCH_CONFIG = 0;
     private static final int URIMATCH_TEMPLATES = 10;
+    private static final int URIMATCH_TEMPLATES_ALL = 15;
     private static final int URIMATCH_TEMPLATE_FOR_CALENDAR = 20;
     private static final int URIMATCH_STRINGS_FOR_CALENDAR = 30;
     private static final int URIMATCH_FLAGS_FOR_CALENDAR = 40;
@@ -71,6 +78,7 @@ public class CalendarEventTemplateProvider extends ContentProvider
     {
         uriMatcher.addURI(AUTHORITY, QUERY_CONFIG, URIMATCH_CONFIG);
         uriMatcher.addURI(AUTHORITY, QUERY_TEMPLATES, URIMATCH_TEMPLATES);
+        uriMatcher.addURI(AUTHORITY, QUERY_TEMPLATES_ALL, URIMATCH_TEMPLATES_ALL);
         uriMatcher.addURI(AUTHORITY, QUERY_TEMPLATE + "/*", URIMATCH_TEMPLATE_FOR_CALENDAR);
         uriMatcher.addURI(AUTHORITY, QUERY_STRINGS + "/*", URIMATCH_STRINGS_FOR_CALENDAR);
         uriMatcher.addURI(AUTHORITY, QUERY_FLAGS + "/*", URIMATCH_FLAGS_FOR_CALENDAR);
@@ -91,27 +99,26 @@ public class CalendarEventTemplateProvider extends ContentProvider
         switch (uriMatch)
         {
             case URIMATCH_CONFIG:
-                Log.i(TAG, "URIMATCH_CONFIG");
                 cursor = queryConfig(uri, projection, selection, selectionArgs, sortOrder);
                 break;
 
             case URIMATCH_TEMPLATES:
-                Log.i(TAG, "URIMATCH_TEMPLATES");
                 cursor = queryTemplates(uri, projection, selection, selectionArgs, sortOrder);
                 break;
 
+            case URIMATCH_TEMPLATES_ALL:
+                cursor = queryTemplatesAll(uri, projection, selection, selectionArgs, sortOrder);
+                break;
+
             case URIMATCH_TEMPLATE_FOR_CALENDAR:
-                Log.i(TAG, "URIMATCH_TEMPLATE");
                 cursor = queryTemplate(uri, projection, selection, selectionArgs, sortOrder);
                 break;
 
             case URIMATCH_STRINGS_FOR_CALENDAR:
-                Log.i(TAG, "URIMATCH_STRINGS");
                 cursor = queryStrings(uri, projection, selection, selectionArgs, sortOrder);
                 break;
 
             case URIMATCH_FLAGS_FOR_CALENDAR:
-                Log.i(TAG, "URIMATCH_FLAGS");
                 cursor = queryFlags(uri, projection, selection, selectionArgs, sortOrder);
                 break;
 
@@ -119,6 +126,11 @@ public class CalendarEventTemplateProvider extends ContentProvider
                 Log.e(TAG, "Unrecognized URI! " + uri);
                 break;
         }
+
+        Context context = getContext();
+        if (cursor != null && context != null) {
+            cursor.setNotificationUri(context.getContentResolver(), uri);
+        }
         return cursor;
     }
 
@@ -178,6 +190,10 @@ public class CalendarEventTemplateProvider extends ContentProvider
                         row[i] = VERSION_CODE;
                         break;
 
+                    case COLUMN_CONFIG_TEMPLATE_VERSION:
+                        row[i] = SuntimesCalendarSettings.loadPrefCalendarTemplateVersion(context);
+                        break;
+
                     default:
                         row[i] = null;
                         break;
@@ -230,6 +246,106 @@ public class CalendarEventTemplateProvider extends ContentProvider
         return cursor;
     }
 
+    /**
+     * queryTemplatesAll
+     * @param uri ../templates/all
+     * @param projection @see CalendarEventTemplateContract.QUERY_TEMPLATES_ALL_PROJECTION
+     * @param selection unused
+     * @param selectionArgs unused
+     * @param sortOrder unused
+     * @return multiple rows (one row per calendar); all values are read from a single settings snapshot
+     */
+    public Cursor queryTemplatesAll(@NonNull Uri uri, @Nullable String[] projection, @Nullable String selection, @Nullable String[] selectionArgs, @Nullable String sortOrder)
+    {
+        String[] columns = (projection != null ? projection : QUERY_TEMPLATES_ALL_PROJECTION);
+        MatrixCursor cursor = new MatrixCursor(columns);
+
+        Context context = getContext();
+        if (context != null)
+        {
+            boolean needsCalendar = false;
+            for (String column : columns) {
+                if (COLUMN_TEMPLATE_FLAGS.equals(column) || COLUMN_TEMPLATE_FLAG_LABELS.equals(column)) {
+                    needsCalendar = true;
+                    break;
+                }
+            }
+
+            Map<String, ?> prefs = SuntimesCalendarSettings.loadPrefs(context);
+            SuntimesCalendarFactory factory = new SuntimesCalendarFactory();
+            SuntimesCalendarDescriptor[] descriptors = SuntimesCalendarDescriptor.getDescriptors(context);
+            for (SuntimesCalendarDescriptor descriptor : descriptors)
+            {
+                String calendar = descriptor.calendarName();
+                SuntimesCalendar calendarObj = (needsCalendar ? factory.createCalendar(context, descriptor) : null);
+                if (needsCalendar && calendarObj == null) {
+                    Log.w(TAG, "failed to initialize calendar \"" + calendar + "\"!");
+                }
+
+                Object[] row = new Object[columns.length];
+                for (int j=0; j<columns.length; j++)
+                {
+                    switch (columns[j])
+                    {
+                        case COLUMN_TEMPLATE_CALENDAR:
+                            row[j] = calendar;
+                            break;
+
+                        case COLUMN_TEMPLATE_TITLE:
+                            row[j] = SuntimesCalendarSettings.loadPrefCalendarTemplateTitle(prefs, calendar);
+                            break;
+
+                        case COLUMN_TEMPLATE_DESCRIPTION:
+                            row[j] = SuntimesCalendarSettings.loadPrefCalendarTemplateDesc(prefs, calendar);
+                            break;
+
+                        case COLUMN_TEMPLATE_LOCATION:
+                            row[j] = SuntimesCalendarSettings.loadPrefCalendarTemplateLocation(prefs, calendar);
+                            break;
+
+                        case COLUMN_TEMPLATE_STRINGS:
+                            row[j] = SuntimesCalendarSettings.loadPrefCalendarStringsValue(prefs, calendar);
+                            break;
+
+                        case COLUMN_TEMPLATE_FLAGS:
+                            row[j] = (calendarObj != null ? joinFlags(SuntimesCalendarSettings.loadPrefCalendarFlags(prefs, calendar, calendarObj.defaultFlags()).getValues()) : null);
+                            break;
+
+                        case COLUMN_TEMPLATE_FLAG_LABELS:
+                            row[j] = (calendarObj != null ? joinFlagLabels(calendarObj) : null);
+                            break;
+
+                        default:
+                            row[j] = null;
+                            break;
+                    }
+                }
+                cursor.addRow(row);
+            }
+
+        } else Log.w(TAG, "context is null!");
+        return cursor;
+    }
+
+    protected static String joinFlags(boolean[] flags)
+    {
+        StringBuilder s = new StringBuilder();
+        for (int i=0; i<flags.length; i++) {
+            s.append(i == 0 ? "" : STRINGS_DELIMITER).append(flags[i]);
+        }
+        return s.toString();
+    }
+
+    protected static String joinFlagLabels(@NonNull SuntimesCalendar calendar)
+    {
+        StringBuilder s = new StringBuilder();
+        int n = calendar.defaultFlags().getValues().length;
+        for (int i=0; i<n; i++) {
+            s.append(i == 0 ? "" : STRINGS_DELIMITER).append(calendar.flagLabel(i));
+        }
+        return s.toString();
+    }
+
     /**
      * queryTemplate
      * @param uri ../template/[calendarName]
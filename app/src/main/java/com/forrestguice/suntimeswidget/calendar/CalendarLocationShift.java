@@ -0,0 +1,82 @@
+/**
+    Copyright (C) 2023 Forrest Guice
+    This file is part of SuntimesCalendars.
+
+    SuntimesCalendars is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    SuntimesCalendars is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with SuntimesCalendars.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package com.forrestguice.suntimeswidget.calendar;
+
+/**
+ * Estimates how far event times move when the location changes; used to decide if a location change is large enough
+ * to regenerate a calendar (see SuntimesCalendarSettings.loadPrefCalendarLocationTolerance).
+ */
+public class CalendarLocationShift
+{
+    public static final double SECONDS_PER_DEGREE = 240;    // 24h / 360 deg
+    public static final double MAX_DECLINATION = 28.6;      // moon's max declination (the sun's is 23.44)
+    public static final double DECLINATION_STEP = 0.5;
+    public static final double[] EVENT_ALTITUDES = new double[] { -0.833, -4, -6, -8, -12, -18, 6 };    // sunrise/sunset, blue hour, twilight, golden hour
+
+    /**
+     * @return the estimated max shift (seconds) of events when moving from location0 to location1, or
+     * POSITIVE_INFINITY if events appear or disappear (e.g. near the poles)
+     */
+    public static double estimateTimeShift(double latitude0, double longitude0, double altitude0, double latitude1, double longitude1, double altitude1)
+    {
+        double shift = 0;
+        for (double altitude : EVENT_ALTITUDES)
+        {
+            double h0 = altitude - horizonDip(altitude0);
+            double h1 = altitude - horizonDip(altitude1);
+            for (double declination = -MAX_DECLINATION; declination <= MAX_DECLINATION; declination += DECLINATION_STEP)
+            {
+                double hourAngle0 = hourAngle(latitude0, declination, h0);
+                double hourAngle1 = hourAngle(latitude1, declination, h1);
+                if (Double.isNaN(hourAngle0) != Double.isNaN(hourAngle1)) {
+                    return Double.POSITIVE_INFINITY;
+                }
+                if (!Double.isNaN(hourAngle0)) {
+                    shift = Math.max(shift, Math.abs(hourAngle1 - hourAngle0));
+                }
+            }
+        }
+
+        double longitudeShift = Math.abs(((longitude1 - longitude0) % 360 + 540) % 360 - 180);
+        return (shift + longitudeShift) * SECONDS_PER_DEGREE;
+    }
+
+    /**
+     * @param latitude latitude (degrees)
+     * @param declination declination (degrees)
+     * @param altitude altitude of the event (degrees)
+     * @return the hour angle (degrees) at which the event occurs, or NaN if it doesn't occur
+     */
+    public static double hourAngle(double latitude, double declination, double altitude)
+    {
+        double phi = Math.toRadians(latitude);
+        double delta = Math.toRadians(declination);
+        double cosH = (Math.sin(Math.toRadians(altitude)) - Math.sin(phi) * Math.sin(delta)) / (Math.cos(phi) * Math.cos(delta));
+        return (cosH >= -1 && cosH <= 1) ? Math.toDegrees(Math.acos(cosH)) : Double.NaN;
+    }
+
+    /**
+     * @param altitude observer altitude (meters)
+     * @return dip of the horizon (degrees)
+     */
+    public static double horizonDip(double altitude) {
+        return 0.0293 * Math.sqrt(Math.max(0, altitude));
+    }
+}
@@ -0,0 +1,236 @@
+/**
+    Copyright (C) 2023 Forrest Guice
+    This file is part of SuntimesCalendars.
+
+    SuntimesCalendars is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    SuntimesCalendars is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with SuntimesCalendars.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package com.forrestguice.suntimeswidget.calendar;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import com.forrestguice.suntimeswidget.calculator.core.CalculatorProviderContract;
+import com.forrestguice.suntimeswidget.calculator.embedded.CalculatorResults;
+import com.forrestguice.suntimeswidget.calculator.embedded.EmbeddedCalculator;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.TimeZone;
+
+/**
+ * EmbeddedCalculatorSession
+ * A calculator provider session that answers the queries implemented by EmbeddedCalculator in-process (no IPC); other queries
+ * (config, sunpos, moonpos) still go to the calculator provider.
+ *
+ * With verification enabled each embedded result is compared against the provider's; when they disagree (by more than the query's
+ * tolerance) the provider's result is used and the mismatch is counted (see getMismatches). The provider's result is also logged as
+ * a fixture (see CalculatorResults.Fixture) so it can be added to the :core tests.
+ */
+@SuppressWarnings("Convert2Diamond")
+public class EmbeddedCalculatorSession extends ProviderSession
+{
+    public static final String TAG = "EmbeddedCalculator";
+
+    public static final long TOLERANCE_SUN = 2 * 60 * 1000;           // ms
+    public static final long TOLERANCE_MOON = 5 * 60 * 1000;
+    public static final long TOLERANCE_MOONPHASE = 5 * 60 * 1000;
+    public static final long TOLERANCE_SEASONS = 15 * 60 * 1000;
+
+    protected final boolean verify;
+    protected EmbeddedCalculator calculator = null;
+    protected double latitude, longitude;
+    protected TimeZone timezone;
+    protected int mismatches = 0;
+
+    public EmbeddedCalculatorSession(@NonNull ContentResolver resolver, boolean verify)
+    {
+        super(resolver, CalculatorProviderContract.AUTHORITY);
+        this.verify = verify;
+    }
+
+    /**
+     * Sets the location used by embedded queries; until a location is set all queries go to the provider.
+     */
+    public void setLocation(double latitude, double longitude, @NonNull TimeZone timezone)
+    {
+        this.latitude = latitude;
+        this.longitude = longitude;
+        this.timezone = timezone;
+        calculator = new EmbeddedCalculator(latitude, longitude, timezone);
+    }
+
+    public boolean isVerifying() {
+        return verify;
+    }
+
+    /**
+     * @return the number of values that differed from the provider's (when verifying)
+     */
+    public int getMismatches() {
+        return mismatches;
+    }
+
+    @Nullable
+    @Override
+    protected Cursor query(@NonNull Uri uri, @Nullable String[] projection, @Nullable String selection, @Nullable String[] selectionArgs, @Nullable String sortOrder, @Nullable Object signal) throws SecurityException
+    {
+        List<String> segments = uri.getPathSegments();
+        String query = (segments.isEmpty() ? null : segments.get(0));
+        if (calculator == null || query == null || !EmbeddedCalculator.supportsQuery(query)) {
+            return super.query(uri, projection, selection, selectionArgs, sortOrder, signal);
+        }
+
+        long[] range = parseRange(query, (segments.size() > 1 ? segments.get(1) : null));
+        if (range == null)
+        {
+            Log.e(TAG, "query: unrecognized uri: " + uri);
+            return null;
+        }
+
+        String[] columns = (projection != null ? projection : EmbeddedCalculator.defaultProjection(query));
+        List<Object[]> rows = calculator.query(query, range, columns);
+        MatrixCursor cursor = new MatrixCursor(columns, rows.size());
+        for (Object[] row : rows) {
+            cursor.addRow(row);
+        }
+        return (verify ? verify(cursor, columns, rows, query, range, uri, projection, selection, selectionArgs, sortOrder, signal) : cursor);
+    }
+
+    /**
+     * @return the embedded cursor if it agrees with the provider, otherwise the provider's cursor
+     */
+    protected Cursor verify(@NonNull Cursor embedded, @NonNull String[] columns, @NonNull List<Object[]> rows, String query, long[] range, @NonNull Uri uri, @Nullable String[] projection, @Nullable String selection, @Nullable String[] selectionArgs, @Nullable String sortOrder, @Nullable Object signal)
+    {
+        Cursor external = super.query(uri, projection, selection, selectionArgs, sortOrder, signal);
+        if (external == null)
+        {
+            Log.w(TAG, "verify: provider unavailable; using unverified result for " + uri);
+            return embedded;
+        }
+
+        List<Object[]> externalRows = readRows(external);
+        int differences = CalculatorResults.compare(columns, rows, external.getColumnNames(), externalRows, tolerance(query));
+        if (differences > 0)
+        {
+            mismatches += differences;
+            Log.w(TAG, "verify: " + differences + " values differ from the provider; using the provider's result for " + uri);
+            logFixture(query, range, external.getColumnNames(), externalRows);
+            embedded.close();
+            external.moveToPosition(-1);
+            return external;
+
+        } else {
+            external.close();
+            embedded.moveToPosition(-1);
+            return embedded;
+        }
+    }
+
+    /**
+     * Logs the provider's result as a fixture (see CalculatorResults.Fixture).
+     */
+    protected void logFixture(String query, long[] range, String[] columns, List<Object[]> rows)
+    {
+        CalculatorResults.Fixture fixture = new CalculatorResults.Fixture();
+        fixture.query = query;
+        fixture.range = range;
+        fixture.latitude = latitude;
+        fixture.longitude = longitude;
+        fixture.timezone = timezone;
+        fixture.columns = columns;
+        fixture.rows.addAll(rows);
+        for (String line : fixture.write().split("\n")) {
+            Log.d(TAG, "fixture: " + line);
+        }
+    }
+
+    /**
+     * @return the cursor's rows; values are Long (integers), Double (floats), String, byte[] (blobs), or null
+     */
+    protected static List<Object[]> readRows(@NonNull Cursor cursor)
+    {
+        ArrayList<Object[]> rows = new ArrayList<>();
+        int n = cursor.getColumnCount();
+        cursor.moveToPosition(-1);
+        while (cursor.moveToNext())
+        {
+            Object[] row = new Object[n];
+            for (int i=0; i<n; i++)
+            {
+                switch (cursor.getType(i))
+                {
+                    case Cursor.FIELD_TYPE_INTEGER: row[i] = cursor.getLong(i); break;
+                    case Cursor.FIELD_TYPE_FLOAT: row[i] = cursor.getDouble(i); break;
+                    case Cursor.FIELD_TYPE_STRING: row[i] = cursor.getString(i); break;
+                    case Cursor.FIELD_TYPE_BLOB: row[i] = cursor.getBlob(i); break;
+                    case Cursor.FIELD_TYPE_NULL: default: row[i] = null; break;
+                }
+            }
+            rows.add(row);
+        }
+        return rows;
+    }
+
+    protected static long tolerance(String query)
+    {
+        switch (query)
+        {
+            case CalculatorProviderContract.QUERY_MOON: return TOLERANCE_MOON;
+            case CalculatorProviderContract.QUERY_MOONPHASE: return TOLERANCE_MOONPHASE;
+            case CalculatorProviderContract.QUERY_SEASONS: return TOLERANCE_SEASONS;
+            case CalculatorProviderContract.QUERY_SUN: default: return TOLERANCE_SUN;
+        }
+    }
+
+    /**
+     * @param value uri segment; "[start]-[end]", "[start]", or null (now, or this year)
+     * @return [start, end]; timestamps, or years (QUERY_SEASONS); null if the segment is malformed
+     */
+    @Nullable
+    protected static long[] parseRange(String query, @Nullable String value)
+    {
+        if (value == null)
+        {
+            long now = System.currentTimeMillis();
+            if (CalculatorProviderContract.QUERY_SEASONS.equals(query)) {
+                now = Calendar.getInstance().get(Calendar.YEAR);
+            }
+            return new long[] { now, now };
+        }
+
+        try {
+            int i = value.indexOf('-', 1);
+            if (i < 0) {
+                long v = Long.parseLong(value);
+                return new long[] { v, v };
+            } else return new long[] { Long.parseLong(value.substring(0, i)), Long.parseLong(value.substring(i + 1)) };
+
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "EmbeddedCalculatorSession{verify=" + verify + ", mismatches=" + mismatches + ", restarts=" + restarts + "}";
+    }
+}
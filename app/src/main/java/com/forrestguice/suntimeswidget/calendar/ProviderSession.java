@@ -0,0 +1,639 @@
+/**
+    Copyright (C) 2023 Forrest Guice
+    This file is part of SuntimesCalendars.
+
+    SuntimesCalendars is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    SuntimesCalendars is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with SuntimesCalendars.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.forrestguice.suntimeswidget.calendar;
+
+import android.annotation.TargetApi;
+import android.content.ContentProviderClient;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.OperationApplicationException;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Build;
+import android.os.CancellationSignal;
+import android.os.DeadObjectException;
+import android.os.ParcelFileDescriptor;
+import android.os.RemoteException;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * ProviderSession
+ * An unstable ContentProviderClient that is held for the duration of a task (rather than acquired and released by each query).
+ * If the provider's process dies the client is re-acquired, and queries are retried (with exponential backoff).
+ * Falls back to the ContentResolver on api 15 and below (where unstable clients aren't available).
+ *
+ * A session with a timeout (see setTimeout) runs each query (and read) with a deadline; a query that misses its deadline is
+ * cancelled (CancellationSignal) and abandoned, and ProviderTimeoutException is thrown.
+ */
+@SuppressWarnings("Convert2Diamond")
+public class ProviderSession
+{
+    public static final String TAG = "ProviderSession";
+
+    public static final int MAX_RETRIES = 3;
+    public static final long RETRY_DELAY = 250;    // ms; doubled after each retry
+
+    /**
+     * Reads a query's cursor; a read that fails because the provider died is retried using a new cursor.
+     */
+    public interface CursorReader<T>
+    {
+        @Nullable
+        T readCursor(@NonNull Cursor cursor);
+    }
+
+    /**
+     * Reads a stream opened by `read`; a read that fails because the provider died is retried using a new stream.
+     */
+    public interface StreamReader<T>
+    {
+        @Nullable
+        T readStream(@NonNull InputStream in) throws IOException;
+    }
+
+    /**
+     * Thrown when a query misses its deadline (see setTimeout).
+     */
+    public static class ProviderTimeoutException extends RuntimeException
+    {
+        public ProviderTimeoutException(String message) {
+            super(message);
+        }
+    }
+
+    protected final ContentResolver resolver;
+    protected final String authority;
+    protected ContentProviderClient client = null;
+    protected boolean closed = false;
+    protected int restarts = 0;
+    protected long timeout = 0;
+    protected ExecutorService executor = null;
+
+    public ProviderSession(@NonNull ContentResolver resolver, @NonNull String authority)
+    {
+        this.resolver = resolver;
+        this.authority = authority;
+    }
+
+    public String getAuthority() {
+        return authority;
+    }
+
+    /**
+     * @return the number of times the provider was re-acquired (after it died)
+     */
+    public int getRestarts() {
+        return restarts;
+    }
+
+    /**
+     * @param millis deadline for each query (including reading its cursor), or 0 for no deadline
+     */
+    public void setTimeout(long millis) {
+        timeout = millis;
+    }
+    public long getTimeout() {
+        return timeout;
+    }
+
+    @Nullable
+    protected synchronized ContentProviderClient acquire()
+    {
+        if (closed || Build.VERSION.SDK_INT < 16) {
+            return null;
+        }
+        if (client == null) {
+            client = acquireUnstable(resolver, authority);
+        }
+        return client;
+    }
+
+    @TargetApi(16)
+    protected static ContentProviderClient acquireUnstable(ContentResolver resolver, String authority) {
+        return resolver.acquireUnstableContentProviderClient(authority);
+    }
+
+    /**
+     * Drops the current client (its provider died); the next call acquires a new one.
+     */
+    protected synchronized void restart()
+    {
+        if (client != null)
+        {
+            client.release();
+            client = null;
+            restarts++;
+            Log.w(TAG, "restart: " + authority + " died; re-acquiring.. (" + restarts + ")");
+        }
+    }
+
+    /**
+     * Releases the client; further calls go through the ContentResolver.
+     */
+    public synchronized void close()
+    {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+        if (client != null) {
+            client.release();
+            client = null;
+        }
+        closed = true;
+    }
+
+    /**
+     * @return a cursor (or null if the query fails); the caller closes the cursor
+     */
+    @Nullable
+    public Cursor query(@NonNull Uri uri, @Nullable String[] projection, @Nullable String selection, @Nullable String[] selectionArgs, @Nullable String sortOrder) throws SecurityException {
+        return query(uri, projection, selection, selectionArgs, sortOrder, (Object) null);
+    }
+
+    /**
+     * @param signal a CancellationSignal (api 16+), or null
+     */
+    @Nullable
+    protected Cursor query(@NonNull Uri uri, @Nullable String[] projection, @Nullable String selection, @Nullable String[] selectionArgs, @Nullable String sortOrder, @Nullable Object signal) throws SecurityException
+    {
+        long delay = RETRY_DELAY;
+        for (int attempt = 0; attempt <= MAX_RETRIES; attempt++)
+        {
+            ContentProviderClient provider = acquire();
+            if (provider == null) {
+                return resolver.query(uri, projection, selection, selectionArgs, sortOrder);
+            }
+            try {
+                return (signal != null) ? query(provider, uri, projection, selection, selectionArgs, sortOrder, signal)
+                                        : provider.query(uri, projection, selection, selectionArgs, sortOrder);
+
+            } catch (DeadObjectException e) {
+                restart();
+                delay = backoff(delay);
+
+            } catch (RemoteException e) {
+                Log.e(TAG, "query: failed to query " + uri + ": " + e);
+                return null;
+            }
+        }
+        Log.e(TAG, "query: giving up on " + uri + " after " + MAX_RETRIES + " retries");
+        return null;
+    }
+
+    /**
+     * Queries and reads the cursor (the cursor is closed afterward). If the provider dies while the cursor is being read,
+     * the query is made again and the reader is given the new cursor.
+     * @return the value returned by the reader, or null if the query fails
+     */
+    @Nullable
+    public <T> T query(@NonNull final Uri uri, @Nullable final String[] projection, @Nullable final String selection, @Nullable final String[] selectionArgs, @Nullable final String sortOrder, @NonNull final CursorReader<T> reader) throws SecurityException
+    {
+        if (timeout <= 0) {
+            return query(uri, projection, selection, selectionArgs, sortOrder, reader, null);
+        }
+
+        final Object signal = createCancellationSignal();
+        try {
+            return withDeadline(uri, signal, new Callable<T>()
+            {
+                @Override
+                public T call() {
+                    return query(uri, projection, selection, selectionArgs, sortOrder, reader, signal);
+                }
+            });
+        } catch (IOException e) {
+            throw new RuntimeException(e);    // unreachable; queries don't throw IOException
+        }
+    }
+
+    /**
+     * Runs the call on the session's worker; if it misses the deadline the signal is cancelled and the worker is abandoned.
+     */
+    @Nullable
+    protected <T> T withDeadline(@NonNull Uri uri, @Nullable Object signal, @NonNull Callable<T> call) throws IOException
+    {
+        if (executor == null) {
+            executor = Executors.newSingleThreadExecutor();
+        }
+        Future<T> future = executor.submit(call);
+
+        try {
+            return future.get(timeout, TimeUnit.MILLISECONDS);
+
+        } catch (TimeoutException e) {
+            cancel(signal);
+            future.cancel(true);
+            executor.shutdownNow();    // the worker may still be blocked by the provider; it is abandoned
+            executor = null;
+            throw new ProviderTimeoutException(authority + " did not respond within " + timeout + "ms; " + uri);
+
+        } catch (ExecutionException e) {
+            throw rethrow(e);
+
+        } catch (InterruptedException e) {
+            cancel(signal);
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    protected static IOException rethrow(@NonNull ExecutionException e) throws IOException
+    {
+        Throwable cause = e.getCause();
+        if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+        } else if (cause instanceof IOException) {
+            return (IOException) cause;
+        } else throw new RuntimeException(cause);
+    }
+
+    @Nullable
+    protected <T> T query(@NonNull Uri uri, @Nullable String[] projection, @Nullable String selection, @Nullable String[] selectionArgs, @Nullable String sortOrder, @NonNull CursorReader<T> reader, @Nullable Object signal) throws SecurityException
+    {
+        long delay = RETRY_DELAY;
+        for (int attempt = 0; attempt <= MAX_RETRIES; attempt++)
+        {
+            Cursor cursor = query(uri, projection, selection, selectionArgs, sortOrder, signal);
+            if (cursor == null) {
+                return null;
+            }
+            try {
+                return reader.readCursor(cursor);
+
+            } catch (RuntimeException e) {
+                if (client != null && isDead(uri)) {
+                    restart();
+                    delay = backoff(delay);
+                } else throw e;
+
+            } finally {
+                cursor.close();
+            }
+        }
+        Log.e(TAG, "query: giving up on " + uri + " after " + MAX_RETRIES + " retries");
+        return null;
+    }
+
+    /**
+     * Opens the uri (openFile) and reads the stream (the stream is closed afterward). If the provider dies while the stream
+     * is being read, the uri is opened again and the reader is given the new stream.
+     * @return the value returned by the reader, or null if the provider doesn't support openFile for this uri (or it throws)
+     * @throws IOException if the stream can't be read
+     */
+    @Nullable
+    public <T> T read(@NonNull final Uri uri, @NonNull final StreamReader<T> reader) throws IOException, SecurityException
+    {
+        if (timeout <= 0) {
+            return read(uri, reader, null);
+        }
+
+        final Object signal = createCancellationSignal();
+        return withDeadline(uri, signal, new Callable<T>()
+        {
+            @Override
+            public T call() throws IOException {
+                return read(uri, reader, signal);
+            }
+        });
+    }
+
+    /**
+     * Opens and reads the uri on the session's worker (see read) without waiting for it. The read has no deadline of its own;
+     * the caller polls it (isDone), and abandons it if it takes too long.
+     */
+    @NonNull
+    public <T> PendingRead<T> readAsync(@NonNull final Uri uri, @NonNull final StreamReader<T> reader)
+    {
+        if (executor == null) {
+            executor = Executors.newSingleThreadExecutor();
+        }
+        final Object signal = createCancellationSignal();
+        Future<T> future = executor.submit(new Callable<T>()
+        {
+            @Override
+            public T call() throws IOException {
+                return read(uri, reader, signal);
+            }
+        });
+        return new PendingRead<T>(uri, future, signal);
+    }
+
+    /**
+     * A read started by readAsync.
+     */
+    public class PendingRead<T>
+    {
+        protected final Uri uri;
+        protected final Future<T> future;
+        protected final Object signal;
+
+        protected PendingRead(@NonNull Uri uri, @NonNull Future<T> future, @Nullable Object signal)
+        {
+            this.uri = uri;
+            this.future = future;
+            this.signal = signal;
+        }
+
+        public boolean isDone() {
+            return future.isDone();
+        }
+
+        /**
+         * @return the value returned by the reader (see read); waits for the read to finish
+         */
+        @Nullable
+        public T get() throws IOException, SecurityException
+        {
+            try {
+                return future.get();
+
+            } catch (ExecutionException e) {
+                throw rethrow(e);
+
+            } catch (InterruptedException e) {
+                abandon();
+                Thread.currentThread().interrupt();
+                return null;
+            }
+        }
+
+        /**
+         * Cancels the read; the worker is abandoned (it may still be blocked by the provider).
+         */
+        public void abandon()
+        {
+            cancel(signal);
+            future.cancel(true);
+            synchronized (ProviderSession.this)
+            {
+                if (executor != null) {
+                    executor.shutdownNow();
+                    executor = null;
+                }
+            }
+            Log.w(TAG, "abandon: " + uri);
+        }
+    }
+
+    @Nullable
+    protected <T> T read(@NonNull Uri uri, @NonNull StreamReader<T> reader, @Nullable Object signal) throws IOException, SecurityException
+    {
+        long delay = RETRY_DELAY;
+        for (int attempt = 0; attempt <= MAX_RETRIES; attempt++)
+        {
+            ParcelFileDescriptor descriptor;
+            try {
+                descriptor = openFile(uri, signal);
+            } catch (FileNotFoundException e) {
+                return null;
+            } catch (SecurityException e) {
+                throw e;
+            } catch (RuntimeException e) {    // e.g. UnsupportedOperationException from a provider that doesn't implement openFile
+                Log.w(TAG, "read: " + uri + " can't be opened: " + e);
+                return null;
+            }
+            if (descriptor == null) {
+                return null;
+            }
+
+            InputStream in = new ParcelFileDescriptor.AutoCloseInputStream(descriptor);
+            try {
+                return reader.readStream(new BufferedInputStream(in));
+
+            } catch (IOException e) {
+                if (client != null && isDead(uri)) {
+                    restart();
+                    delay = backoff(delay);
+                } else throw e;
+
+            } finally {
+                in.close();
+            }
+        }
+        Log.e(TAG, "read: giving up on " + uri + " after " + MAX_RETRIES + " retries");
+        return null;
+    }
+
+    @Nullable
+    protected ParcelFileDescriptor openFile(@NonNull Uri uri, @Nullable Object signal) throws FileNotFoundException, SecurityException
+    {
+        long delay = RETRY_DELAY;
+        for (int attempt = 0; attempt <= MAX_RETRIES; attempt++)
+        {
+            ContentProviderClient provider = acquire();
+            if (provider == null) {
+                return resolver.openFileDescriptor(uri, "r");
+            }
+            try {
+                return (signal != null) ? openFile(provider, uri, signal) : provider.openFile(uri, "r");
+
+            } catch (DeadObjectException e) {
+                restart();
+                delay = backoff(delay);
+
+            } catch (RemoteException e) {
+                Log.e(TAG, "openFile: failed to open " + uri + ": " + e);
+                return null;
+            }
+        }
+        Log.e(TAG, "openFile: giving up on " + uri + " after " + MAX_RETRIES + " retries");
+        return null;
+    }
+
+    /**
+     * Inserts a row. An insert isn't retried (it may have been applied before the provider died), but the client is
+     * re-acquired for the next call.
+     * @return the uri of the new row, or null if the insert fails
+     */
+    @Nullable
+    public Uri insert(@NonNull Uri uri, @Nullable ContentValues values) throws SecurityException
+    {
+        ContentProviderClient provider = acquire();
+        if (provider == null) {
+            return resolver.insert(uri, values);
+        }
+        try {
+            return provider.insert(uri, values);
+
+        } catch (DeadObjectException e) {
+            restart();
+            Log.e(TAG, "insert: failed to insert " + uri + ": " + e);
+            return null;
+
+        } catch (RemoteException e) {
+            Log.e(TAG, "insert: failed to insert " + uri + ": " + e);
+            return null;
+        }
+    }
+
+    /**
+     * Updates rows; the update is retried if the provider dies (updates are idempotent).
+     * @return the number of rows updated
+     */
+    public int update(@NonNull Uri uri, @Nullable ContentValues values, @Nullable String selection, @Nullable String[] selectionArgs) throws SecurityException
+    {
+        long delay = RETRY_DELAY;
+        for (int attempt = 0; attempt <= MAX_RETRIES; attempt++)
+        {
+            ContentProviderClient provider = acquire();
+            if (provider == null) {
+                return resolver.update(uri, values, selection, selectionArgs);
+            }
+            try {
+                return provider.update(uri, values, selection, selectionArgs);
+
+            } catch (DeadObjectException e) {
+                restart();
+                delay = backoff(delay);
+
+            } catch (RemoteException e) {
+                Log.e(TAG, "update: failed to update " + uri + ": " + e);
+                return 0;
+            }
+        }
+        Log.e(TAG, "update: giving up on " + uri + " after " + MAX_RETRIES + " retries");
+        return 0;
+    }
+
+    /**
+     * Deletes rows; the delete is retried if the provider dies (deletes are idempotent).
+     * @return the number of rows deleted
+     */
+    public int delete(@NonNull Uri uri, @Nullable String selection, @Nullable String[] selectionArgs) throws SecurityException
+    {
+        long delay = RETRY_DELAY;
+        for (int attempt = 0; attempt <= MAX_RETRIES; attempt++)
+        {
+            ContentProviderClient provider = acquire();
+            if (provider == null) {
+                return resolver.delete(uri, selection, selectionArgs);
+            }
+            try {
+                return provider.delete(uri, selection, selectionArgs);
+
+            } catch (DeadObjectException e) {
+                restart();
+                delay = backoff(delay);
+
+            } catch (RemoteException e) {
+                Log.e(TAG, "delete: failed to delete " + uri + ": " + e);
+                return 0;
+            }
+        }
+        Log.e(TAG, "delete: giving up on " + uri + " after " + MAX_RETRIES + " retries");
+        return 0;
+    }
+
+    /**
+     * Applies a batch of operations. A batch isn't retried (it may have been applied before the provider died), but the
+     * client is re-acquired for the next call.
+     * @return results, or null if the batch fails
+     */
+    @Nullable
+    public ContentProviderResult[] applyBatch(@NonNull ArrayList<ContentProviderOperation> batch) throws SecurityException, RemoteException, OperationApplicationException
+    {
+        ContentProviderClient provider = acquire();
+        if (provider == null) {
+            return resolver.applyBatch(authority, batch);
+        }
+        try {
+            return provider.applyBatch(batch);
+
+        } catch (DeadObjectException e) {
+            restart();
+            throw e;
+        }
+    }
+
+    @Nullable
+    protected static Object createCancellationSignal() {
+        return (Build.VERSION.SDK_INT >= 16) ? new CancellationSignal() : null;
+    }
+
+    @TargetApi(16)
+    protected static void cancel(@Nullable Object signal)
+    {
+        if (signal != null) {
+            ((CancellationSignal) signal).cancel();
+        }
+    }
+
+    @TargetApi(16)
+    protected static ParcelFileDescriptor openFile(ContentProviderClient provider, Uri uri, Object signal) throws RemoteException, FileNotFoundException {
+        return provider.openFile(uri, "r", (CancellationSignal) signal);
+    }
+
+    @TargetApi(16)
+    protected static Cursor query(ContentProviderClient provider, Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder, Object signal) throws RemoteException {
+        return provider.query(uri, projection, selection, selectionArgs, sortOrder, (CancellationSignal) signal);
+    }
+
+    /**
+     * @return true if the provider's process is gone
+     */
+    protected boolean isDead(Uri uri)
+    {
+        ContentProviderClient provider = client;
+        if (provider == null) {
+            return false;
+        }
+        try {
+            provider.getType(uri);
+            return false;
+        } catch (DeadObjectException e) {
+            return true;
+        } catch (RemoteException | RuntimeException e) {
+            return false;
+        }
+    }
+
+    protected static long backoff(long delay)
+    {
+        try {
+            Thread.sleep(delay);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return delay * 2;
+    }
+
+    @Override
+    public String toString() {
+        return "ProviderSession{" + authority + ", restarts=" + restarts + "}";
+    }
+}
@@ -83,6 +83,7 @@ import android.widget.Toast;
 import com.forrestguice.suntimescalendars.R;
 import com.forrestguice.suntimeswidget.calculator.core.CalculatorProviderContract;
 import com.forrestguice.suntimeswidget.calendar.task.SuntimesCalendar;
+import com.forrestguice.suntimeswidget.calendar.task.SuntimesCalendarReminderReceiver;
 import com.forrestguice.suntimeswidget.calendar.task.SuntimesCalendarTaskBase;
 import com.forrestguice.suntimeswidget.calendar.task.SuntimesCalendarTaskItem;
 import com.forrestguice.suntimeswidget.calendar.task.SuntimesCalendarTaskListener;
@@ -811,6 +812,7 @@ public class SuntimesCalendarActivity extends AppCompatActivity
     public static class CalendarPrefsFragment extends CalendarPrefsFragmentBase
     {
         private TwoStatePreference calendarsEnabledPref = null;
+        private Preference reminderHorizonPref = null;
         public TwoStatePreference getCalendarsEnabledPref() {
             return calendarsEnabledPref;
         }
@@ -915,6 +917,7 @@ public class SuntimesCalendarActivity extends AppCompatActivity
 
             final Context context = getActivity();
             calendarsEnabledPref = (TwoStatePreference) findPreference(SuntimesCalendarSettings.PREF_KEY_CALENDARS_ENABLED);
+            reminderHorizonPref = findPreference(SuntimesCalendarSettings.PREF_KEY_CALENDARS_REMINDER_HORIZON);
             for (final SuntimesCalendarDescriptor descriptor : SuntimesCalendarDescriptor.getDescriptors(context))
             {
                 if (descriptor == null) {
@@ -1237,6 +1240,9 @@ public class SuntimesCalendarActivity extends AppCompatActivity
                 return;
 
             calendarsEnabledPref.setOnPreferenceChangeListener(onPreferenceChanged0(activity));
+            if (reminderHorizonPref != null) {
+                reminderHorizonPref.setOnPreferenceChangeListener(onReminderHorizonChanged(activity));
+            }
             for (String calendar : calendarPrefs.keySet())
             {
                 CheckBoxPreference calendarPref = calendarPrefs.get(calendar);
@@ -1249,6 +1255,9 @@ public class SuntimesCalendarActivity extends AppCompatActivity
         private void clearPrefListeners()
         {
             calendarsEnabledPref.setOnPreferenceChangeListener(null);
+            if (reminderHorizonPref != null) {
+                reminderHorizonPref.setOnPreferenceChangeListener(null);
+            }
             for (String calendar : calendarPrefs.keySet())
             {
                 CheckBoxPreference calendarPref = calendarPrefs.get(calendar);
@@ -1303,13 +1312,14 @@ public class SuntimesCalendarActivity extends AppCompatActivity
                     {
                         boolean enabled0 = false;
                         int color0 = -1;
-                        Cursor cursor = adapter.queryCalendar(calendar);
+                        ArrayList<String> names = adapter.queryCalendarNames(calendar);    // the calendar (or its year shards)
+                        Cursor cursor = adapter.queryCalendar(names.isEmpty() ? calendar : names.get(names.size() - 1));
                         if (cursor != null)
                         {
                             cursor.moveToFirst();
                             if (cursor.getCount() > 0)
                             {
-                                enabled0 = true;
+                                enabled0 = !SuntimesCalendarSettings.isCalendarHiddenByApp(activity, calendar);    // calendars we hid are disabled (calendars hidden by the user are not)
                                 color0 = cursor.getInt(SuntimesCalendarAdapter.PROJECTION_CALENDAR_COLOR_INDEX);
                             } else {
                                 enabled0 = false;
@@ -1364,6 +1374,55 @@ public class SuntimesCalendarActivity extends AppCompatActivity
             return calendarTaskService.runCalendarTask(activity, taskIntent, false, true, calendarTaskListener);
         }
 
+        /**
+         * Applies a changed reminder horizon to the existing events of enabled calendars (see SuntimesCalendarTaskItem.ACTION_REMINDERS_HORIZON).
+         * @return true if the task was started (or there is nothing to update), false if the service is busy
+         */
+        protected boolean runCalendarTask3(Activity activity)
+        {
+            ArrayList<SuntimesCalendarTaskItem> items = new ArrayList<>();
+            for (String calendar : SuntimesCalendarDescriptor.getCalendars(activity)) {
+                if (SuntimesCalendarSettings.loadPrefCalendarEnabled(activity, calendar) && SuntimesCalendarSettings.loadPrefCalendarReminders(activity, calendar) != null) {
+                    items.add(new SuntimesCalendarTaskItem(calendar, SuntimesCalendarTaskItem.ACTION_REMINDERS_HORIZON));
+                }
+            }
+            if (items.isEmpty()) {
+                return true;
+            }
+
+            Intent taskIntent = new Intent(getActivity(), SuntimesCalendarSyncService.class);
+            taskIntent.setAction( SuntimesCalendarTaskService.ACTION_UPDATE_REMINDERS );
+            savePendingItems(activity, taskIntent, items);
+            return (calendarTaskService != null && calendarTaskService.runCalendarTask(activity, taskIntent, false, true, calendarTaskListener));
+        }
+
+        private Preference.OnPreferenceChangeListener onReminderHorizonChanged(final Activity activity)
+        {
+            return new Preference.OnPreferenceChangeListener()
+            {
+                @Override
+                public boolean onPreferenceChange(Preference preference, Object newValue)
+                {
+                    final long duration;
+                    try {
+                        duration = Math.max(0, Long.parseLong(newValue.toString()));
+                    } catch (NumberFormatException e) {
+                        return false;
+                    }
+
+                    SharedPreferences.Editor prefs = PreferenceManager.getDefaultSharedPreferences(activity).edit();
+                    prefs.putString(SuntimesCalendarSettings.PREF_KEY_CALENDARS_REMINDER_HORIZON, newValue.toString());    // saved now so the task sees the new value
+                    prefs.apply();
+
+                    SuntimesCalendarReminderReceiver.scheduleRollReminders(activity, duration);
+                    if (SuntimesCalendarSettings.loadCalendarsEnabledPref(activity) && !runCalendarTask3(activity)) {
+                        Log.w(TAG, "onReminderHorizonChanged: busy; existing reminders were not updated (the horizon is rolled daily)");
+                    }
+                    return true;
+                }
+            };
+        }
+
         private Preference.OnPreferenceChangeListener onPreferenceChanged0(final Activity activity)
         {
             return new Preference.OnPreferenceChangeListener()
@@ -1603,6 +1662,11 @@ public class SuntimesCalendarActivity extends AppCompatActivity
                 dismissSnackbar();
             }
 
+            @Override
+            public void onUsable(Context context, SuntimesCalendarTaskBase task) {
+                showSnackbar(context.getString(R.string.calendars_notification_usable));
+            }
+
             @Override
             public void onSuccess(Context context, SuntimesCalendarTaskBase task, String message) {
                 showSnackbar(message);
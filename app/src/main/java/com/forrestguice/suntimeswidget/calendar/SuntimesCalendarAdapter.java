@@ -19,20 +19,34 @@
 package com.forrestguice.suntimeswidget.calendar;
 
 import android.annotation.TargetApi;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
+import android.content.OperationApplicationException;
 import android.database.Cursor;
 import android.database.DatabaseUtils;
 import android.net.Uri;
 import android.os.Build;
+import android.os.RemoteException;
 import android.provider.CalendarContract;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.util.Log;
 
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.TreeMap;
 
 @TargetApi(14)
 public class SuntimesCalendarAdapter
@@ -54,26 +68,114 @@ public class SuntimesCalendarAdapter
     private ContentResolver contentResolver;
     private String[] calendars = new String[0];
 
+    private final HashMap<String, Long> calendarIDs = new HashMap<>();    // calendarName -> calendarID
+    private volatile boolean calendarIDs_valid = false;
+
     public SuntimesCalendarAdapter(ContentResolver contentResolver, String[] calendars)
     {
         this.contentResolver = contentResolver;
         this.calendars = calendars;
     }
 
+    /**
+     * Queries, writes, and batches go through this session (if set) instead of acquiring the calendar provider for each call.
+     */
+    @Nullable
+    private ProviderSession providerSession = null;
+
+    public void setProviderSession(@Nullable ProviderSession session) {
+        providerSession = session;
+    }
+
+    protected Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) throws SecurityException {
+        return (providerSession != null) ? providerSession.query(uri, projection, selection, selectionArgs, sortOrder)
+                                         : contentResolver.query(uri, projection, selection, selectionArgs, sortOrder);
+    }
+    protected Uri insert(Uri uri, ContentValues values) throws SecurityException {
+        return (providerSession != null) ? providerSession.insert(uri, values) : contentResolver.insert(uri, values);
+    }
+    protected int update(Uri uri, ContentValues values, String selection, String[] selectionArgs) throws SecurityException {
+        return (providerSession != null) ? providerSession.update(uri, values, selection, selectionArgs) : contentResolver.update(uri, values, selection, selectionArgs);
+    }
+    protected int delete(Uri uri, String selection, String[] selectionArgs) throws SecurityException {
+        return (providerSession != null) ? providerSession.delete(uri, selection, selectionArgs) : contentResolver.delete(uri, selection, selectionArgs);
+    }
+
+    /**
+     * Discards the calendar ID map; it is rebuilt (using a single query) on the next lookup. The map is kept up to date by
+     * the adapter's own creates and removes (the calendar provider notifies its root uri for every event write, so observing
+     * it would discard the map on every batch); adapters that are kept around (e.g. by a task) should call this before use
+     * to pick up changes made by other apps.
+     */
+    public void invalidateCalendarIDs() {
+        calendarIDs_valid = false;
+    }
+
+    /**
+     * @return a map of calendarName to calendarID for all calendars managed by the "Suntimes" local account
+     */
+    protected HashMap<String, Long> getCalendarIDs()
+    {
+        synchronized (calendarIDs)
+        {
+            if (!calendarIDs_valid)
+            {
+                calendarIDs_valid = true;
+                Cursor cursor = queryCalendars();
+                if (cursor != null)
+                {
+                    calendarIDs.clear();
+                    while (cursor.moveToNext()) {
+                        calendarIDs.put(cursor.getString(PROJECTION_NAME_INDEX), cursor.getLong(PROJECTION_ID_INDEX));
+                    }
+                    cursor.close();
+
+                } else {
+                    Log.w(TAG, "getCalendarIDs: failed to query calendars! (null cursor)");
+                    calendarIDs.clear();
+                    calendarIDs_valid = false;
+                }
+            }
+            return calendarIDs;
+        }
+    }
+
     /**
      * Creates a new calender managed by the "Suntimes" local account.
      * @param calendarName the calendar's name
      * @param calendarDisplayName the calendar's display string
      * @param calendarColor the calendar's color (an index into calendar color table)
+     * @return the calendar's ID (or -1 if the calendar could not be created)
      */
-    public void createCalendar(String calendarName, String calendarDisplayName, int calendarColor)
+    public long createCalendar(String calendarName, String calendarDisplayName, int calendarColor)
     {
         Uri uri = SuntimesCalendarSyncAdapter.asSyncAdapter(CalendarContract.Calendars.CONTENT_URI);
         ContentValues contentValues = createCalendarContentValues(calendarName, calendarDisplayName, calendarColor);
-        contentResolver.insert(uri, contentValues);
+        Uri calendarUri = insert(uri, contentValues);
+        long calendarID = (calendarUri != null ? ContentUris.parseId(calendarUri) : -1);
+        if (calendarID != -1)
+        {
+            synchronized (calendarIDs) {
+                calendarIDs.put(calendarName, calendarID);
+            }
+            putEventReminders(calendarName, calendarID);
+        } else invalidateCalendarIDs();
+        return calendarID;
     }
 
+    /**
+     * Updates the color of a calendar (and its year shards).
+     * @return true calendar was updated, false otherwise
+     */
     public boolean updateCalendarColor(String calendarName, int calendarColor)
+    {
+        boolean retValue = false;
+        for (String name : queryCalendarNames(calendarName)) {
+            retValue = updateCalendarColor0(name, calendarColor) || retValue;
+        }
+        return retValue;
+    }
+    protected boolean updateCalendarColor0(String calendarName, int calendarColor)
     {
         Cursor cursor = queryCalendar(calendarName);
         if (cursor != null && cursor.getCount() > 0)
@@ -91,50 +193,196 @@ public class SuntimesCalendarAdapter
                     + CalendarContract.Calendars.ACCOUNT_TYPE + " = ?) AND ("
                     + CalendarContract.Calendars.NAME + " = ?) AND ("
                     + CalendarContract.Calendars.OWNER_ACCOUNT + " = ?))";
-            return (contentResolver.update(uri, values, select, args) > 0);
+            return (update(uri, values, select, args) > 0);
         }
         return false;
     }
 
     /**
-     * Removes all calendars managed by the "Suntimes" local account.
+     * Shows or hides a calendar (without removing its events); hidden calendars are neither displayed nor synced.
+     * @param calendarID calendar ID
+     * @param visible true show calendar, false hide calendar
+     * @return true calendar was updated, false otherwise
      */
-    public boolean removeCalendars()
+    public boolean setCalendarVisible(long calendarID, boolean visible)
     {
-        Cursor cursor = queryCalendars();
+        Uri uri = SuntimesCalendarSyncAdapter.asSyncAdapter(ContentUris.withAppendedId(CalendarContract.Calendars.CONTENT_URI, calendarID));
+        ContentValues values = new ContentValues();
+        values.put(CalendarContract.Calendars.VISIBLE, (visible ? 1 : 0));
+        values.put(CalendarContract.Calendars.SYNC_EVENTS, (visible ? 1 : 0));
+        return (update(uri, values, null, null) > 0);
+    }
+
+    /**
+     * @param calendarID calendar ID
+     * @return the calendar's VISIBLE and SYNC_EVENTS values, or null if the calendar dne
+     */
+    @Nullable
+    public ContentValues queryCalendarVisibility(long calendarID)
+    {
+        Uri uri = SuntimesCalendarSyncAdapter.asSyncAdapter(ContentUris.withAppendedId(CalendarContract.Calendars.CONTENT_URI, calendarID));
+        Cursor cursor = query(uri, new String[] { CalendarContract.Calendars.VISIBLE, CalendarContract.Calendars.SYNC_EVENTS }, null, null, null);
+        ContentValues values = null;
         if (cursor != null)
         {
-            while (cursor.moveToNext())
+            if (cursor.moveToFirst())
             {
-                long calendarID = cursor.getLong(PROJECTION_ID_INDEX);
-                Uri deleteUri = ContentUris.withAppendedId(CalendarContract.Calendars.CONTENT_URI, calendarID);
-                contentResolver.delete(deleteUri, null, null);
-                //Log.d(TAG, "removeCalendars: removed calendar " + calendarID);
+                values = new ContentValues();
+                values.put(CalendarContract.Calendars.VISIBLE, cursor.getInt(0));
+                values.put(CalendarContract.Calendars.SYNC_EVENTS, cursor.getInt(1));
             }
             cursor.close();
-            return true;
-        } else return false;
+        }
+        return values;
+    }
+
+    /**
+     * @param calendarID calendar ID
+     * @return true calendar is visible, false calendar is hidden (or dne)
+     */
+    public boolean isCalendarVisible(long calendarID)
+    {
+        Uri uri = SuntimesCalendarSyncAdapter.asSyncAdapter(ContentUris.withAppendedId(CalendarContract.Calendars.CONTENT_URI, calendarID));
+        Cursor cursor = query(uri, new String[] { CalendarContract.Calendars.VISIBLE }, null, null, null);
+        boolean retValue = false;
+        if (cursor != null)
+        {
+            if (cursor.moveToFirst()) {
+                retValue = (cursor.getInt(0) != 0);
+            }
+            cursor.close();
+        }
+        return retValue;
+    }
+
+    /**
+     * Removes all calendars managed by the "Suntimes" local account.
+     * The calendars are removed using a single (account scoped) delete; the provider is expected to cascade
+     * this to events and reminders. Any events that remain afterward are removed using chunked deletes.
+     * @return true calendars were removed, false otherwise
+     */
+    public boolean removeCalendars()
+    {
+        long[] calendarIDs = queryCalendarIDs();
+        if (calendarIDs == null) {
+            return false;
+        }
+        if (calendarIDs.length > 0)
+        {
+            Uri uri = SuntimesCalendarSyncAdapter.asSyncAdapter(CalendarContract.Calendars.CONTENT_URI);
+            String[] args = new String[] { SuntimesCalendarSyncAdapter.ACCOUNT_NAME, CalendarContract.ACCOUNT_TYPE_LOCAL, SuntimesCalendarSyncAdapter.ACCOUNT_NAME };
+            String select = "((" + CalendarContract.Calendars.ACCOUNT_NAME + " = ?) AND (" + CalendarContract.Calendars.ACCOUNT_TYPE + " = ?) AND (" + CalendarContract.Calendars.OWNER_ACCOUNT + " = ?))";
+            delete(uri, select, args);
+            removeOrphanedEvents(calendarIDs);
+        }
+        synchronized (this.calendarIDs) {
+            this.calendarIDs.clear();
+        }
+        return true;
     }
 
     /**
-     * Removes individual calendars by name.
+     * Removes individual calendars by name (along with any year shards).
      * @param calendar calendar name
      * @return true calendar was removed, false otherwise
      */
-    public boolean removeCalendar(String calendar) {
-        return removeCalendar(queryCalendarID(calendar));
+    public boolean removeCalendar(String calendar)
+    {
+        boolean retValue = false;
+        for (long calendarID : queryCalendarIDs(calendar)) {
+            retValue = removeCalendar(calendarID) || retValue;
+        }
+        return retValue;
     }
     public boolean removeCalendar(long calendarID)
     {
         if (calendarID != -1)
         {
-            Uri deleteUri = ContentUris.withAppendedId(CalendarContract.Calendars.CONTENT_URI, calendarID);
-            contentResolver.delete(deleteUri, null, null);
+            Uri deleteUri = SuntimesCalendarSyncAdapter.asSyncAdapter(ContentUris.withAppendedId(CalendarContract.Calendars.CONTENT_URI, calendarID));
+            delete(deleteUri, null, null);
             //Log.d(TAG, "removeCalendar: removed calendar " + calendarID);
+            removeOrphanedEvents(new long[] { calendarID });
+            synchronized (calendarIDs) {
+                calendarIDs.values().remove(calendarID);
+            }
             return true;
         } else return false;
     }
 
+    /**
+     * Removes events (and their reminders) that still reference the given calendars. The provider normally
+     * removes these when the calendar is deleted, so this is usually a single (empty) query.
+     * @param calendarIDs calendars that have been removed
+     * @return the number of events removed
+     */
+    protected int removeOrphanedEvents(long[] calendarIDs)
+    {
+        ArrayList<Long> eventIDs = new ArrayList<>();
+        Uri eventUri = SuntimesCalendarSyncAdapter.asSyncAdapter(CalendarContract.Events.CONTENT_URI);
+        String[] projection = new String[] { CalendarContract.Events._ID };
+        for (int i=0; i<calendarIDs.length; i += MAX_SELECTION_ARGS)
+        {
+            String[] args = selectionArgs(calendarIDs, i, MAX_SELECTION_ARGS);
+            Cursor cursor = query(eventUri, projection, selectionIn(CalendarContract.Events.CALENDAR_ID, args.length), args, null);
+            if (cursor != null)
+            {
+                while (cursor.moveToNext()) {
+                    eventIDs.add(cursor.getLong(0));
+                }
+                cursor.close();
+            }
+        }
+
+        if (eventIDs.isEmpty()) {
+            return 0;
+        }
+
+        Log.w(TAG, "removeOrphanedEvents: provider did not cascade; removing " + eventIDs.size() + " events..");
+        long[] ids = new long[eventIDs.size()];
+        for (int i=0; i<ids.length; i++) {
+            ids[i] = eventIDs.get(i);
+        }
+        removeInChunks(SuntimesCalendarSyncAdapter.asSyncAdapter(CalendarContract.Reminders.CONTENT_URI), CalendarContract.Reminders.EVENT_ID, ids);
+        return removeInChunks(eventUri, CalendarContract.Events._ID, ids);
+    }
+
+    /**
+     * Deletes rows using `column IN (...)` selections; the ids are split into chunks of MAX_SELECTION_ARGS.
+     * @return the number of rows removed
+     */
+    protected int removeInChunks(Uri uri, String column, long[] ids)
+    {
+        int count = 0;
+        for (int i=0; i<ids.length; i += MAX_SELECTION_ARGS)
+        {
+            String[] args = selectionArgs(ids, i, MAX_SELECTION_ARGS);
+            count += delete(uri, selectionIn(column, args.length), args);
+            throttle();
+        }
+        return count;
+    }
+
+    public static final int MAX_SELECTION_ARGS = 500;    // sqlite limits the number of bound args (999)
+
+    protected static String selectionIn(String column, int n)
+    {
+        StringBuilder select = new StringBuilder("(" + column + " IN (");
+        for (int i=0; i<n; i++) {
+            select.append(i == 0 ? "?" : ",?");
+        }
+        return select.append("))").toString();
+    }
+
+    protected static String[] selectionArgs(long[] values, int offset, int limit)
+    {
+        int n = Math.min(limit, values.length - offset);
+        String[] args = new String[n];
+        for (int i=0; i<n; i++) {
+            args[i] = Long.toString(values[offset + i]);
+        }
+        return args;
+    }
+
     /**
      * @param calendarID the calendar's ID
      * @param title the event title
@@ -144,168 +392,1198 @@ public class SuntimesCalendarAdapter
     public void createCalendarEvent(long calendarID, String title, String description, @Nullable String location, Calendar... time) throws SecurityException
     {
         ContentValues contentValues = createEventContentValues(calendarID, title, description, location, time);
-        contentResolver.insert(CalendarContract.Events.CONTENT_URI, contentValues);
+        insert(CalendarContract.Events.CONTENT_URI, contentValues);
     }
     public void createCalendarEvent(long calendarID, String title, String description, Calendar... time) throws SecurityException {
         createCalendarEvent(calendarID, title, description, null, time);
     }
+    /**
+     * Creates events; if an upsert session is open for the events' calendar (see beginUpsert) the events are merged
+     * with existing events instead.
+     * @param values event values (see createEventContentValues); all values should belong to the same calendar
+     */
     public void createCalendarEvents(@NonNull ContentValues[] values) throws SecurityException
     {
-        contentResolver.bulkInsert(CalendarContract.Events.CONTENT_URI, values);
-    }
+        if (values.length == 0) {
+            return;
+        }
+        Long calendarID = values[0].getAsLong(CalendarContract.Events.CALENDAR_ID);
+        EventUpsert session = (calendarID != null ? upserts.get(calendarID) : null);
+        int[][] reminders = (calendarID != null ? getEventReminders(calendarID) : null);
+        if (session != null) {
+            upsertCalendarEvents(session, values, reminders);
 
-    public boolean createCalendarReminders(@NonNull ContentValues[] values) throws SecurityException {
-        contentResolver.bulkInsert(CalendarContract.Reminders.CONTENT_URI, values);
-        return true;
+        } else {
+            ArrayList<ContentProviderOperation> batch = new ArrayList<>();
+            for (ContentValues v : values) {
+                addInsertEventOperations(batch, v, reminders);
+            }
+            applyBatch(batch);
+        }
     }
 
     /**
-     * removeCalendarEventsBefore
-     * @param calendarID calendar ID
-     * @param timestamp remove all events occurring before timestamp
-     * @return the number of events removed
+     * Inline reminders; reminders (per calendar) that are inserted along with each new event (in the same batch). Reminders are
+     * set by calendar name, and looked up by calendar ID (the IDs of the calendar, its year shards, and its staging calendar are
+     * resolved when the reminders are set, or when one of these calendars is created).
      */
-    public int removeCalendarEventsBefore( long calendarID, long timestamp )
-    {
-        Uri uri = SuntimesCalendarSyncAdapter.asSyncAdapter(CalendarContract.Events.CONTENT_URI);
-        String[] args = new String[] { Long.toString(calendarID), Long.toString(timestamp) };
-        String select = "((" + CalendarContract.Events.CALENDAR_ID + " = ?) AND (" + CalendarContract.Events.DTSTART + " < ?))";
-        return contentResolver.delete(uri, select, args);
-    }
+    protected final HashMap<String, int[][]> eventReminders = new HashMap<>();        // calendarName -> [[minutes, method], ...]
+    protected final HashMap<Long, int[][]> eventRemindersByID = new HashMap<>();      // calendarID -> [[minutes, method], ...]
 
     /**
-     * removeCalendarEventsAt
-     * @param calendarID calendar ID
-     * @param timestamp remove all events occurring on timestamp
-     * @return the number of events removed
+     * @param calendarName calendar name
+     * @param reminders an array of [minutes, method] pairs (or null to disable inline reminders for the calendar)
      */
-    public int removeCalendarEventsAt( long calendarID, long timestamp )
+    public void setEventReminders(String calendarName, @Nullable int[][] reminders)
     {
-        Uri uri = SuntimesCalendarSyncAdapter.asSyncAdapter(CalendarContract.Events.CONTENT_URI);
-        String[] args = new String[] { Long.toString(calendarID), Long.toString(timestamp) };
-        String select = "((" + CalendarContract.Events.CALENDAR_ID + " = ?) AND (" + CalendarContract.Events.DTSTART + " = ?))";
-        return contentResolver.delete(uri, select, args);
+        if (reminders != null) {
+            eventReminders.put(calendarName, reminders);
+        } else eventReminders.remove(calendarName);
+
+        eventRemindersByID.clear();
+        if (!eventReminders.isEmpty())
+        {
+            HashMap<String, Long> map = getCalendarIDs();
+            synchronized (calendarIDs)
+            {
+                for (String name : map.keySet()) {
+                    putEventReminders(name, map.get(name));
+                }
+            }
+        }
     }
 
     /**
-     * removeCalendarEventsAfter
-     * @param calendarID calendar ID
-     * @param timestamp remove all events occurring after timestamp
-     * @return the number of events removed
+     * Adds the calendar to eventRemindersByID if it stores the events of a calendar that has inline reminders.
      */
-    public int removeCalendarEventsAfter( long calendarID, long timestamp )
+    private void putEventReminders(String name, @Nullable Long calendarID)
     {
-        Uri uri = SuntimesCalendarSyncAdapter.asSyncAdapter(CalendarContract.Events.CONTENT_URI);
-        String[] args = new String[] { Long.toString(calendarID), Long.toString(timestamp) };
-        String select = "((" + CalendarContract.Events.CALENDAR_ID + " = ?) AND (" + CalendarContract.Events.DTSTART + " > ?))";
-        return contentResolver.delete(uri, select, args);
+        if (calendarID != null)
+        {
+            for (String calendarName : eventReminders.keySet())
+            {
+                if (isStorageName(calendarName, name)) {
+                    eventRemindersByID.put(calendarID, eventReminders.get(calendarName));
+                    return;
+                }
+            }
+        }
+    }
+
+    @Nullable
+    public int[][] getEventReminders(String calendarName) {
+        return eventReminders.get(calendarName);
+    }
+
+    @Nullable
+    protected int[][] getEventReminders(long calendarID) {
+        return eventRemindersByID.get(calendarID);
     }
 
     /**
-     * queryCalendarEvents
-     * @param calendarID calendar ID
-     * @param timestamp query events with start or end matching timestamp
-     * @return cursor
+     * Reminder horizon; when set, reminders are only added to events starting within the horizon.
      */
-    public Cursor queryCalendarEventsAt( long calendarID, long timestamp )
-    {
-        Uri uri = SuntimesCalendarSyncAdapter.asSyncAdapter(CalendarContract.Events.CONTENT_URI);
-        String[] args = new String[] { Long.toString(calendarID), Long.toString(timestamp) };
-        String select = "((" + CalendarContract.Events.CALENDAR_ID + " = ?) AND (" + CalendarContract.Events.DTSTART + " = ?))";
-        return contentResolver.query(uri, EVENT_PROJECTION, select, args, null);
+    protected long[] reminderHorizon = null;    // [start, end)
+
+    /**
+     * @param horizon [start, end) timestamps (or null to add reminders to all events)
+     */
+    public void setReminderHorizon(@Nullable long[] horizon) {
+        reminderHorizon = horizon;
     }
 
-    public boolean hasCalendarEvents( long calendarID, long timestamp ) {
-        return (queryCalendarEventsAt(calendarID, timestamp).getCount() > 0);
+    @Nullable
+    public long[] getReminderHorizon() {
+        return reminderHorizon;
     }
 
-    public Cursor queryCalendarEvents( long calendarID )
+    /**
+     * @param duration horizon duration (ms)
+     * @return a horizon starting now
+     */
+    public static long[] createReminderHorizon(long duration)
     {
-        Uri uri = SuntimesCalendarSyncAdapter.asSyncAdapter(CalendarContract.Events.CONTENT_URI);
-        String[] args = new String[] { Long.toString(calendarID) };
-        String select = "((" + CalendarContract.Events.CALENDAR_ID + " = ?))";
-        return contentResolver.query(uri, EVENT_PROJECTION, select, args, null);
+        long now = System.currentTimeMillis();
+        return new long[] { now, now + duration };
+    }
+
+    protected boolean isInReminderHorizon(ContentValues values)
+    {
+        if (reminderHorizon == null) {
+            return true;
+        }
+        Long dtstart = values.getAsLong(CalendarContract.Events.DTSTART);
+        return (dtstart != null && dtstart >= reminderHorizon[0] && dtstart < reminderHorizon[1]);
     }
 
     /**
-     * @return a Cursor to all calendars managed by the "Suntimes" local account
+     * Adds an insert operation for the event, followed by an insert for each reminder (using a back-reference to the event's ID).
+     * @return the index of the event's insert operation
      */
-    public Cursor queryCalendars()
+    protected int addInsertEventOperations(ArrayList<ContentProviderOperation> batch, ContentValues values, @Nullable int[][] reminders)
     {
-        Uri uri = SuntimesCalendarSyncAdapter.asSyncAdapter(CalendarContract.Calendars.CONTENT_URI);
-        String[] args = new String[] { SuntimesCalendarSyncAdapter.ACCOUNT_NAME, CalendarContract.ACCOUNT_TYPE_LOCAL, SuntimesCalendarSyncAdapter.ACCOUNT_NAME };
-        String select = "((" + CalendarContract.Calendars.ACCOUNT_NAME + " = ?) AND (" + CalendarContract.Calendars.ACCOUNT_TYPE + " = ?) AND (" + CalendarContract.Calendars.OWNER_ACCOUNT + " = ?))";
-        return contentResolver.query(uri, EVENT_PROJECTION, select, args, null);
+        int i = batch.size();
+        batch.add(withYieldPoint(ContentProviderOperation.newInsert(SuntimesCalendarSyncAdapter.asSyncAdapter(CalendarContract.Events.CONTENT_URI)).withValues(values), batch).build());
+        if (reminders != null && isInReminderHorizon(values))
+        {
+            for (int[] reminder : reminders)
+            {
+                batch.add(ContentProviderOperation.newInsert(SuntimesCalendarSyncAdapter.asSyncAdapter(CalendarContract.Reminders.CONTENT_URI))
+                        .withValue(CalendarContract.Reminders.MINUTES, reminder[0])
+                        .withValue(CalendarContract.Reminders.METHOD, reminder[1])
+                        .withValueBackReference(CalendarContract.Reminders.EVENT_ID, i).build());
+            }
+        }
+        return i;
     }
 
     /**
-     * @param calendarName the calendar's name
-     * @return a Cursor to the calendar w/ the given name managed by the "Suntimes" local account.
+     * Write scheduling; operations are batched with yield points (see withYieldPoint) so the provider can release its database
+     * lock between chunks, and an optional delay between batches leaves room for other readers and writers (see setWriteDelay).
      */
-    public Cursor queryCalendar(String calendarName)
-    {
-        Uri uri = SuntimesCalendarSyncAdapter.asSyncAdapter(CalendarContract.Calendars.CONTENT_URI);
-        String[] args = new String[] { SuntimesCalendarSyncAdapter.ACCOUNT_NAME, CalendarContract.ACCOUNT_TYPE_LOCAL, calendarName, SuntimesCalendarSyncAdapter.ACCOUNT_NAME };
-        String select = "((" + CalendarContract.Calendars.ACCOUNT_NAME + " = ?) AND ("
-                + CalendarContract.Calendars.ACCOUNT_TYPE + " = ?) AND ("
-                + CalendarContract.Calendars.NAME + " = ?) AND ("
-                + CalendarContract.Calendars.OWNER_ACCOUNT + " = ?))";
-        return contentResolver.query(uri, EVENT_PROJECTION, select, args, null);
+    public static final int YIELD_INTERVAL = 32;        // operations between yield points
+    public static final int DELETE_CHUNK_SIZE = 256;    // events per (range) delete
+
+    protected long writeDelay = 0;
+
+    /**
+     * @param millis delay after each batch (or 0 to disable)
+     */
+    public void setWriteDelay(long millis) {
+        writeDelay = Math.max(0, millis);
+    }
+    public long getWriteDelay() {
+        return writeDelay;
     }
 
     /**
-     * @param calendarName
-     * @return
+     * Allows the provider to yield before the operation if the batch has gone YIELD_INTERVAL operations without a yield point;
+     * only use with operations that start a group (e.g. an event insert, rather than its reminders).
      */
-    public long queryCalendarID(String calendarName)
+    protected static ContentProviderOperation.Builder withYieldPoint(ContentProviderOperation.Builder builder, ArrayList<ContentProviderOperation> batch)
     {
-        long calendarID = -1;
-        Cursor cursor = queryCalendar(calendarName);
-        if (cursor != null)
+        int n = batch.size();
+        for (int i = n - 1; i >= 0 && i > n - YIELD_INTERVAL; i--)
         {
-            while (cursor.moveToNext()) {
-                calendarID = cursor.getLong(PROJECTION_ID_INDEX);
+            if (batch.get(i).isYieldAllowed()) {
+                return builder;
             }
-            cursor.close();
-        } else {
-            Log.w(TAG, "initCalendars: Calendar not found! (null cursor) " + calendarName);
-            calendarID = -1;
         }
-        return calendarID;
+        return (n >= YIELD_INTERVAL ? builder.withYieldAllowed(true) : builder);
     }
 
     /**
-     * @param calendarName the calendar's name
-     * @return true if a calendar w/ given name is already managed by the "Suntimes" local account, false otherwise.
+     * Write errors; a batch that fails to apply is recorded here (in addition to returning null) so that callers that don't
+     * check each write (e.g. calendars calling createCalendarEvents) can still be marked as failed.
+     */
+    @Nullable
+    protected String writeError = null;
+
+    /**
+     * @return the last write error (or null if all batches have applied since clearWriteError)
      */
-    public boolean hasCalendar(String calendarName)
+    @Nullable
+    public String getWriteError() {
+        return writeError;
+    }
+    public void clearWriteError() {
+        writeError = null;
+    }
+
+    @Nullable
+    protected ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> batch) throws SecurityException
     {
-        boolean retValue = false;
-        Cursor cursor = queryCalendar(calendarName);
-        if (cursor != null) {
-            retValue = (cursor.getCount() > 0);
-            cursor.close();
+        if (batch.isEmpty()) {
+            return new ContentProviderResult[0];
+        }
+        try {
+            return (providerSession != null) ? providerSession.applyBatch(batch)
+                                             : contentResolver.applyBatch(CalendarContract.AUTHORITY, batch);
+
+        } catch (RemoteException | OperationApplicationException e) {
+            writeError = "Failed to apply batch: " + e;
+            Log.e(TAG, "applyBatch: " + writeError);
+            return null;
+
+        } finally {
+            throttle();
         }
-        return retValue;
     }
 
     /**
-     * @return true if any calendars are being managed by the "Suntimes" local account, false no calendars exist.
+     * Waits for the write delay (if any); see setWriteDelay.
      */
-    public boolean hasCalendars(Context context)
+    protected void throttle()
     {
-        try {
-            for (String calendar : calendars)
+        if (writeDelay > 0)
+        {
+            try {
+                Thread.sleep(writeDelay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Removes events within a range; the range is split (by DTSTART) into chunks of up to DELETE_CHUNK_SIZE events, and each
+     * chunk is removed by its own delete (with yield points between chunks).
+     * @param calendarID calendar ID
+     * @param start remove events starting at or after start
+     * @param end remove events starting before end
+     * @return the number of events removed
+     */
+    public int removeCalendarEventsInRange( long calendarID, long start, long end )
+    {
+        Uri uri = SuntimesCalendarSyncAdapter.asSyncAdapter(CalendarContract.Events.CONTENT_URI);
+        String select = "((" + CalendarContract.Events.CALENDAR_ID + " = ?) AND (" + CalendarContract.Events.DTSTART + " >= ?) AND (" + CalendarContract.Events.DTSTART + " < ?))";
+        String[] args = new String[] { Long.toString(calendarID), Long.toString(start), Long.toString(end) };
+        Cursor cursor = query(uri, new String[] { CalendarContract.Events.DTSTART }, select, args, CalendarContract.Events.DTSTART + " ASC");
+        if (cursor == null) {
+            return delete(uri, select, args);
+        }
+
+        ArrayList<Long> bounds = new ArrayList<>();
+        bounds.add(start);
+        int c = 0;
+        while (cursor.moveToNext())
+        {
+            long dtstart = cursor.getLong(0);
+            if (++c > DELETE_CHUNK_SIZE && dtstart > bounds.get(bounds.size() - 1))
             {
-                Cursor cursor = queryCalendar(calendar);
-                if (cursor != null)
-                {
-                    boolean hasCalendar = (cursor.getCount() > 0);
-                    cursor.close();
-                    if (hasCalendar) {
-                        return true;
+                bounds.add(dtstart);
+                c = 1;
+            }
+        }
+        cursor.close();
+        if (c == 0) {
+            return 0;
+        }
+        bounds.add(end);
+
+        int count = 0;
+        ArrayList<ContentProviderOperation> batch = new ArrayList<>();
+        for (int i=0; i<bounds.size() - 1; i++)
+        {
+            String[] chunkArgs = new String[] { Long.toString(calendarID), Long.toString(bounds.get(i)), Long.toString(bounds.get(i + 1)) };
+            batch.add(ContentProviderOperation.newDelete(uri).withSelection(select, chunkArgs).withYieldAllowed(i > 0).build());
+            if (writeDelay > 0 || i == bounds.size() - 2)
+            {
+                ContentProviderResult[] results = applyBatch(batch);    // one chunk per batch when throttled
+                if (results != null) {
+                    for (ContentProviderResult result : results) {
+                        count += (result.count != null ? result.count : 0);
                     }
                 }
+                batch.clear();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * EventUpsert
+     * An upsert session; tracks the existing events of a calendar (by sync ID) while it is being regenerated.
+     */
+    public static class EventUpsert
+    {
+        public EventUpsert(long calendarID, long[] window)
+        {
+            this.calendarID = calendarID;
+            this.window = window;
+        }
+
+        protected final long calendarID;
+        protected final long[] window;
+        protected int[] kinds = null;    // null (all kinds), or limits the session to events of the given kinds
+        protected final HashMap<String, long[]> existing = new HashMap<>();    // syncID -> [eventID, dtstart]
+        protected final ArrayList<long[]> unidentified = new ArrayList<>();    // [eventID, dtstart] of events without a syncID (e.g. created by earlier versions)
+        protected final HashMap<String, String> fingerprints = new HashMap<>();    // syncID -> fingerprint
+        protected final HashSet<String> seen = new HashSet<>();
+        protected final ArrayList<Long> insertedIDs = new ArrayList<>();
+        protected int numUnchanged = 0, numUpdated = 0, numRemoved = 0;
+
+        public long getCalendarID() {
+            return calendarID;
+        }
+
+        public boolean hasKind(int kind)
+        {
+            if (kinds == null) {
+                return true;
+            }
+            for (int k : kinds) {
+                if (k == kind) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        public long[] getInsertedIDs()
+        {
+            long[] ids = new long[insertedIDs.size()];
+            for (int i=0; i<ids.length; i++) {
+                ids[i] = insertedIDs.get(i);
+            }
+            return ids;
+        }
+
+        public String toString() {
+            return "inserted: " + insertedIDs.size() + ", updated: " + numUpdated + ", unchanged: " + numUnchanged + ", removed: " + numRemoved;
+        }
+    }
+    protected final HashMap<Long, EventUpsert> upserts = new HashMap<>();
+
+    /**
+     * Opens an upsert session for the given calendar; subsequent calls to `createCalendarEvents` skip unchanged events,
+     * update changed events (in place), and insert new events. Call `endUpsert` to close the session.
+     * @param calendarID calendar ID
+     * @param window [start, end] of the events being generated
+     * @return the upsert session
+     */
+    public EventUpsert beginUpsert(long calendarID, long[] window) {
+        return beginUpsert(calendarID, window, null);
+    }
+
+    /**
+     * @param kinds limits the session to events of the given kinds (see eventKind); events of other kinds are ignored
+     * (neither inserted nor removed), or null for all kinds
+     */
+    public EventUpsert beginUpsert(long calendarID, long[] window, @Nullable int[] kinds)
+    {
+        EventUpsert session = new EventUpsert(calendarID, window);
+        session.kinds = kinds;
+        Uri uri = SuntimesCalendarSyncAdapter.asSyncAdapter(CalendarContract.Events.CONTENT_URI);
+        String[] projection = new String[] { CalendarContract.Events._ID, CalendarContract.Events._SYNC_ID, CalendarContract.Events.SYNC_DATA1, CalendarContract.Events.DTSTART };
+        String[] args = new String[] { Long.toString(calendarID) };
+        String select = "((" + CalendarContract.Events.CALENDAR_ID + " = ?))";
+        Cursor cursor = query(uri, projection, select, args, null);
+        if (cursor != null)
+        {
+            while (cursor.moveToNext())
+            {
+                String syncID = cursor.getString(1);
+                if (syncID != null) {
+                    session.existing.put(syncID, new long[] { cursor.getLong(0), cursor.getLong(3) });
+                    session.fingerprints.put(syncID, cursor.getString(2));
+                } else session.unidentified.add(new long[] { cursor.getLong(0), cursor.getLong(3) });
+            }
+            cursor.close();
+        }
+        upserts.put(calendarID, session);
+        return session;
+    }
+
+    /**
+     * Closes the upsert session.
+     * @param removeUnseen true removes existing events (within the session's window) that were not seen during the session;
+     *                     events without a syncID can never be seen, so these are removed too (unless the session is limited to some kinds)
+     * @return the upsert session (or null if no session was open)
+     */
+    @Nullable
+    public EventUpsert endUpsert(long calendarID, boolean removeUnseen)
+    {
+        EventUpsert session = upserts.remove(calendarID);
+        if (session != null && removeUnseen)
+        {
+            ArrayList<Long> unseen = new ArrayList<>();
+            for (String syncID : session.existing.keySet())
+            {
+                long[] event = session.existing.get(syncID);
+                if (!session.seen.contains(syncID) && event[1] >= session.window[0] && event[1] < session.window[1] && session.hasKind(eventKind(syncID))) {
+                    unseen.add(event[0]);
+                }
+            }
+            if (session.kinds == null)
+            {
+                for (long[] event : session.unidentified) {
+                    if (event[1] >= session.window[0] && event[1] < session.window[1]) {
+                        unseen.add(event[0]);
+                    }
+                }
+            }
+            long[] ids = new long[unseen.size()];
+            for (int i=0; i<ids.length; i++) {
+                ids[i] = unseen.get(i);
+            }
+            session.numRemoved = removeInChunks(SuntimesCalendarSyncAdapter.asSyncAdapter(CalendarContract.Events.CONTENT_URI), CalendarContract.Events._ID, ids);
+        }
+        return session;
+    }
+
+    /**
+     * @return the IDs of events inserted by the open upsert session, or null if no session is open
+     */
+    @Nullable
+    public long[] getInsertedEventIDs(long calendarID)
+    {
+        EventUpsert session = upserts.get(calendarID);
+        return (session != null ? session.getInsertedIDs() : null);
+    }
+
+    protected void upsertCalendarEvents(@NonNull EventUpsert session, @NonNull ContentValues[] values, @Nullable int[][] reminders) throws SecurityException
+    {
+        Uri uri = SuntimesCalendarSyncAdapter.asSyncAdapter(CalendarContract.Events.CONTENT_URI);
+        ArrayList<ContentProviderOperation> batch = new ArrayList<>();
+        ArrayList<Integer> inserts = new ArrayList<>();
+        for (ContentValues v : values)
+        {
+            String syncID = v.getAsString(CalendarContract.Events._SYNC_ID);
+            if (session.kinds != null && !session.hasKind(eventKind(syncID))) {
+                continue;
+            }
+            if (syncID != null)
+            {
+                String key = syncID;
+                for (int i=1; session.seen.contains(key); i++) {    // disambiguate repeated keys (e.g. multiple events of the same kind on the same day)
+                    key = syncID + "#" + i;
+                }
+                if (!key.equals(syncID)) {
+                    v.put(CalendarContract.Events._SYNC_ID, key);
+                }
+                session.seen.add(key);
+
+                long[] event = session.existing.get(key);
+                if (event != null)
+                {
+                    String fingerprint = v.getAsString(CalendarContract.Events.SYNC_DATA1);
+                    if (fingerprint != null && fingerprint.equals(session.fingerprints.get(key))) {
+                        session.numUnchanged++;
+                    } else {
+                        batch.add(withYieldPoint(ContentProviderOperation.newUpdate(ContentUris.withAppendedId(uri, event[0])).withValues(v), batch).build());
+                        session.numUpdated++;
+                    }
+                    continue;
+                }
+            }
+            inserts.add(addInsertEventOperations(batch, v, reminders));
+        }
+
+        ContentProviderResult[] results = applyBatch(batch);
+        if (results != null)
+        {
+            for (int i : inserts) {
+                if (i < results.length && results[i].uri != null) {
+                    session.insertedIDs.add(ContentUris.parseId(results[i].uri));
+                }
+            }
+        }
+    }
+
+    /**
+     * Assigns a deterministic identity to the event; the `_SYNC_ID` is made from the calendar name, event kind, and day
+     * (yyyyMMdd in the event's timezone), and `SYNC_DATA1` holds a fingerprint of the event's content.
+     * @param values event values (see createEventContentValues)
+     * @param calendarName calendar name
+     * @param kind event kind (e.g. the flag/string index)
+     * @return values
+     */
+    public static ContentValues putEventIdentity(@NonNull ContentValues values, String calendarName, int kind)
+    {
+        Long dtstart = values.getAsLong(CalendarContract.Events.DTSTART);
+        if (dtstart != null)
+        {
+            String tz = values.getAsString(CalendarContract.Events.EVENT_TIMEZONE);
+            Calendar day = Calendar.getInstance(tz != null ? TimeZone.getTimeZone(tz) : TimeZone.getDefault());
+            day.setTimeInMillis(dtstart);
+            String dayKey = String.format(Locale.US, "%04d%02d%02d", day.get(Calendar.YEAR), day.get(Calendar.MONTH) + 1, day.get(Calendar.DAY_OF_MONTH));
+            values.put(CalendarContract.Events._SYNC_ID, calendarName + "/" + kind + "/" + dayKey);
+            values.put(CalendarContract.Events.SYNC_DATA1, eventFingerprint(values));
+        }
+        return values;
+    }
+
+    /**
+     * @return a fingerprint of the event's title, description, location, times, and template data
+     */
+    public static String eventFingerprint(@NonNull ContentValues values)
+    {
+        String[] columns = new String[] { CalendarContract.Events.TITLE, CalendarContract.Events.DESCRIPTION, CalendarContract.Events.EVENT_LOCATION,
+                CalendarContract.Events.DTSTART, CalendarContract.Events.DTEND, CalendarContract.Events.EVENT_TIMEZONE, CalendarContract.Events.SYNC_DATA2 };
+        String[] fields = new String[columns.length];
+        for (int i=0; i<columns.length; i++) {
+            fields[i] = values.getAsString(columns[i]);
+        }
+        return fingerprint(fields);
+    }
+
+    /**
+     * @param values values to fingerprint (nulls are treated as empty strings)
+     * @return a 64-bit FNV-1a hash of the values (hex string)
+     */
+    public static String fingerprint(String... values)
+    {
+        long hash = 0xcbf29ce484222325L;    // FNV-1a (64-bit)
+        for (String value : values)
+        {
+            String s = (value != null ? value : "") + "\u0000";
+            for (int i=0; i<s.length(); i++) {
+                hash ^= s.charAt(i);
+                hash *= 0x100000001b3L;
+            }
+        }
+        return Long.toHexString(hash);
+    }
+
+    /**
+     * @param syncID an event's sync ID (see putEventIdentity)
+     * @return the event kind, or -1 if unknown
+     */
+    public static int eventKind(@Nullable String syncID)
+    {
+        String[] parts = (syncID != null ? syncID.split("/") : new String[0]);
+        if (parts.length >= 3)
+        {
+            try {
+                return Integer.parseInt(parts[parts.length - 2]);
+            } catch (NumberFormatException e) {
+                return -1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Stores the template data used to render the event (as a JSON object in `SYNC_DATA2`); events with stored
+     * data can have their text re-rendered later without being recalculated (see rerenderCalendarEvents).
+     * @param values event values (see createEventContentValues)
+     * @param data template data (see TemplatePatterns)
+     * @return values
+     */
+    public static ContentValues putEventData(@NonNull ContentValues values, @NonNull ContentValues data)
+    {
+        JSONObject json = new JSONObject();
+        try {
+            for (String key : data.keySet()) {
+                json.put(key, data.getAsString(key));
+            }
+        } catch (JSONException e) {
+            Log.w(TAG, "putEventData: failed to store template data: " + e);
+            return values;
+        }
+        values.put(CalendarContract.Events.SYNC_DATA2, json.toString());
+        return values;
+    }
+
+    /**
+     * @return the template data stored with an event (see putEventData), or null if missing
+     */
+    @Nullable
+    public static ContentValues readEventData(@Nullable String value)
+    {
+        if (value == null || value.isEmpty()) {
+            return null;
+        }
+        try {
+            JSONObject json = new JSONObject(value);
+            ContentValues data = new ContentValues();
+            Iterator<String> keys = json.keys();
+            while (keys.hasNext())
+            {
+                String key = keys.next();
+                data.put(key, json.getString(key));
+            }
+            return data;
+
+        } catch (JSONException e) {
+            Log.w(TAG, "readEventData: failed to read template data: " + e);
+            return null;
+        }
+    }
+
+    /**
+     * EventRenderer
+     * Renders the text of an existing event from its stored template data.
+     */
+    public interface EventRenderer
+    {
+        /**
+         * @param kind event kind (see eventKind)
+         * @param data the event's template data; changes to data are stored with the event
+         * @return [title, description, location], or null if the event can't be re-rendered
+         */
+        @Nullable
+        String[] renderEvent(int kind, @NonNull ContentValues data);
+    }
+
+    /**
+     * Re-renders the text of existing events in place (title, description, and location are updated using each event's
+     * stored template data); the events are not recalculated, and unchanged events are skipped.
+     * @param calendarID calendar ID
+     * @param renderer renders the text of each event
+     * @return the number of events updated, or -1 if an event couldn't be re-rendered (e.g. events created without stored
+     * template data); calendars that fail should be regenerated instead.
+     */
+    public int rerenderCalendarEvents(long calendarID, @NonNull EventRenderer renderer) throws SecurityException
+    {
+        Uri uri = SuntimesCalendarSyncAdapter.asSyncAdapter(CalendarContract.Events.CONTENT_URI);
+        String[] projection = new String[] { CalendarContract.Events._ID, CalendarContract.Events._SYNC_ID, CalendarContract.Events.SYNC_DATA1, CalendarContract.Events.SYNC_DATA2,
+                CalendarContract.Events.DTSTART, CalendarContract.Events.DTEND, CalendarContract.Events.EVENT_TIMEZONE };
+        String[] args = new String[] { Long.toString(calendarID) };
+        String select = "((" + CalendarContract.Events.CALENDAR_ID + " = ?))";
+        Cursor cursor = query(uri, projection, select, args, null);
+        if (cursor == null) {
+            return -1;
+        }
+
+        int numUpdated = 0;
+        ArrayList<ContentProviderOperation> batch = new ArrayList<>();
+        try {
+            while (cursor.moveToNext())
+            {
+                ContentValues data = readEventData(cursor.getString(3));
+                String[] text = (data != null ? renderer.renderEvent(eventKind(cursor.getString(1)), data) : null);
+                if (text == null) {
+                    Log.w(TAG, "rerenderCalendarEvents: unable to re-render event " + cursor.getString(1));
+                    return -1;
+                }
+
+                ContentValues values = new ContentValues();
+                values.put(CalendarContract.Events.TITLE, text[0]);
+                values.put(CalendarContract.Events.DESCRIPTION, text[1]);
+                values.put(CalendarContract.Events.EVENT_LOCATION, text[2]);
+                values.put(CalendarContract.Events.DTSTART, cursor.getLong(4));
+                values.put(CalendarContract.Events.DTEND, cursor.getLong(5));
+                values.put(CalendarContract.Events.EVENT_TIMEZONE, cursor.getString(6));
+                putEventData(values, data);
+
+                String fingerprint = eventFingerprint(values);
+                if (fingerprint.equals(cursor.getString(2))) {
+                    continue;    // unchanged
+                }
+                values.remove(CalendarContract.Events.DTSTART);    // times are unchanged
+                values.remove(CalendarContract.Events.DTEND);
+                values.remove(CalendarContract.Events.EVENT_TIMEZONE);
+                values.put(CalendarContract.Events.SYNC_DATA1, fingerprint);
+                batch.add(withYieldPoint(ContentProviderOperation.newUpdate(ContentUris.withAppendedId(uri, cursor.getLong(0))).withValues(values), batch).build());
+                numUpdated++;
+
+                if (batch.size() >= MAX_BATCH_SIZE)
+                {
+                    if (applyBatch(batch) == null) {
+                        return -1;
+                    }
+                    batch.clear();
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+        return (applyBatch(batch) != null ? numUpdated : -1);
+    }
+    public static final int MAX_BATCH_SIZE = 128;
+
+    /**
+     * Removes the events of a given kind (see putEventIdentity).
+     * @param calendarID calendar ID
+     * @param calendarName calendar name
+     * @param kind event kind
+     * @return the number of events removed
+     */
+    public int removeCalendarEventsOfKind( long calendarID, String calendarName, int kind )
+    {
+        Uri uri = SuntimesCalendarSyncAdapter.asSyncAdapter(CalendarContract.Events.CONTENT_URI);
+        String[] args = new String[] { Long.toString(calendarID), calendarName + "/" + kind + "/%" };
+        String select = "((" + CalendarContract.Events.CALENDAR_ID + " = ?) AND (" + CalendarContract.Events._SYNC_ID + " LIKE ?))";
+        return delete(uri, select, args);
+    }
+
+    public boolean createCalendarReminders(@NonNull ContentValues[] values) throws SecurityException
+    {
+        ArrayList<ContentProviderOperation> batch = new ArrayList<>();
+        for (ContentValues v : values) {
+            batch.add(withYieldPoint(ContentProviderOperation.newInsert(CalendarContract.Reminders.CONTENT_URI).withValues(v), batch).build());
+        }
+        return (applyBatch(batch) != null);
+    }
+
+    /**
+     * removeCalendarEventsBefore
+     * @param calendarID calendar ID
+     * @param timestamp remove all events occurring before timestamp
+     * @return the number of events removed
+     */
+    public int removeCalendarEventsBefore( long calendarID, long timestamp ) {
+        return removeCalendarEventsInRange(calendarID, Long.MIN_VALUE, timestamp);
+    }
+
+    /**
+     * removeCalendarEventsAt
+     * @param calendarID calendar ID
+     * @param timestamp remove all events occurring on timestamp
+     * @return the number of events removed
+     */
+    public int removeCalendarEventsAt( long calendarID, long timestamp )
+    {
+        Uri uri = SuntimesCalendarSyncAdapter.asSyncAdapter(CalendarContract.Events.CONTENT_URI);
+        String[] args = new String[] { Long.toString(calendarID), Long.toString(timestamp) };
+        String select = "((" + CalendarContract.Events.CALENDAR_ID + " = ?) AND (" + CalendarContract.Events.DTSTART + " = ?))";
+        return delete(uri, select, args);
+    }
+
+    /**
+     * removeCalendarEventsAfter
+     * @param calendarID calendar ID
+     * @param timestamp remove all events occurring after timestamp
+     * @return the number of events removed
+     */
+    public int removeCalendarEventsAfter( long calendarID, long timestamp ) {
+        return removeCalendarEventsInRange(calendarID, timestamp + 1, Long.MAX_VALUE);
+    }
+
+    /**
+     * queryCalendarEvents
+     * @param calendarID calendar ID
+     * @param timestamp query events with start or end matching timestamp
+     * @return cursor
+     */
+    public Cursor queryCalendarEventsAt( long calendarID, long timestamp )
+    {
+        Uri uri = SuntimesCalendarSyncAdapter.asSyncAdapter(CalendarContract.Events.CONTENT_URI);
+        String[] args = new String[] { Long.toString(calendarID), Long.toString(timestamp) };
+        String select = "((" + CalendarContract.Events.CALENDAR_ID + " = ?) AND (" + CalendarContract.Events.DTSTART + " = ?))";
+        return query(uri, EVENT_PROJECTION, select, args, null);
+    }
+
+    public boolean hasCalendarEvents( long calendarID, long timestamp ) {
+        return (queryCalendarEventsAt(calendarID, timestamp).getCount() > 0);
+    }
+
+    /**
+     * @return the IDs of all events in the given calendar
+     */
+    public long[] queryCalendarEventIDs( long calendarID )
+    {
+        Uri uri = SuntimesCalendarSyncAdapter.asSyncAdapter(CalendarContract.Events.CONTENT_URI);
+        String[] args = new String[] { Long.toString(calendarID) };
+        String select = "((" + CalendarContract.Events.CALENDAR_ID + " = ?))";
+        Cursor cursor = query(uri, new String[] { CalendarContract.Events._ID }, select, args, null);
+        long[] eventIDs = new long[(cursor != null ? cursor.getCount() : 0)];
+        if (cursor != null)
+        {
+            int i = 0;
+            while (cursor.moveToNext() && i < eventIDs.length) {
+                eventIDs[i++] = cursor.getLong(0);
+            }
+            cursor.close();
+        }
+        return eventIDs;
+    }
+
+    /**
+     * @param calendarID calendar ID
+     * @param start query events starting at or after start
+     * @param end query events starting before end
+     * @param withoutAlarms true limits the query to events that have no reminders
+     * @return the IDs of events in the given calendar and range
+     */
+    public long[] queryCalendarEventIDs( long calendarID, long start, long end, boolean withoutAlarms )
+    {
+        Uri uri = SuntimesCalendarSyncAdapter.asSyncAdapter(CalendarContract.Events.CONTENT_URI);
+        String[] args = new String[] { Long.toString(calendarID), Long.toString(start), Long.toString(end) };
+        String select = "((" + CalendarContract.Events.CALENDAR_ID + " = ?) AND (" + CalendarContract.Events.DTSTART + " >= ?) AND (" + CalendarContract.Events.DTSTART + " < ?)"
+                + (withoutAlarms ? " AND (" + CalendarContract.Events.HAS_ALARM + " = 0)" : "") + ")";
+        Cursor cursor = query(uri, new String[] { CalendarContract.Events._ID }, select, args, null);
+        long[] eventIDs = new long[(cursor != null ? cursor.getCount() : 0)];
+        if (cursor != null)
+        {
+            int i = 0;
+            while (cursor.moveToNext() && i < eventIDs.length) {
+                eventIDs[i++] = cursor.getLong(0);
+            }
+            cursor.close();
+        }
+        return eventIDs;
+    }
+
+    /**
+     * Removes reminders from events that occurred before timestamp.
+     * @param calendarID calendar ID
+     * @param timestamp remove reminders from events starting before timestamp
+     * @return the number of reminders removed
+     */
+    public int removeExpiredReminders( long calendarID, long timestamp ) {
+        return removeReminders(calendarID, CalendarContract.Events.DTSTART + " < ?", timestamp);
+    }
+
+    /**
+     * Removes reminders from events that occur at or after timestamp (e.g. events beyond a reduced reminder horizon).
+     * @param calendarID calendar ID
+     * @param timestamp remove reminders from events starting at or after timestamp
+     * @return the number of reminders removed
+     */
+    public int removeRemindersAfter( long calendarID, long timestamp ) {
+        return removeReminders(calendarID, CalendarContract.Events.DTSTART + " >= ?", timestamp);
+    }
+
+    private int removeReminders( long calendarID, String dtstartSelection, long timestamp )
+    {
+        Uri uri = SuntimesCalendarSyncAdapter.asSyncAdapter(CalendarContract.Events.CONTENT_URI);
+        String[] args = new String[] { Long.toString(calendarID), Long.toString(timestamp) };
+        String select = "((" + CalendarContract.Events.CALENDAR_ID + " = ?) AND (" + dtstartSelection + ") AND (" + CalendarContract.Events.HAS_ALARM + " = 1))";
+        Cursor cursor = query(uri, new String[] { CalendarContract.Events._ID }, select, args, null);
+        if (cursor == null) {
+            return 0;
+        }
+        long[] eventIDs = new long[cursor.getCount()];
+        int i = 0;
+        while (cursor.moveToNext() && i < eventIDs.length) {
+            eventIDs[i++] = cursor.getLong(0);
+        }
+        cursor.close();
+        return removeInChunks(SuntimesCalendarSyncAdapter.asSyncAdapter(CalendarContract.Reminders.CONTENT_URI), CalendarContract.Reminders.EVENT_ID, eventIDs);
+    }
+
+    /**
+     * Rolls the reminder horizon forward; reminders are added to events within the horizon that don't have any, and
+     * reminders belonging to past events are removed.
+     * @param calendarID calendar ID
+     * @param reminders an array of [minutes, method] pairs
+     * @param horizon [start, end) timestamps
+     * @return the number of reminders added
+     */
+    public int rollReminderHorizon( long calendarID, @NonNull int[][] reminders, @NonNull long[] horizon )
+    {
+        removeExpiredReminders(calendarID, horizon[0]);
+        return addMissingReminders(calendarID, reminders, horizon[0], horizon[1]);
+    }
+
+    /**
+     * Adds reminders to events in [start, end) that don't have any.
+     * @param calendarID calendar ID
+     * @param reminders an array of [minutes, method] pairs
+     * @return the number of reminders added
+     */
+    public int addMissingReminders( long calendarID, @NonNull int[][] reminders, long start, long end )
+    {
+        long[] eventIDs = queryCalendarEventIDs(calendarID, start, end, true);
+        ArrayList<ContentValues> values = new ArrayList<>();
+        for (long eventID : eventIDs) {
+            for (int[] reminder : reminders) {
+                values.add(createReminderContentValues(calendarID, eventID, reminder[0], reminder[1]));
+            }
+        }
+        if (!values.isEmpty()) {
+            createCalendarReminders(values.toArray(new ContentValues[0]));
+        }
+        return values.size();
+    }
+
+    public Cursor queryCalendarEvents( long calendarID )
+    {
+        Uri uri = SuntimesCalendarSyncAdapter.asSyncAdapter(CalendarContract.Events.CONTENT_URI);
+        String[] args = new String[] { Long.toString(calendarID) };
+        String select = "((" + CalendarContract.Events.CALENDAR_ID + " = ?))";
+        return query(uri, EVENT_PROJECTION, select, args, null);
+    }
+
+    /**
+     * @return a Cursor to all calendars managed by the "Suntimes" local account
+     */
+    public Cursor queryCalendars()
+    {
+        Uri uri = SuntimesCalendarSyncAdapter.asSyncAdapter(CalendarContract.Calendars.CONTENT_URI);
+        String[] args = new String[] { SuntimesCalendarSyncAdapter.ACCOUNT_NAME, CalendarContract.ACCOUNT_TYPE_LOCAL, SuntimesCalendarSyncAdapter.ACCOUNT_NAME };
+        String select = "((" + CalendarContract.Calendars.ACCOUNT_NAME + " = ?) AND (" + CalendarContract.Calendars.ACCOUNT_TYPE + " = ?) AND (" + CalendarContract.Calendars.OWNER_ACCOUNT + " = ?))";
+        return query(uri, EVENT_PROJECTION, select, args, null);
+    }
+
+    /**
+     * @return the IDs of all calendars managed by the "Suntimes" local account (or null if the query fails)
+     */
+    @Nullable
+    public long[] queryCalendarIDs()
+    {
+        Cursor cursor = queryCalendars();
+        if (cursor != null)
+        {
+            long[] calendarIDs = new long[cursor.getCount()];
+            int i = 0;
+            while (cursor.moveToNext() && i < calendarIDs.length) {
+                calendarIDs[i++] = cursor.getLong(PROJECTION_ID_INDEX);
+            }
+            cursor.close();
+            return calendarIDs;
+        } else return null;
+    }
+
+    /**
+     * @param calendarName the calendar's name
+     * @return a Cursor to the calendar w/ the given name managed by the "Suntimes" local account.
+     */
+    public Cursor queryCalendar(String calendarName)
+    {
+        Uri uri = SuntimesCalendarSyncAdapter.asSyncAdapter(CalendarContract.Calendars.CONTENT_URI);
+        String[] args = new String[] { SuntimesCalendarSyncAdapter.ACCOUNT_NAME, CalendarContract.ACCOUNT_TYPE_LOCAL, calendarName, SuntimesCalendarSyncAdapter.ACCOUNT_NAME };
+        String select = "((" + CalendarContract.Calendars.ACCOUNT_NAME + " = ?) AND ("
+                + CalendarContract.Calendars.ACCOUNT_TYPE + " = ?) AND ("
+                + CalendarContract.Calendars.NAME + " = ?) AND ("
+                + CalendarContract.Calendars.OWNER_ACCOUNT + " = ?))";
+        return query(uri, EVENT_PROJECTION, select, args, null);
+    }
+
+    /**
+     * @param calendarName the calendar's name
+     * @return the calendar's ID (or -1 if the calendar dne); IDs are looked up from a cached map (see getCalendarIDs)
+     */
+    public long queryCalendarID(String calendarName)
+    {
+        HashMap<String, Long> map = getCalendarIDs();
+        synchronized (calendarIDs)
+        {
+            Long calendarID = map.get(calendarName);
+            return (calendarID != null ? calendarID : -1);
+        }
+    }
+
+    /**
+     * @param calendarName the calendar's name
+     * @return true if a calendar w/ given name (or any of its year shards) is already managed by the "Suntimes" local account, false otherwise.
+     */
+    public boolean hasCalendar(String calendarName) {
+        return !queryCalendarNames(calendarName).isEmpty();
+    }
+
+    /**
+     * Year shards; when enabled each calendar is stored as one calendar per year (e.g. `civilTwilightCalendar_2026`), and the
+     * shards share the same display name and color. Old years are dropped using a single calendar delete (see removeCalendarShardsBefore).
+     */
+    protected boolean yearShards = false;
+
+    public void setYearShards(boolean value) {
+        yearShards = value;
+    }
+    public boolean isYearShards() {
+        return yearShards;
+    }
+
+    /**
+     * @return the name of the calendar that stores a calendar's events for the given year
+     */
+    public static String shardName(String calendarName, int year) {
+        return calendarName + "_" + year;
+    }
+
+    /**
+     * @return the shard's year, or -1 if name isn't a year shard of calendarName
+     */
+    public static int shardYear(String calendarName, @Nullable String name)
+    {
+        String prefix = calendarName + "_";
+        if (name != null && name.startsWith(prefix) && name.length() == prefix.length() + 4)
+        {
+            try {
+                return Integer.parseInt(name.substring(prefix.length()));
+            } catch (NumberFormatException e) {
+                return -1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return true if name is a calendar that stores a calendar's events; the calendar itself, one of its year shards, or its
+     * staging calendar (see storageName)
+     */
+    public static boolean isStorageName(String calendarName, @Nullable String name) {
+        return (name != null && (name.equals(calendarName) || shardYear(calendarName, name) != -1 || name.equals(stagingName(calendarName))));
+    }
+
+    /**
+     * @return the year of the given timestamp (in the default timezone)
+     */
+    public static int yearOf(long timestamp)
+    {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(timestamp);
+        return calendar.get(Calendar.YEAR);
+    }
+
+    /**
+     * @return the start of the given year (in the default timezone)
+     */
+    public static long startOfYear(int year)
+    {
+        Calendar calendar = Calendar.getInstance();
+        calendar.clear();
+        calendar.set(year, Calendar.JANUARY, 1, 0, 0, 0);
+        return calendar.getTimeInMillis();
+    }
+
+    /**
+     * @return the name of the calendar that stores events starting at timestamp; the calendar itself, or its year shard (if enabled)
+     */
+    public String storageName(String calendarName, long timestamp)
+    {
+        if (staging.contains(calendarName)) {
+            return stagingName(calendarName);
+        }
+        return (yearShards ? shardName(calendarName, yearOf(timestamp)) : calendarName);
+    }
+
+    /**
+     * @return the names of the calendars that store a calendar's events; the calendar itself, and any year shards (ordered by year),
+     * or the staging calendar while the calendar is being rebuilt (see beginStaging)
+     */
+    public ArrayList<String> queryCalendarNames(String calendarName)
+    {
+        if (staging.contains(calendarName))
+        {
+            ArrayList<String> names = new ArrayList<>();
+            names.add(stagingName(calendarName));
+            return names;
+        }
+        return queryCalendarNames0(calendarName);
+    }
+    protected ArrayList<String> queryCalendarNames0(String calendarName)
+    {
+        ArrayList<String> names = new ArrayList<>();
+        TreeMap<Integer, String> shards = new TreeMap<>();
+        HashMap<String, Long> map = getCalendarIDs();
+        synchronized (calendarIDs)
+        {
+            for (String name : map.keySet())
+            {
+                if (name.equals(calendarName)) {
+                    names.add(name);
+                } else {
+                    int year = shardYear(calendarName, name);
+                    if (year != -1) {
+                        shards.put(year, name);
+                    }
+                }
+            }
+        }
+        names.addAll(shards.values());
+        return names;
+    }
+
+    /**
+     * @return the IDs of the calendars that store a calendar's events (see queryCalendarNames)
+     */
+    public long[] queryCalendarIDs(String calendarName)
+    {
+        ArrayList<String> names = queryCalendarNames(calendarName);
+        long[] calendarIDs = new long[names.size()];
+        for (int i=0; i<calendarIDs.length; i++) {
+            calendarIDs[i] = queryCalendarID(names.get(i));
+        }
+        return calendarIDs;
+    }
+
+    /**
+     * Staging; a calendar that is being rebuilt is generated into a hidden staging calendar that replaces the existing calendar
+     * once complete (see commitStaging), or is dropped if the rebuild fails or is cancelled (see abortStaging). While staging,
+     * the calendar's name resolves to the staging calendar (see storageName, queryCalendarNames).
+     */
+    protected final HashSet<String> staging = new HashSet<>();
+
+    public static String stagingName(String calendarName) {
+        return calendarName + "_staging";
+    }
+
+    /**
+     * Creates a hidden staging calendar (replacing any staging calendar left by a previous rebuild).
+     * @return the staging calendar's ID, or -1 if it could not be created
+     */
+    public long beginStaging(String calendarName, String calendarDisplayName, int calendarColor)
+    {
+        String stagingName = stagingName(calendarName);
+        removeCalendar(queryCalendarID(stagingName));
+
+        long calendarID = createCalendar(stagingName, calendarDisplayName, calendarColor);
+        if (calendarID != -1)
+        {
+            setCalendarVisible(calendarID, false);
+            staging.add(calendarName);
+        }
+        return calendarID;
+    }
+
+    /**
+     * Replaces the existing calendar with the staging calendar; the staging calendar is renamed and made visible, and the existing
+     * calendar is removed (in a single batch).
+     * @return true the staging calendar was committed, false otherwise (the staging calendar should then be dropped; see abortStaging)
+     */
+    public boolean commitStaging(String calendarName)
+    {
+        staging.remove(calendarName);
+        long stagingID = queryCalendarID(stagingName(calendarName));
+        if (stagingID == -1) {
+            return false;
+        }
+
+        long[] calendarIDs = queryCalendarIDs(calendarName);
+        ContentValues values = new ContentValues();
+        values.put(CalendarContract.Calendars.NAME, calendarName);
+        values.put(CalendarContract.Calendars.VISIBLE, 1);
+        values.put(CalendarContract.Calendars.SYNC_EVENTS, 1);
+        ContentValues visibility = (calendarIDs.length > 0 ? queryCalendarVisibility(calendarIDs[0]) : null);
+        if (visibility != null) {
+            values.putAll(visibility);    // a calendar hidden by the user stays hidden
+        }
+
+        ArrayList<ContentProviderOperation> batch = new ArrayList<>();
+        batch.add(ContentProviderOperation.newUpdate(SuntimesCalendarSyncAdapter.asSyncAdapter(ContentUris.withAppendedId(CalendarContract.Calendars.CONTENT_URI, stagingID))).withValues(values).build());
+        for (long calendarID : calendarIDs) {
+            batch.add(ContentProviderOperation.newDelete(SuntimesCalendarSyncAdapter.asSyncAdapter(ContentUris.withAppendedId(CalendarContract.Calendars.CONTENT_URI, calendarID))).build());
+        }
+        ContentProviderResult[] results = applyBatch(batch);
+        if (results == null) {
+            invalidateCalendarIDs();
+            return false;
+        }
+        synchronized (this.calendarIDs)
+        {
+            for (long calendarID : calendarIDs) {
+                this.calendarIDs.values().remove(calendarID);
+            }
+            this.calendarIDs.remove(stagingName(calendarName));
+            this.calendarIDs.put(calendarName, stagingID);
+        }
+        removeOrphanedEvents(calendarIDs);
+        return true;
+    }
+
+    /**
+     * Drops the staging calendar; the existing calendar is left unchanged.
+     */
+    public void abortStaging(String calendarName)
+    {
+        staging.remove(calendarName);
+        removeCalendar(queryCalendarID(stagingName(calendarName)));
+    }
+
+    /**
+     * Removes the year shards of a calendar that are older than the given year; each shard is removed using a single calendar
+     * delete (cascaded by the provider to its events and reminders).
+     * @return the number of shards removed
+     */
+    public int removeCalendarShardsBefore(String calendarName, int year)
+    {
+        int count = 0;
+        for (String name : queryCalendarNames(calendarName))
+        {
+            int shardYear = shardYear(calendarName, name);
+            if (shardYear != -1 && shardYear < year && removeCalendar(queryCalendarID(name))) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return true if any calendars are being managed by the "Suntimes" local account, false no calendars exist.
+     */
+    public boolean hasCalendars(Context context)
+    {
+        try {
+            for (String calendar : calendars)
+            {
+                if (hasCalendar(calendar)) {
+                    return true;
+                }
             }
         } catch (SecurityException e) {
             return false;
@@ -437,13 +1715,15 @@ public class SuntimesCalendarAdapter
             CalendarContract.Calendars.ACCOUNT_NAME,                  // 1
             CalendarContract.Calendars.CALENDAR_DISPLAY_NAME,         // 2
             CalendarContract.Calendars.OWNER_ACCOUNT,                 // 3
-            CalendarContract.Calendars.CALENDAR_COLOR                 // 4
+            CalendarContract.Calendars.CALENDAR_COLOR,                // 4
+            CalendarContract.Calendars.NAME                           // 5
     };
     public static final int PROJECTION_ID_INDEX = 0;
     public static final int PROJECTION_ACCOUNT_NAME_INDEX = 1;
     public static final int PROJECTION_DISPLAY_NAME_INDEX = 2;
     public static final int PROJECTION_OWNER_ACCOUNT_INDEX = 3;
     public static final int PROJECTION_CALENDAR_COLOR_INDEX = 4;
+    public static final int PROJECTION_NAME_INDEX = 5;
 
 
     /**
@@ -100,6 +100,20 @@ public class SuntimesCalendarDescriptor implements Comparable
         return calendarRef != null && calendarRef.startsWith("content:");
     }
 
+    /**
+     * Degraded add-ons have repeatedly timed out or failed; they are skipped by updates until the cool-down ends.
+     */
+    protected long degradedUntil = 0;
+    public boolean isDegraded() {
+        return System.currentTimeMillis() < degradedUntil;
+    }
+    public long degradedUntil() {
+        return degradedUntil;
+    }
+    public void setDegradedUntil(long timeInMillis) {
+        degradedUntil = timeInMillis;
+    }
+
     ////////////////////////////////////////////////////////////////////////////////////////////////
     ////////////////////////////////////////////////////////////////////////////////////////////////
 
@@ -149,6 +163,9 @@ public class SuntimesCalendarDescriptor implements Comparable
                                 if (calendar != null)
                                 {
                                     SuntimesCalendarDescriptor descriptor = new SuntimesCalendarDescriptor(calendar.calendarName(), calendar.calendarTitle(), calendar.calendarSummary(), calendar.calendarColor(), c, references[i]);
+                                    if (descriptor.isAddon()) {
+                                        descriptor.setDegradedUntil(SuntimesCalendarSettings.loadAddonDegradedUntil(context, descriptor.calendarName()));
+                                    }
                                     SuntimesCalendarDescriptor.addValue(descriptor);
                                     c++;
                                     Log.i("initDescriptors", "..added " + descriptor.toString());
@@ -25,10 +25,75 @@ import android.util.Log;
 
 import com.forrestguice.suntimeswidget.calendar.task.SuntimesCalendar;
 import com.forrestguice.suntimeswidget.calendar.task.calendars.ContentProviderCalendar;
+import com.forrestguice.suntimeswidget.calendar.task.calendars.DaylightCalendar;
+import com.forrestguice.suntimeswidget.calendar.task.calendars.MoonapsisCalendar;
+import com.forrestguice.suntimeswidget.calendar.task.calendars.MoonphaseCalendar;
+import com.forrestguice.suntimeswidget.calendar.task.calendars.MoonriseCalendar;
+import com.forrestguice.suntimeswidget.calendar.task.calendars.SolsticeCalendar;
+import com.forrestguice.suntimeswidget.calendar.task.calendars.TwilightCalendarAstro;
+import com.forrestguice.suntimeswidget.calendar.task.calendars.TwilightCalendarBlue;
+import com.forrestguice.suntimeswidget.calendar.task.calendars.TwilightCalendarCivil;
+import com.forrestguice.suntimeswidget.calendar.task.calendars.TwilightCalendarGold;
+import com.forrestguice.suntimeswidget.calendar.task.calendars.TwilightCalendarNautical;
+
+import java.util.HashMap;
 
 @SuppressWarnings("Convert2Diamond")
 public class SuntimesCalendarFactory
 {
+    /**
+     * SuntimesCalendarSupplier
+     */
+    public interface SuntimesCalendarSupplier {
+        SuntimesCalendar createCalendar();
+    }
+
+    /**
+     * A registry of built-in calendars (by class name); calendars found here are created directly (without reflection).
+     */
+    private static final HashMap<String, SuntimesCalendarSupplier> registry = new HashMap<String, SuntimesCalendarSupplier>();
+    static
+    {
+        registerCalendar(TwilightCalendarAstro.class.getName(), new SuntimesCalendarSupplier() {
+            public SuntimesCalendar createCalendar() { return new TwilightCalendarAstro(); }
+        });
+        registerCalendar(TwilightCalendarNautical.class.getName(), new SuntimesCalendarSupplier() {
+            public SuntimesCalendar createCalendar() { return new TwilightCalendarNautical(); }
+        });
+        registerCalendar(TwilightCalendarCivil.class.getName(), new SuntimesCalendarSupplier() {
+            public SuntimesCalendar createCalendar() { return new TwilightCalendarCivil(); }
+        });
+        registerCalendar(DaylightCalendar.class.getName(), new SuntimesCalendarSupplier() {
+            public SuntimesCalendar createCalendar() { return new DaylightCalendar(); }
+        });
+        registerCalendar(TwilightCalendarGold.class.getName(), new SuntimesCalendarSupplier() {
+            public SuntimesCalendar createCalendar() { return new TwilightCalendarGold(); }
+        });
+        registerCalendar(TwilightCalendarBlue.class.getName(), new SuntimesCalendarSupplier() {
+            public SuntimesCalendar createCalendar() { return new TwilightCalendarBlue(); }
+        });
+        registerCalendar(MoonriseCalendar.class.getName(), new SuntimesCalendarSupplier() {
+            public SuntimesCalendar createCalendar() { return new MoonriseCalendar(); }
+        });
+        registerCalendar(MoonphaseCalendar.class.getName(), new SuntimesCalendarSupplier() {
+            public SuntimesCalendar createCalendar() { return new MoonphaseCalendar(); }
+        });
+        registerCalendar(MoonapsisCalendar.class.getName(), new SuntimesCalendarSupplier() {
+            public SuntimesCalendar createCalendar() { return new MoonapsisCalendar(); }
+        });
+        registerCalendar(SolsticeCalendar.class.getName(), new SuntimesCalendarSupplier() {
+            public SuntimesCalendar createCalendar() { return new SolsticeCalendar(); }
+        });
+    }
+
+    public static void registerCalendar(@NonNull String classRef, @NonNull SuntimesCalendarSupplier supplier) {
+        registry.put(classRef, supplier);
+    }
+
+    public static boolean isRegistered(@Nullable String classRef) {
+        return (classRef != null && registry.containsKey(classRef));
+    }
+
     @Nullable
     public SuntimesCalendar createCalendar(Context context, @NonNull SuntimesCalendarDescriptor descriptor) {
         return createCalendar(context, descriptor.calendarRef());
@@ -42,14 +107,18 @@ public class SuntimesCalendarFactory
         {
             if (classRef.startsWith("content:"))
             {
-                calendar = new ContentProviderCalendar(classRef);
-                calendar.init(context, new SuntimesCalendarSettings());
+                calendar = createAddonCalendar(context, classRef, null);
                 if (calendar.calendarName() == null) {
                     Log.e(getClass().getSimpleName(), "Failed to createCalendar! No such content provider: " + classRef);
                     calendar = null;
                 }
 
+            } else if (registry.containsKey(classRef)) {
+                calendar = registry.get(classRef).createCalendar();
+                calendar.init(context, new SuntimesCalendarSettings());
+
             } else {
+                Log.w(getClass().getSimpleName(), "createCalendar: " + classRef + " is not registered; falling back to reflection..");
                 Class calendarClass = null;
                 try {
                     calendarClass = Class.forName(classRef);
@@ -67,4 +136,17 @@ public class SuntimesCalendarFactory
         }
         return calendar;
     }
+
+    /**
+     * @param session the task's session for the add-on (see ContentProviderCalendar.setProviderSession), or null
+     * @return the add-on calendar; its calendarName is null if the add-on couldn't be queried (see lastError)
+     */
+    @NonNull
+    public ContentProviderCalendar createAddonCalendar(Context context, @NonNull String classRef, @Nullable ProviderSession session)
+    {
+        ContentProviderCalendar calendar = new ContentProviderCalendar(classRef);
+        calendar.setProviderSession(session);
+        calendar.init(context, new SuntimesCalendarSettings());
+        return calendar;
+    }
 }
@@ -18,17 +18,22 @@
 
 package com.forrestguice.suntimeswidget.calendar;
 
+import android.content.ContentResolver;
 import android.content.Context;
 import android.content.SharedPreferences;
+import android.net.Uri;
 import android.preference.PreferenceManager;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.support.v4.content.ContextCompat;
-import android.text.TextUtils;
 
 import com.forrestguice.suntimescalendars.R;
+import com.forrestguice.suntimeswidget.calendar.core.CalendarEventValues;
 import com.forrestguice.suntimeswidget.calendar.ui.reminders.Reminder;
 
+import java.util.ArrayList;
+import java.util.Map;
+
 public class SuntimesCalendarSettings
 {
     public static final String PREF_KEY_CALENDARS_ENABLED = "app_calendars_enabled";
@@ -40,6 +45,35 @@ public class SuntimesCalendarSettings
     public static final String PREF_KEY_CALENDAR_WINDOW1 = "app_calendars_window1";
     public static final String PREF_DEF_CALENDAR_WINDOW1 = "63072000000";  // 2 years
 
+    public static final String PREF_KEY_CALENDARS_POLAR_RUNS = "app_calendars_polar_runs";
+    public static final boolean PREF_DEF_CALENDARS_POLAR_RUNS = true;
+
+    public static final String PREF_KEY_CALENDARS_INLINE_REMINDERS = "app_calendars_inline_reminders";
+    public static final boolean PREF_DEF_CALENDARS_INLINE_REMINDERS = true;
+
+    public static final String PREF_KEY_CALENDARS_HIDE_DISABLED = "app_calendars_hide_disabled";
+    public static final boolean PREF_DEF_CALENDARS_HIDE_DISABLED = false;
+
+    public static final String PREF_KEY_CALENDARS_YEAR_SHARDS = "app_calendars_year_shards";
+    public static final boolean PREF_DEF_CALENDARS_YEAR_SHARDS = false;
+
+    public static final String PREF_KEY_CALENDARS_STAGED_REBUILD = "app_calendars_staged_rebuild";
+    public static final boolean PREF_DEF_CALENDARS_STAGED_REBUILD = false;
+
+    public static final String PREF_KEY_CALENDARS_LOCATION_TOLERANCE = "app_calendars_location_tolerance";
+    public static final String PREF_DEF_CALENDARS_LOCATION_TOLERANCE = "60";  // seconds
+
+    public static final String PREF_KEY_CALENDARS_REMINDER_HORIZON = "app_calendars_reminder_horizon";
+    public static final String PREF_DEF_CALENDARS_REMINDER_HORIZON = "0";  // 0 (disabled); reminders for all events
+
+    public static final String PREF_KEY_CALENDARS_CALCULATOR = "app_calendars_calculator";
+    public static final String CALCULATOR_EXTERNAL = "external";    // the calculator provider (Suntimes)
+    public static final String CALCULATOR_EMBEDDED = "embedded";    // the embedded calculator (see EmbeddedCalculatorSession)
+    public static final String CALCULATOR_VERIFY = "verify";        // the embedded calculator, verified against the provider
+    public static final String PREF_DEF_CALENDARS_CALCULATOR = CALCULATOR_EXTERNAL;
+
+    public static final String PREF_KEY_CALENDARS_LAST_LOCATION = "app_calendars_last_location";    // name|latitude|longitude|altitude|timezone
+
     public static final String PREF_KEY_CALENDARS_CALENDAR = "app_calendars_calendar_";
     public static final String PREF_KEY_CALENDARS_COLOR = "app_calendars_color_";
 
@@ -48,7 +82,8 @@ public class SuntimesCalendarSettings
     public static final String PREF_KEY_CALENDARS_TEMPLATE_LOCATION = "app_calendars_template_location_";
     public static final String PREF_KEY_CALENDARS_TEMPLATE_STRINGS = "app_calendars_template_strings_";
     public static final String PREF_KEY_CALENDARS_TEMPLATE_FLAGS = "app_calendars_template_flags_";
-    public static final String STRINGS_DELIMITER = "|";
+    public static final String STRINGS_DELIMITER = CalendarEventValues.DELIMITER;
+    public static final String PREF_KEY_CALENDARS_TEMPLATE_VERSION = "app_calendars_template_version";
 
     public static final String PREF_KEY_CALENDARS_REMINDER_METHOD = "app_calendars_reminder_method_";
     public static final String PREF_KEY_CALENDARS_REMINDER_MINUTES = "app_calendars_reminder_minutes_";
@@ -57,10 +92,23 @@ public class SuntimesCalendarSettings
 
     public static final String PREF_KEY_CALENDARS_NOTES = "app_calendars_notes_";
     public static final String NOTE_LOCATION_NAME = "location_name";
-    public static final String[] ALL_NOTES = new String[] { NOTE_LOCATION_NAME };
+    public static final String NOTE_LOCATION = "location";                    // latitude,longitude,altitude used by existing events
+    public static final String NOTE_WINDOW_START = "window_start";            // window covered by existing events (ms)
+    public static final String NOTE_WINDOW_END = "window_end";
+    public static final String NOTE_FINGERPRINT = "config_fingerprint";      // fingerprint of the config used by existing events
+    public static final String NOTE_TEMPLATE_FINGERPRINT = "template_fingerprint";    // fingerprint of the template (strings, flags) used by existing events
+    public static final String NOTE_STRINGS = "strings";                      // strings used by existing events (delimited by STRINGS_DELIMITER)
+    public static final String NOTE_FLAGS = "flags";                          // flags used by existing events (delimited by STRINGS_DELIMITER)
+    public static final String NOTE_LOCATION_TEXT = "location_text";          // location used by the text of existing events (see NOTE_LOCATION)
+    public static final String NOTE_HIDDEN = "hidden";                        // "true" if the calendar was hidden by the app (rather than by the user)
+    public static final String[] ALL_NOTES = new String[] { NOTE_LOCATION_NAME, NOTE_LOCATION, NOTE_WINDOW_START, NOTE_WINDOW_END, NOTE_FINGERPRINT,
+            NOTE_TEMPLATE_FINGERPRINT, NOTE_STRINGS, NOTE_FLAGS, NOTE_LOCATION_TEXT, NOTE_HIDDEN };
 
     public static final String PREF_KEY_CALENDAR_LASTSYNC = "lastCalendarSync";
 
+    public static final String PREF_KEY_CALENDARS_ADDON_FAILURES = "app_calendars_addon_failures_";    // consecutive failures (per add-on calendar)
+    public static final String PREF_KEY_CALENDARS_ADDON_DEGRADED = "app_calendars_addon_degraded_";    // add-on is skipped until (ms)
+
     public static final String PREF_KEY_CALENDARS_FIRSTLAUNCH = "app_calendars_firstlaunch";
     public static final String PREF_KEY_CALENDARS_PERMISSIONS = "app_calendars_permissions";
     public static final String PREF_KEY_CALENDARS_PERMISSIONS_ABOUT = "app_calendars_permissions_about";
@@ -106,6 +154,40 @@ public class SuntimesCalendarSettings
         prefs.apply();
     }
 
+    /**
+     * @param context context used to access preferences
+     * @param calendar add-on calendar name
+     * @return the number of consecutive times the add-on has failed (timed out or errored)
+     */
+    public static int loadAddonFailures(Context context, String calendar)
+    {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        return prefs.getInt(PREF_KEY_CALENDARS_ADDON_FAILURES + calendar, 0);
+    }
+    public static void saveAddonFailures(Context context, String calendar, int failures)
+    {
+        SharedPreferences.Editor prefs = PreferenceManager.getDefaultSharedPreferences(context).edit();
+        prefs.putInt(PREF_KEY_CALENDARS_ADDON_FAILURES + calendar, failures);
+        prefs.apply();
+    }
+
+    /**
+     * @param context context used to access preferences
+     * @param calendar add-on calendar name
+     * @return the time (ms) until which the add-on is degraded (skipped by updates), or 0
+     */
+    public static long loadAddonDegradedUntil(Context context, String calendar)
+    {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        return prefs.getLong(PREF_KEY_CALENDARS_ADDON_DEGRADED + calendar, 0L);
+    }
+    public static void saveAddonDegradedUntil(Context context, String calendar, long timeInMillis)
+    {
+        SharedPreferences.Editor prefs = PreferenceManager.getDefaultSharedPreferences(context).edit();
+        prefs.putLong(PREF_KEY_CALENDARS_ADDON_DEGRADED + calendar, timeInMillis);
+        prefs.apply();
+    }
+
     /**
      * @param context
      * @param enabled
@@ -127,6 +209,114 @@ public class SuntimesCalendarSettings
         return pref.getBoolean(PREF_KEY_CALENDARS_ENABLED, PREF_DEF_CALENDARS_ENABLED);
     }
 
+    /**
+     * @param context context used to access preferences
+     * @return true consecutive days of polar twilight (or white nights) are merged into a single event, false one event per day
+     */
+    public static boolean loadPrefCalendarPolarRuns(Context context)
+    {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        return prefs.getBoolean(PREF_KEY_CALENDARS_POLAR_RUNS, PREF_DEF_CALENDARS_POLAR_RUNS);
+    }
+
+    /**
+     * @param context context used to access preferences
+     * @return true reminders are inserted together with their events (in the same batch), false reminders are added after events are created
+     */
+    public static boolean loadPrefCalendarInlineReminders(Context context)
+    {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        return prefs.getBoolean(PREF_KEY_CALENDARS_INLINE_REMINDERS, PREF_DEF_CALENDARS_INLINE_REMINDERS);
+    }
+
+    /**
+     * @param context context used to access preferences
+     * @return true disabled calendars are hidden (and kept), false disabled calendars are removed
+     */
+    public static boolean loadPrefCalendarHideDisabled(Context context)
+    {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        return prefs.getBoolean(PREF_KEY_CALENDARS_HIDE_DISABLED, PREF_DEF_CALENDARS_HIDE_DISABLED);
+    }
+
+    /**
+     * @param context context used to access preferences
+     * @return true calendars are stored as one calendar per year (see SuntimesCalendarAdapter.setYearShards)
+     */
+    public static boolean loadPrefCalendarYearShards(Context context)
+    {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        return prefs.getBoolean(PREF_KEY_CALENDARS_YEAR_SHARDS, PREF_DEF_CALENDARS_YEAR_SHARDS);
+    }
+
+    /**
+     * @param context context used to access preferences
+     * @return true calendars are rebuilt in a hidden staging calendar that replaces the existing calendar once complete
+     */
+    public static boolean loadPrefCalendarStagedRebuild(Context context)
+    {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        return prefs.getBoolean(PREF_KEY_CALENDARS_STAGED_REBUILD, PREF_DEF_CALENDARS_STAGED_REBUILD);
+    }
+
+    /**
+     * @param context context used to access preferences
+     * @return location tolerance pref (seconds); location changes that shift events by less than this amount don't regenerate calendars
+     */
+    public static long loadPrefCalendarLocationTolerance(Context context)
+    {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        try {
+            return Math.max(0, Long.parseLong(prefs.getString(PREF_KEY_CALENDARS_LOCATION_TOLERANCE, PREF_DEF_CALENDARS_LOCATION_TOLERANCE)));
+        } catch (NumberFormatException e) {
+            return Long.parseLong(PREF_DEF_CALENDARS_LOCATION_TOLERANCE);
+        }
+    }
+
+    /**
+     * @param context context used to access preferences
+     * @return reminder horizon pref (ms value); reminders are only created for events occurring within this period from now (0 to disable)
+     */
+    public static long loadPrefCalendarReminderHorizon(Context context)
+    {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        try {
+            return Math.max(0, Long.parseLong(prefs.getString(PREF_KEY_CALENDARS_REMINDER_HORIZON, PREF_DEF_CALENDARS_REMINDER_HORIZON)));
+        } catch (NumberFormatException e) {
+            return Long.parseLong(PREF_DEF_CALENDARS_REMINDER_HORIZON);
+        }
+    }
+
+    /**
+     * @param context context used to access preferences
+     * @return calculator pref; CALCULATOR_EXTERNAL, CALCULATOR_EMBEDDED, or CALCULATOR_VERIFY
+     */
+    public static String loadPrefCalendarCalculator(Context context)
+    {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        String value = prefs.getString(PREF_KEY_CALENDARS_CALCULATOR, PREF_DEF_CALENDARS_CALCULATOR);
+        return (CALCULATOR_EMBEDDED.equals(value) || CALCULATOR_VERIFY.equals(value)) ? value : CALCULATOR_EXTERNAL;
+    }
+
+    /**
+     * @param context context used to access preferences
+     * @return the location last read from the calculator provider; [name, latitude, longitude, altitude, timezone], or null if unknown
+     */
+    @Nullable
+    public static String[] loadLastLocation(Context context)
+    {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        String value = prefs.getString(PREF_KEY_CALENDARS_LAST_LOCATION, null);
+        String[] location = (value != null ? value.split("\\" + STRINGS_DELIMITER, -1) : null);
+        return (location != null && location.length == 5 ? location : null);
+    }
+    public static void saveLastLocation(Context context, @NonNull String[] location, @Nullable String timezone)
+    {
+        SharedPreferences.Editor prefs = PreferenceManager.getDefaultSharedPreferences(context).edit();
+        prefs.putString(PREF_KEY_CALENDARS_LAST_LOCATION, location[0] + STRINGS_DELIMITER + location[1] + STRINGS_DELIMITER + location[2] + STRINGS_DELIMITER + location[3] + STRINGS_DELIMITER + (timezone != null ? timezone : ""));
+        prefs.apply();
+    }
+
     /**
      * @param context context used to access preferences
      * @return calendarWindow pref (ms value) [past]
@@ -169,6 +359,22 @@ public class SuntimesCalendarSettings
         String location = prefs.getString(PREF_KEY_CALENDARS_TEMPLATE_LOCATION + calendar, defaultTemplate.getLocation());
         return new CalendarEventTemplate(title, desc, location);
     }
+
+    /**
+     * loadPrefs
+     * @return a snapshot of all preferences; pass this to the `Map` variants of the load methods to read many values at once
+     */
+    @NonNull
+    public static Map<String, ?> loadPrefs(Context context) {
+        return PreferenceManager.getDefaultSharedPreferences(context).getAll();
+    }
+    @Nullable
+    protected static String getString(@NonNull Map<String, ?> prefs, String key, @Nullable String defValue)
+    {
+        Object value = prefs.get(key);
+        return ((value instanceof String) ? (String) value : defValue);
+    }
+
     @Nullable
     public static String loadPrefCalendarTemplateTitle(Context context, String calendar)
     {
@@ -187,31 +393,45 @@ public class SuntimesCalendarSettings
         SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
         return prefs.getString(PREF_KEY_CALENDARS_TEMPLATE_LOCATION + calendar, null);
     }
+    @Nullable
+    public static String loadPrefCalendarTemplateTitle(@NonNull Map<String, ?> prefs, String calendar) {
+        return getString(prefs, PREF_KEY_CALENDARS_TEMPLATE_TITLE + calendar, null);
+    }
+    @Nullable
+    public static String loadPrefCalendarTemplateDesc(@NonNull Map<String, ?> prefs, String calendar) {
+        return getString(prefs, PREF_KEY_CALENDARS_TEMPLATE_DESC + calendar, null);
+    }
+    @Nullable
+    public static String loadPrefCalendarTemplateLocation(@NonNull Map<String, ?> prefs, String calendar) {
+        return getString(prefs, PREF_KEY_CALENDARS_TEMPLATE_LOCATION + calendar, null);
+    }
 
     /**
      * savePrefCalendarTemplate
      */
     public static void savePrefCalendarTemplate(Context context, String calendar, CalendarEventTemplate template)
     {
-        savePrefCalendarTemplateTitle(context, calendar, template.getTitle());
-        savePrefCalendarTemplateDesc(context, calendar, template.getDesc());
-        savePrefCalendarTemplateLocation(context, calendar, template.getLocation());
+        SharedPreferences.Editor prefs = PreferenceManager.getDefaultSharedPreferences(context).edit();
+        prefs.putString(PREF_KEY_CALENDARS_TEMPLATE_TITLE + calendar, template.getTitle());
+        prefs.putString(PREF_KEY_CALENDARS_TEMPLATE_DESC + calendar, template.getDesc());
+        prefs.putString(PREF_KEY_CALENDARS_TEMPLATE_LOCATION + calendar, template.getLocation());
+        applyTemplateChange(context, prefs, CalendarEventTemplateContract.QUERY_TEMPLATE, calendar);
     }
     public static void savePrefCalendarTemplateTitle(Context context, String calendar, @Nullable String title)
     {
         SharedPreferences.Editor prefs = PreferenceManager.getDefaultSharedPreferences(context).edit();
         prefs.putString(PREF_KEY_CALENDARS_TEMPLATE_TITLE + calendar, title);
-        prefs.apply();
+        applyTemplateChange(context, prefs, CalendarEventTemplateContract.QUERY_TEMPLATE, calendar);
     }
     public static void savePrefCalendarTemplateDesc(Context context, String calendar, @Nullable String desc) {
         SharedPreferences.Editor prefs = PreferenceManager.getDefaultSharedPreferences(context).edit();
         prefs.putString(PREF_KEY_CALENDARS_TEMPLATE_DESC + calendar, desc);
-        prefs.apply();
+        applyTemplateChange(context, prefs, CalendarEventTemplateContract.QUERY_TEMPLATE, calendar);
     }
     public static void savePrefCalendarTemplateLocation(Context context, String calendar, @Nullable String location) {
         SharedPreferences.Editor prefs = PreferenceManager.getDefaultSharedPreferences(context).edit();
         prefs.putString(PREF_KEY_CALENDARS_TEMPLATE_LOCATION + calendar, location);
-        prefs.apply();
+        applyTemplateChange(context, prefs, CalendarEventTemplateContract.QUERY_TEMPLATE, calendar);
     }
     public static void clearPrefCalendarTemplate(Context context, String calendar)
     {
@@ -219,7 +439,33 @@ public class SuntimesCalendarSettings
         prefs.remove(PREF_KEY_CALENDARS_TEMPLATE_TITLE + calendar);
         prefs.remove(PREF_KEY_CALENDARS_TEMPLATE_DESC + calendar);
         prefs.remove(PREF_KEY_CALENDARS_TEMPLATE_LOCATION + calendar);
+        applyTemplateChange(context, prefs, CalendarEventTemplateContract.QUERY_TEMPLATE, calendar);
+    }
+
+    /**
+     * loadPrefCalendarTemplateVersion
+     * @return template version; incremented whenever a template, strings, or flags are saved or cleared
+     */
+    public static long loadPrefCalendarTemplateVersion(Context context)
+    {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        return prefs.getLong(PREF_KEY_CALENDARS_TEMPLATE_VERSION, 0);
+    }
+
+    /**
+     * Applies template changes (incrementing the template version), then notifies observers of CalendarEventTemplateProvider.
+     * @param query QUERY_TEMPLATE, QUERY_STRINGS, or QUERY_FLAGS
+     */
+    protected static void applyTemplateChange(Context context, SharedPreferences.Editor prefs, String query, String calendar)
+    {
+        prefs.putLong(PREF_KEY_CALENDARS_TEMPLATE_VERSION, loadPrefCalendarTemplateVersion(context) + 1);
         prefs.apply();
+
+        ContentResolver resolver = context.getContentResolver();
+        String authority = "content://" + CalendarEventTemplateContract.AUTHORITY + "/";
+        resolver.notifyChange(Uri.parse(authority + query + "/" + calendar), null);
+        resolver.notifyChange(Uri.parse(authority + CalendarEventTemplateContract.QUERY_TEMPLATES), null);    // includes templates/all
+        resolver.notifyChange(Uri.parse(authority + CalendarEventTemplateContract.QUERY_CONFIG), null);
     }
 
     /**
@@ -228,32 +474,27 @@ public class SuntimesCalendarSettings
     public static void savePrefCalendarFlags(Context context, String calendar, CalendarEventFlags flags)
     {
         SharedPreferences.Editor prefs = PreferenceManager.getDefaultSharedPreferences(context).edit();
-        StringBuilder s = new StringBuilder();
-        boolean[] values = flags.getValues();
-        for (int i=0; i<values.length-1; i++) {
-            s.append(values[i]).append(STRINGS_DELIMITER);
-        }
-        s.append(values[values.length-1]);
-        prefs.putString(PREF_KEY_CALENDARS_TEMPLATE_FLAGS + calendar, s.toString());
-        prefs.apply();
+        prefs.putString(PREF_KEY_CALENDARS_TEMPLATE_FLAGS + calendar, CalendarEventValues.join(flags.getValues()));
+        applyTemplateChange(context, prefs, CalendarEventTemplateContract.QUERY_FLAGS, calendar);
     }
     public static CalendarEventFlags loadPrefCalendarFlags(Context context, String calendar, CalendarEventFlags defaultFlags)
     {
         SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
-        String s = prefs.getString(PREF_KEY_CALENDARS_TEMPLATE_FLAGS + calendar, null);
-        if (s != null)
-        {
-            String[] v = s.split("\\" + STRINGS_DELIMITER);
-            if (v.length == defaultFlags.getValues().length) {
-                return new CalendarEventFlags(v);
-            } else return defaultFlags;
-        } else return defaultFlags;
+        return parseCalendarFlags(prefs.getString(PREF_KEY_CALENDARS_TEMPLATE_FLAGS + calendar, null), defaultFlags);
+    }
+    public static CalendarEventFlags loadPrefCalendarFlags(@NonNull Map<String, ?> prefs, String calendar, CalendarEventFlags defaultFlags) {
+        return parseCalendarFlags(getString(prefs, PREF_KEY_CALENDARS_TEMPLATE_FLAGS + calendar, null), defaultFlags);
+    }
+    protected static CalendarEventFlags parseCalendarFlags(@Nullable String s, CalendarEventFlags defaultFlags)
+    {
+        String[] v = CalendarEventValues.split(s, defaultFlags.getValues().length);
+        return (v != null ? new CalendarEventFlags(v) : defaultFlags);
     }
     public static void clearPrefCalendarFlags(Context context, String calendar)
     {
         SharedPreferences.Editor prefs = PreferenceManager.getDefaultSharedPreferences(context).edit();
         prefs.remove(PREF_KEY_CALENDARS_TEMPLATE_FLAGS + calendar);
-        prefs.apply();
+        applyTemplateChange(context, prefs, CalendarEventTemplateContract.QUERY_FLAGS, calendar);
     }
 
     /**
@@ -262,26 +503,31 @@ public class SuntimesCalendarSettings
     public static void savePrefCalendarStrings(Context context, String calendar, CalendarEventStrings strings)
     {
         SharedPreferences.Editor prefs = PreferenceManager.getDefaultSharedPreferences(context).edit();
-        prefs.putString(PREF_KEY_CALENDARS_TEMPLATE_STRINGS + calendar, TextUtils.join(STRINGS_DELIMITER, strings.getValues()));
-        prefs.apply();
+        prefs.putString(PREF_KEY_CALENDARS_TEMPLATE_STRINGS + calendar, CalendarEventValues.join(strings.getValues()));
+        applyTemplateChange(context, prefs, CalendarEventTemplateContract.QUERY_STRINGS, calendar);
     }
     public static CalendarEventStrings loadPrefCalendarStrings(Context context, String calendar, CalendarEventStrings defaultStrings)
     {
         SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
-        String s = prefs.getString(PREF_KEY_CALENDARS_TEMPLATE_STRINGS + calendar, null);
-        if (s != null)
-        {
-            String[] v = s.split("\\" + STRINGS_DELIMITER);
-            if (v.length == defaultStrings.getValues().length) {
-                return new CalendarEventStrings(v);
-            } else return defaultStrings;
-        } else return defaultStrings;
+        return parseCalendarStrings(prefs.getString(PREF_KEY_CALENDARS_TEMPLATE_STRINGS + calendar, null), defaultStrings);
+    }
+    public static CalendarEventStrings loadPrefCalendarStrings(@NonNull Map<String, ?> prefs, String calendar, CalendarEventStrings defaultStrings) {
+        return parseCalendarStrings(getString(prefs, PREF_KEY_CALENDARS_TEMPLATE_STRINGS + calendar, null), defaultStrings);
+    }
+    @Nullable
+    public static String loadPrefCalendarStringsValue(@NonNull Map<String, ?> prefs, String calendar) {
+        return getString(prefs, PREF_KEY_CALENDARS_TEMPLATE_STRINGS + calendar, null);
+    }
+    protected static CalendarEventStrings parseCalendarStrings(@Nullable String s, CalendarEventStrings defaultStrings)
+    {
+        String[] v = CalendarEventValues.split(s, defaultStrings.getValues().length);
+        return (v != null ? new CalendarEventStrings(v) : defaultStrings);
     }
     public static void clearPrefCalendarStrings(Context context, String calendar)
     {
         SharedPreferences.Editor prefs = PreferenceManager.getDefaultSharedPreferences(context).edit();
         prefs.remove(PREF_KEY_CALENDARS_TEMPLATE_STRINGS + calendar);
-        prefs.apply();
+        applyTemplateChange(context, prefs, CalendarEventTemplateContract.QUERY_STRINGS, calendar);
     }
 
     /**
@@ -306,6 +552,24 @@ public class SuntimesCalendarSettings
         return new Reminder(loadPrefCalendarReminderMinutes(context, calendar, reminderNum), loadPrefCalendarReminderMethod(context, calendar, reminderNum));
     }
 
+    /**
+     * @return an array of [minutes, method] pairs (or null if the calendar has no reminders)
+     */
+    @Nullable
+    public static int[][] loadPrefCalendarReminders(Context context, String calendar)
+    {
+        ArrayList<int[]> reminders = new ArrayList<>();
+        int count = loadPrefCalendarReminderCount(context, calendar);
+        for (int i=0; i<count; i++)
+        {
+            int method = loadPrefCalendarReminderMethod(context, calendar, i);
+            if (method != -1) {
+                reminders.add(new int[] { loadPrefCalendarReminderMinutes(context, calendar, i), method });
+            }
+        }
+        return (reminders.isEmpty() ? null : reminders.toArray(new int[0][]));
+    }
+
     /**
      * savePrefCalendarReminder
      */
@@ -477,6 +741,23 @@ public class SuntimesCalendarSettings
         prefs.putString(PREF_KEY_CALENDARS_NOTES + calendar + "_" + key, note);
         prefs.apply();
     }
+
+    /**
+     * @return true if the calendar was hidden by the app (see loadPrefCalendarHideDisabled); calendars hidden by the user are not
+     * considered disabled, and are left hidden when the calendar is updated.
+     */
+    public static boolean isCalendarHiddenByApp(Context context, String calendar) {
+        return Boolean.parseBoolean(new SuntimesCalendarSettings().loadCalendarNote(context, calendar, NOTE_HIDDEN));
+    }
+    public static void saveCalendarHiddenByApp(Context context, String calendar, boolean value)
+    {
+        SharedPreferences.Editor prefs = PreferenceManager.getDefaultSharedPreferences(context).edit();
+        if (value) {
+            prefs.putString(PREF_KEY_CALENDARS_NOTES + calendar + "_" + NOTE_HIDDEN, Boolean.toString(true));
+        } else prefs.remove(PREF_KEY_CALENDARS_NOTES + calendar + "_" + NOTE_HIDDEN);
+        prefs.apply();
+    }
+
     public static void clearNotes(Context context, String calendar)
     {
         if (context == null) {
@@ -22,6 +22,7 @@ import android.content.Context;
 import android.support.annotation.Nullable;
 
 import com.forrestguice.suntimescalendars.R;
+import com.forrestguice.suntimeswidget.calendar.core.TemplateRenderer;
 import com.forrestguice.suntimeswidget.calendar.task.SuntimesCalendar;
 
 /**
@@ -29,17 +30,17 @@ import com.forrestguice.suntimeswidget.calendar.task.SuntimesCalendar;
  */
 public enum TemplatePatterns
 {
-    pattern_cal("%cal", R.string.help_pattern_cal),
-    pattern_summary("%summary", R.string.help_pattern_summary),
-    pattern_color("%color", R.string.help_pattern_color),
-    pattern_loc("%loc", R.string.help_pattern_loc),
-    pattern_lat("%lat", R.string.help_pattern_lat),
-    pattern_lon("%lon", R.string.help_pattern_lon),
-    pattern_lel("%lel", R.string.help_pattern_lel),
-    pattern_event("%M", R.string.help_pattern_event),
-    pattern_dist("%dist", R.string.help_pattern_dist),
-    pattern_illum("%i", R.string.help_pattern_illum),
-    pattern_percent("%%", R.string.help_pattern_percent);
+    pattern_cal(TemplateRenderer.PATTERN_CAL, R.string.help_pattern_cal),
+    pattern_summary(TemplateRenderer.PATTERN_SUMMARY, R.string.help_pattern_summary),
+    pattern_color(TemplateRenderer.PATTERN_COLOR, R.string.help_pattern_color),
+    pattern_loc(TemplateRenderer.PATTERN_LOC, R.string.help_pattern_loc),
+    pattern_lat(TemplateRenderer.PATTERN_LAT, R.string.help_pattern_lat),
+    pattern_lon(TemplateRenderer.PATTERN_LON, R.string.help_pattern_lon),
+    pattern_lel(TemplateRenderer.PATTERN_LEL, R.string.help_pattern_lel),
+    pattern_event(TemplateRenderer.PATTERN_EVENT, R.string.help_pattern_event),
+    pattern_dist(TemplateRenderer.PATTERN_DIST, R.string.help_pattern_dist),
+    pattern_illum(TemplateRenderer.PATTERN_ILLUM, R.string.help_pattern_illum),
+    pattern_percent(TemplateRenderer.PATTERN_PERCENT, R.string.help_pattern_percent);
 
     private final String pattern;
     private final int helpResource;
@@ -131,21 +132,18 @@ public enum TemplatePatterns
         return values;
     }
 
-    public static String replaceSubstitutions(@Nullable String pattern, ContentValues values)
+    /**
+     * @see TemplateRenderer#render
+     */
+    public static String replaceSubstitutions(@Nullable String pattern, final ContentValues values)
     {
-        String displayString = pattern;
-        if (pattern != null)
+        return TemplateRenderer.render(pattern, new TemplateRenderer.Values()
         {
-            //noinspection ForLoopReplaceableByForEach
-            TemplatePatterns[] patterns = TemplatePatterns.values();
-            for (int i=0; i<patterns.length; i++)
-            {
-                String p = patterns[i].getPattern();
-                String v = values.getAsString(p);
-                displayString = displayString.replaceAll(p, ((v != null) ? v : ""));
+            @Override
+            public String get(String p) {
+                return values.getAsString(p);
             }
-        }
-        return displayString;
+        });
     }
 
 }
@@ -0,0 +1,223 @@
+/**
+    Copyright (C) 2023 Forrest Guice
+    This file is part of SuntimesCalendars.
+
+    SuntimesCalendars is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    SuntimesCalendars is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with SuntimesCalendars.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package com.forrestguice.suntimeswidget.calendar.task;
+
+import android.database.Cursor;
+import android.net.Uri;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.forrestguice.suntimeswidget.calculator.core.CalculatorProviderContract;
+import com.forrestguice.suntimeswidget.calculator.embedded.EmbeddedCalculator;
+import com.forrestguice.suntimeswidget.calendar.ProviderSession;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * ProviderCapabilities
+ * The version of the calculator provider and the queries/columns it supports; resolved once per task (from a single config
+ * query) and handed to each calendar so that unsupported calendars fail before querying any data.
+ */
+@SuppressWarnings("Convert2Diamond")
+public class ProviderCapabilities
+{
+    public static final String[] QUERY_CONFIG_PROJECTION = new String[] {
+            CalculatorProviderContract.COLUMN_CONFIG_PROVIDER_VERSION, CalculatorProviderContract.COLUMN_CONFIG_PROVIDER_VERSION_CODE,    // 0, 1
+            CalculatorProviderContract.COLUMN_CONFIG_PROVIDER_VERSION_CODE_V2,                                                           // 2
+            CalculatorProviderContract.COLUMN_CONFIG_LOCATION, CalculatorProviderContract.COLUMN_CONFIG_LATITUDE,                        // 3, 4
+            CalculatorProviderContract.COLUMN_CONFIG_LONGITUDE, CalculatorProviderContract.COLUMN_CONFIG_ALTITUDE,                       // 5, 6
+            CalculatorProviderContract.COLUMN_CONFIG_TIMEZONE                                                                            // 7
+    };
+
+    public static final String VERSION_NAME_EMBEDDED = "embedded";
+
+    /**
+     * Queries supported by every provider version.
+     */
+    protected static final HashSet<String> QUERIES = new HashSet<>(Arrays.asList(
+            CalculatorProviderContract.QUERY_CONFIG, CalculatorProviderContract.QUERY_SUN, CalculatorProviderContract.QUERY_SUNPOS,
+            CalculatorProviderContract.QUERY_MOON, CalculatorProviderContract.QUERY_MOONPOS, CalculatorProviderContract.QUERY_MOONPHASE,
+            CalculatorProviderContract.QUERY_SEASONS
+    ));
+
+    /**
+     * Columns added after the initial version -> the provider version that adds them (see CalculatorProviderContract CHANGES).
+     */
+    protected static final HashMap<String, Integer> COLUMN_VERSIONS = new HashMap<>();
+    static
+    {
+        COLUMN_VERSIONS.put(CalculatorProviderContract.COLUMN_CONFIG_LOCATION, 1);
+        COLUMN_VERSIONS.put(CalculatorProviderContract.COLUMN_MOONPOS_PERIGEE, 2);
+        COLUMN_VERSIONS.put(CalculatorProviderContract.COLUMN_MOONPOS_APOGEE, 2);
+        COLUMN_VERSIONS.put(CalculatorProviderContract.COLUMN_MOONPOS_DISTANCE, 2);
+        COLUMN_VERSIONS.put(CalculatorProviderContract.COLUMN_MOON_NEW_DISTANCE, 2);
+        COLUMN_VERSIONS.put(CalculatorProviderContract.COLUMN_MOON_FIRST_DISTANCE, 2);
+        COLUMN_VERSIONS.put(CalculatorProviderContract.COLUMN_MOON_FULL_DISTANCE, 2);
+        COLUMN_VERSIONS.put(CalculatorProviderContract.COLUMN_MOON_THIRD_DISTANCE, 2);
+        COLUMN_VERSIONS.put(CalculatorProviderContract.COLUMN_CONFIG_APP_THEME_OVERRIDE, 4);
+        COLUMN_VERSIONS.put(CalculatorProviderContract.COLUMN_SEASON_SPRING, 5);
+        COLUMN_VERSIONS.put(CalculatorProviderContract.COLUMN_SEASON_TROPICAL_YEAR_LENGTH, 5);
+        COLUMN_VERSIONS.put(CalculatorProviderContract.COLUMN_SUNPOS_EOT, 5);
+        COLUMN_VERSIONS.put(CalculatorProviderContract.COLUMN_CONFIG_APP_TEXT_SIZE, 5);
+    }
+
+    protected final boolean available;
+    protected final int versionCode;
+    protected final String versionName;
+    protected final String[] location;    // [name, latitude, longitude, altitude]
+    protected final String timezone;
+    protected final Set<String> queries;
+
+    public ProviderCapabilities(boolean available, int versionCode, @Nullable String versionName, @NonNull String[] location) {
+        this(available, versionCode, versionName, location, null, QUERIES);
+    }
+
+    public ProviderCapabilities(boolean available, int versionCode, @Nullable String versionName, @NonNull String[] location, @Nullable String timezone, @NonNull Set<String> queries)
+    {
+        this.available = available;
+        this.versionCode = versionCode;
+        this.versionName = versionName;
+        this.location = location;
+        this.timezone = timezone;
+        this.queries = queries;
+    }
+
+    /**
+     * Capabilities of a provider that couldn't be reached (nothing is supported).
+     */
+    public static ProviderCapabilities unavailable() {
+        return new ProviderCapabilities(false, 0, null, new String[] { "", "", "", "" });
+    }
+
+    /**
+     * @param cursor a config cursor (see QUERY_CONFIG_PROJECTION); positioned on the config row
+     */
+    public static ProviderCapabilities fromCursor(@NonNull Cursor cursor)
+    {
+        int versionCode = !cursor.isNull(1) ? cursor.getInt(1)
+                        : !cursor.isNull(2) ? cursor.getInt(2) : 0;    // v0-v2 use the misspelled key
+        String versionName = !cursor.isNull(0) ? cursor.getString(0) : null;
+        String[] location = new String[4];
+        for (int i=0; i<location.length; i++) {
+            location[i] = cursor.getString(3 + i);
+        }
+        String timezone = (cursor.getColumnCount() > 7 && !cursor.isNull(7)) ? cursor.getString(7) : null;
+        return new ProviderCapabilities(true, versionCode, versionName, location, timezone, QUERIES);
+    }
+
+    /**
+     * Capabilities of the embedded calculator (see EmbeddedCalculatorSession). Queries it doesn't implement (e.g. moonpos) are
+     * supported only if the external provider is available; their columns are assumed to be those of the current contract.
+     * @param external capabilities of the calculator provider (possibly unavailable)
+     * @param location [name, latitude, longitude, altitude]
+     */
+    public static ProviderCapabilities embedded(@NonNull ProviderCapabilities external, @NonNull String[] location, @Nullable String timezone)
+    {
+        HashSet<String> queries = new HashSet<>(EmbeddedCalculator.QUERIES);
+        queries.add(CalculatorProviderContract.QUERY_CONFIG);
+        if (external.isAvailable()) {
+            queries.addAll(external.queries);
+        }
+        return new ProviderCapabilities(true, CalculatorProviderContract.VERSION_CODE, VERSION_NAME_EMBEDDED, location, timezone, queries);
+    }
+
+    /**
+     * @return capabilities of the installed provider, or unavailable() if the config query doesn't resolve
+     * @throws SecurityException if the provider permission hasn't been granted
+     */
+    public static ProviderCapabilities query(@NonNull ProviderSession session) throws SecurityException
+    {
+        Uri uri = Uri.parse("content://" + CalculatorProviderContract.AUTHORITY + "/" + CalculatorProviderContract.QUERY_CONFIG);
+        ProviderCapabilities capabilities = session.query(uri, QUERY_CONFIG_PROJECTION, null, null, null, new ProviderSession.CursorReader<ProviderCapabilities>()
+        {
+            @Override
+            public ProviderCapabilities readCursor(@NonNull Cursor cursor) {
+                return (cursor.moveToFirst() ? fromCursor(cursor) : unavailable());
+            }
+        });
+        return (capabilities != null ? capabilities : unavailable());
+    }
+
+    public boolean isAvailable() {
+        return available;
+    }
+
+    public int getVersionCode() {
+        return versionCode;
+    }
+
+    @Nullable
+    public String getVersionName() {
+        return versionName;
+    }
+
+    /**
+     * @return [name, latitude, longitude, altitude]
+     */
+    public String[] getLocation() {
+        return location;
+    }
+
+    /**
+     * @return timezone ID of the provider's config, or null if unknown
+     */
+    @Nullable
+    public String getTimeZone() {
+        return timezone;
+    }
+
+    public boolean isEmbedded() {
+        return VERSION_NAME_EMBEDDED.equals(versionName);
+    }
+
+    public boolean supportsQuery(String query) {
+        return available && queries.contains(query);
+    }
+
+    public boolean supportsColumn(String column)
+    {
+        Integer since = COLUMN_VERSIONS.get(column);
+        return available && (since == null || versionCode >= since);
+    }
+
+    /**
+     * @return true if the query and all of the given columns are supported
+     */
+    public boolean isSupported(String query, String... columns)
+    {
+        if (!supportsQuery(query)) {
+            return false;
+        }
+        for (String column : columns) {
+            if (!supportsColumn(column)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return "ProviderCapabilities{available=" + available + ", versionCode=" + versionCode + ", versionName=" + versionName + "}";
+    }
+}
@@ -28,11 +28,15 @@ import com.forrestguice.suntimeswidget.calendar.CalendarEventTemplate;
 import com.forrestguice.suntimeswidget.calendar.CalendarEventFlags;
 
 /**
- * @version 0.2.0
+ * @version 0.3.0
  *
  * v0.1.0 initial version
  * v0.2.0 adds columns for default template; TEMPLATE_TITLE, TEMPLATE_DESCRIPTION, TEMPLATE_LOCATION, TEMPLATE_STRINGS
  *        adds QUERY_CALENDAR_TEMPLATE_STRINGS, QUERY_CALENDAR_TEMPLATE_FLAGS, QUERY_CALENDAR_TEMPLATE_FLAG_LABELS
+ * v0.3.0 adds protocol v2; an add-on declares it with COLUMN_CALENDAR_PROTOCOL_VERSION (QUERY_CALENDAR_INFO_PROJECTION_V2)
+ *        adds QUERY_CALENDAR_METADATA (info, strings, and flags in one query)
+ *        adds paged QUERY_CALENDAR_CONTENT (PARAM_CONTENT_LIMIT, PARAM_CONTENT_TOKEN, EXTRA_CONTENT_CONTINUATION)
+ *        adds streamed QUERY_CALENDAR_CONTENT (PARAM_CONTENT_STREAM; rows are encoded by calendar.core.CalendarContentStream)
  */
 @SuppressWarnings("Convert2Diamond")
 public interface SuntimesCalendar
@@ -49,11 +53,40 @@ public interface SuntimesCalendar
     String COLUMN_CALENDAR_TEMPLATE_FLAGS = "template_flags";               // bool as String (template flags)
     String COLUMN_CALENDAR_TEMPLATE_FLAG_LABELS = "template_flag_labels";   // String (flag labels)
 
+    String COLUMN_CALENDAR_PROTOCOL_VERSION = "protocol_version";          // int (missing for v1 add-ons)
+    String COLUMN_CALENDAR_CONTENT_MODES = "content_modes";                // int (bitmask of CONTENT_MODE_*) [v2]
+    String COLUMN_CALENDAR_TEMPLATE_STRINGS_COUNT = "template_strings_count";   // int (rows containing a template string) [v2]
+    String COLUMN_CALENDAR_TEMPLATE_FLAGS_COUNT = "template_flags_count";       // int (rows containing a template flag) [v2]
+
+    int PROTOCOL_VERSION_1 = 1;
+    int PROTOCOL_VERSION_2 = 2;
+
+    int CONTENT_MODE_PAGED = 1;     // QUERY_CALENDAR_CONTENT accepts PARAM_CONTENT_LIMIT and PARAM_CONTENT_TOKEN
+    int CONTENT_MODE_STREAM = 2;    // openFile(QUERY_CALENDAR_CONTENT + ?PARAM_CONTENT_STREAM) returns a pipe
+
     String QUERY_CALENDAR_INFO = "calendarInfo";
     String[] QUERY_CALENDAR_INFO_PROJECTION = new String[] {
             COLUMN_CALENDAR_NAME, COLUMN_CALENDAR_TITLE, COLUMN_CALENDAR_SUMMARY, COLUMN_CALENDAR_COLOR,
             COLUMN_CALENDAR_TEMPLATE_TITLE, COLUMN_CALENDAR_TEMPLATE_DESCRIPTION, COLUMN_CALENDAR_TEMPLATE_LOCATION
     };
+    String[] QUERY_CALENDAR_INFO_PROJECTION_V2 = new String[] {
+            COLUMN_CALENDAR_NAME, COLUMN_CALENDAR_TITLE, COLUMN_CALENDAR_SUMMARY, COLUMN_CALENDAR_COLOR,
+            COLUMN_CALENDAR_TEMPLATE_TITLE, COLUMN_CALENDAR_TEMPLATE_DESCRIPTION, COLUMN_CALENDAR_TEMPLATE_LOCATION,
+            COLUMN_CALENDAR_PROTOCOL_VERSION
+    };
+
+    /**
+     * [v2] One or more rows; the first row contains the calendar info, and row i contains template string i and
+     * template flag (and label) i (null after the first STRINGS_COUNT and FLAGS_COUNT rows).
+     */
+    String QUERY_CALENDAR_METADATA = "calendarMetadata";
+    String[] QUERY_CALENDAR_METADATA_PROJECTION = new String[] {
+            COLUMN_CALENDAR_NAME, COLUMN_CALENDAR_TITLE, COLUMN_CALENDAR_SUMMARY, COLUMN_CALENDAR_COLOR,
+            COLUMN_CALENDAR_TEMPLATE_TITLE, COLUMN_CALENDAR_TEMPLATE_DESCRIPTION, COLUMN_CALENDAR_TEMPLATE_LOCATION,
+            COLUMN_CALENDAR_PROTOCOL_VERSION, COLUMN_CALENDAR_CONTENT_MODES,
+            COLUMN_CALENDAR_TEMPLATE_STRINGS_COUNT, COLUMN_CALENDAR_TEMPLATE_STRINGS,
+            COLUMN_CALENDAR_TEMPLATE_FLAGS_COUNT, COLUMN_CALENDAR_TEMPLATE_FLAGS, COLUMN_CALENDAR_TEMPLATE_FLAG_LABELS
+    };
 
     String QUERY_CALENDAR_TEMPLATE_STRINGS = "calendarTemplateStrings";
     String[] QUERY_CALENDAR_TEMPLATE_STRINGS_PROJECTION = new String[] { COLUMN_CALENDAR_TEMPLATE_STRINGS };
@@ -61,7 +94,12 @@ public interface SuntimesCalendar
     String QUERY_CALENDAR_TEMPLATE_FLAGS = "calendarTemplateFlags";
     String[] QUERY_CALENDAR_TEMPLATE_FLAGS_PROJECTION = new String[] { COLUMN_CALENDAR_TEMPLATE_FLAGS, COLUMN_CALENDAR_TEMPLATE_FLAG_LABELS };
 
-    String QUERY_CALENDAR_CONTENT = "calendarContent";
+    String QUERY_CALENDAR_CONTENT = "calendarContent";       // calendarContent/<start>-<end>
+
+    String PARAM_CONTENT_LIMIT = "limit";                    // [v2] max rows in a page
+    String PARAM_CONTENT_TOKEN = "token";                    // [v2] continuation token of the previous page
+    String EXTRA_CONTENT_CONTINUATION = "continuation";      // [v2] cursor extra (getExtras); token of the next page, or missing after the last page
+    String PARAM_CONTENT_STREAM = "stream";                  // [v2] calendarContent/<start>-<end>?stream=1 (openFile)
 
     void init(@NonNull Context context, @NonNull SuntimesCalendarSettings settings);
     boolean initCalendar(@NonNull SuntimesCalendarSettings settings,
@@ -70,6 +108,12 @@ public interface SuntimesCalendar
                          @NonNull SuntimesCalendarTaskProgress progress0,
                          @NonNull long[] window);
 
+    /**
+     * @param capabilities provider capabilities (see SuntimesCalendarTask.getProviderCapabilities)
+     * @return true if the calendar can be created using this provider; lastError is assigned otherwise
+     */
+    boolean isSupported(@NonNull ProviderCapabilities capabilities);
+
     /**
      * @return last error message encountered during processing (if any)
      */
@@ -0,0 +1,90 @@
+/**
+    Copyright (C) 2023 Forrest Guice
+    This file is part of SuntimesCalendars.
+
+    SuntimesCalendars is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    SuntimesCalendars is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with SuntimesCalendars.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.forrestguice.suntimeswidget.calendar.task;
+
+import android.annotation.TargetApi;
+import android.app.job.JobInfo;
+import android.app.job.JobParameters;
+import android.app.job.JobScheduler;
+import android.app.job.JobService;
+import android.content.ComponentName;
+import android.content.Context;
+import android.net.Uri;
+import android.os.Build;
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import com.forrestguice.suntimeswidget.calculator.core.CalculatorProviderContract;
+import com.forrestguice.suntimeswidget.calendar.SuntimesCalendarSettings;
+
+/**
+ * Triggered by changes to the calculator config (API 24+); the trigger is held by JobScheduler, so changes are noticed while
+ * the app isn't running. Content triggers fire once, so the job is rescheduled each time it runs. The update itself is queued
+ * with the task service, which is started in the foreground (see SuntimesCalendarTaskService.startConfigChange).
+ */
+@TargetApi(24)
+public class SuntimesCalendarConfigJobService extends JobService
+{
+    public static final String TAG = "SuntimesCalendarConfig";
+    public static final int JOB_ID = 1001;
+    public static final long CONFIG_CHANGE_MAX_DELAY = 60 * 1000;    // ms
+
+    @Override
+    public boolean onStartJob(JobParameters params)
+    {
+        scheduleConfigJob(this);
+        SuntimesCalendarTaskService.startConfigChange(this);    // the job is done once the service is started
+        return false;
+    }
+
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        return false;
+    }
+
+    public static Uri getConfigUri() {
+        return Uri.parse("content://" + CalculatorProviderContract.AUTHORITY + "/" + CalculatorProviderContract.QUERY_CONFIG);
+    }
+
+    /**
+     * Schedules the config trigger while calendars are enabled (or cancels it otherwise); does nothing prior to API 24
+     * (the task service observes the config while it is running instead).
+     */
+    public static void scheduleConfigJob(@NonNull Context context)
+    {
+        if (Build.VERSION.SDK_INT < 24) {
+            return;
+        }
+        JobScheduler scheduler = (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        if (scheduler == null) {
+            return;
+        }
+
+        if (SuntimesCalendarSettings.loadCalendarsEnabledPref(context))
+        {
+            JobInfo.Builder job = new JobInfo.Builder(JOB_ID, new ComponentName(context, SuntimesCalendarConfigJobService.class));
+            job.addTriggerContentUri(new JobInfo.TriggerContentUri(getConfigUri(), JobInfo.TriggerContentUri.FLAG_NOTIFY_FOR_DESCENDANTS));
+            job.setTriggerContentUpdateDelay(SuntimesCalendarTaskService.CONFIG_CHANGE_DELAY);
+            job.setTriggerContentMaxDelay(CONFIG_CHANGE_MAX_DELAY);
+            if (scheduler.schedule(job.build()) != JobScheduler.RESULT_SUCCESS) {
+                Log.w(TAG, "scheduleConfigJob: failed to schedule job!");
+            }
+        } else scheduler.cancel(JOB_ID);
+    }
+}
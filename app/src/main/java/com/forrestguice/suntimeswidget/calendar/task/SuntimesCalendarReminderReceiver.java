@@ -0,0 +1,168 @@
+/**
+    Copyright (C) 2023 Forrest Guice
+    This file is part of SuntimesCalendars.
+
+    SuntimesCalendars is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    SuntimesCalendars is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with SuntimesCalendars.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package com.forrestguice.suntimeswidget.calendar.task;
+
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import com.forrestguice.suntimeswidget.calendar.SuntimesCalendarAdapter;
+import com.forrestguice.suntimeswidget.calendar.SuntimesCalendarDescriptor;
+import com.forrestguice.suntimeswidget.calendar.SuntimesCalendarSettings;
+
+/**
+ * Rolls the reminder horizon forward (see SuntimesCalendarSettings.loadPrefCalendarReminderHorizon); reminders are added
+ * to events entering the horizon, and reminders belonging to past events are removed. Rolling is scheduled with AlarmManager
+ * (once a day) while the horizon is enabled.
+ */
+public class SuntimesCalendarReminderReceiver extends BroadcastReceiver
+{
+    public static final String TAG = "SuntimesCalendarReminders";
+    public static final String ACTION_ROLL_REMINDERS = "suntimes.calendar.action.ROLL_REMINDERS";
+
+    @Override
+    public void onReceive(final Context context, Intent intent)
+    {
+        String action = (intent != null ? intent.getAction() : null);
+        if (action == null) {
+            return;
+        }
+
+        switch (action)
+        {
+            case ACTION_ROLL_REMINDERS:
+                final PendingResult result = goAsync();
+                new Thread(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        try {
+                            rollReminders(context.getApplicationContext());
+                        } finally {
+                            result.finish();
+                        }
+                    }
+                }).start();
+                break;
+
+            case Intent.ACTION_BOOT_COMPLETED:
+            case Intent.ACTION_MY_PACKAGE_REPLACED:
+                scheduleRollReminders(context);
+                SuntimesCalendarConfigJobService.scheduleConfigJob(context);    // content triggers aren't persisted across reboots
+                break;
+        }
+    }
+
+    /**
+     * Rolls the reminder horizon of each enabled calendar.
+     * @return the number of reminders added
+     */
+    public static int rollReminders(@NonNull Context context)
+    {
+        long duration = SuntimesCalendarSettings.loadPrefCalendarReminderHorizon(context);
+        if (duration <= 0 || !SuntimesCalendarSettings.loadCalendarsEnabledPref(context)) {
+            return 0;
+        }
+
+        int count = 0;
+        long[] horizon = SuntimesCalendarAdapter.createReminderHorizon(duration);
+        String[] calendars = SuntimesCalendarDescriptor.getCalendars(context);
+        SuntimesCalendarAdapter adapter = new SuntimesCalendarAdapter(context.getContentResolver(), calendars);
+        try {
+            for (String calendar : calendars)
+            {
+                int[][] reminders = SuntimesCalendarSettings.loadPrefCalendarReminders(context, calendar);
+                if (reminders == null || !SuntimesCalendarSettings.loadPrefCalendarEnabled(context, calendar)) {
+                    continue;
+                }
+                for (long calendarID : adapter.queryCalendarIDs(calendar)) {    // the calendar (or its year shards)
+                    count += adapter.rollReminderHorizon(calendarID, reminders, horizon);
+                }
+            }
+        } catch (SecurityException e) {
+            Log.e(TAG, "rollReminders: Unable to access provider! " + e);
+        }
+        Log.i(TAG, "rollReminders: added " + count + " reminders");
+        return count;
+    }
+
+    /**
+     * Applies a changed reminder horizon to a calendar (see SuntimesCalendarTaskItem.ACTION_REMINDERS_HORIZON; run by the task so
+     * it doesn't race other tasks); reminders belonging to events beyond the horizon are removed, and reminders are added to
+     * events within it (or to all events if the horizon is disabled).
+     * @param duration the horizon (ms), or 0 (disabled)
+     * @return the number of reminders added
+     */
+    public static int updateReminderHorizon(@NonNull Context context, @NonNull SuntimesCalendarAdapter adapter, @NonNull String calendar, long duration)
+    {
+        int[][] reminders = SuntimesCalendarSettings.loadPrefCalendarReminders(context, calendar);
+        if (reminders == null) {
+            return 0;
+        }
+
+        int count = 0;
+        long[] horizon = (duration > 0 ? SuntimesCalendarAdapter.createReminderHorizon(duration) : null);
+        for (long calendarID : adapter.queryCalendarIDs(calendar))    // the calendar (or its year shards)
+        {
+            if (horizon != null)
+            {
+                adapter.removeRemindersAfter(calendarID, horizon[1]);
+                count += adapter.rollReminderHorizon(calendarID, reminders, horizon);
+            } else {
+                count += adapter.addMissingReminders(calendarID, reminders, 0, Long.MAX_VALUE);
+            }
+        }
+        Log.i(TAG, "updateReminderHorizon: added " + count + " reminders to " + calendar);
+        return count;
+    }
+
+    /**
+     * Schedules a daily alarm that rolls the reminder horizon forward (or cancels it if the horizon is disabled).
+     */
+    public static void scheduleRollReminders(@NonNull Context context) {
+        scheduleRollReminders(context, SuntimesCalendarSettings.loadPrefCalendarReminderHorizon(context));
+    }
+
+    public static void scheduleRollReminders(@NonNull Context context, long duration)
+    {
+        AlarmManager alarmManager = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+        if (alarmManager == null) {
+            return;
+        }
+
+        PendingIntent pendingIntent = getRollRemindersIntent(context);
+        boolean enabled = (duration > 0 && SuntimesCalendarSettings.loadCalendarsEnabledPref(context));
+        if (enabled) {
+            alarmManager.setInexactRepeating(AlarmManager.RTC, System.currentTimeMillis() + AlarmManager.INTERVAL_DAY, AlarmManager.INTERVAL_DAY, pendingIntent);
+        } else alarmManager.cancel(pendingIntent);
+    }
+
+    protected static PendingIntent getRollRemindersIntent(@NonNull Context context)
+    {
+        Intent intent = new Intent(context, SuntimesCalendarReminderReceiver.class);
+        intent.setAction(ACTION_ROLL_REMINDERS);
+        return PendingIntent.getBroadcast(context, 0, intent, 0);
+    }
+}
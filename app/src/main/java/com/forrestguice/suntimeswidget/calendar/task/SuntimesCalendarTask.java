@@ -28,21 +28,34 @@ import android.content.OperationApplicationException;
 import android.database.Cursor;
 import android.net.Uri;
 import android.os.Build;
+import android.os.Process;
 import android.os.RemoteException;
 import android.provider.CalendarContract;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
+import android.text.TextUtils;
+import android.text.format.DateUtils;
 import android.util.Log;
 
+import com.forrestguice.suntimescalendars.R;
+import com.forrestguice.suntimeswidget.calendar.CalendarEventFlags;
+import com.forrestguice.suntimeswidget.calendar.CalendarLocationShift;
+import com.forrestguice.suntimeswidget.calendar.CalendarEventStrings;
+import com.forrestguice.suntimeswidget.calendar.CalendarEventTemplate;
+import com.forrestguice.suntimeswidget.calendar.ProviderSession;
 import com.forrestguice.suntimeswidget.calendar.SuntimesCalendarAdapter;
 import com.forrestguice.suntimeswidget.calendar.SuntimesCalendarDescriptor;
 import com.forrestguice.suntimeswidget.calendar.SuntimesCalendarFactory;
 import com.forrestguice.suntimeswidget.calendar.SuntimesCalendarSettings;
 import com.forrestguice.suntimeswidget.calendar.SuntimesCalendarSyncAdapter;
+import com.forrestguice.suntimeswidget.calendar.TemplatePatterns;
+import com.forrestguice.suntimeswidget.calendar.task.calendars.ContentProviderCalendar;
+import com.forrestguice.suntimeswidget.calendar.task.calendars.SuntimesCalendarBase;
 
-import java.lang.ref.WeakReference;
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.TreeSet;
 
 @SuppressWarnings("Convert2Diamond")
@@ -53,10 +66,6 @@ public class SuntimesCalendarTask extends SuntimesCalendarTaskBase
     public SuntimesCalendarTask(Context context)
     {
         super(context);
-        contextRef = new WeakReference<Context>(context);
-        adapter = new SuntimesCalendarAdapter(context.getContentResolver(), SuntimesCalendarDescriptor.getCalendars(context));
-        calendarWindow0 = SuntimesCalendarSettings.loadPrefCalendarWindow0(context);
-        calendarWindow1 = SuntimesCalendarSettings.loadPrefCalendarWindow1(context);
     }
 
     private long[] getWindow()
@@ -96,35 +105,41 @@ public class SuntimesCalendarTask extends SuntimesCalendarTaskBase
             setItems(items);
         }
 
+        adapter.setProviderSession(getProviderSession(CalendarContract.AUTHORITY));
+        try {
+            return updateCalendars();
+
+        } finally {
+            adapter.setProviderSession(null);
+            closeProviderSessions();
+        }
+    }
+
+    /**
+     * Runs the task's items (within the task's provider sessions; see doInBackground).
+     */
+    private boolean updateCalendars()
+    {
         if (flag_clear && !isCancelled())
         {
             Context context = contextRef.get();
             String[] calendars = SuntimesCalendarDescriptor.getCalendars(context);
 
-            SuntimesCalendarTaskProgress progress0 = new SuntimesCalendarTaskProgress(0, calendars.length, notificationMsgClearing);
+            SuntimesCalendarTaskProgress progress0 = new SuntimesCalendarTaskProgress(0, 1, notificationMsgClearing);
             publishProgress(progress0);
 
-            int c = 0;
-            for (String calendar : calendars)
-            {
+            for (String calendar : calendars) {
                 SuntimesCalendarSettings.clearNotes(context, calendar);
-                long calendarID = adapter.queryCalendarID(calendar);
-                if (calendarID != -1)
-                {
-                    SuntimesCalendarDescriptor calendarDesc = SuntimesCalendarDescriptor.getDescriptor(context, calendar);
-                    progress0.setProgress(c, progress0.getCount(), calendarDesc.calendarTitle());
-
-                    removeCalendarReminders(calendarID, progress0);
-                    adapter.removeCalendar(calendarID);
-                }
-                c++;
             }
             adapter.removeCalendars();
         }
 
         long[] window = getWindow();
+        long[] window0 = getUsableWindow(window);
+        adapter.setYearShards(SuntimesCalendarSettings.loadPrefCalendarYearShards(contextRef.get()));
         boolean hasLocation = initLocation();
         boolean retValue = true;
+        HashMap<String, long[][]> backfill = new HashMap<>();    // calendarName -> ranges remaining after the first pass
 
         publishProgress(new SuntimesCalendarTaskProgress(1, 1000, notificationMsgUpdating));
         try {
@@ -136,20 +151,33 @@ public class SuntimesCalendarTask extends SuntimesCalendarTaskBase
             {
                 SuntimesCalendarTaskItem item = taskItems.get(calendarName);
                 SuntimesCalendarDescriptor descriptor = SuntimesCalendarDescriptor.getDescriptor(contextRef.get(), calendarName);
-                SuntimesCalendar calendar = factory.createCalendar(contextRef.get(), descriptor);
                 int action = item.getAction();
+                if (action != SuntimesCalendarTaskItem.ACTION_DELETE && isAddonSkipped(descriptor)) {
+                    c++;
+                    continue;    // degraded add-ons aren't queried at all (see onAddonResult)
+                }
+
+                SuntimesCalendar calendar = (action == SuntimesCalendarTaskItem.ACTION_DELETE ? factory.createCalendar(contextRef.get(), descriptor)
+                                                                                              : createCalendar(factory, descriptor));
+                if (calendar == null && descriptor != null && descriptor.isAddon() && action != SuntimesCalendarTaskItem.ACTION_DELETE) {
+                    c++;
+                    continue;    // the add-on didn't respond (counted by createCalendar)
+                }
                 switch (action)
                 {
                     case SuntimesCalendarTaskItem.ACTION_DELETE:
                         SuntimesCalendarTaskProgress progress = new SuntimesCalendarTaskProgress(0, 1000, notificationMsgClearing + "\n" + calendar.calendarTitle());
                         publishProgress(null, progress);
-                        removeCalendarReminders(calendarName, progress);
+                        if (SuntimesCalendarSettings.loadPrefCalendarHideDisabled(contextRef.get()) && hideCalendar(calendarName)) {
+                            break;    // hidden calendars are kept (along with their notes); see initCalendar
+                        }
                         retValue = retValue && adapter.removeCalendar(calendarName);
                         SuntimesCalendarSettings.clearNotes(contextRef.get(), calendarName);
                         break;
 
                     case SuntimesCalendarTaskItem.ACTION_REMINDERS_DELETE:
                     case SuntimesCalendarTaskItem.ACTION_REMINDERS_UPDATE:
+                    case SuntimesCalendarTaskItem.ACTION_REMINDERS_HORIZON:
                         publishProgress(null, new SuntimesCalendarTaskProgress(1, 1000, notificationMsgReminderUpdating));
                         // no-break; fall through to next case
 
@@ -169,8 +197,37 @@ public class SuntimesCalendarTask extends SuntimesCalendarTaskBase
                                     retValue = retValue && updateCalendarReminders(calendar, new SuntimesCalendarTaskProgress(c, n, calendar.calendarTitle() + "\n" + notificationMsgReminders));
                                     break;
 
+                                case SuntimesCalendarTaskItem.ACTION_REMINDERS_HORIZON:
+                                    publishProgress(null, new SuntimesCalendarTaskProgress(c, n, calendar.calendarTitle() + "\n" + notificationMsgReminders));
+                                    SuntimesCalendarReminderReceiver.updateReminderHorizon(contextRef.get(), adapter, calendar.calendarName(), SuntimesCalendarSettings.loadPrefCalendarReminderHorizon(contextRef.get()));
+                                    break;
+
                                 default:
-                                    retValue = retValue && hasLocation && initCalendar(calendar, window, new SuntimesCalendarTaskProgress(c, n, calendar.calendarTitle()));
+                                    boolean retValue0 = retValue;
+                                    retValue = retValue && hasLocation && calendar.isSupported(capabilities);    // fail before any data queries
+                                    if (retValue)
+                                    {
+                                        long[][] ranges0 = prepareCalendar(calendar, window);
+                                        if (isStagedRebuild(ranges0, window))
+                                        {
+                                            retValue = initCalendarStaged(calendar, window, new SuntimesCalendarTaskProgress(c, n, calendar.calendarTitle()));
+                                            if (retValue) {
+                                                saveWindowNotes(contextRef.get(), calendar, window);
+                                            }
+
+                                        } else {
+                                            long[][][] ranges = splitRanges(ranges0, window0);    // first pass: the coming days
+                                            retValue = initCalendar(calendar, ranges[0], new SuntimesCalendarTaskProgress(c, n, calendar.calendarTitle()), null);
+                                            if (retValue) {
+                                                backfill.put(calendarName, ranges[1]);
+                                            }
+                                        }
+                                    }
+                                    if (descriptor != null && descriptor.isAddon() && retValue0 && hasLocation && !isCancelled())
+                                    {
+                                        onAddonResult(descriptor, calendar, retValue);
+                                        retValue = true;    // a failed add-on doesn't fail the other calendars (it is reported by lastWarning)
+                                    }
                                     break;
                             }
                             if (!retValue) {
@@ -191,6 +248,44 @@ public class SuntimesCalendarTask extends SuntimesCalendarTaskBase
                 c++;
             }
 
+            if (retValue && !backfill.isEmpty() && !isCancelled())
+            {
+                triggerOnUsable();    // second pass: backfill the rest of the window (at lower priority)
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND + Process.THREAD_PRIORITY_LESS_FAVORABLE);
+                adapter.setWriteDelay(BACKFILL_WRITE_DELAY);    // leave room for other readers and writers between batches
+                try {
+                    c = 0;
+                    n = backfill.size();
+                    for (String calendarName : new TreeSet<>(backfill.keySet()))
+                    {
+                        SuntimesCalendarDescriptor descriptor = SuntimesCalendarDescriptor.getDescriptor(contextRef.get(), calendarName);
+                        SuntimesCalendar calendar = createCalendar(factory, descriptor);
+                        if (calendar != null)
+                        {
+                            retValue = initCalendar(calendar, backfill.get(calendarName), new SuntimesCalendarTaskProgress(c, n, calendar.calendarTitle()), null);
+                            if (retValue && !isCancelled()) {
+                                saveWindowNotes(contextRef.get(), calendar, window);
+
+                            } else if (descriptor != null && descriptor.isAddon() && !isCancelled()) {
+                                onAddonResult(descriptor, calendar, false);
+                                retValue = true;
+
+                            } else {
+                                String calendarError = calendar.lastError();
+                                if (calendarError != null && !calendarError.isEmpty()) {
+                                    lastError = calendar.lastError();
+                                }
+                                break;
+                            }
+                        }
+                        c++;
+                    }
+                } finally {
+                    adapter.setWriteDelay(0);
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                }
+            }
+
         } catch (SecurityException e) {
             lastError = "Unable to access provider! " + e;
             Log.e(TAG, lastError);
@@ -200,30 +295,645 @@ public class SuntimesCalendarTask extends SuntimesCalendarTaskBase
         return retValue;
     }
 
+    /**
+     * Creates the calendar; add-ons are queried through the task's session for the add-on (with a deadline), and an add-on
+     * that can't be queried (e.g. its calendarInfo query timed out) counts as a failure (see onAddonResult).
+     * @return the calendar, or null if it can't be created
+     */
+    @Nullable
+    private SuntimesCalendar createCalendar(@NonNull SuntimesCalendarFactory factory, @Nullable SuntimesCalendarDescriptor descriptor)
+    {
+        Context context = contextRef.get();
+        if (descriptor == null || !descriptor.isAddon()) {
+            return factory.createCalendar(context, descriptor);
+        }
+
+        ProviderSession session = getProviderSession(Uri.parse(descriptor.calendarRef()).getAuthority());
+        ContentProviderCalendar calendar = factory.createAddonCalendar(context, descriptor.calendarRef(), session);
+        if (calendar.calendarName() == null)
+        {
+            Log.e(TAG, "createCalendar: " + descriptor.calendarRef() + " did not respond; " + calendar.lastError());
+            onAddonResult(descriptor, calendar, false);
+            return null;
+        }
+        return calendar;
+    }
+
+    public static final int ADDON_MAX_FAILURES = 3;                        // consecutive failures before an add-on is degraded
+    public static final long ADDON_COOLDOWN = 6 * 60 * 60 * 1000;          // degraded add-ons are skipped for this long (ms)
+
+    /**
+     * @return true if the calendar is a degraded add-on that should be skipped (see onAddonResult); it was already reported
+     * when it became degraded, so skipping it is only logged
+     */
+    private boolean isAddonSkipped(@Nullable SuntimesCalendarDescriptor descriptor)
+    {
+        if (descriptor != null && descriptor.isAddon() && descriptor.isDegraded())
+        {
+            Log.w(TAG, "updateCalendars: skipping degraded add-on " + descriptor.calendarName() + " (until " + descriptor.degradedUntil() + ")");
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Circuit breaker for add-on calendars; consecutive failures (timeouts or errors) are counted, and an add-on that fails
+     * ADDON_MAX_FAILURES times in a row is degraded (skipped for ADDON_COOLDOWN). After the cool-down the add-on gets one
+     * more try; a success resets the count, and another failure degrades it again.
+     */
+    private void onAddonResult(@NonNull SuntimesCalendarDescriptor descriptor, @NonNull SuntimesCalendar calendar, boolean succeeded)
+    {
+        Context context = contextRef.get();
+        if (context == null) {
+            return;
+        }
+
+        String calendarName = descriptor.calendarName();
+        if (succeeded) {
+            SuntimesCalendarSettings.saveAddonFailures(context, calendarName, 0);
+            return;
+        }
+
+        int failures = SuntimesCalendarSettings.loadAddonFailures(context, calendarName) + 1;
+        SuntimesCalendarSettings.saveAddonFailures(context, calendarName, failures);
+        String calendarError = (calendar.lastError() != null ? calendar.lastError() : "");
+        String calendarTitle = (calendar.calendarTitle() != null ? calendar.calendarTitle() : descriptor.calendarTitle());
+        if (failures >= ADDON_MAX_FAILURES)
+        {
+            long degradedUntil = System.currentTimeMillis() + ADDON_COOLDOWN;
+            descriptor.setDegradedUntil(degradedUntil);
+            SuntimesCalendarSettings.saveAddonDegradedUntil(context, calendarName, degradedUntil);
+            addWarning(context.getString(R.string.calendars_addon_degraded, calendarTitle, failures, formatTime(context, degradedUntil), calendarError));
+
+        } else {
+            addWarning(context.getString(R.string.calendars_addon_failed, calendarTitle, calendarError));
+        }
+    }
+
+    private static String formatTime(Context context, long timeInMillis) {
+        return DateUtils.formatDateTime(context, timeInMillis, DateUtils.FORMAT_SHOW_DATE | DateUtils.FORMAT_SHOW_TIME);
+    }
+
+    /**
+     * Prepares a calendar for update; events before the window are removed, and calendars hidden by the app are made visible again.
+     * Calendars stored as year shards drop past years instead (the shard containing the start of the window is kept whole).
+     * @return the ranges that need to be generated; existing calendars whose config is unchanged only need the ranges
+     * their events don't already cover (see getMissingRanges).
+     */
+    private long[][] prepareCalendar(@NonNull SuntimesCalendar calendar, @NonNull long[] window) throws SecurityException
+    {
+        String calendarName = calendar.calendarName();
+        ArrayList<String> names = adapter.queryCalendarNames(calendarName);
+        if (!names.isEmpty())
+        {
+            boolean hasShards = (names.size() > (names.contains(calendarName) ? 1 : 0));
+            if (adapter.isYearShards() ? names.contains(calendarName) : hasShards)
+            {
+                Log.i(TAG, "prepareCalendar (" + calendar + "): storage layout changed; regenerating");
+                adapter.removeCalendar(calendarName);
+                SuntimesCalendarSettings.clearNotes(contextRef.get(), calendarName);
+                return new long[][] { window };
+            }
+
+            if (adapter.isYearShards()) {
+                adapter.removeCalendarShardsBefore(calendarName, SuntimesCalendarAdapter.yearOf(window[0]));
+            } else {
+                adapter.removeCalendarEventsBefore(adapter.queryCalendarID(calendarName), window[0]);
+            }
+            Context context = contextRef.get();
+            if (context != null && SuntimesCalendarSettings.isCalendarHiddenByApp(context, calendarName))
+            {
+                for (long calendarID : adapter.queryCalendarIDs(calendarName)) {
+                    adapter.setCalendarVisible(calendarID, true);    // re-enabling a calendar we hid (calendars hidden by the user stay hidden)
+                }
+                SuntimesCalendarSettings.saveCalendarHiddenByApp(context, calendarName, false);
+            }
+            long[][] ranges = getMissingRanges(calendar, window);
+            if (ranges.length == 0) {
+                Log.i(TAG, "prepareCalendar (" + calendar + "): unchanged; skipping update");
+            }
+            return ranges;
+        }
+        return new long[][] { window };
+    }
+
+    /**
+     * @return the part of the window that is generated first (today and the coming days)
+     */
+    protected long[] getUsableWindow(long[] window)
+    {
+        Calendar start = Calendar.getInstance();
+        start.set(Calendar.HOUR_OF_DAY, 0);
+        start.set(Calendar.MINUTE, 0);
+        start.set(Calendar.SECOND, 0);
+        start.set(Calendar.MILLISECOND, 0);
+
+        Calendar end = Calendar.getInstance();
+        end.setTimeInMillis(start.getTimeInMillis());
+        end.add(Calendar.DAY_OF_YEAR, USABLE_WINDOW_DAYS);
+        return new long[] { Math.max(window[0], start.getTimeInMillis()), Math.min(window[1], end.getTimeInMillis()) };
+    }
+    public static final int USABLE_WINDOW_DAYS = 30;
+    public static final long BACKFILL_WRITE_DELAY = 25;    // ms
+
+    /**
+     * Splits ranges into the parts that overlap window0 [0], and the parts that don't [1]; the remaining future parts
+     * are ordered before the remaining past parts.
+     */
+    protected static long[][][] splitRanges(long[][] ranges, long[] window0)
+    {
+        ArrayList<long[]> inside = new ArrayList<>();
+        ArrayList<long[]> future = new ArrayList<>();
+        ArrayList<long[]> past = new ArrayList<>();
+        for (long[] range : ranges)
+        {
+            long start = Math.max(range[0], window0[0]);
+            long end = Math.min(range[1], window0[1]);
+            if (start < end)
+            {
+                inside.add(new long[] { start, end });
+                if (range[1] > end) {
+                    future.add(new long[] { end, range[1] });
+                }
+                if (range[0] < start) {
+                    past.add(new long[] { range[0], start });
+                }
+            } else if (range[0] >= window0[1]) {
+                future.add(range);
+            } else {
+                past.add(range);
+            }
+        }
+        future.addAll(past);
+        return new long[][][] { inside.toArray(new long[0][]), future.toArray(new long[0][]) };
+    }
+
+    /**
+     * Splits ranges at the start of each year (so that each range belongs to a single year shard).
+     */
+    protected static long[][] splitRangesByYear(long[][] ranges)
+    {
+        ArrayList<long[]> result = new ArrayList<>();
+        for (long[] range : ranges)
+        {
+            long start = range[0];
+            int year = SuntimesCalendarAdapter.yearOf(start);
+            long end;
+            while ((end = SuntimesCalendarAdapter.startOfYear(++year)) < range[1])
+            {
+                result.add(new long[] { start, end });
+                start = end;
+            }
+            result.add(new long[] { start, range[1] });
+        }
+        return result.toArray(new long[0][]);
+    }
+
     /**
      * initCalendar
+     * @param ranges one or more [start, end) ranges (merged with existing events if the calendar already exists)
+     * @param kinds limits the update to events of the given kinds (see SuntimesCalendarAdapter.beginUpsert), or null for all kinds
      */
-    private boolean initCalendar(@NonNull SuntimesCalendar calendar, @NonNull long[] window, @NonNull SuntimesCalendarTaskProgress progress0) throws SecurityException
+    private boolean initCalendar(@NonNull SuntimesCalendar calendar, @NonNull long[][] ranges, @NonNull SuntimesCalendarTaskProgress progress0, @Nullable int[] kinds) throws SecurityException
     {
-        if (window.length != 2) {
-            Log.e(TAG, "initCalendar: invalid window with length " + window.length);
-            return false;
+        if (adapter.isYearShards()) {
+            ranges = splitRangesByYear(ranges);    // each shard is generated by its own range
+        }
+        Context context = contextRef.get();
+        if (context != null && SuntimesCalendarSettings.loadPrefCalendarInlineReminders(context)) {
+            adapter.setEventReminders(calendar.calendarName(), loadCalendarReminders(context, calendar.calendarName()));    // reminders are inserted with events
         }
+        adapter.setReminderHorizon(loadReminderHorizon(context));
 
         boolean retValue = true;
-        long calendarID = adapter.queryCalendarID(calendar.calendarName());
-        if (calendarID != -1) {
-            retValue = (adapter.removeCalendarEventsBefore(calendarID, window[0]) > 0);
+        long bench_start = System.nanoTime();
+        try {
+            for (long[] range : ranges)
+            {
+                String storageName = adapter.storageName(calendar.calendarName(), range[0]);
+                long calendarID = adapter.queryCalendarID(storageName);    // -1 if not created yet
+                if (calendarID == -1 && adapter.isYearShards()) {
+                    calendarID = adapter.createCalendar(storageName, calendar.calendarTitle(), calendar.calendarColor());    // new shard; opened for upsert so its reminders are kept apart from other shards
+                }
+                if (calendarID != -1) {
+                    adapter.beginUpsert(calendarID, range, kinds);    // existing calendar; merge events with existing events
+                }
+                boolean rangeValue = false;
+                try {
+                    adapter.clearWriteError();
+                    rangeValue = calendar.initCalendar(new SuntimesCalendarSettings(), adapter, this, progress0, range);
+                    if (rangeValue && adapter.getWriteError() != null)
+                    {
+                        rangeValue = false;    // events were lost; the calendar is marked failed (and its existing events are kept)
+                        lastError = "Failed to write events for " + calendar.calendarName() + "! " + adapter.getWriteError();
+                        Log.e(TAG, lastError);
+                    }
+
+                } finally {
+                    if (calendarID != -1)
+                    {
+                        SuntimesCalendarAdapter.EventUpsert session = adapter.endUpsert(calendarID, rangeValue && !isCancelled());
+                        Log.i(TAG, "initCalendar (" + calendar + "): " + session);
+                    }
+                }
+                retValue = retValue && rangeValue;
+                if (!retValue || isCancelled()) {
+                    break;
+                }
+            }
+
+        } finally {
+            adapter.setEventReminders(calendar.calendarName(), null);
+            adapter.setReminderHorizon(null);
+        }
+        long bench_end = System.nanoTime();
+        Log.i(TAG, "initCalendar (" + calendar + ", " + ranges.length + " ranges) in " + ((bench_end - bench_start) / 1000000.0) + " ms");
+        return retValue;
+    }
+
+    /**
+     * @return true the calendar should be rebuilt using a staging calendar (see initCalendarStaged); staged rebuilds are enabled
+     * by option, apply only to full rebuilds (the ranges cover the entire window), and aren't used with year shards.
+     */
+    protected boolean isStagedRebuild(long[][] ranges, long[] window)
+    {
+        Context context = contextRef.get();
+        return (context != null && SuntimesCalendarSettings.loadPrefCalendarStagedRebuild(context) && !adapter.isYearShards()
+                && ranges.length == 1 && ranges[0][0] == window[0] && ranges[0][1] == window[1]);
+    }
+
+    /**
+     * Rebuilds a calendar into a hidden staging calendar that replaces the existing calendar (if any) once complete; a cancelled
+     * or failed rebuild drops the staging calendar, leaving the existing calendar unchanged. The entire window is generated
+     * in a single pass (the calendar isn't usable until it is committed).
+     */
+    private boolean initCalendarStaged(@NonNull SuntimesCalendar calendar, @NonNull long[] window, @NonNull SuntimesCalendarTaskProgress progress0) throws SecurityException
+    {
+        String calendarName = calendar.calendarName();
+        if (adapter.beginStaging(calendarName, calendar.calendarTitle(), calendar.calendarColor()) == -1)
+        {
+            lastError = "Failed to create staging calendar for " + calendarName;
+            Log.e(TAG, lastError);
+            return false;
+        }
+
+        boolean committed = false;
+        try {
+            if (initCalendar(calendar, new long[][] { window }, progress0, null) && !isCancelled()) {
+                committed = adapter.commitStaging(calendarName);
+            }
+            Log.i(TAG, "initCalendarStaged (" + calendar + "): " + (committed ? "committed" : "dropped"));
+            return committed;
+
+        } finally {
+            if (!committed) {
+                adapter.abortStaging(calendarName);
+            }
+        }
+    }
+
+    /**
+     * Hides a calendar (rather than removing it); see SuntimesCalendarSettings.loadPrefCalendarHideDisabled.
+     * @return true calendar was hidden, false otherwise
+     */
+    protected boolean hideCalendar(String calendarName)
+    {
+        boolean retValue = false;
+        for (long calendarID : adapter.queryCalendarIDs(calendarName)) {
+            retValue = adapter.setCalendarVisible(calendarID, false) || retValue;
+        }
+        Context context = contextRef.get();
+        if (retValue && context != null) {
+            SuntimesCalendarSettings.saveCalendarHiddenByApp(context, calendarName, true);
+        }
+        return retValue;
+    }
+
+    /**
+     * Saves notes describing the window (and config) covered by a calendar's existing events.
+     */
+    protected void saveWindowNotes(@Nullable Context context, @NonNull SuntimesCalendar calendar, long[] window)
+    {
+        if (context == null) {
+            return;
+        }
+        SuntimesCalendarSettings settings = new SuntimesCalendarSettings();
+        settings.saveCalendarNote(context, calendar.calendarName(), SuntimesCalendarSettings.NOTE_WINDOW_START, Long.toString(window[0]));
+        settings.saveCalendarNote(context, calendar.calendarName(), SuntimesCalendarSettings.NOTE_WINDOW_END, Long.toString(window[1]));
+        settings.saveCalendarNote(context, calendar.calendarName(), SuntimesCalendarSettings.NOTE_FINGERPRINT, getConfigFingerprint(context, calendar));
+        saveTemplateNotes(context, calendar);
+        if (!locationTolerated.contains(calendar.calendarName())) {
+            settings.saveCalendarNote(context, calendar.calendarName(), SuntimesCalendarSettings.NOTE_LOCATION, getLocationNote());
+        }
+    }
+
+    /**
+     * Saves notes describing the template (strings, flags, and location) used by the text of a calendar's existing events.
+     */
+    protected void saveTemplateNotes(@NonNull Context context, @NonNull SuntimesCalendar calendar)
+    {
+        String calendarName = calendar.calendarName();
+        CalendarEventStrings strings = SuntimesCalendarSettings.loadPrefCalendarStrings(context, calendarName, calendar.defaultStrings());
+        boolean[] flags = SuntimesCalendarSettings.loadPrefCalendarFlags(context, calendarName, calendar.defaultFlags()).getValues();
+        StringBuilder flagsNote = new StringBuilder();
+        for (int i=0; i<flags.length; i++) {
+            flagsNote.append(i > 0 ? SuntimesCalendarSettings.STRINGS_DELIMITER : "").append(flags[i]);
+        }
+
+        SuntimesCalendarSettings settings = new SuntimesCalendarSettings();
+        settings.saveCalendarNote(context, calendarName, SuntimesCalendarSettings.NOTE_TEMPLATE_FINGERPRINT, getTemplateFingerprint(context, calendar));
+        settings.saveCalendarNote(context, calendarName, SuntimesCalendarSettings.NOTE_STRINGS, TextUtils.join(SuntimesCalendarSettings.STRINGS_DELIMITER, strings.getValues()));
+        settings.saveCalendarNote(context, calendarName, SuntimesCalendarSettings.NOTE_FLAGS, flagsNote.toString());
+        settings.saveCalendarNote(context, calendarName, SuntimesCalendarSettings.NOTE_LOCATION_TEXT, getLocationNote());
+    }
+
+    /**
+     * calendars whose existing events were kept after a (tolerated) location change; their location note still describes the existing events
+     */
+    protected final HashSet<String> locationTolerated = new HashSet<>();
+
+    protected String getLocationNote() {
+        return config_location_latitude + "," + config_location_longitude + "," + config_location_altitude + "," + config_location_name;
+    }
+
+    public static final int LOCATION_UNCHANGED = 0;
+    public static final int LOCATION_TEXT = 1;     // existing events are kept, but their text needs to be refreshed (see rerenderCalendar)
+    public static final int LOCATION_MOVED = 2;    // existing events need to be regenerated
+
+    /**
+     * @param locationNote the location used to calculate the calendar's existing events
+     * @param locationTextNote the location used by the text of the calendar's existing events (or null if the same as locationNote)
+     * @return LOCATION_MOVED the calendar's existing events need to be regenerated for the current location, LOCATION_TEXT the
+     * change is within tolerance (see CalendarLocationShift) but the event text needs to be refreshed, or LOCATION_UNCHANGED.
+     */
+    protected int getLocationChange(@NonNull Context context, @NonNull SuntimesCalendar calendar, @Nullable String locationNote, @Nullable String locationTextNote)
+    {
+        String[] location0 = (locationNote != null ? locationNote.split(",", 4) : null);
+        if (location0 == null || location0.length != 4) {
+            return LOCATION_MOVED;
+        }
+
+        boolean coordinatesChanged = !(location0[0].equals(config_location_latitude) && location0[1].equals(config_location_longitude) && location0[2].equals(config_location_altitude));
+        boolean labelChanged = !location0[3].equals(config_location_name);
+        if (coordinatesChanged && (!(calendar instanceof SuntimesCalendarBase) || ((SuntimesCalendarBase) calendar).isLocationDependent()))
+        {
+            double shift;
+            try {
+                shift = CalendarLocationShift.estimateTimeShift(Double.parseDouble(location0[0]), Double.parseDouble(location0[1]), parseAltitude(location0[2]),
+                        Double.parseDouble(config_location_latitude), Double.parseDouble(config_location_longitude), parseAltitude(config_location_altitude));
+            } catch (NumberFormatException e) {
+                return LOCATION_MOVED;
+            }
+            long tolerance = SuntimesCalendarSettings.loadPrefCalendarLocationTolerance(context);
+            Log.i(TAG, "getLocationChange (" + calendar + "): estimated shift " + shift + "s (tolerance " + tolerance + "s)");
+            if (shift > tolerance) {
+                return LOCATION_MOVED;
+            }
+        }
+        if (coordinatesChanged || labelChanged) {
+            locationTolerated.add(calendar.calendarName());
+        }
+
+        String[] location1 = (locationTextNote != null ? locationTextNote.split(",", 4) : location0);
+        if (location1.length != 4) {
+            location1 = location0;
+        }
+        boolean textCoordinatesChanged = !(location1[0].equals(config_location_latitude) && location1[1].equals(config_location_longitude) && location1[2].equals(config_location_altitude));
+        boolean textLabelChanged = !location1[3].equals(config_location_name);
+        CalendarEventTemplate template = SuntimesCalendarSettings.loadPrefCalendarTemplate(context, calendar.calendarName(), calendar.defaultTemplate());
+        if ((textCoordinatesChanged && templateUses(template, TemplatePatterns.pattern_lat, TemplatePatterns.pattern_lon, TemplatePatterns.pattern_lel))
+                || (textLabelChanged && templateUses(template, TemplatePatterns.pattern_loc))) {
+            return LOCATION_TEXT;
+        }
+        return LOCATION_UNCHANGED;
+    }
+
+    protected static double parseAltitude(String value) {
+        return (value == null || value.isEmpty()) ? 0 : Double.parseDouble(value);
+    }
+
+    protected static boolean templateUses(CalendarEventTemplate template, TemplatePatterns... patterns)
+    {
+        for (TemplatePatterns pattern : patterns)
+        {
+            String p = pattern.getPattern();
+            if ((template.getTitle() != null && template.getTitle().contains(p))
+                    || (template.getDesc() != null && template.getDesc().contains(p))
+                    || (template.getLocation() != null && template.getLocation().contains(p))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return a fingerprint of the inputs to the calendar's events (provider, calculator, add-on version, reminders, and options); the template is
+     * compared separately (see getTemplateFingerprint).
+     */
+    protected String getConfigFingerprint(@NonNull Context context, @NonNull SuntimesCalendar calendar)
+    {
+        String calendarName = calendar.calendarName();
+        StringBuilder reminders = new StringBuilder();
+        int[][] values = SuntimesCalendarSettings.loadPrefCalendarReminders(context, calendarName);
+        if (values != null) {
+            for (int[] reminder : values) {
+                reminders.append(reminder[0]).append(":").append(reminder[1]).append(";");
+            }
+        }
+
+        String content = "";
+        if (calendar instanceof ContentProviderCalendar)
+        {
+            content = ((ContentProviderCalendar) calendar).getContentVersion(context);
+            if (content == null) {
+                content = "unknown:" + System.currentTimeMillis();    // add-on can't be identified; never matches (always refreshed)
+            }
+        }
+
+        return SuntimesCalendarAdapter.fingerprint(Integer.toString(config_provider_version),    // location is compared separately (see getLocationChange)
+                SuntimesCalendarSettings.loadPrefCalendarCalculator(context),    // external, embedded, and verify results can differ by minutes
+                content, reminders.toString(),
+                Boolean.toString(SuntimesCalendarSettings.loadPrefCalendarPolarRuns(context)));    // reminder horizon is applied in place (see SuntimesCalendarReminderReceiver.updateReminderHorizon)
+    }
+
+    /**
+     * @return a fingerprint of the calendar's template (and the strings, flags, and calendar values used by its events)
+     */
+    protected String getTemplateFingerprint(@NonNull Context context, @NonNull SuntimesCalendar calendar)
+    {
+        String calendarName = calendar.calendarName();
+        CalendarEventTemplate template = SuntimesCalendarSettings.loadPrefCalendarTemplate(context, calendarName, calendar.defaultTemplate());
+        CalendarEventStrings strings = SuntimesCalendarSettings.loadPrefCalendarStrings(context, calendarName, calendar.defaultStrings());
+        CalendarEventFlags flags = SuntimesCalendarSettings.loadPrefCalendarFlags(context, calendarName, calendar.defaultFlags());
+        return SuntimesCalendarAdapter.fingerprint(calendar.calendarTitle(), calendar.calendarSummary(), Integer.toString(calendar.calendarColor()),
+                template.getTitle(), template.getDesc(), template.getLocation(), strings.toString(), flags.toString());
+    }
+
+    /**
+     * Applies template changes to the calendar's existing events in place; the text of existing events is re-rendered (see
+     * SuntimesCalendarAdapter.rerenderCalendarEvents), events of disabled kinds are removed, and events of enabled kinds are
+     * generated (for the existing window only).
+     * @param existing [start, end) window covered by the existing events
+     * @return true existing events were updated, false the calendar needs to be regenerated instead
+     */
+    protected boolean rerenderCalendar(@NonNull Context context, @NonNull SuntimesCalendar calendar, long[] existing) throws SecurityException
+    {
+        String calendarName = calendar.calendarName();
+        long[] calendarIDs = adapter.queryCalendarIDs(calendarName);    // the calendar (or its year shards)
+        SuntimesCalendarSettings settings = new SuntimesCalendarSettings();
+        String stringsNote = settings.loadCalendarNote(context, calendarName, SuntimesCalendarSettings.NOTE_STRINGS);
+        String flagsNote = settings.loadCalendarNote(context, calendarName, SuntimesCalendarSettings.NOTE_FLAGS);
+        if (calendarIDs.length == 0 || stringsNote == null || flagsNote == null || !(calendar instanceof SuntimesCalendarBase)) {
+            return false;
+        }
+
+        final CalendarEventTemplate template = SuntimesCalendarSettings.loadPrefCalendarTemplate(context, calendarName, calendar.defaultTemplate());
+        String[] strings0 = stringsNote.split("\\" + SuntimesCalendarSettings.STRINGS_DELIMITER, -1);
+        String[] strings = SuntimesCalendarSettings.loadPrefCalendarStrings(context, calendarName, calendar.defaultStrings()).getValues();
+        String[] flags0 = flagsNote.split("\\" + SuntimesCalendarSettings.STRINGS_DELIMITER, -1);
+        boolean[] flags = SuntimesCalendarSettings.loadPrefCalendarFlags(context, calendarName, calendar.defaultFlags()).getValues();
+        if (strings0.length != strings.length || flags0.length != flags.length) {
+            return false;
+        }
+
+        final HashMap<String, String> eventStrings = new HashMap<>();    // previous %M -> current %M
+        final HashSet<String> ambiguous = new HashSet<>();               // previous %M that map to more than one current %M
+        for (int i=0; i<strings.length; i++)
+        {
+            String value = eventStrings.get(strings0[i]);
+            if (value != null && !value.equals(strings[i])) {
+                ambiguous.add(strings0[i]);
+            } else eventStrings.put(strings0[i], strings[i]);
+        }
+
+        ArrayList<Integer> removedKinds = new ArrayList<>();
+        ArrayList<Integer> addedKinds = new ArrayList<>();
+        for (int i=0; i<flags.length; i++)
+        {
+            if (Boolean.parseBoolean(flags0[i]) != flags[i])
+            {
+                int kind = ((SuntimesCalendarBase) calendar).flagKind(i);
+                if (kind < 0) {
+                    return false;
+                }
+                (flags[i] ? addedKinds : removedKinds).add(kind);
+            }
         }
 
         long bench_start = System.nanoTime();
-        retValue = retValue && calendar.initCalendar(new SuntimesCalendarSettings(), adapter, this, progress0, window);
-        long bench_end = System.nanoTime();
-        Log.i(TAG, "initCalendar (" + calendar + ") in " + ((bench_end - bench_start) / 1000000.0) + " ms");
+        for (long calendarID : calendarIDs) {
+            for (int kind : removedKinds) {
+                adapter.removeCalendarEventsOfKind(calendarID, calendarName, kind);
+            }
+        }
+
+        final ContentValues calendarData = TemplatePatterns.createContentValues(null, calendar);
+        TemplatePatterns.createContentValues(calendarData, getLocation());
+        SuntimesCalendarAdapter.EventRenderer renderer = new SuntimesCalendarAdapter.EventRenderer()
+        {
+            @Override
+            public String[] renderEvent(int kind, @NonNull ContentValues data)
+            {
+                String event = data.getAsString(TemplatePatterns.pattern_event.getPattern());
+                if (event != null)
+                {
+                    if (ambiguous.contains(event)) {
+                        return null;
+                    } else if (eventStrings.containsKey(event)) {
+                        data.put(TemplatePatterns.pattern_event.getPattern(), eventStrings.get(event));
+                    }
+                }
+                data.putAll(calendarData);
+                return new String[] { template.getTitle(data), template.getDesc(data), template.getLocation(data) };
+            }
+        };
 
+        int numUpdated = 0;
+        for (long calendarID : calendarIDs)
+        {
+            int n = adapter.rerenderCalendarEvents(calendarID, renderer);
+            if (n < 0) {
+                return false;
+            }
+            numUpdated += n;
+        }
+
+        boolean retValue = true;
+        if (!addedKinds.isEmpty() && existing[0] < existing[1])
+        {
+            int[] kinds = new int[addedKinds.size()];
+            for (int i=0; i<kinds.length; i++) {
+                kinds[i] = addedKinds.get(i);
+            }
+            retValue = initCalendar(calendar, new long[][] { existing }, new SuntimesCalendarTaskProgress(0, 1, calendar.calendarTitle()), kinds);
+        }
+        if (retValue) {
+            saveTemplateNotes(context, calendar);    // existing events now match the current template (re-rendering is repeated otherwise)
+        }
+        long bench_end = System.nanoTime();
+        Log.i(TAG, "rerenderCalendar (" + calendar + "): updated " + numUpdated + " events, removed kinds " + removedKinds + ", added kinds " + addedKinds
+                + " in " + ((bench_end - bench_start) / 1000000.0) + " ms");
         return retValue;
     }
 
+    /**
+     * @return the parts of the window that aren't covered by the calendar's existing events (see saveWindowNotes); the entire
+     * window is returned if the existing events are unknown, or were created using a different config (see getConfigFingerprint).
+     * Template changes are applied to existing events in place when possible (see rerenderCalendar).
+     */
+    protected long[][] getMissingRanges(@NonNull SuntimesCalendar calendar, long[] window)
+    {
+        Context context = contextRef.get();
+        if (context == null) {
+            return new long[][] { window };
+        }
+
+        SuntimesCalendarSettings settings = new SuntimesCalendarSettings();
+        String fingerprint = settings.loadCalendarNote(context, calendar.calendarName(), SuntimesCalendarSettings.NOTE_FINGERPRINT);
+        String start = settings.loadCalendarNote(context, calendar.calendarName(), SuntimesCalendarSettings.NOTE_WINDOW_START);
+        String end = settings.loadCalendarNote(context, calendar.calendarName(), SuntimesCalendarSettings.NOTE_WINDOW_END);
+        if (fingerprint == null || start == null || end == null || !fingerprint.equals(getConfigFingerprint(context, calendar))) {
+            return new long[][] { window };
+        }
+
+        int locationChange = getLocationChange(context, calendar, settings.loadCalendarNote(context, calendar.calendarName(), SuntimesCalendarSettings.NOTE_LOCATION),
+                settings.loadCalendarNote(context, calendar.calendarName(), SuntimesCalendarSettings.NOTE_LOCATION_TEXT));
+        if (locationChange == LOCATION_MOVED) {
+            return new long[][] { window };
+        }
+
+        long[] existing;
+        try {
+            existing = new long[] { Long.parseLong(start), Long.parseLong(end) };
+        } catch (NumberFormatException e) {
+            locationTolerated.remove(calendar.calendarName());
+            return new long[][] { window };
+        }
+        if (existing[0] >= window[1] || existing[1] <= window[0]) {
+            locationTolerated.remove(calendar.calendarName());
+            return new long[][] { window };    // no overlap
+        }
+
+        if (locationChange == LOCATION_TEXT || !getTemplateFingerprint(context, calendar).equals(settings.loadCalendarNote(context, calendar.calendarName(), SuntimesCalendarSettings.NOTE_TEMPLATE_FINGERPRINT)))
+        {
+            long[] range = new long[] { Math.max(existing[0], window[0]), Math.min(existing[1], window[1]) };
+            if (!rerenderCalendar(context, calendar, range)) {
+                Log.i(TAG, "getMissingRanges (" + calendar + "): unable to apply template changes in place; regenerating");
+                locationTolerated.remove(calendar.calendarName());
+                return new long[][] { window };
+            }
+        }
+
+        ArrayList<long[]> ranges = new ArrayList<>();
+        if (window[0] < existing[0]) {
+            ranges.add(new long[] { window[0], existing[0] });
+        }
+        if (window[1] > existing[1]) {
+            ranges.add(new long[] { existing[1], window[1] });
+        }
+        return ranges.toArray(new long[0][]);
+    }
+
     /**
      * updateCalendarReminders
      */
@@ -240,6 +950,26 @@ public class SuntimesCalendarTask extends SuntimesCalendarTaskBase
     @TargetApi(14)
     public boolean createCalendarReminders(Context context, String calendar, @NonNull SuntimesCalendarTaskProgress progress0)
     {
+        if (adapter.getEventReminders(calendar) != null) {
+            return true;    // reminders were already inserted with events
+        }
+
+        long[] calendarIDs = queryReminderCalendarIDs(calendar);
+        if (calendarIDs.length == 0) {
+            Log.w(TAG, "createCalendarReminders: calendar not found! " + calendar);
+            return false;
+        }
+
+        long[] horizon = loadReminderHorizon(context);
+        long[][] eventIDs = null;
+        if (horizon != null)
+        {
+            eventIDs = new long[calendarIDs.length][];
+            for (int j=0; j<calendarIDs.length; j++) {
+                eventIDs[j] = adapter.queryCalendarEventIDs(calendarIDs[j], horizon[0], horizon[1], true);    // queried once; HAS_ALARM changes as reminders are added
+            }
+        }
+
         boolean retValue = true;
         int count = SuntimesCalendarSettings.loadPrefCalendarReminderCount(context, calendar);
         SuntimesCalendarTaskProgress progress1 = new SuntimesCalendarTaskProgress(-1, count, progress0.getMessage());
@@ -247,19 +977,74 @@ public class SuntimesCalendarTask extends SuntimesCalendarTaskBase
         {
             int minutes = SuntimesCalendarSettings.loadPrefCalendarReminderMinutes(context, calendar, i);
             int method = SuntimesCalendarSettings.loadPrefCalendarReminderMethod(context, calendar, i);
-            if (method != -1) {
-                retValue = retValue && createCalendarReminders(calendar, minutes, method, progress0, progress1);
+            if (method != -1)
+            {
+                for (int j=0; j<calendarIDs.length; j++)
+                {
+                    if (eventIDs != null) {
+                        retValue = retValue && createCalendarReminders(calendarIDs[j], eventIDs[j], minutes, method, progress0, progress1);
+                    } else {
+                        retValue = retValue && createCalendarReminders(calendarIDs[j], minutes, method, progress0, progress1);
+                    }
+                }
             }
         }
         return retValue;
     }
 
+    /**
+     * @return the IDs of the calendars that store a calendar's events (see SuntimesCalendarAdapter.queryCalendarIDs); while the
+     * calendar is being updated only calendars with an open upsert session are returned (only their new events need reminders).
+     */
+    protected long[] queryReminderCalendarIDs(String calendar)
+    {
+        long[] calendarIDs = adapter.queryCalendarIDs(calendar);
+        ArrayList<Long> updating = new ArrayList<>();
+        for (long calendarID : calendarIDs) {
+            if (adapter.getInsertedEventIDs(calendarID) != null) {
+                updating.add(calendarID);
+            }
+        }
+        if (updating.isEmpty()) {
+            return calendarIDs;
+        }
+        long[] result = new long[updating.size()];
+        for (int i=0; i<result.length; i++) {
+            result[i] = updating.get(i);
+        }
+        return result;
+    }
+
+    /**
+     * @return the reminder horizon [start, end) (or null if reminders should be added to all events)
+     */
+    @Nullable
+    protected long[] loadReminderHorizon(@Nullable Context context)
+    {
+        long duration = (context != null ? SuntimesCalendarSettings.loadPrefCalendarReminderHorizon(context) : 0);
+        return (duration > 0 ? SuntimesCalendarAdapter.createReminderHorizon(duration) : null);
+    }
+
+    /**
+     * @return an array of [minutes, method] pairs (or null if the calendar has no reminders)
+     */
+    @Nullable
+    protected int[][] loadCalendarReminders(Context context, String calendar) {
+        return SuntimesCalendarSettings.loadPrefCalendarReminders(context, calendar);
+    }
+
     @TargetApi(14)
     public boolean createCalendarReminders(String calendar, int minutes, int method, @NonNull SuntimesCalendarTaskProgress progress0, @NonNull SuntimesCalendarTaskProgress progress1)
     {
-        long calendarID = adapter.queryCalendarID(calendar);
-        if (calendarID != -1) {
-            return createCalendarReminders(calendarID, minutes, method, progress0, progress1);
+        long[] calendarIDs = queryReminderCalendarIDs(calendar);
+        if (calendarIDs.length > 0)
+        {
+            boolean retValue = true;
+            for (long calendarID : calendarIDs) {
+                retValue = retValue && createCalendarReminders(calendarID, minutes, method, progress0, progress1);
+            }
+            return retValue;
+
         } else {
             Log.w(TAG, "createCalendarReminders: calendar not found! " + calendar);
             return false;
@@ -267,41 +1052,41 @@ public class SuntimesCalendarTask extends SuntimesCalendarTaskBase
     }
     @TargetApi(14)
     public boolean createCalendarReminders(long calendarID, int minutes, int method, @NonNull SuntimesCalendarTaskProgress progress0, @NonNull SuntimesCalendarTaskProgress progress1)
+    {
+        long[] eventIDs = adapter.getInsertedEventIDs(calendarID);    // during an upsert only new events need reminders
+        if (eventIDs == null) {
+            eventIDs = adapter.queryCalendarEventIDs(calendarID);
+        }
+        return createCalendarReminders(calendarID, eventIDs, minutes, method, progress0, progress1);
+    }
+    @TargetApi(14)
+    public boolean createCalendarReminders(long calendarID, @NonNull long[] eventIDs, int minutes, int method, @NonNull SuntimesCalendarTaskProgress progress0, @NonNull SuntimesCalendarTaskProgress progress1)
     {
         ArrayList<ContentValues> reminderValues = new ArrayList<>();
-        Cursor cursor = adapter.queryCalendarEvents(calendarID);
-
         int i = progress1.itemNum();
         int c = Math.max(i, 0);
-        int n = ((i == -1) ? progress1.getCount() * cursor.getCount() : progress1.getCount());
+        int n = ((i == -1) ? progress1.getCount() * eventIDs.length : progress1.getCount());
         progress1.setProgress(c, n, progress1.getMessage());
         publishProgress(progress0, progress1);
 
-        cursor.moveToFirst();
-        while (!cursor.isAfterLast())
+        for (int j=0; j<eventIDs.length; j++)
         {
-            int i_rowID = cursor.getColumnIndex(CalendarContract.Events._ID);
-            if (i_rowID != -1)
-            {
-                long eventID = cursor.getLong(i_rowID);
-                //Log.w("DEBUG", "addCalendarReminders: eventID: " + eventID);
-                reminderValues.add(adapter.createReminderContentValues(calendarID, eventID, minutes, method));
-            }
-            cursor.moveToNext();
+            //Log.w("DEBUG", "addCalendarReminders: eventID: " + eventIDs[j]);
+            reminderValues.add(adapter.createReminderContentValues(calendarID, eventIDs[j], minutes, method));
             c++;
 
-            if (c % 128 == 0 || cursor.isAfterLast())
+            boolean isLast = (j == eventIDs.length - 1);
+            if (c % 128 == 0 || isLast)
             {
                 //Log.d("DEBUG", "addCalendarReminders: " + calendarID + ", numEntries: " + reminderValues.size());
                 adapter.createCalendarReminders( reminderValues.toArray(new ContentValues[0]));
                 reminderValues.clear();
             }
-            if (c % 8 == 0 || cursor.isAfterLast()) {
+            if (c % 8 == 0 || isLast) {
                 progress1.setProgress(c, progress1.getCount(), progress1.getMessage());
                 publishProgress(progress0, progress1);
             }
         }
-        cursor.close();
         return true;
     }
 
@@ -323,11 +1108,15 @@ public class SuntimesCalendarTask extends SuntimesCalendarTaskBase
     @TargetApi(14)
     public int removeCalendarReminders(String calendar, @Nullable SuntimesCalendarTaskProgress progress0)
     {
-        long calendarID = adapter.queryCalendarID(calendar);
-        if (calendarID != -1) {
-            return removeCalendarReminders(calendarID, progress0);
-        } else Log.w(TAG, "removeCalendarReminders: calendar not found! " + calendar);
-        return 0;
+        long[] calendarIDs = adapter.queryCalendarIDs(calendar);
+        if (calendarIDs.length == 0) {
+            Log.w(TAG, "removeCalendarReminders: calendar not found! " + calendar);
+        }
+        int count = 0;
+        for (long calendarID : calendarIDs) {
+            count += removeCalendarReminders(calendarID, progress0);
+        }
+        return count;
     }
 
     @TargetApi(14)
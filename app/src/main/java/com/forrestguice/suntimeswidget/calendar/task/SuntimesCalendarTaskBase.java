@@ -18,22 +18,26 @@
 
 package com.forrestguice.suntimeswidget.calendar.task;
 
-import android.content.ContentResolver;
 import android.content.Context;
-import android.database.Cursor;
 import android.net.Uri;
 import android.os.AsyncTask;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.Log;
 
 import com.forrestguice.suntimescalendars.R;
 import com.forrestguice.suntimeswidget.calculator.core.CalculatorProviderContract;
+import com.forrestguice.suntimeswidget.calendar.EmbeddedCalculatorSession;
+import com.forrestguice.suntimeswidget.calendar.ProviderSession;
 import com.forrestguice.suntimeswidget.calendar.SuntimesCalendarAdapter;
 import com.forrestguice.suntimeswidget.calendar.SuntimesCalendarDescriptor;
 import com.forrestguice.suntimeswidget.calendar.SuntimesCalendarSettings;
 
 import java.lang.ref.WeakReference;
+import java.util.Arrays;
 import java.util.Calendar;
 import java.util.HashMap;
+import java.util.TimeZone;
 
 @SuppressWarnings("Convert2Diamond")
 public abstract class SuntimesCalendarTaskBase extends AsyncTask<SuntimesCalendarTaskItem, SuntimesCalendarTaskProgress, Boolean>
@@ -42,11 +46,13 @@ public abstract class SuntimesCalendarTaskBase extends AsyncTask<SuntimesCalenda
     protected WeakReference<Context> contextRef;
     protected long calendarWindow0 = -1, calendarWindow1 = -1;
     protected HashMap<String, SuntimesCalendarTaskItem> taskItems = new HashMap<>();
+    protected final HashMap<String, ProviderSession> sessions = new HashMap<>();    // authority -> session
 
     protected boolean flag_notifications = true;
     protected boolean flag_clear = false;
 
     protected int config_provider_version = 0;
+    protected ProviderCapabilities capabilities = ProviderCapabilities.unavailable();
     protected String config_location_name = "";
     protected String config_location_latitude = "";
     protected String config_location_longitude = "";
@@ -54,6 +60,7 @@ public abstract class SuntimesCalendarTaskBase extends AsyncTask<SuntimesCalenda
 
     protected long lastSync = -1;
     protected String lastError = null;
+    protected String lastWarning = null;    // problems that didn't fail the task (e.g. add-ons that were skipped)
 
     public SuntimesCalendarTaskBase(Context context)
     {
@@ -91,6 +98,16 @@ public abstract class SuntimesCalendarTaskBase extends AsyncTask<SuntimesCalenda
         return lastError;
     }
 
+    public String lastWarning() {
+        return lastWarning;
+    }
+
+    protected void addWarning(String warning)
+    {
+        Log.w(getClass().getSimpleName(), warning);
+        lastWarning = (lastWarning == null ? warning : lastWarning + "\n\n" + warning);
+    }
+
     public void setItems(SuntimesCalendarTaskItem... items)
     {
         taskItems.clear();
@@ -116,37 +133,92 @@ public abstract class SuntimesCalendarTaskBase extends AsyncTask<SuntimesCalenda
         return flag_clear;
     }
 
+    /**
+     * @param authority provider authority
+     * @return a session that is held until the task finishes (see closeProviderSessions), or null if the context is gone
+     */
+    public ProviderSession getProviderSession(String authority)
+    {
+        ProviderSession session = sessions.get(authority);
+        if (session == null)
+        {
+            Context context = contextRef.get();
+            if (context == null) {
+                return null;
+            }
+            String calculator = SuntimesCalendarSettings.loadPrefCalendarCalculator(context);
+            boolean embedded = CalculatorProviderContract.AUTHORITY.equals(authority) && !SuntimesCalendarSettings.CALCULATOR_EXTERNAL.equals(calculator);
+            session = (embedded ? new EmbeddedCalculatorSession(context.getContentResolver(), SuntimesCalendarSettings.CALCULATOR_VERIFY.equals(calculator))
+                                : new ProviderSession(context.getContentResolver(), authority));
+            sessions.put(authority, session);
+        }
+        return session;
+    }
+
+    protected void closeProviderSessions()
+    {
+        for (ProviderSession session : sessions.values())
+        {
+            if (session.getRestarts() > 0) {
+                Log.w(getClass().getSimpleName(), "closeProviderSessions: " + session);
+            }
+            if (session instanceof EmbeddedCalculatorSession)
+            {
+                int mismatches = ((EmbeddedCalculatorSession) session).getMismatches();
+                Context context = contextRef.get();
+                if (mismatches > 0 && context != null) {
+                    addWarning(context.getString(R.string.calendars_calculator_mismatch, mismatches));
+                }
+            }
+            session.close();
+        }
+        sessions.clear();
+    }
+
+    /**
+     * Queries the provider config (once per task); location and provider capabilities are read from the same row.
+     */
     protected boolean initLocation()
     {
-        Context context = contextRef.get();
-        ContentResolver resolver = (context == null ? null : context.getContentResolver());
-        if (resolver != null)
+        ProviderSession session = getProviderSession(CalculatorProviderContract.AUTHORITY);
+        if (session != null)
         {
             Uri configUri = Uri.parse("content://" + CalculatorProviderContract.AUTHORITY + "/" + CalculatorProviderContract.QUERY_CONFIG);
-            String[] configProjection = new String[]{CalculatorProviderContract.COLUMN_CONFIG_LOCATION, CalculatorProviderContract.COLUMN_CONFIG_LATITUDE, CalculatorProviderContract.COLUMN_CONFIG_LONGITUDE, CalculatorProviderContract.COLUMN_CONFIG_ALTITUDE, CalculatorProviderContract.COLUMN_CONFIG_PROVIDER_VERSION_CODE};
-
             try {
-                Cursor configCursor = resolver.query(configUri, configProjection, null, null, null);
-                if (configCursor != null)
+                capabilities = ProviderCapabilities.query(session);
+
+            } catch (SecurityException e) {
+                if (!(session instanceof EmbeddedCalculatorSession))
                 {
-                    configCursor.moveToFirst();
-                    for (int i = 0; i < configProjection.length; i++) {
-                        config_location_name = configCursor.getString(configCursor.getColumnIndex(CalculatorProviderContract.COLUMN_CONFIG_LOCATION));
-                        config_location_latitude = configCursor.getString(configCursor.getColumnIndex(CalculatorProviderContract.COLUMN_CONFIG_LATITUDE));
-                        config_location_longitude = configCursor.getString(configCursor.getColumnIndex(CalculatorProviderContract.COLUMN_CONFIG_LONGITUDE));
-                        config_location_altitude = configCursor.getString(configCursor.getColumnIndex(CalculatorProviderContract.COLUMN_CONFIG_ALTITUDE));
-                        config_provider_version = configCursor.getInt(configCursor.getColumnIndex(CalculatorProviderContract.COLUMN_CONFIG_PROVIDER_VERSION_CODE));
-                    }
-                    configCursor.close();
-                    return true;
-
-                } else {
-                    lastError = "Failed to resolve URI! " + configUri;
+                    lastError = "Permission Denied! " + configUri;
                     Log.e(getClass().getSimpleName(), lastError);
                     return false;
                 }
-            } catch (SecurityException e) {
-                lastError = "Permission Denied! " + configUri;
+                Log.w(getClass().getSimpleName(), "initLocation: Permission Denied! " + configUri);
+                capabilities = ProviderCapabilities.unavailable();
+            }
+
+            Context context = contextRef.get();
+            if (capabilities.isAvailable() && context != null) {
+                SuntimesCalendarSettings.saveLastLocation(context, capabilities.getLocation(), capabilities.getTimeZone());
+            }
+            if (session instanceof EmbeddedCalculatorSession) {
+                capabilities = initEmbeddedCalculator((EmbeddedCalculatorSession) session, capabilities);
+            }
+
+            if (capabilities.isAvailable())
+            {
+                String[] location = capabilities.getLocation();
+                config_location_name = location[0];
+                config_location_latitude = location[1];
+                config_location_longitude = location[2];
+                config_location_altitude = location[3];
+                config_provider_version = capabilities.getVersionCode();
+                Log.i(getClass().getSimpleName(), "initLocation: " + capabilities);
+                return true;
+
+            } else {
+                lastError = "Failed to resolve URI! " + configUri;
                 Log.e(getClass().getSimpleName(), lastError);
                 return false;
             }
@@ -156,6 +228,42 @@ public abstract class SuntimesCalendarTaskBase extends AsyncTask<SuntimesCalenda
             return false;
         }
     }
+
+    /**
+     * Assigns the embedded calculator's location; the provider's location if it is available, otherwise the last known location.
+     * @param external capabilities of the calculator provider
+     * @return embedded capabilities, or `external` if there is no location to use
+     */
+    protected ProviderCapabilities initEmbeddedCalculator(EmbeddedCalculatorSession session, ProviderCapabilities external)
+    {
+        String[] location;
+        String timezone;
+        if (external.isAvailable())
+        {
+            location = external.getLocation();
+            timezone = external.getTimeZone();
+
+        } else {
+            Context context = contextRef.get();
+            String[] lastLocation = (context != null ? SuntimesCalendarSettings.loadLastLocation(context) : null);
+            if (lastLocation == null) {
+                Log.w(getClass().getSimpleName(), "initEmbeddedCalculator: the provider is unavailable and there is no last known location");
+                return external;
+            }
+            location = Arrays.copyOf(lastLocation, 4);
+            timezone = (lastLocation[4].isEmpty() ? null : lastLocation[4]);
+            Log.i(getClass().getSimpleName(), "initEmbeddedCalculator: the provider is unavailable; using the last known location (" + location[0] + ")");
+        }
+
+        try {
+            session.setLocation(Double.parseDouble(location[1]), Double.parseDouble(location[2]), (timezone != null ? TimeZone.getTimeZone(timezone) : TimeZone.getDefault()));
+            return ProviderCapabilities.embedded(external, location, timezone);
+
+        } catch (NumberFormatException | NullPointerException e) {
+            Log.e(getClass().getSimpleName(), "initEmbeddedCalculator: invalid location: " + Arrays.toString(location));
+            return external;
+        }
+    }
     public String[] getLocation() {
         return new String[] { config_location_name, config_location_latitude, config_location_longitude, config_location_altitude };
     }
@@ -164,6 +272,13 @@ public abstract class SuntimesCalendarTaskBase extends AsyncTask<SuntimesCalenda
         return config_provider_version;
     }
 
+    /**
+     * @return provider capabilities (resolved by initLocation)
+     */
+    public ProviderCapabilities getProviderCapabilities() {
+        return capabilities;
+    }
+
     @Override
     protected void onPreExecute()
     {
@@ -172,6 +287,8 @@ public abstract class SuntimesCalendarTaskBase extends AsyncTask<SuntimesCalenda
             lastSync = SuntimesCalendarSettings.readLastSyncTime(context);
         }
         lastError = null;
+        lastWarning = null;
+        adapter.invalidateCalendarIDs();
 
         String message = "";
         if (flag_clear) {
@@ -183,7 +300,7 @@ public abstract class SuntimesCalendarTaskBase extends AsyncTask<SuntimesCalenda
             if (items.length > 0) {
                 int action = items[0].getAction();
                 message = (action == SuntimesCalendarTaskItem.ACTION_DELETE) ? notificationMsgClearing
-                        : (action == SuntimesCalendarTaskItem.ACTION_REMINDERS_UPDATE) ? notificationMsgReminderUpdating
+                        : (action == SuntimesCalendarTaskItem.ACTION_REMINDERS_UPDATE || action == SuntimesCalendarTaskItem.ACTION_REMINDERS_HORIZON) ? notificationMsgReminderUpdating
                         : notificationMsgAdding;
 
                 triggerOnStarted(message);
@@ -207,7 +324,7 @@ public abstract class SuntimesCalendarTaskBase extends AsyncTask<SuntimesCalenda
                 if (items[0].getAction() == SuntimesCalendarTaskItem.ACTION_DELETE) {
                     message = notificationMsgCleared;
 
-                } else if (items[0].getAction() == SuntimesCalendarTaskItem.ACTION_REMINDERS_UPDATE) {
+                } else if (items[0].getAction() == SuntimesCalendarTaskItem.ACTION_REMINDERS_UPDATE || items[0].getAction() == SuntimesCalendarTaskItem.ACTION_REMINDERS_HORIZON) {
                     message = notificationMsgReminderUpdated;
                 }
             }
@@ -266,4 +383,22 @@ public abstract class SuntimesCalendarTaskBase extends AsyncTask<SuntimesCalenda
         }
     }
 
+    /**
+     * Signals (on the main thread) that calendars are usable while the task continues in the background.
+     */
+    protected void triggerOnUsable()
+    {
+        new Handler(Looper.getMainLooper()).post(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                Context context = contextRef.get();
+                if (listener != null && context != null) {
+                    listener.onUsable(context, SuntimesCalendarTaskBase.this);
+                }
+            }
+        });
+    }
+
 }
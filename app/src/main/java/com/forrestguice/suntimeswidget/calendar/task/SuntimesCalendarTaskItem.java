@@ -30,6 +30,7 @@ public class SuntimesCalendarTaskItem implements Parcelable
     public static final int ACTION_DELETE = 2;
     public static final int ACTION_REMINDERS_UPDATE = 10;
     public static final int ACTION_REMINDERS_DELETE = 12;
+    public static final int ACTION_REMINDERS_HORIZON = 14;    // apply a changed reminder horizon (see SuntimesCalendarReminderReceiver.updateReminderHorizon)
 
     private String calendar;
     private int action;
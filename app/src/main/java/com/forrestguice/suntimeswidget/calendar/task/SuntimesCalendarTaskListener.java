@@ -29,6 +29,7 @@ public abstract class SuntimesCalendarTaskListener implements Parcelable
 {
     public void onStarted(Context context, SuntimesCalendarTaskBase task, String message) {}
     public void onProgress(Context context, SuntimesCalendarTaskProgress... progress) {}
+    public void onUsable(Context context, SuntimesCalendarTaskBase task) {}    // the coming days have been added; the rest of the window is still being filled
     public void onSuccess(Context context, SuntimesCalendarTaskBase task, String message) {}
     public void onCancelled(Context context, SuntimesCalendarTaskBase task) {}
     public void onFailed(Context context, String errorMsg) {}
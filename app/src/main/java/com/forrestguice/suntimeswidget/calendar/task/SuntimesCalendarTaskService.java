@@ -18,6 +18,7 @@
 
 package com.forrestguice.suntimeswidget.calendar.task;
 
+import android.Manifest;
 import android.annotation.TargetApi;
 import android.app.NotificationChannel;
 import android.app.NotificationManager;
@@ -26,9 +27,12 @@ import android.app.Service;
 import android.content.ContentUris;
 import android.content.Context;
 import android.content.Intent;
+import android.content.pm.PackageManager;
+import android.database.ContentObserver;
 import android.net.Uri;
 import android.os.Binder;
 import android.os.Build;
+import android.os.Handler;
 import android.os.IBinder;
 import android.os.Parcel;
 import android.os.Parcelable;
@@ -38,10 +42,14 @@ import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.support.v4.app.NotificationCompat;
 import android.support.v4.app.NotificationManagerCompat;
+import android.support.v4.content.ContextCompat;
 import android.util.Log;
 
 import com.forrestguice.suntimescalendars.R;
+import com.forrestguice.suntimeswidget.calculator.core.CalculatorProviderContract;
 import com.forrestguice.suntimeswidget.calendar.SuntimesCalendarActivity;
+import com.forrestguice.suntimeswidget.calendar.SuntimesCalendarDescriptor;
+import com.forrestguice.suntimeswidget.calendar.SuntimesCalendarSettings;
 import com.forrestguice.suntimeswidget.calendar.ui.SuntimesCalendarErrorActivity;
 
 import java.util.ArrayList;
@@ -54,6 +62,7 @@ public class SuntimesCalendarTaskService extends Service
     public static final String ACTION_CLEAR_CALENDARS = "clear_calendars";
 
     public static final String ACTION_UPDATE_REMINDERS = "update_reminders";
+    public static final String ACTION_CONFIG_CHANGED = "config_changed";    // see SuntimesCalendarConfigJobService
 
     public static final String EXTRA_CALENDAR_ITEMS = "calendar_items";
     public static final String EXTRA_CALENDAR_LISTENER = "calendar_listener";
@@ -74,6 +83,137 @@ public class SuntimesCalendarTaskService extends Service
         }
     }
 
+    @Override
+    public void onCreate()
+    {
+        super.onCreate();
+        if (Build.VERSION.SDK_INT < 24) {
+            registerConfigObserver();    // API 24+ uses a content trigger instead (see SuntimesCalendarConfigJobService)
+        } else SuntimesCalendarConfigJobService.scheduleConfigJob(this);
+    }
+
+    @Override
+    public void onDestroy()
+    {
+        unregisterConfigObserver();
+        super.onDestroy();
+    }
+
+    ///////////////////////////////////////////////////////////////////////////////////////////////
+    ///////////////////////////////////////////////////////////////////////////////////////////////
+
+    public static final long CONFIG_CHANGE_DELAY = 5000;    // ms; wait for changes to settle
+
+    private final Handler configHandler = new Handler();
+    private ContentObserver configObserver = null;
+    private final Runnable onConfigChanged = new Runnable()
+    {
+        @Override
+        public void run() {
+            onCalculatorConfigChanged();
+        }
+    };
+
+    /**
+     * Observes the calculator config while the service is running (prior to API 24); location changes are applied to enabled
+     * calendars (calendars that are unaffected by the change, or only moved within tolerance, are skipped by the task).
+     */
+    protected void registerConfigObserver()
+    {
+        if (configObserver == null)
+        {
+            configObserver = new ContentObserver(configHandler)
+            {
+                @Override
+                public void onChange(boolean selfChange)
+                {
+                    configHandler.removeCallbacks(onConfigChanged);
+                    configHandler.postDelayed(onConfigChanged, CONFIG_CHANGE_DELAY);
+                }
+            };
+            Uri uri = Uri.parse("content://" + CalculatorProviderContract.AUTHORITY + "/" + CalculatorProviderContract.QUERY_CONFIG);
+            try {
+                getContentResolver().registerContentObserver(uri, true, configObserver);
+            } catch (SecurityException e) {
+                Log.w(TAG, "registerConfigObserver: unable to observe calculator config: " + e);
+                configObserver = null;
+            }
+        }
+    }
+    protected void unregisterConfigObserver()
+    {
+        configHandler.removeCallbacks(onConfigChanged);
+        if (configObserver != null)
+        {
+            getContentResolver().unregisterContentObserver(configObserver);
+            configObserver = null;
+        }
+    }
+
+    private static boolean configChangePending = false;
+
+    /**
+     * Updates enabled calendars after a config change; changes that arrive while a task is running are queued, and applied
+     * once the task finishes (see startPendingConfigChange).
+     * @return true an update was started
+     */
+    protected boolean onCalculatorConfigChanged()
+    {
+        if (isBusy()) {
+            Log.i(TAG, "onCalculatorConfigChanged: busy; queued");
+            configChangePending = true;
+            return false;
+        }
+        configChangePending = false;
+
+        if (!SuntimesCalendarSettings.loadCalendarsEnabledPref(this)
+                || ContextCompat.checkSelfPermission(this, Manifest.permission.WRITE_CALENDAR) != PackageManager.PERMISSION_GRANTED) {
+            return false;
+        }
+
+        ArrayList<SuntimesCalendarTaskItem> items = new ArrayList<>();
+        for (String calendar : SuntimesCalendarDescriptor.getCalendars(this)) {
+            if (SuntimesCalendarSettings.loadPrefCalendarEnabled(this, calendar)) {
+                items.add(new SuntimesCalendarTaskItem(calendar, SuntimesCalendarTaskItem.ACTION_UPDATE));
+            }
+        }
+        if (!items.isEmpty())
+        {
+            Log.i(TAG, "onCalculatorConfigChanged: updating " + items.size() + " calendars..");
+            Intent intent = new Intent(this, SuntimesCalendarTaskService.class);
+            intent.setAction(ACTION_UPDATE_CALENDARS);
+            intent.putExtra(EXTRA_CALENDAR_ITEMS, items.toArray(new SuntimesCalendarTaskItem[0]));
+            return runCalendarTask(this, intent, false, true, null);
+        }
+        return false;
+    }
+
+    /**
+     * Restarts the service to apply a config change that was queued while a task was running.
+     */
+    protected static void startPendingConfigChange(Context context)
+    {
+        if (configChangePending)
+        {
+            configChangePending = false;
+            startConfigChange(context);
+        }
+    }
+
+    /**
+     * Starts the service to apply a config change; the service is started in the foreground since the caller may be in the
+     * background (e.g. SuntimesCalendarConfigJobService), where startService is not allowed (API 26+).
+     */
+    public static void startConfigChange(Context context)
+    {
+        Intent intent = new Intent(context, SuntimesCalendarTaskService.class);
+        intent.setAction(ACTION_CONFIG_CHANGED);
+        ContextCompat.startForegroundService(context, intent);
+    }
+
+    ///////////////////////////////////////////////////////////////////////////////////////////////
+    ///////////////////////////////////////////////////////////////////////////////////////////////
+
     @Override
     public int onStartCommand(Intent intent, int flags, int startId)
     {
@@ -99,6 +239,14 @@ public class SuntimesCalendarTaskService extends Service
                     serviceListener.onStartCommand(started);
                 }
 
+            } else if (action.equals(ACTION_CONFIG_CHANGED)) {
+                startForeground(NOTIFICATION_PROGRESS, createProgressNotification(this, getString(R.string.calendars_notification_updating)).build());    // started by startForegroundService (see startConfigChange)
+                if (!onCalculatorConfigChanged() && !isBusy())
+                {
+                    stopForeground(true);
+                    stopSelf();
+                }
+
             } else Log.w(TAG, "onStartCommand: unrecognized action: " + action);
         } else Log.w(TAG, "onStartCommand: null action");
         return START_NOT_STICKY;
@@ -158,7 +306,8 @@ public class SuntimesCalendarTaskService extends Service
                     if (item.getAction() == SuntimesCalendarTaskItem.ACTION_UPDATE ||
                             item.getAction() == SuntimesCalendarTaskItem.ACTION_DELETE ||
                             item.getAction() == SuntimesCalendarTaskItem.ACTION_REMINDERS_DELETE ||
-                            item.getAction() == SuntimesCalendarTaskItem.ACTION_REMINDERS_UPDATE) {
+                            item.getAction() == SuntimesCalendarTaskItem.ACTION_REMINDERS_UPDATE ||
+                            item.getAction() == SuntimesCalendarTaskItem.ACTION_REMINDERS_HORIZON) {
                         return true;
                     }
                 }
@@ -189,6 +338,14 @@ public class SuntimesCalendarTaskService extends Service
                 }
             }
 
+            @Override
+            public void onUsable(Context context, SuntimesCalendarTaskBase task)
+            {
+                if (listener != null) {
+                    listener.onUsable(context, task);
+                }
+            }
+
             @Override
             public void onSuccess(Context context, SuntimesCalendarTaskBase task, String message)
             {
@@ -196,12 +353,25 @@ public class SuntimesCalendarTaskService extends Service
                     listener.onSuccess(context, task, message);
                 }
 
+                String warning = task.lastWarning();
+                if (warning != null)
+                {
+                    Intent warningIntent = new Intent(context, SuntimesCalendarErrorActivity.class);    // e.g. add-ons that failed or were degraded
+                    warningIntent.putExtra(SuntimesCalendarErrorActivity.EXTRA_ERROR_TITLE, context.getString(R.string.calendars_notification_addons_failed));
+                    warningIntent.putExtra(SuntimesCalendarErrorActivity.EXTRA_ERROR_MESSAGE, warning);
+                    warningIntent.setFlags(Intent.FLAG_ACTIVITY_NO_ANIMATION);
+                    context.startActivity(warningIntent);
+                }
+
+                SuntimesCalendarReminderReceiver.scheduleRollReminders(context);
+                SuntimesCalendarConfigJobService.scheduleConfigJob(context);
                 NotificationCompat.Builder notificationBuilder = createSuccessNotification(context, message);
                 NotificationManagerCompat notificationManager = NotificationManagerCompat.from(context);
                 notificationManager.notify(NOTIFICATION_COMPLETE, notificationBuilder.build());
                 signalOnBusyStatusChanged(false);
                 stopForeground(true);
                 stopSelf();
+                startPendingConfigChange(context);
             }
 
             @Override
@@ -214,6 +384,7 @@ public class SuntimesCalendarTaskService extends Service
                 signalOnBusyStatusChanged(false);
                 stopForeground(true);
                 stopSelf();
+                startPendingConfigChange(context);
             }
 
             @Override
@@ -231,6 +402,7 @@ public class SuntimesCalendarTaskService extends Service
                 signalOnBusyStatusChanged(false);
                 stopForeground(true);
                 stopSelf();
+                startPendingConfigChange(context);
             }
         };
         calendarTask.setTaskListener(calendarTaskListener);
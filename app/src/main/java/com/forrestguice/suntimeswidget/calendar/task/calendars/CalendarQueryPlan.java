@@ -0,0 +1,121 @@
+/**
+    Copyright (C) 2023 Forrest Guice
+    This file is part of SuntimesCalendars.
+
+    SuntimesCalendars is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    SuntimesCalendars is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with SuntimesCalendars.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package com.forrestguice.suntimeswidget.calendar.task.calendars;
+
+import android.database.Cursor;
+import android.support.annotation.NonNull;
+
+import java.util.ArrayList;
+
+/**
+ * CalendarQueryPlan
+ * The minimal projection needed to create a calendar's enabled events; columns that are only read by disabled flags are
+ * left out of the query. Values are read using indices into the full projection (columns that were pruned read as null).
+ */
+@SuppressWarnings("Convert2Diamond")
+public class CalendarQueryPlan
+{
+    protected final String[] columns;       // full projection
+    protected final String[] projection;    // planned projection
+    protected final int[] index;            // full column -> planned column (or -1)
+
+    /**
+     * @param columns the calendar's full projection
+     * @param flagColumns the columns (indices into columns) read by each flag; flagColumns[i] for flags[i]
+     * @param flags enabled flags
+     */
+    public CalendarQueryPlan(@NonNull String[] columns, @NonNull int[][] flagColumns, @NonNull boolean[] flags)
+    {
+        this.columns = columns;
+        this.index = new int[columns.length];
+
+        boolean[] required = new boolean[columns.length];
+        for (int i=0; i<flagColumns.length && i<flags.length; i++)
+        {
+            if (flags[i]) {
+                for (int column : flagColumns[i]) {
+                    required[column] = true;
+                }
+            }
+        }
+
+        ArrayList<String> planned = new ArrayList<>();
+        for (int i=0; i<columns.length; i++)
+        {
+            if (required[i]) {
+                index[i] = planned.size();
+                planned.add(columns[i]);
+            } else index[i] = -1;
+        }
+        this.projection = planned.toArray(new String[0]);
+    }
+
+    /**
+     * A plan where each flag reads the column at the same index (flags[i] -> columns[i]).
+     */
+    public static CalendarQueryPlan byFlag(@NonNull String[] columns, @NonNull boolean[] flags)
+    {
+        int[][] flagColumns = new int[columns.length][];
+        for (int i=0; i<columns.length; i++) {
+            flagColumns[i] = new int[] { i };
+        }
+        return new CalendarQueryPlan(columns, flagColumns, flags);
+    }
+
+    /**
+     * @return the projection to query with
+     */
+    public String[] getProjection() {
+        return projection;
+    }
+
+    /**
+     * @return true if no columns are needed (all flags are disabled); the query can be skipped
+     */
+    public boolean isEmpty() {
+        return (projection.length == 0);
+    }
+
+    /**
+     * @param column index into the full projection
+     * @return index into the planned projection, or -1 if the column was pruned
+     */
+    public int index(int column) {
+        return (column >= 0 && column < index.length) ? index[column] : -1;
+    }
+
+    public boolean isNull(@NonNull Cursor cursor, int column)
+    {
+        int i = index(column);
+        return (i < 0 || cursor.isNull(i));
+    }
+
+    public long getLong(@NonNull Cursor cursor, int column)
+    {
+        int i = index(column);
+        return (i >= 0 ? cursor.getLong(i) : 0);
+    }
+
+    public double getDouble(@NonNull Cursor cursor, int column)
+    {
+        int i = index(column);
+        return (i >= 0 ? cursor.getDouble(i) : 0);
+    }
+}
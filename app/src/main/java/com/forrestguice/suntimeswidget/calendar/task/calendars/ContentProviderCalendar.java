@@ -18,12 +18,15 @@
 
 package com.forrestguice.suntimeswidget.calendar.task.calendars;
 
-import android.content.ContentResolver;
 import android.content.ContentValues;
 import android.content.Context;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.content.pm.ProviderInfo;
 import android.database.Cursor;
 import android.database.DatabaseUtils;
 import android.net.Uri;
+import android.os.Bundle;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.util.Log;
@@ -31,15 +34,23 @@ import android.util.Log;
 import com.forrestguice.suntimescalendars.R;
 import com.forrestguice.suntimeswidget.calendar.CalendarEventFlags;
 import com.forrestguice.suntimeswidget.calendar.CalendarEventStrings;
+import com.forrestguice.suntimeswidget.calendar.ProviderSession;
 import com.forrestguice.suntimeswidget.calendar.SuntimesCalendarAdapter;
 import com.forrestguice.suntimeswidget.calendar.SuntimesCalendarSettings;
+import com.forrestguice.suntimeswidget.calendar.core.CalendarContentStream;
 import com.forrestguice.suntimeswidget.calendar.task.SuntimesCalendar;
 import com.forrestguice.suntimeswidget.calendar.task.SuntimesCalendarTask;
 import com.forrestguice.suntimeswidget.calendar.task.SuntimesCalendarTaskProgress;
 import com.forrestguice.suntimeswidget.calendar.CalendarEventTemplate;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
-import java.util.Calendar;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Acts as a ContentProvider -> SuntimesCalendar bridge; the constructor accepts a URI pointing to
@@ -49,6 +60,10 @@ import java.util.Calendar;
  * * SuntimesCalendar.QUERY_CALENDAR_INFO to retrieve calendar meta-data; row of [calendar_name(string), calendar_title(string), calendar_summary(string), calendar_color(int)]
  * * SuntimesCalendar.QUERY_CALENDAR_CONTENT to retrieve calendar entries; rows of [title(string), description(string), eventTimezone(string), dtstart(long), dtend(long), eventLocation(string), ...]
  *   ready to be passed to the SuntimesCalendarAdapter.createCalendarEntries method.
+ *
+ * Add-ons declaring protocol v2 (SuntimesCalendar.COLUMN_CALENDAR_PROTOCOL_VERSION) are read using QUERY_CALENDAR_METADATA, and
+ * their content is queried a page at a time (CONTENT_MODE_PAGED), or streamed when the window is large (CONTENT_MODE_STREAM).
+ * v1 add-ons are queried a week at a time.
  */
 @SuppressWarnings("Convert2Diamond")
 public class ContentProviderCalendar extends SuntimesCalendarBase implements SuntimesCalendar
@@ -57,6 +72,14 @@ public class ContentProviderCalendar extends SuntimesCalendarBase implements Sun
     public static final int CHUNK_DAYS = 7;
     public static final long CHUNK_MILLIS = CHUNK_DAYS * DAY_MILLIS;
 
+    public static final long QUERY_TIMEOUT = 15 * 1000;          // deadline for each chunk (ms)
+    public static final long CALENDAR_TIMEOUT = 2 * 60 * 1000;   // deadline for all chunks (ms)
+
+    public static final int PAGE_SIZE = 500;                     // rows per page [v2]
+    public static final long STREAM_MIN_MILLIS = 90 * DAY_MILLIS;    // windows at least this large are streamed (if supported) [v2]
+    public static final int STREAM_QUEUE_SIZE = 2 * SuntimesCalendarAdapter.MAX_BATCH_SIZE;    // rows decoded ahead of the task [v2]
+    public static final long STREAM_POLL_MILLIS = 250;
+
     protected String calenderName = null;
     protected String contentUri = null;
     protected CalendarEventTemplate defaultTemplate = new CalendarEventTemplate(null, null, null);
@@ -64,6 +87,13 @@ public class ContentProviderCalendar extends SuntimesCalendarBase implements Sun
     protected CalendarEventFlags defaultFlags = new CalendarEventFlags();
     protected CalendarEventStrings defaultFlagLabels = new CalendarEventStrings();
 
+    protected int protocolVersion = PROTOCOL_VERSION_1;
+    protected int contentModes = 0;
+    protected boolean hasMetadata = false;    // true if strings and flags were read by queryCalendarMetadata
+
+    protected ProviderSession providerSession = null;    // the task's session for the add-on (see queryAddon)
+    protected boolean timedOut = false;    // true if a metadata query missed its deadline
+
     public ContentProviderCalendar(String uriString)
     {
         contentUri = uriString;
@@ -76,6 +106,41 @@ public class ContentProviderCalendar extends SuntimesCalendarBase implements Sun
         return contentUri;
     }
 
+    public int getProtocolVersion() {
+        return protocolVersion;
+    }
+
+    /**
+     * @param session the task's session for the add-on (see SuntimesCalendarTask.getProviderSession); info and metadata are
+     * queried through this session (with a deadline), or through a short-lived session of their own if null
+     */
+    public void setProviderSession(@Nullable ProviderSession session) {
+        providerSession = session;
+    }
+
+    /**
+     * @return a token identifying the add-on's content (package, version, and install time of the providing add-on); the token
+     * changes whenever the add-on is updated (see SuntimesCalendarTask.getConfigFingerprint), or null if the add-on can't be resolved.
+     */
+    @Nullable
+    public String getContentVersion(@NonNull Context context)
+    {
+        String authority = Uri.parse(contentUri).getAuthority();
+        PackageManager packageManager = context.getPackageManager();
+        ProviderInfo providerInfo = (authority != null ? packageManager.resolveContentProvider(authority, 0) : null);
+        if (providerInfo != null)
+        {
+            try {
+                PackageInfo packageInfo = packageManager.getPackageInfo(providerInfo.packageName, 0);
+                return providerInfo.packageName + ":" + packageInfo.versionCode + ":" + packageInfo.lastUpdateTime + ":" + protocolVersion;
+
+            } catch (PackageManager.NameNotFoundException e) {
+                Log.w(getClass().getSimpleName(), "getContentVersion: Package not found! " + e);
+            }
+        }
+        return null;
+    }
+
     @Override
     public String calendarName() {
         return calenderName;
@@ -87,70 +152,197 @@ public class ContentProviderCalendar extends SuntimesCalendarBase implements Sun
     }
 
     @Override
-    public CalendarEventStrings defaultStrings() {
+    public CalendarEventStrings defaultStrings()
+    {
+        loadStrings();
         return defaultStrings;
     }
 
     @Override
-    public CalendarEventFlags defaultFlags() {
+    public CalendarEventFlags defaultFlags()
+    {
+        loadStrings();
         return defaultFlags;
     }
 
     @Override
     public String flagLabel(int i)
     {
+        loadStrings();
         if (i >= 0 && i < defaultFlagLabels.getCount()) {
             return defaultFlagLabels.getValue(i);
         } else return "";
     }
 
+    @Override
+    public int flagKind(int flag) {
+        return -1;    // events are provided by the add-on (see readCursor)
+    }
+
     @Override
     public void init(@NonNull Context context, @NonNull SuntimesCalendarSettings settings) throws SecurityException
     {
         super.init(context, settings);
         queryCalendarInfo();
-        queryCalendarTemplateStrings();
-        queryCalendarTemplateFlags();
+        if (protocolVersion >= PROTOCOL_VERSION_2) {
+            hasMetadata = queryCalendarMetadata();
+        }
         calendarDesc = null;
         calendarColor = (calenderName != null ? settings.loadPrefCalendarColor(context, calendarName()) : calendarColor);
     }
 
-    protected void queryCalendarInfo() throws SecurityException
+    @Override
+    protected void initStrings(@NonNull Context context) throws SecurityException
+    {
+        super.initStrings(context);
+        if (!hasMetadata)
+        {
+            queryCalendarTemplateStrings();
+            queryCalendarTemplateFlags();
+        }
+    }
+
+    /**
+     * Queries the add-on through the session (see setProviderSession), or through a session of its own when there is none;
+     * either way the query has a deadline (QUERY_TIMEOUT). A query that misses its deadline sets lastError and `timedOut`.
+     * @return the value returned by the reader, or null if the query fails
+     */
+    @Nullable
+    protected <T> T queryAddon(@NonNull Uri uri, @Nullable String[] projection, @NonNull ProviderSession.CursorReader<T> reader) throws SecurityException
     {
         Context context = contextRef.get();
-        ContentResolver resolver = (context == null ? null : context.getContentResolver());
-        if (resolver != null)
+        ProviderSession session = providerSession;
+        boolean isOwnSession = (session == null);
+        if (isOwnSession)
         {
-            Uri uri = Uri.parse(contentUri + SuntimesCalendar.QUERY_CALENDAR_INFO);
-            Cursor cursor = resolver.query(uri, SuntimesCalendar.QUERY_CALENDAR_INFO_PROJECTION, null, null, null);
-            if (cursor != null)
+            if (context == null || uri.getAuthority() == null) {
+                return null;
+            }
+            session = new ProviderSession(context.getContentResolver(), uri.getAuthority());
+        }
+        session.setTimeout(QUERY_TIMEOUT);
+        try {
+            return session.query(uri, projection, null, null, null, reader);
+
+        } catch (ProviderSession.ProviderTimeoutException e) {
+            timedOut = true;
+            lastError = e.getMessage();
+            Log.e(getClass().getSimpleName(), lastError);
+            return null;
+
+        } finally {
+            if (isOwnSession) {
+                session.close();
+            }
+        }
+    }
+
+    protected void queryCalendarInfo() throws SecurityException
+    {
+        Uri uri = Uri.parse(contentUri + SuntimesCalendar.QUERY_CALENDAR_INFO);
+        ProviderSession.CursorReader<Boolean> reader = new ProviderSession.CursorReader<Boolean>()
+        {
+            @Override
+            public Boolean readCursor(@NonNull Cursor cursor)
             {
                 cursor.moveToFirst();
-                calenderName = cursor.getString(cursor.getColumnIndex(COLUMN_CALENDAR_NAME));
-                calendarTitle = cursor.getString(cursor.getColumnIndex(COLUMN_CALENDAR_TITLE));
-                calendarSummary = cursor.getString(cursor.getColumnIndex(COLUMN_CALENDAR_SUMMARY));
-                calendarColor = cursor.getInt(cursor.getColumnIndex(COLUMN_CALENDAR_COLOR));
-
-                int i_templateTitle = cursor.getColumnIndex(COLUMN_CALENDAR_TEMPLATE_TITLE);
-                int i_templateDesc = cursor.getColumnIndex(COLUMN_CALENDAR_TEMPLATE_DESCRIPTION);
-                int i_templateLocation = cursor.getColumnIndex(COLUMN_CALENDAR_TEMPLATE_LOCATION);
-                if (i_templateTitle >= 0 && i_templateDesc >= 0 && i_templateLocation >= 0) {
-                    defaultTemplate = new CalendarEventTemplate(cursor.getString(i_templateTitle), cursor.getString(i_templateDesc), cursor.getString(i_templateLocation));
+                readCalendarInfo(cursor);
+                int i_version = cursor.getColumnIndex(COLUMN_CALENDAR_PROTOCOL_VERSION);
+                protocolVersion = ((i_version >= 0 && !cursor.isNull(i_version)) ? cursor.getInt(i_version) : PROTOCOL_VERSION_1);
+                return true;
+            }
+        };
+        try {
+            queryAddon(uri, SuntimesCalendar.QUERY_CALENDAR_INFO_PROJECTION_V2, reader);
+        } catch (IllegalArgumentException e) {    // a v1 add-on rejecting the version column
+            queryAddon(uri, SuntimesCalendar.QUERY_CALENDAR_INFO_PROJECTION, reader);
+        }
+    }
+
+    protected void readCalendarInfo(@NonNull Cursor cursor)
+    {
+        calenderName = cursor.getString(cursor.getColumnIndex(COLUMN_CALENDAR_NAME));
+        calendarTitle = cursor.getString(cursor.getColumnIndex(COLUMN_CALENDAR_TITLE));
+        calendarSummary = cursor.getString(cursor.getColumnIndex(COLUMN_CALENDAR_SUMMARY));
+        calendarColor = cursor.getInt(cursor.getColumnIndex(COLUMN_CALENDAR_COLOR));
+
+        int i_templateTitle = cursor.getColumnIndex(COLUMN_CALENDAR_TEMPLATE_TITLE);
+        int i_templateDesc = cursor.getColumnIndex(COLUMN_CALENDAR_TEMPLATE_DESCRIPTION);
+        int i_templateLocation = cursor.getColumnIndex(COLUMN_CALENDAR_TEMPLATE_LOCATION);
+        if (i_templateTitle >= 0 && i_templateDesc >= 0 && i_templateLocation >= 0) {
+            defaultTemplate = new CalendarEventTemplate(cursor.getString(i_templateTitle), cursor.getString(i_templateDesc), cursor.getString(i_templateLocation));
+        }
+    }
+
+    /**
+     * Reads info, template strings, and template flags using a single query [v2].
+     * @return true if the metadata was read, false if the v1 queries should be used instead
+     */
+    protected boolean queryCalendarMetadata() throws SecurityException
+    {
+        Uri uri = Uri.parse(contentUri + SuntimesCalendar.QUERY_CALENDAR_METADATA);
+        Boolean result;
+        try {
+            result = queryAddon(uri, SuntimesCalendar.QUERY_CALENDAR_METADATA_PROJECTION, new ProviderSession.CursorReader<Boolean>()
+            {
+                @Override
+                public Boolean readCursor(@NonNull Cursor cursor) {
+                    return readCalendarMetadata(cursor);
                 }
-                cursor.close();
+            });
+        } catch (IllegalArgumentException | UnsupportedOperationException e) {
+            Log.w(getClass().getSimpleName(), "queryCalendarMetadata: " + uri + " is unsupported; falling back to v1 queries.. " + e);
+            return false;
+        }
+        return (result != null && result);
+    }
+
+    protected boolean readCalendarMetadata(@NonNull Cursor cursor)
+    {
+        if (!cursor.moveToFirst()) {
+            return false;
+        }
+        readCalendarInfo(cursor);
+
+        int i_modes = cursor.getColumnIndex(COLUMN_CALENDAR_CONTENT_MODES);
+        int i_stringsCount = cursor.getColumnIndex(COLUMN_CALENDAR_TEMPLATE_STRINGS_COUNT);
+        int i_flagsCount = cursor.getColumnIndex(COLUMN_CALENDAR_TEMPLATE_FLAGS_COUNT);
+        contentModes = ((i_modes >= 0) ? cursor.getInt(i_modes) : 0);
+        int stringsCount = ((i_stringsCount >= 0) ? cursor.getInt(i_stringsCount) : 0);
+        int flagsCount = ((i_flagsCount >= 0) ? cursor.getInt(i_flagsCount) : 0);
+
+        int i_string = cursor.getColumnIndex(COLUMN_CALENDAR_TEMPLATE_STRINGS);
+        int i_flag = cursor.getColumnIndex(COLUMN_CALENDAR_TEMPLATE_FLAGS);
+        int i_label = cursor.getColumnIndex(COLUMN_CALENDAR_TEMPLATE_FLAG_LABELS);
+
+        ArrayList<String> strings = new ArrayList<>();
+        ArrayList<String> flags = new ArrayList<>();
+        ArrayList<String> labels = new ArrayList<>();
+        for (int row = 0; !cursor.isAfterLast(); row++)
+        {
+            if (row < stringsCount) {
+                strings.add(((i_string >= 0) ? cursor.getString(i_string) : null));
+            }
+            if (row < flagsCount)
+            {
+                flags.add(((i_flag >= 0) ? cursor.getString(i_flag) : null));
+                labels.add(((i_label >= 0) ? cursor.getString(i_label) : null));
             }
+            cursor.moveToNext();
         }
+        defaultStrings = new CalendarEventStrings(strings.toArray(new String[0]));
+        defaultFlags = new CalendarEventFlags(flags.toArray(new String[0]));
+        defaultFlagLabels = new CalendarEventStrings(labels.toArray(new String[0]));
+        return true;
     }
 
     protected void queryCalendarTemplateStrings() throws SecurityException
     {
-        Context context = contextRef.get();
-        ContentResolver resolver = (context == null ? null : context.getContentResolver());
-        if (resolver != null)
+        Uri uri = Uri.parse(contentUri + SuntimesCalendar.QUERY_CALENDAR_TEMPLATE_STRINGS);
+        queryAddon(uri, SuntimesCalendar.QUERY_CALENDAR_TEMPLATE_STRINGS_PROJECTION, new ProviderSession.CursorReader<Boolean>()
         {
-            Uri uri = Uri.parse(contentUri + SuntimesCalendar.QUERY_CALENDAR_TEMPLATE_STRINGS);
-            Cursor cursor = resolver.query(uri, SuntimesCalendar.QUERY_CALENDAR_TEMPLATE_STRINGS_PROJECTION, null, null, null);
-            if (cursor != null)
+            @Override
+            public Boolean readCursor(@NonNull Cursor cursor)
             {
                 ArrayList<String> values = new ArrayList<>();
                 cursor.moveToFirst();
@@ -160,21 +352,19 @@ public class ContentProviderCalendar extends SuntimesCalendarBase implements Sun
                     values.add(((i_value >= 0) ? cursor.getString(i_value) : null));
                     cursor.moveToNext();
                 }
-                cursor.close();
                 defaultStrings = new CalendarEventStrings(values.toArray(new String[0]));
+                return true;
             }
-        }
+        });
     }
 
     protected void queryCalendarTemplateFlags() throws SecurityException
     {
-        Context context = contextRef.get();
-        ContentResolver resolver = (context == null ? null : context.getContentResolver());
-        if (resolver != null)
+        Uri uri = Uri.parse(contentUri + SuntimesCalendar.QUERY_CALENDAR_TEMPLATE_FLAGS);
+        queryAddon(uri, SuntimesCalendar.QUERY_CALENDAR_TEMPLATE_FLAGS_PROJECTION, new ProviderSession.CursorReader<Boolean>()
         {
-            Uri uri = Uri.parse(contentUri + SuntimesCalendar.QUERY_CALENDAR_TEMPLATE_FLAGS);
-            Cursor cursor = resolver.query(uri, SuntimesCalendar.QUERY_CALENDAR_TEMPLATE_FLAGS_PROJECTION, null, null, null);
-            if (cursor != null)
+            @Override
+            public Boolean readCursor(@NonNull Cursor cursor)
             {
                 ArrayList<String> flags = new ArrayList<>();
                 ArrayList<String> labels = new ArrayList<>();
@@ -187,11 +377,11 @@ public class ContentProviderCalendar extends SuntimesCalendarBase implements Sun
                     labels.add(((i_label >= 0) ? cursor.getString(i_label) : null));
                     cursor.moveToNext();
                 }
-                cursor.close();
                 defaultFlags = new CalendarEventFlags(flags.toArray(new String[0]));
                 defaultFlagLabels = new CalendarEventStrings(labels.toArray(new String[0]));
+                return true;
             }
-        }
+        });
     }
 
     @Override
@@ -200,79 +390,326 @@ public class ContentProviderCalendar extends SuntimesCalendarBase implements Sun
         if (task.isCancelled()) {
             return false;
         }
+        loadStrings();
+        if (timedOut) {
+            return false;    // reported by lastError (see queryAddon)
+        }
 
         String calendarName = calendarName();
-        if (!adapter.hasCalendar(calendarName)) {
-            adapter.createCalendar(calendarName, calendarTitle, calendarColor);
-        } else return false;
 
-        long calendarID = adapter.queryCalendarID(calendarName);
+        long calendarID = initCalendarID(adapter, window);
         if (calendarID != -1)
         {
             Context context = contextRef.get();
-            ContentResolver resolver = (context == null ? null : context.getContentResolver());
-            if (resolver != null)
+            ProviderSession session = (context == null ? null : task.getProviderSession(Uri.parse(contentUri).getAuthority()));
+            if (session != null)
             {
+                session.setTimeout(QUERY_TIMEOUT);    // a hung add-on shouldn't hold up other calendars
+                long deadline = System.currentTimeMillis() + CALENDAR_TIMEOUT;
                 String[] location = task.getLocation();
                 new SuntimesCalendarSettings().saveCalendarNote(context, calendarName, SuntimesCalendarSettings.NOTE_LOCATION_NAME, location[0]);
+                String progressTitle = context.getString(R.string.summarylist_format, calendarTitle, location[0]);
 
-                Calendar startDate = Calendar.getInstance();
-                startDate.setTimeInMillis(window[0]);
+                if (protocolVersion >= PROTOCOL_VERSION_2)
+                {
+                    if ((contentModes & CONTENT_MODE_STREAM) != 0 && (window[1] - window[0]) >= STREAM_MIN_MILLIS)
+                    {
+                        Integer rows = initCalendarStreamed(session, adapter, calendarID, task, progress0, window, progressTitle);
+                        if (rows != null) {
+                            return (rows >= 0) && !task.isCancelled();
+                        }    // else: not streamed; fall back to pages
+                    }
+                    if ((contentModes & CONTENT_MODE_PAGED) != 0) {
+                        return initCalendarPaged(session, adapter, calendarID, task, progress0, window, progressTitle, deadline);
+                    }
+                }
+                return initCalendarChunked(session, adapter, calendarID, task, progress0, window, progressTitle, deadline);
 
-                Calendar endDate = Calendar.getInstance();
-                endDate.setTimeInMillis(window[1]);
+            } else {
+                lastError = "Unable to getContentResolver! ";
+                Log.e(getClass().getSimpleName(), lastError);
+                return false;
+            }
+        } else return false;
+    }
 
-                int c = 0;
-                String progressTitle = context.getString(R.string.summarylist_format, calendarTitle, location[0]);
-                int totalProgress = (int)((window[1] - window[0]) / CHUNK_MILLIS);
-                long start = window[0];
-                for (long i = window[0]; i < window[1] && !task.isCancelled(); i += DAY_MILLIS)
+    /**
+     * Queries the window a week at a time [v1].
+     */
+    private boolean initCalendarChunked(@NonNull ProviderSession session, @NonNull SuntimesCalendarAdapter adapter, long calendarID, @NonNull SuntimesCalendarTask task, @NonNull SuntimesCalendarTaskProgress progress0, @NonNull long[] window, String progressTitle, long deadline)
+    {
+        int c = 0;
+        int totalProgress = (int)((window[1] - window[0]) / CHUNK_MILLIS);
+        long start = window[0];
+        for (long i = window[0]; i < window[1] && !task.isCancelled(); i += DAY_MILLIS)
+        {
+            if ((i - start) > CHUNK_MILLIS)
+            {
+                if (isPastDeadline(deadline)) {
+                    return false;
+                }
+
+                Uri uri = Uri.parse(contentUri + SuntimesCalendar.QUERY_CALENDAR_CONTENT + "/" + start + "-" + i);
+                ContentPage page = queryChunk(session, calendarID, uri, task);
+                if (page == null) {
+                    return false;
+                }
+                adapter.createCalendarEvents(page.values.toArray(new ContentValues[0]));
+                c++;
+                start = i;
+
+                SuntimesCalendarTaskProgress progress = task.createProgressObj(c, totalProgress, progressTitle);
+                progress.setProgress(c, totalProgress, progressTitle);
+                task.publishProgress(progress0, progress);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Queries the whole window a page at a time, following continuation tokens until the last page [v2].
+     */
+    private boolean initCalendarPaged(@NonNull ProviderSession session, @NonNull SuntimesCalendarAdapter adapter, long calendarID, @NonNull SuntimesCalendarTask task, @NonNull SuntimesCalendarTaskProgress progress0, @NonNull long[] window, String progressTitle, long deadline)
+    {
+        String token = null;
+        do {
+            if (isPastDeadline(deadline)) {
+                return false;
+            }
+
+            Uri.Builder uri = Uri.parse(contentUri + SuntimesCalendar.QUERY_CALENDAR_CONTENT + "/" + window[0] + "-" + window[1]).buildUpon()
+                    .appendQueryParameter(SuntimesCalendar.PARAM_CONTENT_LIMIT, Integer.toString(PAGE_SIZE));
+            if (token != null) {
+                uri.appendQueryParameter(SuntimesCalendar.PARAM_CONTENT_TOKEN, token);
+            }
+
+            ContentPage page = queryChunk(session, calendarID, uri.build(), task);
+            if (page == null) {
+                return false;
+            }
+            if (page.continuation != null && page.continuation.equals(token))
+            {
+                lastError = calendarTitle + " returned the same page twice; " + uri;
+                Log.e(getClass().getSimpleName(), lastError);
+                return false;
+            }
+            adapter.createCalendarEvents(page.values.toArray(new ContentValues[0]));
+            publishProgress(task, progress0, window, page.values, progressTitle);
+            token = page.continuation;
+
+        } while (token != null && !task.isCancelled());
+        return !task.isCancelled();
+    }
+
+    /**
+     * Reads the whole window from a single stream (see CalendarContentStream) [v2]. The stream is decoded by the session's worker
+     * into a bounded queue, and rows are created (in batches) by the task as they are taken from the queue; a stream that is read
+     * again after the add-on dies skips the rows that were already queued. The read is limited by CALENDAR_TIMEOUT rather than
+     * QUERY_TIMEOUT; a read that misses its deadline is abandoned, and its worker stops queuing rows.
+     * @return the number of rows read, -1 if the read fails, or null if the add-on doesn't stream the window
+     */
+    @Nullable
+    private Integer initCalendarStreamed(@NonNull ProviderSession session, @NonNull SuntimesCalendarAdapter adapter, long calendarID, @NonNull SuntimesCalendarTask task, @NonNull SuntimesCalendarTaskProgress progress0, @NonNull long[] window, String progressTitle)
+    {
+        Uri uri = Uri.parse(contentUri + SuntimesCalendar.QUERY_CALENDAR_CONTENT + "/" + window[0] + "-" + window[1]).buildUpon()
+                .appendQueryParameter(SuntimesCalendar.PARAM_CONTENT_STREAM, "1").build();
+
+        final BlockingQueue<ContentValues> queue = new ArrayBlockingQueue<>(STREAM_QUEUE_SIZE);
+        final AtomicBoolean abandoned = new AtomicBoolean(false);
+        final int[] queued = new int[] { 0 };    // rows queued so far (kept across re-reads; touched only by the worker)
+        ProviderSession.PendingRead<Integer> read = session.readAsync(uri, new ProviderSession.StreamReader<Integer>()
+        {
+            @Override
+            public Integer readStream(@NonNull InputStream in) throws IOException
+            {
+                final int[] row = new int[] { 0 };
+                return CalendarContentStream.read(in, new CalendarContentStream.RowReader()
                 {
-                    if ((i - start) > CHUNK_MILLIS)
+                    @Override
+                    public boolean onRow(String[] columns, Object[] values)
                     {
-                        Cursor cursor = queryCursor(resolver, new long[] {start, i});
-                        if (cursor == null) {
-                            return false;
+                        if (row[0]++ < queued[0]) {
+                            return true;    // already queued (by a read that was interrupted)
                         }
+                        ContentValues contentValues = toContentValues(columns, values);
+                        try {
+                            while (!queue.offer(contentValues, STREAM_POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+                                if (abandoned.get()) {
+                                    return false;
+                                }
+                            }
+                        } catch (InterruptedException e) {
+                            return false;    // abandoned
+                        }
+                        queued[0] = row[0];
+                        return !abandoned.get();
+                    }
+                });
+            }
+        });
 
-                        ArrayList<ContentValues> values = readCursor(calendarID, cursor, task);
-                        adapter.createCalendarEvents(values.toArray(new ContentValues[0]));
-                        c++;
-                        start = i;
+        int created = 0;
+        long deadline = System.currentTimeMillis() + CALENDAR_TIMEOUT;
+        ArrayList<ContentValues> eventValues = new ArrayList<>();
+        Integer rows;
+        try {
+            while (true)
+            {
+                if (task.isCancelled() || isPastDeadline(deadline))
+                {
+                    abandoned.set(true);
+                    read.abandon();
+                    return -1;
+                }
 
-                        SuntimesCalendarTaskProgress progress = task.createProgressObj(c, totalProgress, progressTitle);
-                        progress.setProgress(c, totalProgress, progressTitle);
-                        task.publishProgress(progress0, progress);
+                boolean isDone = read.isDone();    // checked before polling; rows queued before the read finished are taken below
+                ContentValues values = queue.poll(STREAM_POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (values != null)
+                {
+                    ContentValues event = toEventValues(calendarID, values);
+                    if (event != null) {
+                        eventValues.add(event);
                     }
+                    if (eventValues.size() >= SuntimesCalendarAdapter.MAX_BATCH_SIZE) {
+                        created += createEvents(adapter, task, progress0, window, eventValues, progressTitle);
+                    }
+                } else if (isDone) {
+                    break;
                 }
-                return true;
+            }
+            rows = read.get();
+            if (rows != null) {
+                created += createEvents(adapter, task, progress0, window, eventValues, progressTitle);
+            }
 
-            } else {
-                lastError = "Unable to getContentResolver! ";
+        } catch (InterruptedException e) {
+            abandoned.set(true);
+            read.abandon();
+            Thread.currentThread().interrupt();
+            return -1;
+
+        } catch (Exception e) {
+            lastError = "Failed to read URI! " + uri + ": " + e;
+            Log.e(getClass().getSimpleName(), lastError);
+            return -1;
+        }
+
+        if (rows == null)
+        {
+            if (created > 0 || !eventValues.isEmpty()) {
+                lastError = "Failed to read URI! " + uri + ": gave up after " + queued[0] + " rows";
                 Log.e(getClass().getSimpleName(), lastError);
-                return false;
+                return -1;
             }
-        } else return false;
+            Log.w(getClass().getSimpleName(), "initCalendarStreamed: " + uri + " isn't available; falling back to pages..");
+            return null;
+        }
+        return rows;
+    }
+
+    /**
+     * @return the number of events created
+     */
+    private int createEvents(@NonNull SuntimesCalendarAdapter adapter, @NonNull SuntimesCalendarTask task, @NonNull SuntimesCalendarTaskProgress progress0, @NonNull long[] window, @NonNull ArrayList<ContentValues> eventValues, String progressTitle)
+    {
+        int c = eventValues.size();
+        if (c > 0)
+        {
+            adapter.createCalendarEvents(eventValues.toArray(new ContentValues[0]));
+            publishProgress(task, progress0, window, eventValues, progressTitle);
+            eventValues.clear();
+        }
+        return c;
+    }
+
+    private static ContentValues toContentValues(String[] columns, Object[] values)
+    {
+        ContentValues contentValues = new ContentValues();
+        for (int i=0; i<columns.length; i++)
+        {
+            Object value = values[i];
+            if (value == null) {
+                contentValues.putNull(columns[i]);
+            } else if (value instanceof Long) {
+                contentValues.put(columns[i], (Long) value);
+            } else if (value instanceof Double) {
+                contentValues.put(columns[i], (Double) value);
+            } else contentValues.put(columns[i], value.toString());
+        }
+        return contentValues;
+    }
+
+    private boolean isPastDeadline(long deadline)
+    {
+        if (System.currentTimeMillis() > deadline)
+        {
+            lastError = calendarTitle + " did not finish within " + (CALENDAR_TIMEOUT / 1000) + "s";
+            Log.e(getClass().getSimpleName(), lastError);
+            return true;
+        }
+        return false;
     }
 
+    /**
+     * Publishes progress as the number of days between the start of the window and the last event.
+     */
+    private void publishProgress(@NonNull SuntimesCalendarTask task, @NonNull SuntimesCalendarTaskProgress progress0, @NonNull long[] window, @NonNull List<ContentValues> values, String progressTitle)
+    {
+        Long dtstart = (values.isEmpty() ? null : values.get(values.size() - 1).getAsLong("dtstart"));
+        if (dtstart != null)
+        {
+            int totalProgress = (int)((window[1] - window[0]) / DAY_MILLIS);
+            int c = (int) Math.max(0, Math.min(totalProgress, (dtstart - window[0]) / DAY_MILLIS));
+            SuntimesCalendarTaskProgress progress = task.createProgressObj(c, totalProgress, progressTitle);
+            task.publishProgress(progress0, progress);
+        }
+    }
+
+    /**
+     * A chunk (or page) of events.
+     */
+    private static class ContentPage
+    {
+        public final ArrayList<ContentValues> values;
+        public final String continuation;    // [v2] token of the next page, or null
+
+        public ContentPage(@NonNull ArrayList<ContentValues> values, @Nullable String continuation)
+        {
+            this.values = values;
+            this.continuation = continuation;
+        }
+    }
+
+    /**
+     * Queries and reads a chunk of events; the chunk is queried again if the add-on's process dies while it is being read.
+     * @return event values, or null if the query fails
+     */
     @Nullable
-    private Cursor queryCursor(ContentResolver resolver, long[] window)
+    private ContentPage queryChunk(@NonNull ProviderSession session, final long calendarID, @NonNull Uri uri, @NonNull final SuntimesCalendarTask task)
     {
-        Uri uri = Uri.parse(contentUri + SuntimesCalendar.QUERY_CALENDAR_CONTENT + "/" + window[0] + "-" + window[1]);
-        Cursor cursor;
+        ContentPage page;
         try {
-            cursor = resolver.query(uri, null, null, null, null);
-            if (cursor == null) {
+            page = session.query(uri, null, null, null, null, new ProviderSession.CursorReader<ContentPage>()
+            {
+                @Override
+                public ContentPage readCursor(@NonNull Cursor cursor)
+                {
+                    Bundle extras = cursor.getExtras();
+                    String continuation = (extras != null ? extras.getString(SuntimesCalendar.EXTRA_CONTENT_CONTINUATION) : null);
+                    return new ContentPage(ContentProviderCalendar.this.readCursor(calendarID, cursor, task), continuation);
+                }
+            });
+            if (page == null) {
                 lastError = "Failed to resolve URI! " + uri;
                 Log.e(getClass().getSimpleName(), lastError);
             }
 
         } catch (Exception e) {
-            cursor = null;
+            page = null;
             lastError = "Failed to query URI! " + uri + ": " + e;
             Log.e(getClass().getSimpleName(), lastError);
         }
-        return cursor;
+        return page;
     }
 
     @NonNull
@@ -286,18 +723,33 @@ public class ContentProviderCalendar extends SuntimesCalendarBase implements Sun
             ContentValues values = new ContentValues();
             DatabaseUtils.cursorRowToContentValues(cursor, values);
 
-            boolean isValidEvent = (values.containsKey("title") && values.containsKey("description"));
-            if (isValidEvent) {
-                values.put("calendar_id", calendarID);
-                eventValues.add(values);
-
-            } else {
-                Log.w(getClass().getSimpleName(), "Invalid event! result does not contain expected values; skipping..");
+            ContentValues event = toEventValues(calendarID, values);
+            if (event != null) {
+                eventValues.add(event);
             }
             cursor.moveToNext();
         }
-        cursor.close();
+        if (cursor.getCount() > 0 && !cursor.isAfterLast() && !task.isCancelled()) {
+            throw new IllegalStateException("incomplete read; " + cursor.getPosition() + " of " + cursor.getCount() + " rows");    // retried by the session (see TimeColumns.READER)
+        }
         return eventValues;
     }
 
+    /**
+     * @return event values (assigned to the calendar), or null if the row isn't a valid event
+     */
+    @Nullable
+    private ContentValues toEventValues(long calendarID, @NonNull ContentValues values)
+    {
+        boolean isValidEvent = (values.containsKey("title") && values.containsKey("description"));
+        if (isValidEvent) {
+            values.put("calendar_id", calendarID);
+            return SuntimesCalendarAdapter.putEventIdentity(values, calendarName(), 0);
+
+        } else {
+            Log.w(getClass().getSimpleName(), "Invalid event! result does not contain expected values; skipping..");
+            return null;
+        }
+    }
+
 }
@@ -18,7 +18,6 @@
 
 package com.forrestguice.suntimeswidget.calendar.task.calendars;
 
-import android.content.ContentResolver;
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
@@ -30,6 +29,7 @@ import com.forrestguice.suntimescalendars.R;
 import com.forrestguice.suntimeswidget.calculator.core.CalculatorProviderContract;
 import com.forrestguice.suntimeswidget.calendar.CalendarEventFlags;
 import com.forrestguice.suntimeswidget.calendar.CalendarEventStrings;
+import com.forrestguice.suntimeswidget.calendar.ProviderSession;
 import com.forrestguice.suntimeswidget.calendar.CalendarEventTemplate;
 import com.forrestguice.suntimeswidget.calendar.SuntimesCalendarAdapter;
 import com.forrestguice.suntimeswidget.calendar.SuntimesCalendarSettings;
@@ -62,7 +62,9 @@ public class DaylightCalendar extends SuntimesCalendarBase implements SuntimesCa
     }
 
     @Override
-    public CalendarEventStrings defaultStrings() {
+    public CalendarEventStrings defaultStrings()
+    {
+        loadStrings();
         return new CalendarEventStrings(daylightStrings);
     }
 
@@ -75,7 +77,9 @@ public class DaylightCalendar extends SuntimesCalendarBase implements SuntimesCa
     }
 
     @Override
-    public String flagLabel(int i) {
+    public String flagLabel(int i)
+    {
+        loadStrings();
         if (i >=0 && i < daylightStrings.length) {
             return daylightStrings[i];
         } else return "";
@@ -90,7 +94,11 @@ public class DaylightCalendar extends SuntimesCalendarBase implements SuntimesCa
         calendarSummary = context.getString(resID_calendarSummary);
         calendarDesc = null;
         calendarColor = settings.loadPrefCalendarColor(context, calendarName());
+    }
 
+    @Override
+    protected void initStrings(@NonNull Context context)
+    {
         daylightStrings[0] = context.getString(R.string.sunrise);
         daylightStrings[1] = context.getString(R.string.timeMode_noon);
         daylightStrings[2] = context.getString(R.string.sunset);
@@ -102,22 +110,26 @@ public class DaylightCalendar extends SuntimesCalendarBase implements SuntimesCa
         if (task.isCancelled()) {
             return false;
         }
+        loadStrings();
 
         String calendarName = calendarName();
-        if (!adapter.hasCalendar(calendarName)) {
-            adapter.createCalendar(calendarName, calendarTitle, calendarColor);
-        } else return false;
 
-        long calendarID = adapter.queryCalendarID(calendarName);
+        long calendarID = initCalendarID(adapter, window);
         if (calendarID != -1)
         {
             Context context = contextRef.get();
-            ContentResolver resolver = (context == null ? null : context.getContentResolver());
-            if (resolver != null)
+            ProviderSession session = (context == null ? null : task.getProviderSession(CalculatorProviderContract.AUTHORITY));
+            if (session != null)
             {
-                Uri uri = Uri.parse("content://" + CalculatorProviderContract.AUTHORITY + "/" + CalculatorProviderContract.QUERY_SUN + "/" + window[0] + "-" + window[1]);
+                boolean[] flags = SuntimesCalendarSettings.loadPrefCalendarFlags(context, calendarName, defaultFlags()).getValues();
                 String[] projection = new String[] { CalculatorProviderContract.COLUMN_SUN_ACTUAL_RISE, CalculatorProviderContract.COLUMN_SUN_NOON, CalculatorProviderContract.COLUMN_SUN_ACTUAL_SET };
-                Cursor cursor = resolver.query(uri, projection, null, null, null);
+                CalendarQueryPlan plan = CalendarQueryPlan.byFlag(projection, flags);
+                if (plan.isEmpty()) {
+                    return skipCalendarQuery(task, progress0);
+                }
+
+                Uri uri = Uri.parse("content://" + CalculatorProviderContract.AUTHORITY + "/" + CalculatorProviderContract.QUERY_SUN + "/" + window[0] + "-" + window[1]);
+                Cursor cursor = session.query(uri, plan.getProjection(), null, null, null);
                 if (cursor != null)
                 {
                     String[] location = task.getLocation();
@@ -129,7 +141,6 @@ public class DaylightCalendar extends SuntimesCalendarBase implements SuntimesCa
                     SuntimesCalendarTaskProgress progress = task.createProgressObj(c, totalProgress, progressTitle);
                     task.publishProgress(progress0, progress);
 
-                    boolean[] flags = SuntimesCalendarSettings.loadPrefCalendarFlags(context, calendarName, defaultFlags()).getValues();
                     String[] strings = SuntimesCalendarSettings.loadPrefCalendarStrings(context, calendarName, defaultStrings()).getValues();
                     CalendarEventTemplate template = SuntimesCalendarSettings.loadPrefCalendarTemplate(context, calendarName, defaultTemplate());
                     ContentValues data = TemplatePatterns.createContentValues(null, this);
@@ -141,12 +152,12 @@ public class DaylightCalendar extends SuntimesCalendarBase implements SuntimesCa
                     {
                         for (int i=0; i<projection.length; i++)
                         {
-                            if (flags[i] && !cursor.isNull(i))
+                            if (flags[i] && !plan.isNull(cursor, i))
                             {
                                 Calendar eventTime = Calendar.getInstance();
-                                eventTime.setTimeInMillis(cursor.getLong(i));
+                                eventTime.setTimeInMillis(plan.getLong(cursor, i));
                                 data.put(TemplatePatterns.pattern_event.getPattern(), strings[i]);
-                                eventValues.add(adapter.createEventContentValues(calendarID, template.getTitle(data), template.getDesc(data), template.getLocation(data), eventTime));
+                                eventValues.add(createEventContentValues(adapter, calendarID, i, template, data, eventTime));
                                 //Log.d("DEBUG", "create event: " + strings[i] + " at " + eventTime.toString());
                             }
                         }
@@ -18,13 +18,12 @@
 
 package com.forrestguice.suntimeswidget.calendar.task.calendars;
 
-import android.content.ContentResolver;
-import android.content.Context;
 import android.database.Cursor;
 import android.net.Uri;
 import android.support.annotation.NonNull;
 
 import com.forrestguice.suntimeswidget.calculator.core.CalculatorProviderContract;
+import com.forrestguice.suntimeswidget.calendar.ProviderSession;
 
 import java.text.DecimalFormat;
 import java.text.NumberFormat;
@@ -44,11 +43,11 @@ public abstract class MoonCalendarBase extends SuntimesCalendarBase
         return distanceFormatter.format(distance);
     }
 
-    protected double lookupMoonDistance(@NonNull Context context, @NonNull ContentResolver resolver, long dateMillis )
+    protected double lookupMoonDistance(@NonNull ProviderSession session, long dateMillis )
     {
         double retValue = -1;
         Uri uri = Uri.parse("content://" + CalculatorProviderContract.AUTHORITY + "/" + CalculatorProviderContract.QUERY_MOONPOS  + "/" + dateMillis);
-        Cursor cursor = resolver.query(uri, new String[] { CalculatorProviderContract.COLUMN_MOONPOS_DISTANCE }, null, null, null);
+        Cursor cursor = session.query(uri, new String[] { CalculatorProviderContract.COLUMN_MOONPOS_DISTANCE }, null, null, null);
         if (cursor != null) {
             cursor.moveToFirst();
             retValue = cursor.getDouble(0);
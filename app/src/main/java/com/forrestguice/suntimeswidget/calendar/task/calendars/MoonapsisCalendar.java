@@ -18,7 +18,6 @@
 
 package com.forrestguice.suntimeswidget.calendar.task.calendars;
 
-import android.content.ContentResolver;
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
@@ -31,13 +30,16 @@ import com.forrestguice.suntimeswidget.calculator.core.CalculatorProviderContrac
 
 import com.forrestguice.suntimeswidget.calendar.CalendarEventFlags;
 import com.forrestguice.suntimeswidget.calendar.CalendarEventStrings;
+import com.forrestguice.suntimeswidget.calendar.ProviderSession;
 import com.forrestguice.suntimeswidget.calendar.SuntimesCalendarAdapter;
 import com.forrestguice.suntimeswidget.calendar.SuntimesCalendarSettings;
+import com.forrestguice.suntimeswidget.calendar.task.ProviderCapabilities;
 import com.forrestguice.suntimeswidget.calendar.task.SuntimesCalendar;
 import com.forrestguice.suntimeswidget.calendar.task.SuntimesCalendarTask;
 import com.forrestguice.suntimeswidget.calendar.task.SuntimesCalendarTaskProgress;
 import com.forrestguice.suntimeswidget.calendar.CalendarEventTemplate;
 import com.forrestguice.suntimeswidget.calendar.TemplatePatterns;
+import com.forrestguice.suntimeswidget.calendar.core.MoonEvents;
 
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -52,6 +54,11 @@ public class MoonapsisCalendar extends MoonCalendarBase implements SuntimesCalen
 
     private String[] apsisStrings = new String[2];    // {apogee, perigee}
 
+    @Override
+    public boolean isLocationDependent() {
+        return false;
+    }
+
     @Override
     public String calendarName() {
         return SuntimesCalendarAdapter.CALENDAR_MOONAPSIS;
@@ -63,7 +70,9 @@ public class MoonapsisCalendar extends MoonCalendarBase implements SuntimesCalen
     }
 
     @Override
-    public CalendarEventStrings defaultStrings() {
+    public CalendarEventStrings defaultStrings()
+    {
+        loadStrings();
         return new CalendarEventStrings(apsisStrings);
     }
 
@@ -76,7 +85,9 @@ public class MoonapsisCalendar extends MoonCalendarBase implements SuntimesCalen
     }
 
     @Override
-    public String flagLabel(int i) {
+    public String flagLabel(int i)
+    {
+        loadStrings();
         if (i >= 0 && i < apsisStrings.length) {
             return apsisStrings[i];
         } else return "";
@@ -91,49 +102,62 @@ public class MoonapsisCalendar extends MoonCalendarBase implements SuntimesCalen
         calendarSummary = context.getString(resID_calendarSummary);
         calendarDesc = null;
         calendarColor = settings.loadPrefCalendarColor(context, calendarName());
+    }
 
+    @Override
+    protected void initStrings(@NonNull Context context)
+    {
         apsisStrings[0] = context.getString(R.string.timeMode_moon_apogee);
         apsisStrings[1] = context.getString(R.string.timeMode_moon_perigee);
     }
 
+    @Override
+    public boolean isSupported(@NonNull ProviderCapabilities capabilities)
+    {
+        if (!capabilities.isSupported(CalculatorProviderContract.QUERY_MOONPOS, CalculatorProviderContract.COLUMN_MOONPOS_APOGEE, CalculatorProviderContract.COLUMN_MOONPOS_PERIGEE))
+        {   // moonApsis needs provider v2:0.3.0 (Suntimes v0.12.0+)
+            Context context = contextRef.get();
+            lastError = context != null ? context.getString(R.string.feature_not_supported_by_provider, calendarTitle, "Suntimes v0.12.0")
+                    : calendarTitle + " is not supported by the current version; requires Suntimes v0.12.0 or greater";
+            Log.e("initMoonApsisCalendar", lastError);
+            return false;
+        }
+        return true;
+    }
+
     @Override
     public boolean initCalendar(@NonNull SuntimesCalendarSettings settings, @NonNull SuntimesCalendarAdapter adapter, @NonNull SuntimesCalendarTask task, @NonNull SuntimesCalendarTaskProgress progress0, @NonNull long[] window)
     {
         if (task.isCancelled()) {
             return false;
         }
+        loadStrings();
 
         String calendarName = calendarName();
 
-        //Log.d("DEBUG", "providerVersion: " + task.getProviderVersion());
-
-        if (task.getProviderVersion() < 2)    // sanity check.. moonApsis needs provider v2:0.3.0 (Suntimes v0.12.0+))
-        {
-            Context context = contextRef.get();
-            lastError = context != null ? context.getString(R.string.feature_not_supported_by_provider, calendarTitle, "Suntimes v0.12.0")
-                    : calendarTitle + " is not supported by the current version; requires Suntimes v0.12.0 or greater";
-            Log.e("initMoonApsisCalendar", lastError);
+        if (!isSupported(task.getProviderCapabilities())) {
             return false;
         }
 
-        if (!adapter.hasCalendar(calendarName)) {
-            adapter.createCalendar(calendarName, calendarTitle, calendarColor);
-        } else return false;
-
         String[] projection = new String[] {
                 CalculatorProviderContract.COLUMN_MOONPOS_APOGEE,
                 CalculatorProviderContract.COLUMN_MOONPOS_PERIGEE
         };
 
-        long calendarID = adapter.queryCalendarID(calendarName);
+        long calendarID = initCalendarID(adapter, window);
         if (calendarID != -1)
         {
             Context context = contextRef.get();
-            ContentResolver resolver = (context == null ? null : context.getContentResolver());
-            if (resolver != null)
+            ProviderSession session = (context == null ? null : task.getProviderSession(CalculatorProviderContract.AUTHORITY));
+            if (session != null)
             {
+                boolean[] flags = SuntimesCalendarSettings.loadPrefCalendarFlags(context, calendarName, defaultFlags()).getValues();
+                if (!hasEnabledFlags(flags)) {    // both columns are still queried otherwise (apogee is needed to advance to the next cycle)
+                    return skipCalendarQuery(task, progress0);
+                }
+
                 int c = 0;
-                int totalProgress = (int)Math.ceil(1.25 * (((window[1] - window[0]) / 1000d / 60d / 60d / 24d) / 27.554551d));
+                int totalProgress = MoonEvents.estimateApsisCount(window);
                 SuntimesCalendarTaskProgress progress = task.createProgressObj(c, totalProgress, calendarTitle);
                 task.publishProgress(progress0, progress);
 
@@ -146,7 +170,7 @@ public class MoonapsisCalendar extends MoonCalendarBase implements SuntimesCalen
                 while (date.before(endDate) && !task.isCancelled())
                 {
                     Uri uri = Uri.parse("content://" + CalculatorProviderContract.AUTHORITY + "/" + CalculatorProviderContract.QUERY_MOONPOS  + "/" + (date.getTimeInMillis()));
-                    Cursor cursor = resolver.query(uri, projection, null, null, null);
+                    Cursor cursor = session.query(uri, projection, null, null, null);
                     if (cursor == null)
                     {
                         lastError = "Failed to resolve URI! " + uri;
@@ -157,7 +181,6 @@ public class MoonapsisCalendar extends MoonCalendarBase implements SuntimesCalen
                         progress = task.createProgressObj(c, totalProgress, calendarTitle);
                         task.publishProgress(progress0, progress);
 
-                        boolean[] flags = SuntimesCalendarSettings.loadPrefCalendarFlags(context, calendarName, defaultFlags()).getValues();
                         String[] strings = SuntimesCalendarSettings.loadPrefCalendarStrings(context, calendarName, defaultStrings()).getValues();
                         CalendarEventTemplate template = SuntimesCalendarSettings.loadPrefCalendarTemplate(context, calendarName, defaultTemplate());
                         ContentValues data = TemplatePatterns.createContentValues(null, this);
@@ -167,7 +190,7 @@ public class MoonapsisCalendar extends MoonCalendarBase implements SuntimesCalen
                         cursor.moveToFirst();
                         while (!cursor.isAfterLast() && !task.isCancelled())
                         {
-                            if (cursor.getColumnCount() < 2 || cursor.getLong(0) <= 0)
+                            if (!MoonEvents.isApsisRow(cursor.getColumnCount(), cursor.getLong(0)))
                             {   // sanity check.. moonApsis needs provider v2:0.3.0 (Suntimes v0.12.0+))
                                 cursor.close();
                                 progress.setProgress(totalProgress, totalProgress, calendarTitle);
@@ -185,12 +208,12 @@ public class MoonapsisCalendar extends MoonCalendarBase implements SuntimesCalen
 
                                 Calendar eventTime = Calendar.getInstance();
                                 eventTime.setTimeInMillis(cursor.getLong(i));
-                                double distance = lookupMoonDistance(context, resolver, eventTime.getTimeInMillis());
+                                double distance = lookupMoonDistance(session, eventTime.getTimeInMillis());
                                 data.put(TemplatePatterns.pattern_event.getPattern(), strings[i]);
                                 data.put(TemplatePatterns.pattern_dist.getPattern(), ((distance > 0) ? context.getString(R.string.distance_format, formatDistanceString(distance)) : ""));
-                                eventValues.add(adapter.createEventContentValues(calendarID, template.getTitle(data), template.getDesc(data), template.getLocation(data), eventTime));
+                                eventValues.add(createEventContentValues(adapter, calendarID, i, template, data, eventTime));
                             }
-                            date.setTimeInMillis(cursor.getLong(0) + (60 * 1000));  // advance to next cycle
+                            date.setTimeInMillis(MoonEvents.nextApsisQuery(cursor.getLong(0)));  // advance to next cycle
                             cursor.moveToNext();
                             c++;
 
@@ -18,7 +18,6 @@
 
 package com.forrestguice.suntimeswidget.calendar.task.calendars;
 
-import android.content.ContentResolver;
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
@@ -32,12 +31,14 @@ import com.forrestguice.suntimeswidget.calculator.core.CalculatorProviderContrac
 
 import com.forrestguice.suntimeswidget.calendar.CalendarEventFlags;
 import com.forrestguice.suntimeswidget.calendar.CalendarEventStrings;
+import com.forrestguice.suntimeswidget.calendar.ProviderSession;
 import com.forrestguice.suntimeswidget.calendar.SuntimesCalendarAdapter;
 import com.forrestguice.suntimeswidget.calendar.SuntimesCalendarSettings;
 import com.forrestguice.suntimeswidget.calendar.task.SuntimesCalendarTask;
 import com.forrestguice.suntimeswidget.calendar.task.SuntimesCalendarTaskProgress;
 import com.forrestguice.suntimeswidget.calendar.CalendarEventTemplate;
 import com.forrestguice.suntimeswidget.calendar.TemplatePatterns;
+import com.forrestguice.suntimeswidget.calendar.core.MoonEvents;
 
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -50,13 +51,15 @@ public class MoonphaseCalendar extends MoonCalendarBase
     private static final int resID_calendarTitle = R.string.calendar_moonPhase_displayName;
     private static final int resID_calendarSummary = R.string.calendar_moonPhase_summary;
 
-    public static final double THRESHHOLD_SUPERMOON = 360000;    // km
-    public static final double THRESHHOLD_MICROMOON = 405000;    // km
-
     private final String[] phaseStrings = new String[4];     // {major phases}
     private final String[] phaseStrings1 = new String[4];    // {major phases; supermoon}
     private final String[] phaseStrings2 = new String[4];    // {major phases; micromoon}
 
+    @Override
+    public boolean isLocationDependent() {
+        return false;
+    }
+
     @Override
     public String calendarName() {
         return SuntimesCalendarAdapter.CALENDAR_MOONPHASE;
@@ -68,7 +71,9 @@ public class MoonphaseCalendar extends MoonCalendarBase
     }
 
     @Override
-    public CalendarEventStrings defaultStrings() {
+    public CalendarEventStrings defaultStrings()
+    {
+        loadStrings();
         return new CalendarEventStrings(phaseStrings[0], phaseStrings[1], phaseStrings[2], phaseStrings[3],   // 0-3 normal phases
                 phaseStrings1[0], phaseStrings1[2],                                                           // 4,5 super moon
                 phaseStrings2[0], phaseStrings2[2]                                                            // 6,7 micro moon
@@ -84,7 +89,9 @@ public class MoonphaseCalendar extends MoonCalendarBase
     }
 
     @Override
-    public String flagLabel(int i) {
+    public String flagLabel(int i)
+    {
+        loadStrings();
         if (i >=0 && i < 4) {
             return phaseStrings[i];
         } else return "";
@@ -99,7 +106,11 @@ public class MoonphaseCalendar extends MoonCalendarBase
         calendarSummary = context.getString(resID_calendarSummary);
         calendarDesc = null;
         calendarColor = settings.loadPrefCalendarColor(context, calendarName());
+    }
 
+    @Override
+    protected void initStrings(@NonNull Context context)
+    {
         phaseStrings[0] = context.getString(R.string.timeMode_moon_new);
         phaseStrings[1] = context.getString(R.string.timeMode_moon_firstquarter);
         phaseStrings[2] = context.getString(R.string.timeMode_moon_full);
@@ -116,31 +127,15 @@ public class MoonphaseCalendar extends MoonCalendarBase
         phaseStrings2[3] = context.getString(R.string.timeMode_moon_thirdquarter);
     }
 
-    protected String[] getPhaseStrings(int i, double distance, String[] strings)
-    {
-        String[] result = Arrays.copyOfRange(strings, 0, 4);
-        if (i == 0 || i == 2)  // new moon || full moon
-        {
-            if (distance < THRESHHOLD_SUPERMOON) {
-                result[i] = strings[4 + Math.max(0, i-1)];
-            } else if (distance > THRESHHOLD_MICROMOON) {
-                result[i] = strings[6 + Math.max(0, i-1)];
-            }
-        }
-        return result;
-    }
-
     @Override
     public boolean initCalendar(@NonNull SuntimesCalendarSettings settings, @NonNull SuntimesCalendarAdapter adapter, @NonNull SuntimesCalendarTask task, @NonNull SuntimesCalendarTaskProgress progress0, @NonNull long[] window)
     {
         if (task.isCancelled()) {
             return false;
         }
+        loadStrings();
 
         String calendarName = calendarName();
-        if (!adapter.hasCalendar(calendarName)) {
-            adapter.createCalendar(calendarName, calendarTitle, calendarColor);
-        } else return false;
 
         String[] projection = new String[] {    // indices 0-3 should contain ordered phases!
                 CalculatorProviderContract.COLUMN_MOON_NEW,
@@ -151,15 +146,24 @@ public class MoonphaseCalendar extends MoonCalendarBase
                 CalculatorProviderContract.COLUMN_MOON_FULL_DISTANCE
         };
 
-        long calendarID = adapter.queryCalendarID(calendarName);
+        long calendarID = initCalendarID(adapter, window);
         if (calendarID != -1)
         {
             Context context = contextRef.get();
-            ContentResolver resolver = (context == null ? null : context.getContentResolver());
-            if (resolver != null)
+            ProviderSession session = (context == null ? null : task.getProviderSession(CalculatorProviderContract.AUTHORITY));
+            if (session != null)
             {
+                boolean[] flags = SuntimesCalendarSettings.loadPrefCalendarFlags(context, calendarName, defaultFlags()).getValues();
+                boolean hasDistance = task.getProviderCapabilities().supportsColumn(CalculatorProviderContract.COLUMN_MOON_NEW_DISTANCE);
+                int[][] flagColumns = (hasDistance ? new int[][] { {0, 4}, {1}, {2, 5}, {3} }    // new and full moon also read their distance
+                                                   : new int[][] { {0}, {1}, {2}, {3} });
+                CalendarQueryPlan plan = new CalendarQueryPlan(projection, flagColumns, flags);
+                if (plan.isEmpty()) {
+                    return skipCalendarQuery(task, progress0);
+                }
+
                 Uri uri = Uri.parse("content://" + CalculatorProviderContract.AUTHORITY + "/" + CalculatorProviderContract.QUERY_MOONPHASE + "/" + window[0] + "-" + window[1]);
-                Cursor cursor = resolver.query(uri, projection, null, null, null);
+                Cursor cursor = session.query(uri, plan.getProjection(), null, null, null);
                 if (cursor != null)
                 {
                     int c = 0;
@@ -167,7 +171,6 @@ public class MoonphaseCalendar extends MoonCalendarBase
                     SuntimesCalendarTaskProgress progress = task.createProgressObj(c, totalProgress, calendarTitle);
                     task.publishProgress(progress0, progress);
 
-                    boolean[] flags = SuntimesCalendarSettings.loadPrefCalendarFlags(context, calendarName, defaultFlags()).getValues();
                     String[] strings = SuntimesCalendarSettings.loadPrefCalendarStrings(context, calendarName, defaultStrings()).getValues();
                     CalendarEventTemplate template = SuntimesCalendarSettings.loadPrefCalendarTemplate(context, calendarName, defaultTemplate());
                     ContentValues data = TemplatePatterns.createContentValues(null, this);
@@ -184,18 +187,17 @@ public class MoonphaseCalendar extends MoonCalendarBase
                             }
 
                             double distance = -1;
-                            if (i == 0 || i == 2)  // new moon || full moon
+                            if (hasDistance && (i == 0 || i == 2))  // new moon || full moon
                             {
-                                distance = cursor.getDouble(i == 0 ? 4 : 5);
+                                distance = plan.getDouble(cursor, i == 0 ? 4 : 5);
                             }
 
-                            String[] eventStrings = getPhaseStrings(i, distance, strings);
-                            data.put(TemplatePatterns.pattern_event.getPattern(), eventStrings[i]);
+                            data.put(TemplatePatterns.pattern_event.getPattern(), MoonEvents.phaseString(i, distance, strings));
                             data.put(TemplatePatterns.pattern_dist.getPattern(), ((distance > 0) ? context.getString(R.string.distance_format, formatDistanceString(distance)) : ""));
 
                             Calendar eventTime = Calendar.getInstance();
-                            eventTime.setTimeInMillis(cursor.getLong(i));
-                            eventValues.add(adapter.createEventContentValues(calendarID, template.getTitle(data), template.getDesc(data), template.getLocation(data), eventTime));
+                            eventTime.setTimeInMillis(plan.getLong(cursor, i));
+                            eventValues.add(createEventContentValues(adapter, calendarID, i, template, data, eventTime));
                         }
                         cursor.moveToNext();
                         c++;
@@ -18,7 +18,6 @@
 
 package com.forrestguice.suntimeswidget.calendar.task.calendars;
 
-import android.content.ContentResolver;
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
@@ -30,6 +29,7 @@ import com.forrestguice.suntimescalendars.R;
 import com.forrestguice.suntimeswidget.calculator.core.CalculatorProviderContract;
 import com.forrestguice.suntimeswidget.calendar.CalendarEventFlags;
 import com.forrestguice.suntimeswidget.calendar.CalendarEventStrings;
+import com.forrestguice.suntimeswidget.calendar.ProviderSession;
 import com.forrestguice.suntimeswidget.calendar.SuntimesCalendarAdapter;
 import com.forrestguice.suntimeswidget.calendar.SuntimesCalendarSettings;
 import com.forrestguice.suntimeswidget.calendar.task.SuntimesCalendar;
@@ -62,7 +62,9 @@ public class MoonriseCalendar extends MoonCalendarBase implements SuntimesCalend
     }
 
     @Override
-    public CalendarEventStrings defaultStrings() {
+    public CalendarEventStrings defaultStrings()
+    {
+        loadStrings();
         return new CalendarEventStrings(moonStrings);
     }
 
@@ -75,7 +77,9 @@ public class MoonriseCalendar extends MoonCalendarBase implements SuntimesCalend
     }
 
     @Override
-    public String flagLabel(int i) {
+    public String flagLabel(int i)
+    {
+        loadStrings();
         if (i >=0 && i < moonStrings.length) {
             return moonStrings[i];
         } else return "";
@@ -91,7 +95,11 @@ public class MoonriseCalendar extends MoonCalendarBase implements SuntimesCalend
         calendarSummary = context.getString(resID_calendarSummary);
         calendarDesc = null;
         calendarColor = settings.loadPrefCalendarColor(context, calendarName());
+    }
 
+    @Override
+    protected void initStrings(@NonNull Context context)
+    {
         moonStrings[0] = context.getString(R.string.moonrise);
         moonStrings[1] = context.getString(R.string.moonset);
     }
@@ -102,22 +110,26 @@ public class MoonriseCalendar extends MoonCalendarBase implements SuntimesCalend
         if (task.isCancelled()) {
             return false;
         }
+        loadStrings();
 
         String calendarName = calendarName();
-        if (!adapter.hasCalendar(calendarName)) {
-            adapter.createCalendar(calendarName, calendarTitle, calendarColor);
-        } else return false;
 
-        long calendarID = adapter.queryCalendarID(calendarName);
+        long calendarID = initCalendarID(adapter, window);
         if (calendarID != -1)
         {
             Context context = contextRef.get();
-            ContentResolver resolver = (context == null ? null : context.getContentResolver());
-            if (resolver != null)
+            ProviderSession session = (context == null ? null : task.getProviderSession(CalculatorProviderContract.AUTHORITY));
+            if (session != null)
             {
-                Uri moonUri = Uri.parse("content://" + CalculatorProviderContract.AUTHORITY + "/" + CalculatorProviderContract.QUERY_MOON + "/" + window[0] + "-" + window[1]);
+                boolean[] flags = SuntimesCalendarSettings.loadPrefCalendarFlags(context, calendarName, defaultFlags()).getValues();
                 String[] moonProjection = new String[] { CalculatorProviderContract.COLUMN_MOON_RISE, CalculatorProviderContract.COLUMN_MOON_SET };
-                Cursor moonCursor = resolver.query(moonUri, moonProjection, null, null, null);
+                CalendarQueryPlan plan = CalendarQueryPlan.byFlag(moonProjection, flags);
+                if (plan.isEmpty()) {
+                    return skipCalendarQuery(task, progress0);
+                }
+
+                Uri moonUri = Uri.parse("content://" + CalculatorProviderContract.AUTHORITY + "/" + CalculatorProviderContract.QUERY_MOON + "/" + window[0] + "-" + window[1]);
+                Cursor moonCursor = session.query(moonUri, plan.getProjection(), null, null, null);
                 if (moonCursor != null)
                 {
                     String[] location = task.getLocation();
@@ -129,7 +141,6 @@ public class MoonriseCalendar extends MoonCalendarBase implements SuntimesCalend
                     SuntimesCalendarTaskProgress progress = task.createProgressObj(c, totalProgress, progressTitle);
                     task.publishProgress(progress0, progress);
 
-                    boolean[] flags = SuntimesCalendarSettings.loadPrefCalendarFlags(context, calendarName, defaultFlags()).getValues();
                     String[] strings = SuntimesCalendarSettings.loadPrefCalendarStrings(context, calendarName, defaultStrings()).getValues();
                     CalendarEventTemplate template = SuntimesCalendarSettings.loadPrefCalendarTemplate(context, calendarName, defaultTemplate());
                     ContentValues data = TemplatePatterns.createContentValues(null, this);
@@ -141,14 +152,14 @@ public class MoonriseCalendar extends MoonCalendarBase implements SuntimesCalend
                     {
                         for (int i=0; i<moonProjection.length; i++)
                         {
-                            if (flags[i] && !moonCursor.isNull(i))
+                            if (flags[i] && !plan.isNull(moonCursor, i))
                             {
                                 Calendar eventTime = Calendar.getInstance();
-                                eventTime.setTimeInMillis(moonCursor.getLong(i));
+                                eventTime.setTimeInMillis(plan.getLong(moonCursor, i));
                                 data.put(TemplatePatterns.pattern_event.getPattern(), strings[i]);
                                 //desc = context.getString(R.string.event_at_format, moonStrings[i], context.getString(R.string.location_format_short, config_location_name, config_location_latitude, config_location_longitude));
                                 //desc = context.getString(R.string.event_at_format, moonStrings[i], location[0]);
-                                eventValues.add(adapter.createEventContentValues(calendarID, template.getTitle(data), template.getDesc(data), template.getLocation(data), eventTime));
+                                eventValues.add(createEventContentValues(adapter, calendarID, i, template, data, eventTime));
                                 //Log.d("DEBUG", "create event: " + moonStrings[i] + " at " + eventTime.toString());
                             }
                         }
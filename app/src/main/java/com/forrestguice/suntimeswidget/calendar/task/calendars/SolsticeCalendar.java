@@ -18,7 +18,6 @@
 
 package com.forrestguice.suntimeswidget.calendar.task.calendars;
 
-import android.content.ContentResolver;
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
@@ -31,6 +30,7 @@ import com.forrestguice.suntimeswidget.calculator.core.CalculatorProviderContrac
 
 import com.forrestguice.suntimeswidget.calendar.CalendarEventFlags;
 import com.forrestguice.suntimeswidget.calendar.CalendarEventStrings;
+import com.forrestguice.suntimeswidget.calendar.ProviderSession;
 import com.forrestguice.suntimeswidget.calendar.SuntimesCalendarAdapter;
 import com.forrestguice.suntimeswidget.calendar.SuntimesCalendarSettings;
 import com.forrestguice.suntimeswidget.calendar.task.SuntimesCalendar;
@@ -38,6 +38,7 @@ import com.forrestguice.suntimeswidget.calendar.task.SuntimesCalendarTask;
 import com.forrestguice.suntimeswidget.calendar.task.SuntimesCalendarTaskProgress;
 import com.forrestguice.suntimeswidget.calendar.CalendarEventTemplate;
 import com.forrestguice.suntimeswidget.calendar.TemplatePatterns;
+import com.forrestguice.suntimeswidget.calendar.core.SeasonEvents;
 
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -66,6 +67,11 @@ public class SolsticeCalendar extends SuntimesCalendarBase implements SuntimesCa
             CalculatorProviderContract.COLUMN_SEASON_CROSS_WINTER,    // 7
     };
 
+    @Override
+    public boolean isLocationDependent() {
+        return false;
+    }
+
     @Override
     public String calendarName() {
         return CALENDAR_NAME;
@@ -77,7 +83,9 @@ public class SolsticeCalendar extends SuntimesCalendarBase implements SuntimesCa
     }
 
     @Override
-    public CalendarEventStrings defaultStrings() {
+    public CalendarEventStrings defaultStrings()
+    {
+        loadStrings();
         return new CalendarEventStrings(displayStrings);
     }
 
@@ -90,7 +98,9 @@ public class SolsticeCalendar extends SuntimesCalendarBase implements SuntimesCa
     }
 
     @Override
-    public String flagLabel(int i) {
+    public String flagLabel(int i)
+    {
+        loadStrings();
         if (i >=0 && i < displayStrings.length) {
             return displayStrings[i];
         } else return "";
@@ -105,7 +115,11 @@ public class SolsticeCalendar extends SuntimesCalendarBase implements SuntimesCa
         calendarSummary = context.getString(resID_calendarSummary);
         calendarDesc = null;
         calendarColor = settings.loadPrefCalendarColor(context, calendarName());
+    }
 
+    @Override
+    protected void initStrings(@NonNull Context context)
+    {
         displayStrings[0] = context.getString(R.string.timeMode_equinox_vernal);
         displayStrings[1] = context.getString(R.string.timeMode_cross_spring);
 
@@ -125,29 +139,32 @@ public class SolsticeCalendar extends SuntimesCalendarBase implements SuntimesCa
         if (task.isCancelled()) {
             return false;
         }
+        loadStrings();
 
         String calendarName = calendarName();
-        if (!adapter.hasCalendar(calendarName)) {
-            adapter.createCalendar(calendarName, calendarTitle, calendarColor);
-        } else return false;
 
-        long calendarID = adapter.queryCalendarID(calendarName);
+        long calendarID = initCalendarID(adapter, window);
         if (calendarID != -1)
         {
             Context context = contextRef.get();
-            ContentResolver resolver = (context == null ? null : context.getContentResolver());
-            if (resolver != null)
+            ProviderSession session = (context == null ? null : task.getProviderSession(CalculatorProviderContract.AUTHORITY));
+            if (session != null)
             {
-                int versionCode = queryProviderVersionCode(resolver);
-
-                Calendar startDate = Calendar.getInstance();
-                startDate.setTimeInMillis(window[0]);
+                boolean[] flags = SuntimesCalendarSettings.loadPrefCalendarFlags(context, calendarName, defaultFlags()).getValues();
+                if (!hasEnabledFlags(flags)) {
+                    return skipCalendarQuery(task, progress0);
+                }
 
-                Calendar endDate = Calendar.getInstance();
-                endDate.setTimeInMillis(window[1]);
+                int versionCode = task.getProviderCapabilities().getVersionCode();
+                int[][] flagColumns = new int[projection.length][];
+                for (int i=0; i<projection.length; i++) {
+                    flagColumns[i] = new int[] { SeasonEvents.toLegacyColumn(i, versionCode) };
+                }
+                CalendarQueryPlan plan = new CalendarQueryPlan(projection, flagColumns, flags);
 
-                Uri uri = Uri.parse("content://" + CalculatorProviderContract.AUTHORITY + "/" + CalculatorProviderContract.QUERY_SEASONS + "/" + startDate.get(Calendar.YEAR) + "-" + endDate.get(Calendar.YEAR));
-                Cursor cursor = resolver.query(uri, projection, null, null, null);
+                int[] years = SeasonEvents.yearRange(window);
+                Uri uri = Uri.parse("content://" + CalculatorProviderContract.AUTHORITY + "/" + CalculatorProviderContract.QUERY_SEASONS + "/" + years[0] + "-" + years[1]);
+                Cursor cursor = session.query(uri, plan.getProjection(), null, null, null);
                 if (cursor != null)
                 {
                     cursor.moveToFirst();
@@ -157,7 +174,6 @@ public class SolsticeCalendar extends SuntimesCalendarBase implements SuntimesCa
                     SuntimesCalendarTaskProgress progress = task.createProgressObj(c, totalProgress, calendarTitle);
                     task.publishProgress(progress0, progress);
 
-                    boolean[] flags = SuntimesCalendarSettings.loadPrefCalendarFlags(context, calendarName, defaultFlags()).getValues();
                     String[] strings = SuntimesCalendarSettings.loadPrefCalendarStrings(context, calendarName, defaultStrings()).getValues();
                     CalendarEventTemplate template = SuntimesCalendarSettings.loadPrefCalendarTemplate(context, calendarName, defaultTemplate());
                     ContentValues data = TemplatePatterns.createContentValues(null, this);
@@ -169,12 +185,13 @@ public class SolsticeCalendar extends SuntimesCalendarBase implements SuntimesCa
                     {
                         for (int i=0; i<projection.length; i++)
                         {
-                            if (flags[i] && !cursor.isNull(i))
+                            int column = SeasonEvents.toLegacyColumn(i, versionCode);
+                            if (flags[i] && !plan.isNull(cursor, column))
                             {
                                 data.put(TemplatePatterns.pattern_event.getPattern(), strings[i]);
                                 eventTime = Calendar.getInstance();
-                                eventTime.setTimeInMillis(cursor.getLong( toLegacyProjection(i, versionCode) ));
-                                eventValues.add(adapter.createEventContentValues(calendarID, template.getTitle(data), template.getDesc(data), template.getLocation(data), eventTime));
+                                eventTime.setTimeInMillis(plan.getLong(cursor, column));
+                                eventValues.add(createEventContentValues(adapter, calendarID, i, template, data, eventTime));
                             }
                         }
                         cursor.moveToNext();
@@ -205,42 +222,4 @@ public class SolsticeCalendar extends SuntimesCalendarBase implements SuntimesCa
         } else return false;
     }
 
-    protected int queryProviderVersionCode(@NonNull ContentResolver resolver)
-    {
-        int versionCode = 0;
-        Uri uri = Uri.parse("content://" + CalculatorProviderContract.AUTHORITY + "/" + CalculatorProviderContract.QUERY_CONFIG);
-        Cursor cursor = resolver.query(uri, new String[] { CalculatorProviderContract.COLUMN_CONFIG_PROVIDER_VERSION_CODE }, null, null, null);
-        if (cursor != null)
-        {
-            cursor.moveToFirst();
-            if (!cursor.isAfterLast() && !cursor.isNull(0)) {
-                versionCode = cursor.getInt(0);
-            }
-            cursor.close();
-        }
-        return versionCode;
-    }
-
-    /**
-     * necessary because v0.5.0 (5) and earlier mistakenly swaps the cross-quarter values.
-     * @param providerVersionCode provider version int
-     * @param i legacy index
-     * @return remapped index
-     */
-    protected int toLegacyProjection(int i, int providerVersionCode)
-    {
-        if (providerVersionCode <= 5)
-        {
-            switch (i)
-            {
-                case 1: return 3;    // cross-spring <- cross-summer
-                case 3: return 5;    // cross-summer <- cross-fall
-                case 5: return 7;    // cross-autumn <- cross-winter
-                case 7: return 1;    // cross-winter <- cross-spring
-                case 0: case 2: case 4: case 6: default: return i;   // unchanged: spring, summer, autumn, winter, others
-            }
-        } else
-            return i;
-    }
-
 }
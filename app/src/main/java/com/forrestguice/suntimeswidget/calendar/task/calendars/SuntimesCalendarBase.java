@@ -18,19 +18,24 @@
 
 package com.forrestguice.suntimeswidget.calendar.task.calendars;
 
+import android.content.ContentValues;
 import android.content.Context;
 import android.support.annotation.NonNull;
+import android.util.Log;
 
 import com.forrestguice.suntimescalendars.R;
 import com.forrestguice.suntimeswidget.calendar.CalendarEventFlags;
 import com.forrestguice.suntimeswidget.calendar.CalendarEventStrings;
+import com.forrestguice.suntimeswidget.calendar.SuntimesCalendarAdapter;
 import com.forrestguice.suntimeswidget.calendar.SuntimesCalendarSettings;
+import com.forrestguice.suntimeswidget.calendar.task.ProviderCapabilities;
 import com.forrestguice.suntimeswidget.calendar.task.SuntimesCalendar;
 import com.forrestguice.suntimeswidget.calendar.CalendarEventTemplate;
 import com.forrestguice.suntimeswidget.calendar.task.SuntimesCalendarTask;
 import com.forrestguice.suntimeswidget.calendar.task.SuntimesCalendarTaskProgress;
 
 import java.lang.ref.WeakReference;
+import java.util.Calendar;
 
 @SuppressWarnings("Convert2Diamond")
 public abstract class SuntimesCalendarBase implements SuntimesCalendar
@@ -39,17 +44,66 @@ public abstract class SuntimesCalendarBase implements SuntimesCalendar
     protected String calendarTitle, calendarSummary, calendarDesc;
     protected int calendarColor;
     protected String lastError;
+    private boolean stringsLoaded = false;
 
+    /**
+     * Initializes the calendar's metadata (title, summary, color). The calendar's display strings are loaded later,
+     * the first time they are needed (see loadStrings).
+     */
     @Override
     public void init(@NonNull Context context, @NonNull SuntimesCalendarSettings settings) {
         contextRef = new WeakReference<>(context);
     }
 
+    /**
+     * Loads the calendar's display strings (event names, flag labels, etc); called by `loadStrings`.
+     * @param context context
+     */
+    protected void initStrings(@NonNull Context context) {
+        /* EMPTY */
+    }
+
+    /**
+     * Loads the calendar's display strings (if not already loaded).
+     */
+    protected void loadStrings()
+    {
+        if (!stringsLoaded)
+        {
+            Context context = (contextRef != null ? contextRef.get() : null);
+            if (context != null)
+            {
+                initStrings(context);
+                stringsLoaded = true;
+            }
+        }
+    }
+
     @Override
     public String lastError() {
         return lastError;
     }
 
+    /**
+     * @return true event times depend on the observer's location (false events occur at the same instant everywhere)
+     */
+    public boolean isLocationDependent() {
+        return true;
+    }
+
+    @Override
+    public boolean isSupported(@NonNull ProviderCapabilities capabilities) {
+        return true;
+    }
+
+    /**
+     * @param flag flag index (see defaultFlags)
+     * @return the kind of events enabled by the flag (see createEventContentValues), or -1 if unknown
+     */
+    public int flagKind(int flag) {
+        return flag;
+    }
+
     @Override
     public abstract String calendarName();
 
@@ -82,6 +136,56 @@ public abstract class SuntimesCalendarBase implements SuntimesCalendar
         return calendarColor;
     }
 
+    /**
+     * @param window the window being generated; calendars stored as year shards use the shard containing the start of the window
+     * @return the calendar's ID; the calendar is created if it doesn't already exist
+     */
+    protected long initCalendarID(@NonNull SuntimesCalendarAdapter adapter, @NonNull long[] window)
+    {
+        String name = adapter.storageName(calendarName(), window[0]);
+        long calendarID = adapter.queryCalendarID(name);
+        if (calendarID == -1) {
+            calendarID = adapter.createCalendar(name, calendarTitle, calendarColor);
+        }
+        return calendarID;
+    }
+
+    /**
+     * Called instead of querying the provider when none of the calendar's flags are enabled (there are no events to create).
+     * @return true unless the task was cancelled
+     */
+    protected boolean skipCalendarQuery(@NonNull SuntimesCalendarTask task, @NonNull SuntimesCalendarTaskProgress progress0)
+    {
+        Log.i(getClass().getSimpleName(), "initCalendar: " + calendarName() + " has no enabled events; skipping query..");
+        SuntimesCalendarTaskProgress progress = task.createProgressObj(1, 1, calendarTitle);
+        task.publishProgress(progress0, progress);
+        return !task.isCancelled();
+    }
+
+    /**
+     * @return true if any flag is enabled
+     */
+    protected static boolean hasEnabledFlags(boolean[] flags)
+    {
+        for (boolean flag : flags) {
+            if (flag) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Renders the template and creates event values with a deterministic identity (see SuntimesCalendarAdapter.putEventIdentity).
+     * @param kind event kind (e.g. flag index)
+     */
+    protected ContentValues createEventContentValues(@NonNull SuntimesCalendarAdapter adapter, long calendarID, int kind, CalendarEventTemplate template, ContentValues data, Calendar... time)
+    {
+        ContentValues values = adapter.createEventContentValues(calendarID, template.getTitle(data), template.getDesc(data), template.getLocation(data), time);
+        SuntimesCalendarAdapter.putEventData(values, data);    // allows the event to be re-rendered later (see SuntimesCalendarAdapter.rerenderCalendarEvents)
+        return SuntimesCalendarAdapter.putEventIdentity(values, calendarName(), kind);
+    }
+
     public void createCalendarReminders(Context context, @NonNull SuntimesCalendarTask task, @NonNull SuntimesCalendarTaskProgress progress0) {
         progress0.setProgress(progress0.itemNum(), progress0.getCount(), progress0.getMessage() + "\n" + context.getString(R.string.reminder_dialog_msg));
         task.createCalendarReminders(context, calendarName(), progress0);
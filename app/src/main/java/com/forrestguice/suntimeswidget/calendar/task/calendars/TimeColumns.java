@@ -0,0 +1,77 @@
+/**
+    Copyright (C) 2023 Forrest Guice
+    This file is part of SuntimesCalendars.
+
+    SuntimesCalendars is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    SuntimesCalendars is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with SuntimesCalendars.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.forrestguice.suntimeswidget.calendar.task.calendars;
+
+import android.database.Cursor;
+import android.support.annotation.NonNull;
+
+import com.forrestguice.suntimeswidget.calendar.ProviderSession;
+import com.forrestguice.suntimeswidget.calendar.core.TimeTable;
+
+/**
+ * TimeColumns
+ * A copy of a cursor's rows as a TimeTable. The cursor is read once (front to back); peeking at adjacent rows is
+ * then a plain index operation.
+ */
+public class TimeColumns extends TimeTable
+{
+    public TimeColumns(int numColumns, int numRows) {
+        super(numColumns, numRows);
+    }
+
+    /**
+     * Copies all rows of the cursor (the cursor is left positioned after the last row; it isn't closed).
+     * @param cursor a cursor containing columns of type long (timestamps)
+     * @return TimeColumns containing the cursor's values
+     */
+    public static TimeColumns fromCursor(@NonNull Cursor cursor)
+    {
+        TimeColumns columns = new TimeColumns(cursor.getColumnCount(), cursor.getCount());
+        int row = 0;
+        cursor.moveToPosition(-1);
+        while (cursor.moveToNext() && row < columns.numRows)
+        {
+            for (int column = 0; column < columns.numColumns; column++)
+            {
+                if (cursor.isNull(column)) {
+                    columns.setNull(row, column);
+                } else columns.values[column][row] = cursor.getLong(column);
+            }
+            row++;
+        }
+        return columns;
+    }
+
+    /**
+     * Copies a query's rows (see ProviderSession.query); a read that stops early (the provider's process died while the
+     * cursor was being read) throws IllegalStateException so that the query is made again.
+     */
+    public static final ProviderSession.CursorReader<TimeColumns> READER = new ProviderSession.CursorReader<TimeColumns>()
+    {
+        @Override
+        public TimeColumns readCursor(@NonNull Cursor cursor)
+        {
+            TimeColumns columns = fromCursor(cursor);
+            if (cursor.getCount() > 0 && !cursor.isAfterLast()) {
+                throw new IllegalStateException("incomplete read; " + cursor.getPosition() + " of " + cursor.getCount() + " rows");
+            }
+            return columns;
+        }
+    };
+}
@@ -18,10 +18,8 @@
 
 package com.forrestguice.suntimeswidget.calendar.task.calendars;
 
-import android.content.ContentResolver;
 import android.content.ContentValues;
 import android.content.Context;
-import android.database.Cursor;
 import android.net.Uri;
 import android.support.annotation.NonNull;
 import android.util.Log;
@@ -31,6 +29,7 @@ import com.forrestguice.suntimeswidget.calculator.core.CalculatorProviderContrac
 
 import com.forrestguice.suntimeswidget.calendar.CalendarEventFlags;
 import com.forrestguice.suntimeswidget.calendar.CalendarEventStrings;
+import com.forrestguice.suntimeswidget.calendar.ProviderSession;
 import com.forrestguice.suntimeswidget.calendar.SuntimesCalendarAdapter;
 import com.forrestguice.suntimeswidget.calendar.SuntimesCalendarSettings;
 import com.forrestguice.suntimeswidget.calendar.task.SuntimesCalendar;
@@ -38,6 +37,7 @@ import com.forrestguice.suntimeswidget.calendar.task.SuntimesCalendarTask;
 import com.forrestguice.suntimeswidget.calendar.task.SuntimesCalendarTaskProgress;
 import com.forrestguice.suntimeswidget.calendar.CalendarEventTemplate;
 import com.forrestguice.suntimeswidget.calendar.TemplatePatterns;
+import com.forrestguice.suntimeswidget.calendar.core.SunEventRun;
 
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -60,7 +60,9 @@ public class TwilightCalendarAstro extends TwilightCalendarBase implements Sunti
     }
 
     @Override
-    public CalendarEventStrings defaultStrings() {
+    public CalendarEventStrings defaultStrings()
+    {
+        loadStrings();
         return new CalendarEventStrings(s_ASTRO_TWILIGHT, s_ASTRO_TWILIGHT_MORNING, s_ASTRO_TWILIGHT_EVENING, s_ASTRO_DAWN, s_ASTRO_DUSK, s_NAUTICAL_NIGHT);
     }
 
@@ -75,6 +77,7 @@ public class TwilightCalendarAstro extends TwilightCalendarBase implements Sunti
     @Override
     public String flagLabel(int i)
     {
+        loadStrings();
         switch (i) {
             case 0: return s_ASTRO_TWILIGHT_MORNING;
             case 1: return s_ASTRO_TWILIGHT_EVENING;
@@ -98,36 +101,38 @@ public class TwilightCalendarAstro extends TwilightCalendarBase implements Sunti
         if (task.isCancelled()) {
             return false;
         }
+        loadStrings();
 
         String calendarName = calendarName();
-        if (!adapter.hasCalendar(calendarName)) {
-            adapter.createCalendar(calendarName, calendarTitle, calendarColor);
-        } else return false;
 
-        long calendarID = adapter.queryCalendarID(calendarName);
+        long calendarID = initCalendarID(adapter, window);
         if (calendarID != -1)
         {
             Context context = contextRef.get();
-            ContentResolver resolver = (context == null ? null : context.getContentResolver());
-            if (resolver != null)
+            ProviderSession session = (context == null ? null : task.getProviderSession(CalculatorProviderContract.AUTHORITY));
+            if (session != null)
             {
+                boolean[] flags = SuntimesCalendarSettings.loadPrefCalendarFlags(context, calendarName, defaultFlags()).getValues();
+                if (!hasEnabledFlags(flags)) {
+                    return skipCalendarQuery(task, progress0);
+                }
+
                 Uri uri = Uri.parse("content://" + CalculatorProviderContract.AUTHORITY + "/" + CalculatorProviderContract.QUERY_SUN + "/" + window[0] + "-" + window[1]);
                 String[] projection = new String[] { CalculatorProviderContract.COLUMN_SUN_ASTRO_RISE, CalculatorProviderContract.COLUMN_SUN_NAUTICAL_RISE,
                         CalculatorProviderContract.COLUMN_SUN_NAUTICAL_SET, CalculatorProviderContract.COLUMN_SUN_ASTRO_SET };
-                Cursor cursor = resolver.query(uri, projection, null, null, null);
+                TimeColumns rows = session.query(uri, projection, null, null, null, TimeColumns.READER);
 
-                if (cursor != null)
+                if (rows != null)
                 {
                     String[] location = task.getLocation();
                     new SuntimesCalendarSettings().saveCalendarNote(context, calendarName, SuntimesCalendarSettings.NOTE_LOCATION_NAME, location[0]);
 
                     int c = 0;
-                    int totalProgress = cursor.getCount();
+                    int totalProgress = rows.getCount();
                     String progressTitle = context.getString(R.string.summarylist_format, calendarTitle, location[0]);
                     SuntimesCalendarTaskProgress progress = new SuntimesCalendarTaskProgress(c, totalProgress, progressTitle);
                     task.publishProgress(progress0, progress);
 
-                    boolean[] flags = SuntimesCalendarSettings.loadPrefCalendarFlags(context, calendarName, defaultFlags()).getValues();
                     String[] strings = SuntimesCalendarSettings.loadPrefCalendarStrings(context, calendarName, defaultStrings()).getValues();
                     // 0:s_ASTRO_TWILIGHT, 1:s_ASTRO_TWILIGHT_MORNING, 2:s_ASTRO_TWILIGHT_EVENING, 3:s_ASTRO_DAWN, 4:s_ASTRO_DUSK, 5:s_NAUTICAL_NIGHT
 
@@ -136,28 +141,29 @@ public class TwilightCalendarAstro extends TwilightCalendarBase implements Sunti
                     data = TemplatePatterns.createContentValues(data, task.getLocation());
 
                     ArrayList<ContentValues> eventValues = new ArrayList<>();
-                    cursor.moveToFirst();
-                    while (!cursor.isAfterLast() && !task.isCancelled())
+                    SunEventRun[] runs = createSunEventRuns(context);
+                    while (c < rows.getCount() && !task.isCancelled())
                     {
                         if (flags[0]) {
-                            createSunCalendarEvent(context, adapter, task, eventValues, calendarID, cursor, 0, template, data, strings[1], strings[5], strings[0]);   // dawn, nautical night, astro twilight
+                            createSunCalendarEvent(context, adapter, task, eventValues, calendarID, rows, c, 0, template, data, strings[1], strings[5], strings[0], runs[0]);   // dawn, nautical night, astro twilight
                         }
                         if (flags[1]) {
-                            createSunCalendarEvent(context, adapter, task, eventValues, calendarID, cursor, 2, template, data, strings[2], strings[0], strings[0]);   // dusk, astro twilight, astro twilight
+                            createSunCalendarEvent(context, adapter, task, eventValues, calendarID, rows, c, 2, template, data, strings[2], strings[0], strings[0], runs[1]);   // dusk, astro twilight, astro twilight
                         }
-                        cursor.moveToNext();
                         c++;
 
-                        if (c % 128 == 0 || cursor.isLast()) {
+                        if (c == rows.getCount()) {
+                            flushSunCalendarEvents(adapter, eventValues, calendarID, template, data, runs);
+                        }
+                        if (c % 128 == 0 || c == rows.getCount()) {
                             adapter.createCalendarEvents( eventValues.toArray(new ContentValues[0]) );
                             eventValues.clear();
                         }
-                        if (c % 8 == 0 || cursor.isLast()) {
+                        if (c % 8 == 0 || c == rows.getCount()) {
                             progress.setProgress(c, totalProgress, progressTitle);
                             task.publishProgress(progress0, progress);
                         }
                     }
-                    cursor.close();
                     createCalendarReminders(context, task, progress0);
                     return !task.isCancelled();
 
@@ -20,8 +20,8 @@ package com.forrestguice.suntimeswidget.calendar.task.calendars;
 
 import android.content.ContentValues;
 import android.content.Context;
-import android.database.Cursor;
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 
 import com.forrestguice.suntimescalendars.R;
 import com.forrestguice.suntimeswidget.calendar.CalendarEventFlags;
@@ -32,6 +32,9 @@ import com.forrestguice.suntimeswidget.calendar.task.SuntimesCalendar;
 import com.forrestguice.suntimeswidget.calendar.task.SuntimesCalendarTask;
 import com.forrestguice.suntimeswidget.calendar.CalendarEventTemplate;
 import com.forrestguice.suntimeswidget.calendar.TemplatePatterns;
+import com.forrestguice.suntimeswidget.calendar.core.SunEventRun;
+import com.forrestguice.suntimeswidget.calendar.core.SunEvents;
+import com.forrestguice.suntimeswidget.calendar.core.TimeTable;
 
 import java.util.ArrayList;
 import java.util.Calendar;
@@ -47,9 +50,9 @@ public abstract class TwilightCalendarBase extends SuntimesCalendarBase implemen
     protected String s_CIVIL_DAWN, s_CIVIL_DUSK, s_NAUTICAL_DAWN, s_NAUTICAL_DUSK, s_ASTRO_DAWN, s_ASTRO_DUSK;
 
     @Override
-    public void init(@NonNull Context context, @NonNull SuntimesCalendarSettings settings)
+    protected void initStrings(@NonNull Context context)
     {
-        super.init(context, settings);
+        super.initStrings(context);
         s_SUNRISE = context.getString(R.string.sunrise);
         s_DAWN = context.getString(R.string.dawn);
         s_SUNSET = context.getString(R.string.sunset);
@@ -76,7 +79,9 @@ public abstract class TwilightCalendarBase extends SuntimesCalendarBase implemen
     }
 
     @Override
-    public CalendarEventStrings defaultStrings() {
+    public CalendarEventStrings defaultStrings()
+    {
+        loadStrings();
         return new CalendarEventStrings(s_SUNRISE, s_SUNSET, s_CIVIL_TWILIGHT, s_NAUTICAL_TWILIGHT, s_ASTRO_TWILIGHT, s_POLAR_TWILIGHT, s_CIVIL_NIGHT, s_NAUTICAL_NIGHT, s_DAWN, s_DUSK, s_WHITE_NIGHT,
                 s_ASTRO_DAWN, s_NAUTICAL_DAWN, s_CIVIL_DAWN,
                 s_CIVIL_DUSK, s_NAUTICAL_DUSK, s_ASTRO_DUSK,
@@ -92,6 +97,7 @@ public abstract class TwilightCalendarBase extends SuntimesCalendarBase implemen
     @Override
     public String flagLabel(int i)
     {
+        loadStrings();
         switch (i) {
             case 0: return s_DAWN;
             case 1: return s_DUSK;
@@ -99,60 +105,75 @@ public abstract class TwilightCalendarBase extends SuntimesCalendarBase implemen
         }
     }
 
+    @Override
+    public int flagKind(int flag) {
+        return (flag == 0 || flag == 1) ? flag * 2 : -1;    // rising (0), setting (2)
+    }
+
     /**
-     *
      * @param context context
      * @param calendarID calender identifier
-     * @param cursor a cursor containing columns [rise-start, rise-end, set-start, set-end]
-     * @param i index into cursor columns (expects i = 0 (rising), or i = 2 (setting))
+     * @param rows columns [rise-start, rise-end, set-start, set-end]
+     * @param row row index
+     * @param i index into columns (expects i = 0 (rising), or i = 2 (setting))
      * @param template template
      * @param data template data
      * @param desc0 avg case description (e.g. ending in sunrise, starting at sunset)
      * @param desc1 edge case description (e.g. polar twilight)
+     * @param desc_fallback fallback description (start-only events)
+     * @param run consecutive edge case events are merged into this run (or null to create an event for each day)
+     * @see SunEvents#createEvent
      */
     protected void createSunCalendarEvent(Context context, @NonNull SuntimesCalendarAdapter adapter, @NonNull SuntimesCalendarTask task,
-                                          ArrayList<ContentValues> values, long calendarID, Cursor cursor, int i, CalendarEventTemplate template, ContentValues data, String desc0, String desc1, String desc_fallback)
+                                          ArrayList<ContentValues> values, long calendarID, TimeTable rows, int row, int i, CalendarEventTemplate template, ContentValues data, String desc0, String desc1, String desc_fallback, @Nullable SunEventRun run)
     {
-        int j = i + 1;             // [rise-start, rise-end, set-start, set-end]
-        int k = (i == 0) ? 2 : 0;  // rising [i, j, k, l] .. setting [k, l, i, j]
-        int l = k + 1;
-        Calendar eventStart = Calendar.getInstance();
-        Calendar eventEnd = Calendar.getInstance();
+        SunEvents.createEvent(rows, row, i, desc0, desc1, desc_fallback, run, createEventSink(adapter, values, calendarID, template, data));
+    }
 
-        if (!cursor.isNull(i) && !cursor.isNull(j))                // avg case [i, j]
+    /**
+     * Creates an event for each (non-empty) run, then clears the runs.
+     */
+    protected void flushSunCalendarEvents(@NonNull SuntimesCalendarAdapter adapter, ArrayList<ContentValues> values, long calendarID, CalendarEventTemplate template, ContentValues data, SunEventRun... runs) {
+        SunEvents.flushEvents(createEventSink(adapter, values, calendarID, template, data), runs);
+    }
+
+    /**
+     * @return a sink that adds an event (ContentValues) to values for each event it receives
+     */
+    protected SunEvents.EventSink createEventSink(@NonNull final SuntimesCalendarAdapter adapter, final ArrayList<ContentValues> values, final long calendarID, final CalendarEventTemplate template, final ContentValues data)
+    {
+        return new SunEvents.EventSink()
         {
-            eventStart.setTimeInMillis(cursor.getLong(i));
-            eventEnd.setTimeInMillis(cursor.getLong(j));
-            data.put(TemplatePatterns.pattern_event.getPattern(), desc0);
-            values.add(adapter.createEventContentValues(calendarID, template.getTitle(data), template.getDesc(data), template.getLocation(data), eventStart, eventEnd));
-
-        } else if (!cursor.isNull(i)) {
-            eventStart.setTimeInMillis(cursor.getLong(i));
-            if (i == 0)
+            @Override
+            public void onEvent(int kind, long start, long end, String desc)
             {
-                if (!cursor.isNull(l)) {                          // edge [i, l] of [i, j, k, l]
-                    eventEnd.setTimeInMillis(cursor.getLong(l));
-                    data.put(TemplatePatterns.pattern_event.getPattern(), desc1);
-                    values.add(adapter.createEventContentValues(calendarID, template.getTitle(data), template.getDesc(data), template.getLocation(data), eventStart, eventEnd));
-                }
-
-            } else {
-                if (cursor.moveToNext())
-                {                                // peek forward
-                    if (!cursor.isNull(l))
-                    {
-                        eventEnd.setTimeInMillis(cursor.getLong(l));      // edge [i, +l] of [+k, +l, i, j]
-                        data.put(TemplatePatterns.pattern_event.getPattern(), desc1);
-                        values.add(adapter.createEventContentValues(calendarID, template.getTitle(data), template.getDesc(data), template.getLocation(data), eventStart, eventEnd));
-
-                    } else {                                              // fallback (start-only; end-only events are ignored)
-                        data.put(TemplatePatterns.pattern_event.getPattern(), desc_fallback);
-                        values.add(adapter.createEventContentValues(calendarID, template.getTitle(data), template.getDesc(data), template.getLocation(data), eventStart));
-                    }
-                    cursor.moveToPrevious();
-                }
+                Calendar eventStart = Calendar.getInstance();
+                eventStart.setTimeInMillis(start);
+                Calendar eventEnd = Calendar.getInstance();
+                eventEnd.setTimeInMillis(end);
+                data.put(TemplatePatterns.pattern_event.getPattern(), desc);
+                values.add(createEventContentValues(adapter, calendarID, kind, template, data, eventStart, eventEnd));
             }
-        }
+
+            @Override
+            public void onEvent(int kind, long start, String desc)
+            {
+                Calendar eventStart = Calendar.getInstance();
+                eventStart.setTimeInMillis(start);
+                data.put(TemplatePatterns.pattern_event.getPattern(), desc);
+                values.add(createEventContentValues(adapter, calendarID, kind, template, data, eventStart));
+            }
+        };
+    }
+
+    /**
+     * @return a pair of runs [rising, setting], or a pair of nulls if consecutive events should not be merged
+     */
+    protected SunEventRun[] createSunEventRuns(Context context)
+    {
+        return (SuntimesCalendarSettings.loadPrefCalendarPolarRuns(context)
+                ? new SunEventRun[] { new SunEventRun(0), new SunEventRun(2) }
+                : new SunEventRun[] { null, null });
     }
 
 }
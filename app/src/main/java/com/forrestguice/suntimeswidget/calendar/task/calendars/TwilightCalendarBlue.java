@@ -18,10 +18,8 @@
 
 package com.forrestguice.suntimeswidget.calendar.task.calendars;
 
-import android.content.ContentResolver;
 import android.content.ContentValues;
 import android.content.Context;
-import android.database.Cursor;
 import android.net.Uri;
 import android.support.annotation.NonNull;
 import android.util.Log;
@@ -30,6 +28,7 @@ import com.forrestguice.suntimescalendars.R;
 import com.forrestguice.suntimeswidget.calculator.core.CalculatorProviderContract;
 import com.forrestguice.suntimeswidget.calendar.CalendarEventFlags;
 import com.forrestguice.suntimeswidget.calendar.CalendarEventStrings;
+import com.forrestguice.suntimeswidget.calendar.ProviderSession;
 import com.forrestguice.suntimeswidget.calendar.CalendarEventTemplate;
 import com.forrestguice.suntimeswidget.calendar.SuntimesCalendarAdapter;
 import com.forrestguice.suntimeswidget.calendar.SuntimesCalendarSettings;
@@ -37,6 +36,7 @@ import com.forrestguice.suntimeswidget.calendar.TemplatePatterns;
 import com.forrestguice.suntimeswidget.calendar.task.SuntimesCalendar;
 import com.forrestguice.suntimeswidget.calendar.task.SuntimesCalendarTask;
 import com.forrestguice.suntimeswidget.calendar.task.SuntimesCalendarTaskProgress;
+import com.forrestguice.suntimeswidget.calendar.core.SunEventRun;
 
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -69,7 +69,12 @@ public class TwilightCalendarBlue extends TwilightCalendarBase implements Suntim
         calendarSummary = context.getString(resID_calendarSummary);
         calendarDesc = null;
         calendarColor = settings.loadPrefCalendarColor(context, calendarName());
+    }
 
+    @Override
+    protected void initStrings(@NonNull Context context)
+    {
+        super.initStrings(context);
         s_BLUE_HOUR_MORNING = context.getString(R.string.timeMode_blue_morning);
         s_BLUE_HOUR_EVENING = context.getString(R.string.timeMode_blue_evening);
         s_BLUE_HOUR = context.getString(R.string.calendar_blue_twilight_displayName);
@@ -86,6 +91,7 @@ public class TwilightCalendarBlue extends TwilightCalendarBase implements Suntim
     @Override
     public String flagLabel(int i)
     {
+        loadStrings();
         switch (i) {
             case 0: return s_BLUE_HOUR_MORNING;
             case 1: return s_BLUE_HOUR_EVENING;
@@ -94,7 +100,9 @@ public class TwilightCalendarBlue extends TwilightCalendarBase implements Suntim
     }
 
     @Override
-    public CalendarEventStrings defaultStrings() {
+    public CalendarEventStrings defaultStrings()
+    {
+        loadStrings();
         return new CalendarEventStrings(s_BLUE_HOUR_MORNING, s_BLUE_HOUR_EVENING, s_BLUE_HOUR);
     }
 
@@ -104,64 +112,67 @@ public class TwilightCalendarBlue extends TwilightCalendarBase implements Suntim
         if (task.isCancelled()) {
             return false;
         }
+        loadStrings();
 
         String calendarName = calendarName();
-        if (!adapter.hasCalendar(calendarName)) {
-            adapter.createCalendar(calendarName, calendarTitle, calendarColor);
-        } else return false;
 
-        long calendarID = adapter.queryCalendarID(calendarName);
+        long calendarID = initCalendarID(adapter, window);
         if (calendarID != -1)
         {
             Context context = contextRef.get();
-            ContentResolver resolver = (context == null ? null : context.getContentResolver());
-            if (resolver != null)
+            ProviderSession session = (context == null ? null : task.getProviderSession(CalculatorProviderContract.AUTHORITY));
+            if (session != null)
             {
+                boolean[] flags = SuntimesCalendarSettings.loadPrefCalendarFlags(context, calendarName, defaultFlags()).getValues();    // TODO
+                if (!hasEnabledFlags(flags)) {
+                    return skipCalendarQuery(task, progress0);
+                }
+
                 Uri uri = Uri.parse("content://" + CalculatorProviderContract.AUTHORITY + "/" + CalculatorProviderContract.QUERY_SUN + "/" + window[0] + "-" + window[1]);
                 String[] projection = new String[] { CalculatorProviderContract.COLUMN_SUN_BLUE8_RISE, CalculatorProviderContract.COLUMN_SUN_BLUE4_RISE,
                                                      CalculatorProviderContract.COLUMN_SUN_BLUE4_SET, CalculatorProviderContract.COLUMN_SUN_BLUE8_SET };   // 0, 1, 2, 3 .. expected order: blue8 (morning), blue4 (morning), blue4 (evening), blue8 (evening)
 
-                Cursor cursor = resolver.query(uri, projection, null, null, null);
-                if (cursor != null)
+                TimeColumns rows = session.query(uri, projection, null, null, null, TimeColumns.READER);
+                if (rows != null)
                 {
                     String[] location = task.getLocation();
                     new SuntimesCalendarSettings().saveCalendarNote(context, calendarName, SuntimesCalendarSettings.NOTE_LOCATION_NAME, location[0]);
 
                     int c = 0;
                     String progressTitle = context.getString(R.string.summarylist_format, calendarTitle, location[0]);
-                    int totalProgress = cursor.getCount();
+                    int totalProgress = rows.getCount();
                     SuntimesCalendarTaskProgress progress = new SuntimesCalendarTaskProgress(c, totalProgress, progressTitle);
                     task.publishProgress(progress0, progress);
 
-                    boolean[] flags = SuntimesCalendarSettings.loadPrefCalendarFlags(context, calendarName, defaultFlags()).getValues();    // TODO
                     String[] strings = SuntimesCalendarSettings.loadPrefCalendarStrings(context, calendarName, defaultStrings()).getValues();    // 0:s_BLUE_HOUR_MORNING, 1:s_BLUE_HOUR_EVENING, 2:s_BLUE_HOUR
                     CalendarEventTemplate template = SuntimesCalendarSettings.loadPrefCalendarTemplate(context, calendarName, defaultTemplate());
                     ContentValues data = TemplatePatterns.createContentValues(null, this);
                     data = TemplatePatterns.createContentValues(data, task.getLocation());
 
                     ArrayList<ContentValues> eventValues = new ArrayList<>();
-                    cursor.moveToFirst();
-                    while (!cursor.isAfterLast() && !task.isCancelled())
+                    SunEventRun[] runs = createSunEventRuns(context);
+                    while (c < rows.getCount() && !task.isCancelled())
                     {
                         if (flags[0]) {
-                            createSunCalendarEvent(context, adapter, task, eventValues, calendarID, cursor, 0, template, data, strings[0], strings[0], strings[2]);    // blue8 (morning), blue4 (morning)
+                            createSunCalendarEvent(context, adapter, task, eventValues, calendarID, rows, c, 0, template, data, strings[0], strings[0], strings[2], runs[0]);    // blue8 (morning), blue4 (morning)
                         }
                         if (flags[1]) {
-                            createSunCalendarEvent(context, adapter, task, eventValues, calendarID, cursor, 2, template, data, strings[1], strings[1], strings[2]);    // blue4 (evening), blue8 (evening)
+                            createSunCalendarEvent(context, adapter, task, eventValues, calendarID, rows, c, 2, template, data, strings[1], strings[1], strings[2], runs[1]);    // blue4 (evening), blue8 (evening)
                         }
-                        cursor.moveToNext();
                         c++;
 
-                        if (c % 128 == 0 || cursor.isLast()) {
+                        if (c == rows.getCount()) {
+                            flushSunCalendarEvents(adapter, eventValues, calendarID, template, data, runs);
+                        }
+                        if (c % 128 == 0 || c == rows.getCount()) {
                             adapter.createCalendarEvents( eventValues.toArray(new ContentValues[0]) );
                             eventValues.clear();
                         }
-                        if (c % 8 == 0 || cursor.isLast()) {
+                        if (c % 8 == 0 || c == rows.getCount()) {
                             progress.setProgress(c, totalProgress, progressTitle);
                             task.publishProgress(progress0, progress);
                         }
                     }
-                    cursor.close();
                     createCalendarReminders(context, task, progress0);
                     return !task.isCancelled();
 
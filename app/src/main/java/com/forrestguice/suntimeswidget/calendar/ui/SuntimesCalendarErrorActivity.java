@@ -35,6 +35,7 @@ import com.forrestguice.suntimescalendars.R;
 public class SuntimesCalendarErrorActivity extends AppCompatActivity
 {
     public static final String EXTRA_ERROR_MESSAGE = "calendar_error";
+    public static final String EXTRA_ERROR_TITLE = "calendar_error_title";    // optional; defaults to calendars_notification_adding_failed
 
     public SuntimesCalendarErrorActivity()
     {
@@ -49,9 +50,10 @@ public class SuntimesCalendarErrorActivity extends AppCompatActivity
 
         final Context context = this;
         final String errorMsg = getIntent().getStringExtra(EXTRA_ERROR_MESSAGE);
+        String errorTitle = getIntent().getStringExtra(EXTRA_ERROR_TITLE);
 
         AlertDialog.Builder errorDialog = new AlertDialog.Builder(context);
-        errorDialog.setTitle(context.getString(R.string.calendars_notification_adding_failed))
+        errorDialog.setTitle(errorTitle != null ? errorTitle : context.getString(R.string.calendars_notification_adding_failed))
                 .setMessage(errorMsg)
                 .setIcon(R.drawable.ic_action_about)
                 .setNeutralButton(context.getString(R.string.actionCopyError), null)
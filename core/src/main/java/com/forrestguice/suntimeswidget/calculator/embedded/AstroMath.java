@@ -0,0 +1,148 @@
+/**
+    Copyright (C) 2023 Forrest Guice
+    This file is part of SuntimesCalendars.
+
+    SuntimesCalendars is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    SuntimesCalendars is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with SuntimesCalendars.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.forrestguice.suntimeswidget.calculator.embedded;
+
+/**
+ * AstroMath
+ * Time scales and angle helpers shared by the embedded calculators (Meeus, "Astronomical Algorithms", 2nd ed.).
+ */
+public class AstroMath
+{
+    public static final double J2000 = 2451545.0;           // JD of 2000 Jan 1.5
+    public static final double JD_UNIX_EPOCH = 2440587.5;   // JD of 1970 Jan 1.0 (UTC)
+    public static final double DAY_MILLIS = 86400000.0;
+
+    public static double toJulianDay(long millis) {
+        return JD_UNIX_EPOCH + (millis / DAY_MILLIS);
+    }
+
+    public static long toMillis(double jd) {
+        return Math.round((jd - JD_UNIX_EPOCH) * DAY_MILLIS);
+    }
+
+    /**
+     * @return JD of 0h UT on the given (Gregorian) date
+     */
+    public static double julianDay(int year, int month, int day)
+    {
+        if (month <= 2) {
+            year -= 1;
+            month += 12;
+        }
+        int a = year / 100;
+        int b = 2 - a + (a / 4);
+        return Math.floor(365.25 * (year + 4716)) + Math.floor(30.6001 * (month + 1)) + day + b - 1524.5;
+    }
+
+    /**
+     * @return Julian centuries since J2000
+     */
+    public static double julianCentury(double jd) {
+        return (jd - J2000) / 36525.0;
+    }
+
+    /**
+     * @return decimal year (approximate; used by the series that are indexed by year)
+     */
+    public static double decimalYear(double jd) {
+        return 2000.0 + (jd - J2000) / 365.25;
+    }
+
+    /**
+     * deltaT = TT - UT (seconds); polynomial fits by Espenak and Meeus (1986-2150), and the long-term parabola outside that range.
+     */
+    public static double deltaT(double year)
+    {
+        double t;
+        if (year >= 1986 && year < 2005) {
+            t = year - 2000;
+            return 63.86 + 0.3345 * t - 0.060374 * t * t + 0.0017275 * t * t * t + 0.000651814 * t * t * t * t + 0.00002373599 * t * t * t * t * t;
+
+        } else if (year >= 2005 && year < 2050) {
+            t = year - 2000;
+            return 62.92 + 0.32217 * t + 0.005589 * t * t;
+
+        } else if (year >= 2050 && year < 2150) {
+            double u = (year - 1820) / 100;
+            return -20 + 32 * u * u - 0.5628 * (2150 - year);
+
+        } else {
+            double u = (year - 1820) / 100;
+            return -20 + 32 * u * u;
+        }
+    }
+
+    /**
+     * @param jde Julian Ephemeris Day (TT)
+     * @return the corresponding Julian Day (UT)
+     */
+    public static double toUniversal(double jde) {
+        return jde - deltaT(decimalYear(jde)) / 86400.0;
+    }
+
+    /**
+     * @param jd Julian Day (UT)
+     * @return the corresponding Julian Ephemeris Day (TT)
+     */
+    public static double toDynamical(double jd) {
+        return jd + deltaT(decimalYear(jd)) / 86400.0;
+    }
+
+    /**
+     * @return mean sidereal time at Greenwich (degrees) [Meeus 12.4]
+     */
+    public static double greenwichSiderealTime(double jd)
+    {
+        double t = julianCentury(jd);
+        return normalize(280.46061837 + 360.98564736629 * (jd - J2000) + 0.000387933 * t * t - (t * t * t) / 38710000.0);
+    }
+
+    /**
+     * @return mean obliquity of the ecliptic (degrees) [Meeus 22.2]
+     */
+    public static double obliquity(double t) {
+        return 23.4392911 - 0.0130042 * t - 0.00000016 * t * t + 0.000000504 * t * t * t;
+    }
+
+    /**
+     * @return angle in [0, 360)
+     */
+    public static double normalize(double degrees)
+    {
+        double d = degrees % 360.0;
+        return (d < 0 ? d + 360.0 : d);
+    }
+
+    public static double sin(double degrees) {
+        return Math.sin(Math.toRadians(degrees));
+    }
+
+    public static double cos(double degrees) {
+        return Math.cos(Math.toRadians(degrees));
+    }
+
+    /**
+     * @return altitude (degrees) of an object at the given equatorial coordinates (degrees)
+     */
+    public static double altitude(double jd, double latitude, double longitude, double rightAscension, double declination)
+    {
+        double hourAngle = greenwichSiderealTime(jd) + longitude - rightAscension;
+        return Math.toDegrees(Math.asin(sin(latitude) * sin(declination) + cos(latitude) * cos(declination) * cos(hourAngle)));
+    }
+}
@@ -0,0 +1,256 @@
+/**
+    Copyright (C) 2023 Forrest Guice
+    This file is part of SuntimesCalendars.
+
+    SuntimesCalendars is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    SuntimesCalendars is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with SuntimesCalendars.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.forrestguice.suntimeswidget.calculator.embedded;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * CalculatorResults
+ * Compares rows computed by EmbeddedCalculator with the calculator provider's rows, and reads (or writes) recorded provider
+ * output as text fixtures.
+ *
+ * fixture: `# comment` lines, then `query=`, `range=[start]-[end]`, `location=[latitude],[longitude],[timezone id]`,
+ *          `columns=[name],[name],..`, followed by one line per row of comma separated values; `null`, integers (Long),
+ *          decimals (Double), or UTC times (`yyyy-MM-dd'T'HH:mm'Z'`, read as Long)
+ */
+@SuppressWarnings("Convert2Diamond")
+public class CalculatorResults
+{
+    public static final double TOLERANCE_RELATIVE = 0.001;    // decimal values (e.g. distances) may differ by 0.1%
+
+    /**
+     * Compares the columns present in both results. Rows may be laid out differently, so values are matched within each column
+     * (rather than row by row); every value on either side needs a counterpart on the other. Integer values (timestamps) match
+     * within the tolerance, decimal values within TOLERANCE_RELATIVE, and other values if they are equal. Nulls aren't matched, so
+     * an event that only one side finds (e.g. near the poles) is a value without a counterpart.
+     * @param tolerance timestamp tolerance (ms)
+     * @return the number of values without a counterpart (in either direction)
+     */
+    public static int compare(String[] columns0, List<Object[]> rows0, String[] columns1, List<Object[]> rows1, long tolerance)
+    {
+        int differences = 0;
+        for (int i=0; i<columns0.length; i++)
+        {
+            int j = indexOf(columns1, columns0[i]);
+            if (j < 0) {
+                continue;
+            }
+            List<Object> values0 = columnValues(rows0, i);
+            List<Object> values1 = columnValues(rows1, j);
+            differences += unmatched(values0, values1, tolerance);
+            differences += unmatched(values1, values0, tolerance);
+        }
+        return differences;
+    }
+
+    /**
+     * @return the number of values without a counterpart in `others`
+     */
+    protected static int unmatched(List<Object> values, List<Object> others, long tolerance)
+    {
+        ArrayList<Long> longs = new ArrayList<>();
+        for (Object other : others) {
+            if (other instanceof Long || other instanceof Integer) {
+                longs.add(((Number) other).longValue());
+            }
+        }
+        Collections.sort(longs);
+
+        int count = 0;
+        for (Object value : values)
+        {
+            boolean matched;
+            if (value instanceof Long || value instanceof Integer) {
+                matched = (nearest(longs, ((Number) value).longValue()) <= tolerance);
+
+            } else if (value instanceof Number) {
+                matched = false;
+                double v = ((Number) value).doubleValue();
+                for (Object other : others) {
+                    if (other instanceof Number && Math.abs(((Number) other).doubleValue() - v) <= Math.abs(v) * TOLERANCE_RELATIVE) {
+                        matched = true;
+                        break;
+                    }
+                }
+            } else matched = others.contains(value);
+
+            if (!matched) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return distance to the nearest value in a sorted list (or Long.MAX_VALUE if the list is empty)
+     */
+    protected static long nearest(List<Long> sorted, long value)
+    {
+        int k = Collections.binarySearch(sorted, value);
+        if (k >= 0) {
+            return 0;
+        }
+        k = -(k + 1);
+        long nearest = Long.MAX_VALUE;
+        if (k < sorted.size()) {
+            nearest = Math.min(nearest, sorted.get(k) - value);
+        }
+        if (k > 0) {
+            nearest = Math.min(nearest, value - sorted.get(k - 1));
+        }
+        return nearest;
+    }
+
+    protected static List<Object> columnValues(List<Object[]> rows, int column)
+    {
+        ArrayList<Object> values = new ArrayList<>();
+        for (Object[] row : rows) {
+            if (column < row.length && row[column] != null) {
+                values.add(row[column]);
+            }
+        }
+        return values;
+    }
+
+    protected static int indexOf(String[] columns, String column)
+    {
+        for (int i=0; i<columns.length; i++) {
+            if (columns[i].equals(column)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * A recorded query result (see class comment for the text format).
+     */
+    public static class Fixture
+    {
+        public String query;
+        public long[] range;
+        public double latitude, longitude;
+        public TimeZone timezone;
+        public String[] columns;
+        public final ArrayList<Object[]> rows = new ArrayList<>();
+
+        public static Fixture read(Reader in) throws IOException
+        {
+            Fixture fixture = new Fixture();
+            BufferedReader reader = new BufferedReader(in);
+            String line;
+            while ((line = reader.readLine()) != null)
+            {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                try {
+                    if (line.startsWith("query=")) {
+                        fixture.query = line.substring(6);
+
+                    } else if (line.startsWith("range=")) {
+                        String value = line.substring(6);
+                        int i = value.indexOf('-', 1);
+                        fixture.range = new long[] { Long.parseLong(value.substring(0, i)), Long.parseLong(value.substring(i + 1)) };
+
+                    } else if (line.startsWith("location=")) {
+                        String[] value = line.substring(9).split(",");
+                        fixture.latitude = Double.parseDouble(value[0]);
+                        fixture.longitude = Double.parseDouble(value[1]);
+                        fixture.timezone = TimeZone.getTimeZone(value[2]);
+
+                    } else if (line.startsWith("columns=")) {
+                        fixture.columns = line.substring(8).split(",");
+
+                    } else {
+                        String[] values = line.split(",");
+                        Object[] row = new Object[values.length];
+                        for (int i=0; i<values.length; i++) {
+                            row[i] = parseValue(values[i].trim());
+                        }
+                        fixture.rows.add(row);
+                    }
+                } catch (RuntimeException | ParseException e) {
+                    throw new IOException("Malformed fixture! " + line + ": " + e);
+                }
+            }
+            if (fixture.query == null || fixture.range == null || fixture.timezone == null || fixture.columns == null) {
+                throw new IOException("Malformed fixture! missing query, range, location, or columns");
+            }
+            return fixture;
+        }
+
+        protected static Object parseValue(String value) throws ParseException
+        {
+            if (value.equals("null")) {
+                return null;
+            } else if (value.endsWith("Z")) {
+                return utcFormat().parse(value).getTime();
+            } else if (value.contains(".")) {
+                return Double.parseDouble(value);
+            } else return Long.parseLong(value);
+        }
+
+        protected static SimpleDateFormat utcFormat()
+        {
+            SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm'Z'", Locale.US);
+            format.setTimeZone(TimeZone.getTimeZone("UTC"));
+            return format;
+        }
+
+        /**
+         * @return the fixture as text (values are written as is; e.g. timestamps as millis)
+         */
+        public String write()
+        {
+            StringBuilder s = new StringBuilder();
+            s.append("query=").append(query).append("\n");
+            s.append("range=").append(range[0]).append("-").append(range[1]).append("\n");
+            s.append("location=").append(latitude).append(",").append(longitude).append(",").append(timezone.getID()).append("\n");
+            s.append("columns=").append(join(columns)).append("\n");
+            for (Object[] row : rows) {
+                s.append(join(row)).append("\n");
+            }
+            return s.toString();
+        }
+
+        protected static String join(Object[] values)
+        {
+            StringBuilder s = new StringBuilder();
+            for (int i=0; i<values.length; i++)
+            {
+                if (i > 0) {
+                    s.append(",");
+                }
+                s.append(values[i]);
+            }
+            return s.toString();
+        }
+    }
+}
@@ -0,0 +1,259 @@
+/**
+    Copyright (C) 2023 Forrest Guice
+    This file is part of SuntimesCalendars.
+
+    SuntimesCalendars is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    SuntimesCalendars is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with SuntimesCalendars.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.forrestguice.suntimeswidget.calculator.embedded;
+
+import com.forrestguice.suntimeswidget.calculator.core.CalculatorProviderContract;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.HashSet;
+import java.util.List;
+import java.util.TimeZone;
+
+/**
+ * EmbeddedCalculator
+ * Computes rows for a subset of CalculatorProviderContract (QUERY_SUN, QUERY_MOON, QUERY_MOONPHASE, and QUERY_SEASONS) in-process,
+ * with the same columns and row layout as the calculator provider. Rows are arrays of values ordered by the projection
+ * (Long timestamps, Double distances, Integer years), and null where the event doesn't occur.
+ */
+@SuppressWarnings("Convert2Diamond")
+public class EmbeddedCalculator
+{
+    public static final HashSet<String> QUERIES = new HashSet<>(Arrays.asList(
+            CalculatorProviderContract.QUERY_SUN, CalculatorProviderContract.QUERY_MOON,
+            CalculatorProviderContract.QUERY_MOONPHASE, CalculatorProviderContract.QUERY_SEASONS
+    ));
+
+    protected final TimeZone timezone;
+    protected final SolarCalculator sun;
+    protected final LunarCalculator moon;
+
+    /**
+     * @param latitude degrees (north positive)
+     * @param longitude degrees (east positive)
+     * @param timezone determines the days (rows) of sun and moon queries
+     */
+    public EmbeddedCalculator(double latitude, double longitude, TimeZone timezone)
+    {
+        this.timezone = timezone;
+        this.sun = new SolarCalculator(latitude, longitude);
+        this.moon = new LunarCalculator(latitude, longitude);
+    }
+
+    public static boolean supportsQuery(String query) {
+        return QUERIES.contains(query);
+    }
+
+    public static String[] defaultProjection(String query)
+    {
+        switch (query)
+        {
+            case CalculatorProviderContract.QUERY_SUN: return CalculatorProviderContract.QUERY_SUN_PROJECTION;
+            case CalculatorProviderContract.QUERY_MOON: return CalculatorProviderContract.QUERY_MOON_PROJECTION;
+            case CalculatorProviderContract.QUERY_MOONPHASE: return CalculatorProviderContract.QUERY_MOONPHASE_PROJECTION;
+            case CalculatorProviderContract.QUERY_SEASONS: return CalculatorProviderContract.QUERY_SEASONS_PROJECTION;
+            default: return new String[0];
+        }
+    }
+
+    /**
+     * @param query one of QUERIES
+     * @param range [start, end]; timestamps (ms), or years (QUERY_SEASONS); start == end for a single row
+     * @param projection columns (or null for the default projection)
+     * @return rows
+     * @throws IllegalArgumentException if the query isn't supported
+     */
+    public List<Object[]> query(String query, long[] range, String[] projection)
+    {
+        if (projection == null) {
+            projection = defaultProjection(query);
+        }
+        switch (query)
+        {
+            case CalculatorProviderContract.QUERY_SUN: return querySun(range, projection);
+            case CalculatorProviderContract.QUERY_MOON: return queryMoon(range, projection);
+            case CalculatorProviderContract.QUERY_MOONPHASE: return queryMoonPhases(range, projection);
+            case CalculatorProviderContract.QUERY_SEASONS: return querySeasons(range, projection);
+            default: throw new IllegalArgumentException("Unsupported query: " + query);
+        }
+    }
+
+    /**
+     * One row per day (from the day containing range[0] through the day containing range[1]).
+     */
+    protected List<Object[]> querySun(long[] range, String[] projection)
+    {
+        ArrayList<Object[]> rows = new ArrayList<>();
+        Calendar day = startOfDay(range[0]);
+        while (day.getTimeInMillis() <= range[1])
+        {
+            int year = day.get(Calendar.YEAR);
+            int month = day.get(Calendar.MONTH) + 1;
+            int date = day.get(Calendar.DAY_OF_MONTH);
+
+            Object[] row = new Object[projection.length];
+            for (int i=0; i<projection.length; i++)
+            {
+                switch (projection[i])
+                {
+                    case CalculatorProviderContract.COLUMN_SUN_NOON: row[i] = sun.noon(year, month, date); break;
+                    case CalculatorProviderContract.COLUMN_SUN_ACTUAL_RISE: row[i] = sun.event(year, month, date, SolarCalculator.ALTITUDE_ACTUAL, true); break;
+                    case CalculatorProviderContract.COLUMN_SUN_ACTUAL_SET: row[i] = sun.event(year, month, date, SolarCalculator.ALTITUDE_ACTUAL, false); break;
+                    case CalculatorProviderContract.COLUMN_SUN_CIVIL_RISE: row[i] = sun.event(year, month, date, SolarCalculator.ALTITUDE_CIVIL, true); break;
+                    case CalculatorProviderContract.COLUMN_SUN_CIVIL_SET: row[i] = sun.event(year, month, date, SolarCalculator.ALTITUDE_CIVIL, false); break;
+                    case CalculatorProviderContract.COLUMN_SUN_NAUTICAL_RISE: row[i] = sun.event(year, month, date, SolarCalculator.ALTITUDE_NAUTICAL, true); break;
+                    case CalculatorProviderContract.COLUMN_SUN_NAUTICAL_SET: row[i] = sun.event(year, month, date, SolarCalculator.ALTITUDE_NAUTICAL, false); break;
+                    case CalculatorProviderContract.COLUMN_SUN_ASTRO_RISE: row[i] = sun.event(year, month, date, SolarCalculator.ALTITUDE_ASTRONOMICAL, true); break;
+                    case CalculatorProviderContract.COLUMN_SUN_ASTRO_SET: row[i] = sun.event(year, month, date, SolarCalculator.ALTITUDE_ASTRONOMICAL, false); break;
+                    case CalculatorProviderContract.COLUMN_SUN_GOLDEN_MORNING: row[i] = sun.event(year, month, date, SolarCalculator.ALTITUDE_GOLDEN, true); break;
+                    case CalculatorProviderContract.COLUMN_SUN_GOLDEN_EVENING: row[i] = sun.event(year, month, date, SolarCalculator.ALTITUDE_GOLDEN, false); break;
+                    case CalculatorProviderContract.COLUMN_SUN_BLUE8_RISE: row[i] = sun.event(year, month, date, SolarCalculator.ALTITUDE_BLUE8, true); break;
+                    case CalculatorProviderContract.COLUMN_SUN_BLUE8_SET: row[i] = sun.event(year, month, date, SolarCalculator.ALTITUDE_BLUE8, false); break;
+                    case CalculatorProviderContract.COLUMN_SUN_BLUE4_RISE: row[i] = sun.event(year, month, date, SolarCalculator.ALTITUDE_BLUE4, true); break;
+                    case CalculatorProviderContract.COLUMN_SUN_BLUE4_SET: row[i] = sun.event(year, month, date, SolarCalculator.ALTITUDE_BLUE4, false); break;
+                    default: row[i] = null; break;
+                }
+            }
+            rows.add(row);
+            day.add(Calendar.DAY_OF_YEAR, 1);
+        }
+        return rows;
+    }
+
+    /**
+     * One row per day (from the day containing range[0] through the day containing range[1]).
+     */
+    protected List<Object[]> queryMoon(long[] range, String[] projection)
+    {
+        ArrayList<Object[]> rows = new ArrayList<>();
+        Calendar day = startOfDay(range[0]);
+        while (day.getTimeInMillis() <= range[1])
+        {
+            long start = day.getTimeInMillis();
+            day.add(Calendar.DAY_OF_YEAR, 1);
+            Long[] riseSet = moon.riseSet(start, day.getTimeInMillis());
+
+            Object[] row = new Object[projection.length];
+            for (int i=0; i<projection.length; i++)
+            {
+                switch (projection[i])
+                {
+                    case CalculatorProviderContract.COLUMN_MOON_RISE: row[i] = riseSet[0]; break;
+                    case CalculatorProviderContract.COLUMN_MOON_SET: row[i] = riseSet[1]; break;
+                    default: row[i] = null; break;
+                }
+            }
+            rows.add(row);
+        }
+        return rows;
+    }
+
+    /**
+     * Rows of the phases that follow a date, laid out like the provider's rows; the first row holds the phases that follow range[0],
+     * and each following row the phases after the last phase of the previous row (while that is before range[1]). Each phase
+     * occurs once (no phases before range[0], and none are repeated or skipped). A single row if range[0] == range[1].
+     */
+    protected List<Object[]> queryMoonPhases(long[] range, String[] projection)
+    {
+        ArrayList<Object[]> rows = new ArrayList<>();
+        long date = range[0];
+        do {
+            long[] phases = new long[4];
+            long last = date;
+            for (int j=0; j<phases.length; j++)
+            {
+                phases[j] = LunarCalculator.nextPhase(date, j);
+                last = Math.max(last, phases[j]);
+            }
+            rows.add(moonPhaseRow(phases, projection));
+            date = last;
+        } while (date < range[1]);
+        return rows;
+    }
+
+    protected Object[] moonPhaseRow(long[] phases, String[] projection)
+    {
+        Object[] row = new Object[projection.length];
+        for (int i=0; i<projection.length; i++)
+        {
+            switch (projection[i])
+            {
+                case CalculatorProviderContract.COLUMN_MOON_NEW: row[i] = phases[LunarCalculator.PHASE_NEW]; break;
+                case CalculatorProviderContract.COLUMN_MOON_FIRST: row[i] = phases[LunarCalculator.PHASE_FIRST]; break;
+                case CalculatorProviderContract.COLUMN_MOON_FULL: row[i] = phases[LunarCalculator.PHASE_FULL]; break;
+                case CalculatorProviderContract.COLUMN_MOON_THIRD: row[i] = phases[LunarCalculator.PHASE_THIRD]; break;
+                case CalculatorProviderContract.COLUMN_MOON_NEW_DISTANCE: row[i] = LunarCalculator.distance(phases[LunarCalculator.PHASE_NEW]); break;
+                case CalculatorProviderContract.COLUMN_MOON_FIRST_DISTANCE: row[i] = LunarCalculator.distance(phases[LunarCalculator.PHASE_FIRST]); break;
+                case CalculatorProviderContract.COLUMN_MOON_FULL_DISTANCE: row[i] = LunarCalculator.distance(phases[LunarCalculator.PHASE_FULL]); break;
+                case CalculatorProviderContract.COLUMN_MOON_THIRD_DISTANCE: row[i] = LunarCalculator.distance(phases[LunarCalculator.PHASE_THIRD]); break;
+                default: row[i] = null; break;
+            }
+        }
+        return row;
+    }
+
+    /**
+     * One row per year (range[0] through range[1]).
+     */
+    @SuppressWarnings("deprecation")
+    protected List<Object[]> querySeasons(long[] range, String[] projection)
+    {
+        ArrayList<Object[]> rows = new ArrayList<>();
+        for (int year = (int) range[0]; year <= range[1]; year++)
+        {
+            Object[] row = new Object[projection.length];
+            for (int i=0; i<projection.length; i++)
+            {
+                switch (projection[i])
+                {
+                    case CalculatorProviderContract.COLUMN_SEASON_YEAR: row[i] = year; break;
+                    case CalculatorProviderContract.COLUMN_SEASON_VERNAL:
+                    case CalculatorProviderContract.COLUMN_SEASON_SPRING: row[i] = seasonMillis(SeasonCalculator.season(year, SeasonCalculator.SPRING)); break;
+                    case CalculatorProviderContract.COLUMN_SEASON_SUMMER: row[i] = seasonMillis(SeasonCalculator.season(year, SeasonCalculator.SUMMER)); break;
+                    case CalculatorProviderContract.COLUMN_SEASON_AUTUMN: row[i] = seasonMillis(SeasonCalculator.season(year, SeasonCalculator.AUTUMN)); break;
+                    case CalculatorProviderContract.COLUMN_SEASON_WINTER: row[i] = seasonMillis(SeasonCalculator.season(year, SeasonCalculator.WINTER)); break;
+                    case CalculatorProviderContract.COLUMN_SEASON_CROSS_SPRING: row[i] = seasonMillis(SeasonCalculator.crossQuarter(year, SeasonCalculator.SPRING)); break;
+                    case CalculatorProviderContract.COLUMN_SEASON_CROSS_SUMMER: row[i] = seasonMillis(SeasonCalculator.crossQuarter(year, SeasonCalculator.SUMMER)); break;
+                    case CalculatorProviderContract.COLUMN_SEASON_CROSS_AUTUMN: row[i] = seasonMillis(SeasonCalculator.crossQuarter(year, SeasonCalculator.AUTUMN)); break;
+                    case CalculatorProviderContract.COLUMN_SEASON_CROSS_WINTER: row[i] = seasonMillis(SeasonCalculator.crossQuarter(year, SeasonCalculator.WINTER)); break;
+                    case CalculatorProviderContract.COLUMN_SEASON_TROPICAL_YEAR_LENGTH: row[i] = SeasonCalculator.tropicalYear(year); break;
+                    default: row[i] = null; break;
+                }
+            }
+            rows.add(row);
+        }
+        return rows;
+    }
+
+    protected static long seasonMillis(double jde) {
+        return AstroMath.toMillis(AstroMath.toUniversal(jde));
+    }
+
+    protected Calendar startOfDay(long millis)
+    {
+        Calendar day = Calendar.getInstance(timezone);
+        day.setTimeInMillis(millis);
+        day.set(Calendar.HOUR_OF_DAY, 0);
+        day.set(Calendar.MINUTE, 0);
+        day.set(Calendar.SECOND, 0);
+        day.set(Calendar.MILLISECOND, 0);
+        return day;
+    }
+}
@@ -0,0 +1,324 @@
+/**
+    Copyright (C) 2023 Forrest Guice
+    This file is part of SuntimesCalendars.
+
+    SuntimesCalendars is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    SuntimesCalendars is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with SuntimesCalendars.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.forrestguice.suntimeswidget.calculator.embedded;
+
+import static com.forrestguice.suntimeswidget.calculator.embedded.AstroMath.cos;
+import static com.forrestguice.suntimeswidget.calculator.embedded.AstroMath.sin;
+
+/**
+ * LunarCalculator
+ * Moon phases (Meeus ch. 49), moon position (Meeus ch. 47; the larger periodic terms only, about 0.01 degrees), and
+ * moonrise/moonset (found by stepping the moon's altitude through the day).
+ */
+public class LunarCalculator
+{
+    public static final int PHASE_NEW = 0;
+    public static final int PHASE_FIRST = 1;
+    public static final int PHASE_FULL = 2;
+    public static final int PHASE_THIRD = 3;
+
+    public static final double SYNODIC_MONTH = 29.530588861;    // days
+    public static final double EARTH_RADIUS = 6378.14;          // km
+
+    protected static final long HOUR_MILLIS = 60 * 60 * 1000;
+    protected static final int REFINE_STEPS = 10;               // bisections of an hour step; ~4s
+
+    protected final double latitude;
+    protected final double longitude;    // east positive
+
+    public LunarCalculator(double latitude, double longitude)
+    {
+        this.latitude = latitude;
+        this.longitude = longitude;
+    }
+
+    /**
+     * @return lunation number (k) near the given time (k = 0 is the new moon of 2000 Jan 6)
+     */
+    public static int lunation(double jd) {
+        return (int) Math.floor((AstroMath.decimalYear(jd) - 2000) * 12.3685);
+    }
+
+    /**
+     * @param k lunation number
+     * @param phase PHASE_NEW, PHASE_FIRST, PHASE_FULL, or PHASE_THIRD
+     * @return time of the phase (JDE) [Meeus 49.1]
+     */
+    public static double phase(int k, int phase)
+    {
+        double kk = k + phase * 0.25;
+        double t = kk / 1236.85;
+        double t2 = t * t, t3 = t2 * t, t4 = t3 * t;
+
+        double jde = 2451550.09766 + SYNODIC_MONTH * kk + 0.00015437 * t2 - 0.000000150 * t3 + 0.00000000073 * t4;
+        double e = 1 - 0.002516 * t - 0.0000074 * t2;
+        double m = 2.5534 + 29.10535670 * kk - 0.0000014 * t2 - 0.00000011 * t3;
+        double mp = 201.5643 + 385.81693528 * kk + 0.0107582 * t2 + 0.00001238 * t3 - 0.000000058 * t4;
+        double f = 160.7108 + 390.67050284 * kk - 0.0016118 * t2 - 0.00000227 * t3 + 0.000000011 * t4;
+        double omega = 124.7746 - 1.56375588 * kk + 0.0020672 * t2 + 0.00000215 * t3;
+
+        double c;
+        switch (phase)
+        {
+            case PHASE_NEW:
+            case PHASE_FULL:
+                boolean isNew = (phase == PHASE_NEW);
+                c = (isNew ? -0.40720 : -0.40614) * sin(mp)
+                        + (isNew ? 0.17241 : 0.17302) * e * sin(m)
+                        + (isNew ? 0.01608 : 0.01614) * sin(2 * mp)
+                        + (isNew ? 0.01039 : 0.01043) * sin(2 * f)
+                        + (isNew ? 0.00739 : 0.00734) * e * sin(mp - m)
+                        + (isNew ? -0.00514 : -0.00515) * e * sin(mp + m)
+                        + (isNew ? 0.00208 : 0.00209) * e * e * sin(2 * m)
+                        - 0.00111 * sin(mp - 2 * f)
+                        - 0.00057 * sin(mp + 2 * f)
+                        + 0.00056 * e * sin(2 * mp + m)
+                        - 0.00042 * sin(3 * mp)
+                        + 0.00042 * e * sin(m + 2 * f)
+                        + 0.00038 * e * sin(m - 2 * f)
+                        - 0.00024 * e * sin(2 * mp - m)
+                        - 0.00017 * sin(omega)
+                        - 0.00007 * sin(mp + 2 * m)
+                        + 0.00004 * sin(2 * mp - 2 * f)
+                        + 0.00004 * sin(3 * m)
+                        + 0.00003 * sin(mp + m - 2 * f)
+                        + 0.00003 * sin(2 * mp + 2 * f)
+                        - 0.00003 * sin(mp + m + 2 * f)
+                        + 0.00003 * sin(mp - m + 2 * f)
+                        - 0.00002 * sin(mp - m - 2 * f)
+                        - 0.00002 * sin(3 * mp + m)
+                        + 0.00002 * sin(4 * mp);
+                break;
+
+            default:
+                c = -0.62801 * sin(mp)
+                        + 0.17172 * e * sin(m)
+                        - 0.01183 * e * sin(mp + m)
+                        + 0.00862 * sin(2 * mp)
+                        + 0.00804 * sin(2 * f)
+                        + 0.00454 * e * sin(mp - m)
+                        + 0.00204 * e * e * sin(2 * m)
+                        - 0.00180 * sin(mp - 2 * f)
+                        - 0.00070 * sin(mp + 2 * f)
+                        - 0.00040 * sin(3 * mp)
+                        - 0.00034 * e * sin(2 * mp - m)
+                        + 0.00032 * e * sin(m + 2 * f)
+                        + 0.00032 * e * sin(m - 2 * f)
+                        - 0.00028 * e * e * sin(mp + 2 * m)
+                        + 0.00027 * e * sin(2 * mp + m)
+                        - 0.00017 * sin(omega)
+                        - 0.00005 * sin(mp - m - 2 * f)
+                        + 0.00004 * sin(2 * mp + 2 * f)
+                        - 0.00004 * sin(mp + m + 2 * f)
+                        + 0.00004 * sin(mp - 2 * m)
+                        + 0.00003 * sin(mp + m - 2 * f)
+                        + 0.00003 * sin(3 * m)
+                        + 0.00002 * sin(2 * mp - 2 * f)
+                        + 0.00002 * sin(mp - m + 2 * f)
+                        - 0.00002 * sin(3 * mp + m);
+
+                double w = 0.00306 - 0.00038 * e * cos(m) + 0.00026 * cos(mp) - 0.00002 * cos(mp - m) + 0.00002 * cos(mp + m) + 0.00002 * cos(2 * f);
+                c += (phase == PHASE_FIRST ? w : -w);
+                break;
+        }
+
+        double a = 0.000325 * sin(299.77 + 0.107408 * kk - 0.009173 * t2)
+                + 0.000165 * sin(251.88 + 0.016321 * kk)
+                + 0.000164 * sin(251.83 + 26.651886 * kk)
+                + 0.000126 * sin(349.42 + 36.412478 * kk)
+                + 0.000110 * sin(84.66 + 18.206239 * kk)
+                + 0.000062 * sin(141.74 + 53.303771 * kk)
+                + 0.000060 * sin(207.14 + 2.453732 * kk)
+                + 0.000056 * sin(154.84 + 7.306860 * kk)
+                + 0.000047 * sin(34.52 + 27.261239 * kk)
+                + 0.000042 * sin(207.19 + 0.121824 * kk)
+                + 0.000040 * sin(291.34 + 1.844379 * kk)
+                + 0.000037 * sin(161.72 + 24.198154 * kk)
+                + 0.000035 * sin(239.56 + 25.513099 * kk)
+                + 0.000023 * sin(331.55 + 3.592518 * kk);
+
+        return jde + c + a;
+    }
+
+    /**
+     * @return time (ms) of the first occurrence of the phase after the given time
+     */
+    public static long nextPhase(long millis, int phase)
+    {
+        double jd = AstroMath.toJulianDay(millis);
+        for (int k = lunation(jd) - 1; ; k++)
+        {
+            long phaseMillis = AstroMath.toMillis(AstroMath.toUniversal(phase(k, phase)));
+            if (phaseMillis > millis) {
+                return phaseMillis;
+            }
+        }
+    }
+
+    /**
+     * @param jde Julian Ephemeris Day
+     * @return geocentric {longitude (degrees), latitude (degrees), distance (km)} [Meeus ch. 47, truncated]
+     */
+    public static double[] position(double jde)
+    {
+        double t = AstroMath.julianCentury(jde);
+        double t2 = t * t, t3 = t2 * t, t4 = t3 * t;
+
+        double lp = 218.3164477 + 481267.88123421 * t - 0.0015786 * t2 + t3 / 538841 - t4 / 65194000;
+        double d = 297.8501921 + 445267.1114034 * t - 0.0018819 * t2 + t3 / 545868 - t4 / 113065000;
+        double m = 357.5291092 + 35999.0502909 * t - 0.0001536 * t2 + t3 / 24490000;
+        double mp = 134.9633964 + 477198.8675055 * t + 0.0087414 * t2 + t3 / 69699 - t4 / 14712000;
+        double f = 93.2720950 + 483202.0175233 * t - 0.0036539 * t2 - t3 / 3526000 + t4 / 863310000;
+        double e = 1 - 0.002516 * t - 0.0000074 * t2;
+
+        double a1 = 119.75 + 131.849 * t;
+        double a2 = 53.09 + 479264.290 * t;
+        double a3 = 313.45 + 481266.484 * t;
+
+        double sl = 6288774 * sin(mp)
+                + 1274027 * sin(2 * d - mp)
+                + 658314 * sin(2 * d)
+                + 213618 * sin(2 * mp)
+                - 185116 * e * sin(m)
+                - 114332 * sin(2 * f)
+                + 58793 * sin(2 * d - 2 * mp)
+                + 57066 * e * sin(2 * d - m - mp)
+                + 53322 * sin(2 * d + mp)
+                + 45758 * e * sin(2 * d - m)
+                - 40923 * e * sin(m - mp)
+                - 34720 * sin(d)
+                - 30383 * e * sin(m + mp)
+                + 15327 * sin(2 * d - 2 * f)
+                - 12528 * sin(mp + 2 * f)
+                + 10980 * sin(mp - 2 * f)
+                + 10675 * sin(4 * d - mp)
+                + 10034 * sin(3 * mp)
+                + 8548 * sin(4 * d - 2 * mp)
+                - 7888 * e * sin(2 * d + m - mp)
+                - 6766 * e * sin(2 * d + m)
+                - 5163 * sin(d - mp)
+                + 4987 * e * sin(d + m)
+                + 4036 * e * sin(2 * d - m + mp)
+                + 3958 * sin(a1) + 1962 * sin(lp - f) + 318 * sin(a2);
+
+        double sr = -20905355 * cos(mp)
+                - 3699111 * cos(2 * d - mp)
+                - 2955968 * cos(2 * d)
+                - 569925 * cos(2 * mp)
+                + 48888 * e * cos(m)
+                - 3149 * cos(2 * f)
+                + 246158 * cos(2 * d - 2 * mp)
+                - 152138 * e * cos(2 * d - m - mp)
+                - 170733 * cos(2 * d + mp)
+                - 204586 * e * cos(2 * d - m)
+                - 129620 * e * cos(m - mp)
+                + 108743 * cos(d)
+                + 104755 * e * cos(m + mp)
+                + 10321 * cos(2 * d - 2 * f)
+                + 79661 * cos(mp - 2 * f)
+                - 34782 * cos(4 * d - mp)
+                - 23210 * cos(3 * mp)
+                - 21636 * cos(4 * d - 2 * mp)
+                + 24208 * e * cos(2 * d + m - mp)
+                + 30824 * e * cos(2 * d + m)
+                - 8379 * cos(d - mp)
+                - 16675 * e * cos(d + m)
+                - 12831 * e * cos(2 * d - m + mp);
+
+        double sb = 5128122 * sin(f)
+                + 280602 * sin(mp + f)
+                + 277693 * sin(mp - f)
+                + 173237 * sin(2 * d - f)
+                + 55413 * sin(2 * d - mp + f)
+                + 46271 * sin(2 * d - mp - f)
+                + 32573 * sin(2 * d + f)
+                + 17198 * sin(2 * mp + f)
+                + 9266 * sin(2 * d + mp - f)
+                + 8822 * sin(2 * mp - f)
+                + 8216 * e * sin(2 * d - m - f)
+                + 4324 * sin(2 * d - 2 * mp - f)
+                + 4200 * sin(2 * d + mp + f)
+                - 2235 * sin(lp) + 382 * sin(a3) + 175 * sin(a1 - f) + 175 * sin(a1 + f) + 127 * sin(lp - mp) - 115 * sin(lp + mp);
+
+        return new double[] { AstroMath.normalize(lp + sl / 1000000.0), sb / 1000000.0, 385000.56 + sr / 1000.0 };
+    }
+
+    /**
+     * @return distance (km) to the moon at the given time
+     */
+    public static double distance(long millis) {
+        return position(AstroMath.toDynamical(AstroMath.toJulianDay(millis)))[2];
+    }
+
+    /**
+     * @return the moon's altitude (degrees) minus its standard altitude at rising/setting (0.7275 parallax - 0.5667) [Meeus ch. 15]
+     */
+    protected double riseSetAltitude(long millis)
+    {
+        double jd = AstroMath.toJulianDay(millis);
+        double jde = AstroMath.toDynamical(jd);
+        double[] p = position(jde);
+        double epsilon = AstroMath.obliquity(AstroMath.julianCentury(jde));
+
+        double ra = Math.toDegrees(Math.atan2(sin(p[0]) * cos(epsilon) - Math.tan(Math.toRadians(p[1])) * sin(epsilon), cos(p[0])));
+        double dec = Math.toDegrees(Math.asin(sin(p[1]) * cos(epsilon) + cos(p[1]) * sin(epsilon) * sin(p[0])));
+        double parallax = Math.toDegrees(Math.asin(EARTH_RADIUS / p[2]));
+        return AstroMath.altitude(jd, latitude, longitude, ra, dec) - (0.7275 * parallax - 0.5667);
+    }
+
+    /**
+     * @param start start of the day (ms)
+     * @param end end of the day (ms)
+     * @return {moonrise, moonset} within [start, end); either may be null (the moon doesn't rise or set that day)
+     */
+    public Long[] riseSet(long start, long end)
+    {
+        Long rise = null, set = null;
+        long t0 = start;
+        double h0 = riseSetAltitude(t0);
+        while (t0 < end && (rise == null || set == null))
+        {
+            long t1 = Math.min(t0 + HOUR_MILLIS, end);
+            double h1 = riseSetAltitude(t1);
+            if (h0 < 0 && h1 >= 0 && rise == null) {
+                rise = refine(t0, t1, true);
+            } else if (h0 >= 0 && h1 < 0 && set == null) {
+                set = refine(t0, t1, false);
+            }
+            t0 = t1;
+            h0 = h1;
+        }
+        return new Long[] { rise, set };
+    }
+
+    protected long refine(long t0, long t1, boolean rising)
+    {
+        for (int i=0; i<REFINE_STEPS; i++)
+        {
+            long t = (t0 + t1) / 2;
+            boolean above = (riseSetAltitude(t) >= 0);
+            if (above == rising) {
+                t1 = t;
+            } else {
+                t0 = t;
+            }
+        }
+        return (t0 + t1) / 2;
+    }
+}
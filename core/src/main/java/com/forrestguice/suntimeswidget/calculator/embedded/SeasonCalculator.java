@@ -0,0 +1,91 @@
+/**
+    Copyright (C) 2023 Forrest Guice
+    This file is part of SuntimesCalendars.
+
+    SuntimesCalendars is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    SuntimesCalendars is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with SuntimesCalendars.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.forrestguice.suntimeswidget.calculator.embedded;
+
+/**
+ * SeasonCalculator
+ * Equinoxes and solstices (Meeus ch. 27; years 1000-3000), and the cross-quarter days between them (found by iterating on the
+ * sun's apparent longitude).
+ */
+public class SeasonCalculator
+{
+    public static final int SPRING = 0;    // march equinox
+    public static final int SUMMER = 1;    // june solstice
+    public static final int AUTUMN = 2;    // september equinox
+    public static final int WINTER = 3;    // december solstice
+
+    protected static final double[][] MEAN = new double[][] {    // Meeus table 27.b
+            { 2451623.80984, 365242.37404,  0.05169, -0.00411, -0.00057 },
+            { 2451716.56767, 365241.62603,  0.00325,  0.00888, -0.00030 },
+            { 2451810.21715, 365242.01767, -0.11575,  0.00337,  0.00078 },
+            { 2451900.05952, 365242.74049, -0.06223, -0.00823,  0.00032 }
+    };
+
+    protected static final double[][] TERMS = new double[][] {    // Meeus table 27.c; A, B, C
+            {485, 324.96, 1934.136}, {203, 337.23, 32964.467}, {199, 342.08, 20.186}, {182, 27.85, 445267.112},
+            {156, 73.14, 45036.886}, {136, 171.52, 22518.443}, {77, 222.54, 65928.934}, {74, 296.72, 3034.906},
+            {70, 243.58, 9037.513}, {58, 119.81, 33718.147}, {52, 297.17, 150.678}, {50, 21.02, 2281.226},
+            {45, 247.54, 29929.562}, {44, 325.15, 31555.956}, {29, 60.93, 4443.417}, {18, 155.12, 67555.328},
+            {17, 288.79, 4562.452}, {16, 198.04, 62894.029}, {14, 199.76, 31436.921}, {12, 95.39, 14577.848},
+            {12, 287.11, 31931.756}, {12, 320.81, 34777.259}, {9, 227.73, 1222.114}, {8, 15.45, 16859.074}
+    };
+
+    /**
+     * @param season SPRING, SUMMER, AUTUMN, or WINTER
+     * @return time of the equinox or solstice (JDE)
+     */
+    public static double season(int year, int season)
+    {
+        double y = (year - 2000) / 1000.0;
+        double[] c = MEAN[season];
+        double jde0 = c[0] + y * (c[1] + y * (c[2] + y * (c[3] + y * c[4])));
+
+        double t = AstroMath.julianCentury(jde0);
+        double w = 35999.373 * t - 2.47;
+        double dl = 1 + 0.0334 * AstroMath.cos(w) + 0.0007 * AstroMath.cos(2 * w);
+
+        double s = 0;
+        for (double[] term : TERMS) {
+            s += term[0] * AstroMath.cos(term[1] + term[2] * t);
+        }
+        return jde0 + (0.00001 * s) / dl;
+    }
+
+    /**
+     * @param season SPRING (early may), SUMMER (early august), AUTUMN (early november), or WINTER (early february)
+     * @return time of the cross-quarter day (JDE) that falls midway through the season; the WINTER cross-quarter is the one
+     * that precedes the year's spring equinox
+     */
+    public static double crossQuarter(int year, int season)
+    {
+        double target = AstroMath.normalize(45 + 90 * season);
+        double jde = season(year, SPRING) + (season == WINTER ? -45 : target) / 360.0 * 365.2422;
+        for (int i=0; i<4; i++) {    // Meeus 27 (iteration for other longitudes)
+            jde += 58 * AstroMath.sin(target - SolarCalculator.apparentLongitude(AstroMath.julianCentury(jde)));
+        }
+        return jde;
+    }
+
+    /**
+     * @return length of the tropical year (ms) measured from the year's spring equinox to the next
+     */
+    public static long tropicalYear(int year) {
+        return Math.round((season(year + 1, SPRING) - season(year, SPRING)) * AstroMath.DAY_MILLIS);
+    }
+}
@@ -0,0 +1,148 @@
+/**
+    Copyright (C) 2023 Forrest Guice
+    This file is part of SuntimesCalendars.
+
+    SuntimesCalendars is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    SuntimesCalendars is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with SuntimesCalendars.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.forrestguice.suntimeswidget.calculator.embedded;
+
+import static com.forrestguice.suntimeswidget.calculator.embedded.AstroMath.cos;
+import static com.forrestguice.suntimeswidget.calculator.embedded.AstroMath.sin;
+
+/**
+ * SolarCalculator
+ * Sunrise, sunset, twilights, and solar noon using the NOAA solar calculator equations (a low-precision form of Meeus ch. 25);
+ * accurate to about a minute between +/-72 degrees latitude. Observer elevation is ignored.
+ */
+public class SolarCalculator
+{
+    public static final double ALTITUDE_ACTUAL = -0.833;      // upper limb at the horizon; includes refraction
+    public static final double ALTITUDE_CIVIL = -6;
+    public static final double ALTITUDE_NAUTICAL = -12;
+    public static final double ALTITUDE_ASTRONOMICAL = -18;
+    public static final double ALTITUDE_GOLDEN = 6;
+    public static final double ALTITUDE_BLUE8 = -8;
+    public static final double ALTITUDE_BLUE4 = -4;
+
+    protected final double latitude;
+    protected final double longitude;    // east positive
+
+    public SolarCalculator(double latitude, double longitude)
+    {
+        this.latitude = latitude;
+        this.longitude = longitude;
+    }
+
+    /**
+     * @return time of solar noon (ms) on the given date
+     */
+    public long noon(int year, int month, int day)
+    {
+        double jd0 = AstroMath.julianDay(year, month, day);
+        double minutes = 720 - 4 * longitude;
+        for (int i=0; i<2; i++)
+        {
+            double t = AstroMath.julianCentury(jd0 + minutes / 1440.0);
+            minutes = 720 - 4 * longitude - equationOfTime(t);
+        }
+        return AstroMath.toMillis(jd0) + Math.round(minutes * 60000);
+    }
+
+    /**
+     * @param altitude sun altitude (degrees) e.g. ALTITUDE_CIVIL
+     * @param rising true for the morning event, false for the evening event
+     * @return time (ms) the sun crosses the altitude on the given date, or null if it doesn't (polar day or night)
+     */
+    public Long event(int year, int month, int day, double altitude, boolean rising)
+    {
+        double jd0 = AstroMath.julianDay(year, month, day);
+        double minutes = 720 - 4 * longitude;
+        for (int i=0; i<3; i++)    // refine using the sun's position at the previous estimate
+        {
+            double t = AstroMath.julianCentury(jd0 + minutes / 1440.0);
+            double hourAngle = hourAngle(latitude, declination(t), altitude);
+            if (Double.isNaN(hourAngle)) {
+                return null;
+            }
+            minutes = 720 - 4 * (longitude + (rising ? hourAngle : -hourAngle)) - equationOfTime(t);
+        }
+        return AstroMath.toMillis(jd0) + Math.round(minutes * 60000);
+    }
+
+    /**
+     * @return hour angle (degrees) at which the sun is at the given altitude, or NaN if it never is
+     */
+    public static double hourAngle(double latitude, double declination, double altitude)
+    {
+        double cosH = (sin(altitude) - sin(latitude) * sin(declination)) / (cos(latitude) * cos(declination));
+        return (cosH < -1 || cosH > 1) ? Double.NaN : Math.toDegrees(Math.acos(cosH));
+    }
+
+    public static double meanLongitude(double t) {
+        return AstroMath.normalize(280.46646 + t * (36000.76983 + t * 0.0003032));
+    }
+
+    public static double meanAnomaly(double t) {
+        return 357.52911 + t * (35999.05029 - 0.0001537 * t);
+    }
+
+    public static double eccentricity(double t) {
+        return 0.016708634 - t * (0.000042037 + 0.0000001267 * t);
+    }
+
+    public static double equationOfCenter(double t)
+    {
+        double m = meanAnomaly(t);
+        return sin(m) * (1.914602 - t * (0.004817 + 0.000014 * t)) + sin(2 * m) * (0.019993 - 0.000101 * t) + sin(3 * m) * 0.000289;
+    }
+
+    /**
+     * @return apparent longitude of the sun (degrees)
+     */
+    public static double apparentLongitude(double t)
+    {
+        double omega = 125.04 - 1934.136 * t;
+        return AstroMath.normalize(meanLongitude(t) + equationOfCenter(t) - 0.00569 - 0.00478 * sin(omega));
+    }
+
+    public static double correctedObliquity(double t)
+    {
+        double omega = 125.04 - 1934.136 * t;
+        return AstroMath.obliquity(t) + 0.00256 * cos(omega);
+    }
+
+    /**
+     * @return apparent declination of the sun (degrees)
+     */
+    public static double declination(double t) {
+        return Math.toDegrees(Math.asin(sin(correctedObliquity(t)) * sin(apparentLongitude(t))));
+    }
+
+    /**
+     * @return equation of time (minutes)
+     */
+    public static double equationOfTime(double t)
+    {
+        double l0 = meanLongitude(t);
+        double e = eccentricity(t);
+        double m = meanAnomaly(t);
+        double y = Math.tan(Math.toRadians(correctedObliquity(t) / 2));
+        y *= y;
+
+        double eot = y * sin(2 * l0) - 2 * e * sin(m) + 4 * e * y * sin(m) * cos(2 * l0)
+                - 0.5 * y * y * sin(4 * l0) - 1.25 * e * e * sin(2 * m);
+        return 4 * Math.toDegrees(eot);
+    }
+}
@@ -0,0 +1,217 @@
+/**
+    Copyright (C) 2023 Forrest Guice
+    This file is part of SuntimesCalendars.
+
+    SuntimesCalendars is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    SuntimesCalendars is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with SuntimesCalendars.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.forrestguice.suntimeswidget.calendar.core;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.Map;
+
+/**
+ * CalendarContentStream
+ * The compact row format used by streamed calendar content (SuntimesCalendar.PARAM_CONTENT_STREAM) [protocol v2].
+ *
+ * header: int MAGIC, short FORMAT_VERSION, short column count, column names (string)
+ * row:    byte ROW, then for each column; byte type (TYPE_NULL, TYPE_LONG, TYPE_DOUBLE, TYPE_STRING) followed by the value (if any)
+ * end:    byte END (a stream without END was truncated)
+ * string: int length, then length bytes of UTF-8 [format 2]; format 1 streams used DataOutput.writeUTF (limited to 64KB)
+ *
+ * An add-on writes rows with a Writer (e.g. from openPipeHelper), and ContentProviderCalendar reads them with `read`.
+ */
+public class CalendarContentStream
+{
+    public static final int MAGIC = 0x53434332;    // "SCC2"
+    public static final short FORMAT_VERSION = 2;
+    public static final int MAX_STRING_BYTES = 16 * 1024 * 1024;    // larger lengths are treated as a malformed stream
+
+    public static final byte END = 0;
+    public static final byte ROW = 1;
+
+    public static final byte TYPE_NULL = 0;
+    public static final byte TYPE_LONG = 1;
+    public static final byte TYPE_DOUBLE = 2;
+    public static final byte TYPE_STRING = 3;
+
+    protected static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * Receives rows as they are read.
+     */
+    public interface RowReader
+    {
+        /**
+         * @param columns column names (shared by all rows)
+         * @param values the row's values (Long, Double, String, or null); a new array for each row
+         * @return true to continue reading, false to stop
+         */
+        boolean onRow(String[] columns, Object[] values);
+    }
+
+    /**
+     * Reads rows until END (or until the reader stops); rows are passed to the reader as they are read.
+     * @return the number of rows read
+     * @throws IOException if the stream isn't in this format, or it ends without END
+     */
+    public static int read(InputStream in, RowReader reader) throws IOException
+    {
+        DataInputStream data = new DataInputStream(in);
+        if (data.readInt() != MAGIC) {
+            throw new IOException("Unrecognized stream! missing header");
+        }
+        short version = data.readShort();
+        if (version < 1 || version > FORMAT_VERSION) {
+            throw new IOException("Unsupported stream version " + version);
+        }
+
+        String[] columns = new String[data.readShort()];
+        for (int i=0; i<columns.length; i++) {
+            columns[i] = readString(data, version);
+        }
+
+        int c = 0;
+        while (true)
+        {
+            byte marker = data.readByte();
+            if (marker == END) {
+                return c;
+            } else if (marker != ROW) {
+                throw new IOException("Malformed stream! unexpected marker " + marker + " after row " + c);
+            }
+
+            Object[] values = new Object[columns.length];
+            for (int i=0; i<columns.length; i++)
+            {
+                byte type = data.readByte();
+                switch (type)
+                {
+                    case TYPE_NULL: values[i] = null; break;
+                    case TYPE_LONG: values[i] = data.readLong(); break;
+                    case TYPE_DOUBLE: values[i] = data.readDouble(); break;
+                    case TYPE_STRING: values[i] = readString(data, version); break;
+                    default: throw new IOException("Malformed stream! unexpected type " + type + " in row " + c);
+                }
+            }
+            c++;
+
+            if (!reader.onRow(columns, values)) {
+                return c;
+            }
+        }
+    }
+
+    protected static String readString(DataInputStream data, short version) throws IOException
+    {
+        if (version < 2) {
+            return data.readUTF();
+        }
+        int length = data.readInt();
+        if (length < 0 || length > MAX_STRING_BYTES) {
+            throw new IOException("Malformed stream! unexpected string length " + length);
+        }
+        byte[] bytes = new byte[length];
+        data.readFully(bytes);
+        return new String(bytes, UTF8);
+    }
+
+    protected static void writeString(DataOutputStream out, String value) throws IOException
+    {
+        byte[] bytes = value.getBytes(UTF8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Writes the header, then rows, then END (see finish).
+     */
+    public static class Writer
+    {
+        protected final DataOutputStream out;
+        protected final String[] columns;
+
+        public Writer(OutputStream out, String[] columns) throws IOException
+        {
+            this.out = new DataOutputStream(out);
+            this.columns = columns;
+
+            this.out.writeInt(MAGIC);
+            this.out.writeShort(FORMAT_VERSION);
+            this.out.writeShort(columns.length);
+            for (String column : columns) {
+                writeString(this.out, column);
+            }
+        }
+
+        /**
+         * @param values a value for each column (in column order); missing values are written as null
+         */
+        public void writeRow(Object... values) throws IOException
+        {
+            out.writeByte(ROW);
+            for (int i=0; i<columns.length; i++) {
+                writeValue(i < values.length ? values[i] : null);
+            }
+        }
+
+        /**
+         * @param values values by column name; columns without a value are written as null
+         */
+        public void writeRow(Map<String, ?> values) throws IOException
+        {
+            out.writeByte(ROW);
+            for (String column : columns) {
+                writeValue(values.get(column));
+            }
+        }
+
+        protected void writeValue(Object value) throws IOException
+        {
+            if (value == null) {
+                out.writeByte(TYPE_NULL);
+
+            } else if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+                out.writeByte(TYPE_LONG);
+                out.writeLong(((Number) value).longValue());
+
+            } else if (value instanceof Boolean) {
+                out.writeByte(TYPE_LONG);
+                out.writeLong((Boolean) value ? 1 : 0);
+
+            } else if (value instanceof Double || value instanceof Float) {
+                out.writeByte(TYPE_DOUBLE);
+                out.writeDouble(((Number) value).doubleValue());
+
+            } else {
+                out.writeByte(TYPE_STRING);
+                writeString(out, value.toString());
+            }
+        }
+
+        /**
+         * Writes END and flushes; the caller closes the underlying stream.
+         */
+        public void finish() throws IOException
+        {
+            out.writeByte(END);
+            out.flush();
+        }
+    }
+}
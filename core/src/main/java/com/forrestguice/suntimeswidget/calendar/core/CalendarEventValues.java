@@ -0,0 +1,116 @@
+/**
+    Copyright (C) 2023 Forrest Guice
+    This file is part of SuntimesCalendars.
+
+    SuntimesCalendars is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    SuntimesCalendars is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with SuntimesCalendars.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.forrestguice.suntimeswidget.calendar.core;
+
+/**
+ * CalendarEventValues
+ * Parsing and formatting for a calendar's event flags (boolean[]) and event strings (String[]); values are stored
+ * as a single string delimited by DELIMITER.
+ */
+public class CalendarEventValues
+{
+    public static final String DELIMITER = "|";
+
+    /**
+     * @param s delimited values (may be null)
+     * @param count expected number of values
+     * @return the values, or null if s is null or doesn't contain exactly count values
+     */
+    public static String[] split(String s, int count)
+    {
+        if (s != null)
+        {
+            String[] v = s.split("\\" + DELIMITER);
+            return (v.length == count) ? v : null;
+        } else return null;
+    }
+
+    public static String join(String[] values)
+    {
+        StringBuilder s = new StringBuilder();
+        for (int i=0; i<values.length; i++)
+        {
+            if (i > 0) {
+                s.append(DELIMITER);
+            }
+            s.append(values[i]);
+        }
+        return s.toString();
+    }
+
+    public static String join(boolean[] values)
+    {
+        StringBuilder s = new StringBuilder();
+        for (int i=0; i<values.length; i++)
+        {
+            if (i > 0) {
+                s.append(DELIMITER);
+            }
+            s.append(values[i]);
+        }
+        return s.toString();
+    }
+
+    public static boolean[] parseFlags(String... data)
+    {
+        boolean[] v = new boolean[data.length];
+        for (int i=0; i<data.length; i++) {
+            v[i] = Boolean.parseBoolean(data[i]);
+        }
+        return v;
+    }
+
+    /**
+     * @return the arrays concatenated into a single array
+     */
+    public static boolean[] concat(boolean[]... data)
+    {
+        int size = 0;
+        for (boolean[] d : data) {
+            size += d.length;
+        }
+        boolean[] values = new boolean[size];
+        int c = 0;
+        for (boolean[] d : data)
+        {
+            System.arraycopy(d, 0, values, c, d.length);
+            c += d.length;
+        }
+        return values;
+    }
+
+    /**
+     * @return the arrays concatenated into a single array
+     */
+    public static String[] concat(String[]... data)
+    {
+        int size = 0;
+        for (String[] d : data) {
+            size += d.length;
+        }
+        String[] values = new String[size];
+        int c = 0;
+        for (String[] d : data)
+        {
+            System.arraycopy(d, 0, values, c, d.length);
+            c += d.length;
+        }
+        return values;
+    }
+}
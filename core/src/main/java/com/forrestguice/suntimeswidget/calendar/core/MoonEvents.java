@@ -0,0 +1,77 @@
+/**
+    Copyright (C) 2018-2023 Forrest Guice
+    This file is part of SuntimesCalendars.
+
+    SuntimesCalendars is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    SuntimesCalendars is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with SuntimesCalendars.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.forrestguice.suntimeswidget.calendar.core;
+
+/**
+ * MoonEvents
+ * Rules shared by the moon phase and lunar apsis calendars.
+ */
+public class MoonEvents
+{
+    public static final double THRESHHOLD_SUPERMOON = 360000;    // km
+    public static final double THRESHHOLD_MICROMOON = 405000;    // km
+
+    public static final double ANOMALISTIC_MONTH = 27.554551;    // days; perigee to perigee
+    public static final long APSIS_STEP = 60 * 1000;              // ms; the next apsis query starts just after the last apogee
+
+    /**
+     * @param i phase index (0 new moon, 1 first quarter, 2 full moon, 3 third quarter)
+     * @param distance distance at that phase (km), or <= 0 if unknown
+     * @param strings [new, first, full, third, super new, super full, micro new, micro full]
+     * @return the phase's display string; a new or full moon closer than THRESHHOLD_SUPERMOON (or farther than
+     * THRESHHOLD_MICROMOON) uses its supermoon (or micromoon) string instead
+     */
+    public static String phaseString(int i, double distance, String[] strings)
+    {
+        if ((i == 0 || i == 2) && distance > 0)  // new moon || full moon
+        {
+            if (distance < THRESHHOLD_SUPERMOON) {
+                return strings[4 + Math.max(0, i-1)];
+            } else if (distance > THRESHHOLD_MICROMOON) {
+                return strings[6 + Math.max(0, i-1)];
+            }
+        }
+        return strings[i];
+    }
+
+    /**
+     * @param window [start, end] (millis)
+     * @return the expected number of apsis rows (apogee, perigee) within the window (overestimated by 25%)
+     */
+    public static int estimateApsisCount(long[] window) {
+        return (int)Math.ceil(1.25 * (((window[1] - window[0]) / 1000d / 60d / 60d / 24d) / ANOMALISTIC_MONTH));
+    }
+
+    /**
+     * @param columnCount number of columns
+     * @param apogee apogee (millis)
+     * @return false if the row can't be an apsis row (the provider predates moonApsis; provider v2:0.3.0)
+     */
+    public static boolean isApsisRow(int columnCount, long apogee) {
+        return (columnCount >= 2 && apogee > 0);
+    }
+
+    /**
+     * @param apogee apogee (millis)
+     * @return the time to query for the next cycle
+     */
+    public static long nextApsisQuery(long apogee) {
+        return apogee + APSIS_STEP;
+    }
+}
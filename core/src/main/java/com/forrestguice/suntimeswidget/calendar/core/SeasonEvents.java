@@ -0,0 +1,66 @@
+/**
+    Copyright (C) 2018-2023 Forrest Guice
+    This file is part of SuntimesCalendars.
+
+    SuntimesCalendars is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    SuntimesCalendars is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with SuntimesCalendars.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.forrestguice.suntimeswidget.calendar.core;
+
+import java.util.Calendar;
+
+/**
+ * SeasonEvents
+ * Rules for the solstice/equinox calendar; columns are ordered [spring, cross-spring, summer, cross-summer, autumn,
+ * cross-autumn, winter, cross-winter].
+ */
+public class SeasonEvents
+{
+    public static final int LEGACY_VERSION_CODE = 5;    // provider v0.5.0 (5)
+
+    /**
+     * necessary because v0.5.0 (5) and earlier mistakenly swaps the cross-quarter values.
+     * @param providerVersionCode provider version int
+     * @param i legacy index
+     * @return remapped index
+     */
+    public static int toLegacyColumn(int i, int providerVersionCode)
+    {
+        if (providerVersionCode <= LEGACY_VERSION_CODE)
+        {
+            switch (i)
+            {
+                case 1: return 3;    // cross-spring <- cross-summer
+                case 3: return 5;    // cross-summer <- cross-fall
+                case 5: return 7;    // cross-autumn <- cross-winter
+                case 7: return 1;    // cross-winter <- cross-spring
+                case 0: case 2: case 4: case 6: default: return i;   // unchanged: spring, summer, autumn, winter, others
+            }
+        } else
+            return i;
+    }
+
+    /**
+     * @param window [start, end] (millis)
+     * @return [startYear, endYear] (local time)
+     */
+    public static int[] yearRange(long[] window)
+    {
+        Calendar date = Calendar.getInstance();
+        date.setTimeInMillis(window[0]);
+        int startYear = date.get(Calendar.YEAR);
+        date.setTimeInMillis(window[1]);
+        return new int[] { startYear, date.get(Calendar.YEAR) };
+    }
+}
@@ -0,0 +1,95 @@
+/**
+    Copyright (C) 2020 Forrest Guice
+    This file is part of SuntimesCalendars.
+
+    SuntimesCalendars is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    SuntimesCalendars is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with SuntimesCalendars.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.forrestguice.suntimeswidget.calendar.core;
+
+/**
+ * SunEventRun
+ * At high latitudes the edge cases (polar twilight, white nights) repeat for weeks at a time; consecutive days
+ * are accumulated by a run and then written as a single multi-day event.
+ */
+public class SunEventRun
+{
+    protected int row0 = -1, row1 = -1;
+    protected long start, end;
+    protected String desc;
+    protected final int kind;
+
+    public SunEventRun() {
+        this(0);
+    }
+
+    /**
+     * @param kind event kind (e.g. 0 rising, 2 setting)
+     */
+    public SunEventRun(int kind) {
+        this.kind = kind;
+    }
+
+    public int getKind() {
+        return kind;
+    }
+
+    /**
+     * @param row row index
+     * @param span [start, end]
+     * @param desc event description
+     * @return true if the span was added to the run, false if it doesn't continue the run (the run is unchanged)
+     */
+    public boolean append(int row, long[] span, String desc)
+    {
+        if (isEmpty())
+        {
+            row0 = row1 = row;
+            start = span[0];
+            end = span[1];
+            this.desc = desc;
+            return true;
+
+        } else if (row == row1 + 1 && (desc == null ? this.desc == null : desc.equals(this.desc))) {
+            row1 = row;
+            end = span[1];
+            return true;
+
+        } else return false;
+    }
+
+    public boolean isEmpty() {
+        return (row0 < 0);
+    }
+
+    public void clear() {
+        row0 = row1 = -1;
+    }
+
+    public int getDays() {
+        return (isEmpty() ? 0 : (row1 - row0) + 1);
+    }
+
+    public long getStart() {
+        return start;
+    }
+
+    public long getEnd() {
+        return end;
+    }
+
+    public String getDesc() {
+        return desc;
+    }
+}
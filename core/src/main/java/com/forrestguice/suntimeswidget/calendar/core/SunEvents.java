@@ -0,0 +1,157 @@
+/**
+    Copyright (C) 2020 Forrest Guice
+    This file is part of SuntimesCalendars.
+
+    SuntimesCalendars is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    SuntimesCalendars is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with SuntimesCalendars.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.forrestguice.suntimeswidget.calendar.core;
+
+/**
+ * SunEvents
+ * Turns rows of [rise-start, rise-end, set-start, set-end] into twilight events (e.g. civil twilight, polar twilight,
+ * white nights).
+ */
+public class SunEvents
+{
+    public static final int SUN_EVENT_NONE = 0;        // no event
+    public static final int SUN_EVENT_AVG = 1;         // avg case (e.g. ending in sunrise, starting at sunset)
+    public static final int SUN_EVENT_EDGE = 2;        // edge case (e.g. polar twilight, white night)
+    public static final int SUN_EVENT_FALLBACK = 3;    // fallback (start-only)
+
+    /**
+     * EventSink
+     */
+    public interface EventSink
+    {
+        /**
+         * @param kind event kind (e.g. 0 rising, 2 setting)
+         * @param start event start (millis)
+         * @param end event end (millis)
+         * @param desc event description
+         */
+        void onEvent(int kind, long start, long end, String desc);
+
+        /**
+         * A start-only event.
+         */
+        void onEvent(int kind, long start, String desc);
+    }
+
+    /**
+     * Finds the span of a rising or setting event. Edge cases read the opposite side's columns, so all four columns are
+     * queried whichever flags are enabled.
+     * @param rows columns [rise-start, rise-end, set-start, set-end]
+     * @param row row index
+     * @param i index into columns (expects i = 0 (rising), or i = 2 (setting))
+     * @param span [start, end] (out); assigned unless SUN_EVENT_NONE is returned (start == end for SUN_EVENT_FALLBACK)
+     * @return SUN_EVENT_NONE, SUN_EVENT_AVG, SUN_EVENT_EDGE, or SUN_EVENT_FALLBACK
+     */
+    public static int findSpan(TimeTable rows, int row, int i, long[] span)
+    {
+        int j = i + 1;             // [rise-start, rise-end, set-start, set-end]
+        int k = (i == 0) ? 2 : 0;  // rising [i, j, k, l] .. setting [k, l, i, j]
+        int l = k + 1;
+
+        if (rows.isNull(row, i)) {
+            return SUN_EVENT_NONE;                         // end-only events are ignored
+        }
+        span[0] = rows.getLong(row, i);
+
+        if (!rows.isNull(row, j))                          // avg case [i, j]
+        {
+            span[1] = rows.getLong(row, j);
+            return SUN_EVENT_AVG;
+
+        } else if (i == 0) {
+            if (!rows.isNull(row, l))                      // edge [i, l] of [i, j, k, l]
+            {
+                span[1] = rows.getLong(row, l);
+                return SUN_EVENT_EDGE;
+            } else return SUN_EVENT_NONE;
+
+        } else if (row + 1 < rows.getCount()) {            // look ahead
+            if (!rows.isNull(row + 1, l))                  // edge [i, +l] of [+k, +l, i, j]
+            {
+                span[1] = rows.getLong(row + 1, l);
+                return SUN_EVENT_EDGE;
+
+            } else {                                       // fallback (start-only)
+                span[1] = span[0];
+                return SUN_EVENT_FALLBACK;
+            }
+        } else return SUN_EVENT_NONE;
+    }
+
+    /**
+     * @param rows columns [rise-start, rise-end, set-start, set-end]
+     * @param row row index
+     * @param i index into columns (expects i = 0 (rising), or i = 2 (setting))
+     * @param desc0 avg case description (e.g. ending in sunrise, starting at sunset)
+     * @param desc1 edge case description (e.g. polar twilight)
+     * @param desc_fallback fallback description (start-only events)
+     * @param run consecutive edge case events are merged into this run (or null to create an event for each day)
+     * @param sink receives the events
+     */
+    public static void createEvent(TimeTable rows, int row, int i, String desc0, String desc1, String desc_fallback, SunEventRun run, EventSink sink)
+    {
+        long[] span = new long[2];
+        int eventType = findSpan(rows, row, i, span);
+        if (run != null)
+        {
+            if (eventType == SUN_EVENT_EDGE)
+            {
+                if (!run.append(row, span, desc1))
+                {
+                    flushEvents(sink, run);
+                    run.append(row, span, desc1);
+                }
+                return;
+            } else {
+                flushEvents(sink, run);
+            }
+        }
+
+        switch (eventType)
+        {
+            case SUN_EVENT_AVG:
+            case SUN_EVENT_EDGE:
+                sink.onEvent(i, span[0], span[1], (eventType == SUN_EVENT_AVG ? desc0 : desc1));
+                break;
+
+            case SUN_EVENT_FALLBACK:
+                sink.onEvent(i, span[0], desc_fallback);
+                break;
+
+            case SUN_EVENT_NONE:
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Creates an event for each (non-empty) run, then clears the runs.
+     */
+    public static void flushEvents(EventSink sink, SunEventRun... runs)
+    {
+        for (SunEventRun run : runs)
+        {
+            if (run != null && !run.isEmpty())
+            {
+                sink.onEvent(run.getKind(), run.getStart(), run.getEnd(), run.getDesc());
+                run.clear();
+            }
+        }
+    }
+}
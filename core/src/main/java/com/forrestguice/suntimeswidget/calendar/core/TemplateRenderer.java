@@ -0,0 +1,105 @@
+/**
+    Copyright (C) 2023 Forrest Guice
+    This file is part of SuntimesCalendars.
+
+    SuntimesCalendars is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    SuntimesCalendars is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with SuntimesCalendars.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.forrestguice.suntimeswidget.calendar.core;
+
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * TemplateRenderer
+ * Replaces the substitution patterns (%cal, %loc, %M, ...) of an event template with values.
+ */
+public class TemplateRenderer
+{
+    public static final String PATTERN_CAL = "%cal";
+    public static final String PATTERN_SUMMARY = "%summary";
+    public static final String PATTERN_COLOR = "%color";
+    public static final String PATTERN_LOC = "%loc";
+    public static final String PATTERN_LAT = "%lat";
+    public static final String PATTERN_LON = "%lon";
+    public static final String PATTERN_LEL = "%lel";
+    public static final String PATTERN_EVENT = "%M";
+    public static final String PATTERN_DIST = "%dist";
+    public static final String PATTERN_ILLUM = "%i";
+    public static final String PATTERN_PERCENT = "%%";
+
+    /**
+     * Patterns in the order they are replaced.
+     */
+    public static final String[] PATTERNS = new String[] {
+            PATTERN_CAL, PATTERN_SUMMARY, PATTERN_COLOR, PATTERN_LOC, PATTERN_LAT, PATTERN_LON, PATTERN_LEL,
+            PATTERN_EVENT, PATTERN_DIST, PATTERN_ILLUM, PATTERN_PERCENT
+    };
+    private static final Pattern[] COMPILED = new Pattern[PATTERNS.length];
+    static {
+        for (int i=0; i<PATTERNS.length; i++) {
+            COMPILED[i] = Pattern.compile(PATTERNS[i], Pattern.LITERAL);
+        }
+    }
+
+    /**
+     * Values
+     */
+    public interface Values
+    {
+        /**
+         * @param pattern substitution pattern (e.g. %loc)
+         * @return the pattern's value, or null (replaced with "")
+         */
+        String get(String pattern);
+    }
+
+    /**
+     * @param template template string (may be null)
+     * @param values pattern values
+     * @return template with all patterns replaced (or null if template is null)
+     */
+    public static String render(String template, Values values)
+    {
+        if (template == null || template.indexOf('%') < 0) {
+            return template;
+        }
+
+        String displayString = template;
+        for (int i=0; i<PATTERNS.length; i++)
+        {
+            String v = values.get(PATTERNS[i]);
+            displayString = COMPILED[i].matcher(displayString).replaceAll(Matcher.quoteReplacement((v != null) ? v : ""));
+        }
+        return displayString;
+    }
+
+    /**
+     * @param map pattern values keyed by pattern
+     * @return Values backed by the map
+     */
+    public static Values values(final Map<String, ?> map)
+    {
+        return new Values()
+        {
+            @Override
+            public String get(String pattern)
+            {
+                Object v = map.get(pattern);
+                return (v != null) ? v.toString() : null;
+            }
+        };
+    }
+}
@@ -0,0 +1,80 @@
+/**
+    Copyright (C) 2020 Forrest Guice
+    This file is part of SuntimesCalendars.
+
+    SuntimesCalendars is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    SuntimesCalendars is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with SuntimesCalendars.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.forrestguice.suntimeswidget.calendar.core;
+
+/**
+ * TimeTable
+ * Rows of timestamps stored as primitive arrays (a long[] per column) with a bitmap of null values.
+ */
+public class TimeTable
+{
+    protected final int numRows, numColumns;
+    protected final long[][] values;    // [column][row]
+    protected final long[] nulls;       // bit (row * numColumns + column) is set when the value is null
+
+    public TimeTable(int numColumns, int numRows)
+    {
+        this.numColumns = numColumns;
+        this.numRows = numRows;
+        this.values = new long[numColumns][numRows];
+        this.nulls = new long[((numColumns * numRows) + 63) / 64];
+    }
+
+    public int getCount() {
+        return numRows;
+    }
+
+    public int getColumnCount() {
+        return numColumns;
+    }
+
+    /**
+     * @return true if the value is null, or if row/column is out of range
+     */
+    public boolean isNull(int row, int column)
+    {
+        if (row < 0 || row >= numRows || column < 0 || column >= numColumns) {
+            return true;
+        }
+        int bit = (row * numColumns) + column;
+        return (nulls[bit >> 6] & (1L << (bit & 63))) != 0;
+    }
+
+    public long getLong(int row, int column) {
+        return values[column][row];
+    }
+
+    public void set(int row, int column, Long value)
+    {
+        if (value == null) {
+            setNull(row, column);
+        } else {
+            int bit = (row * numColumns) + column;
+            nulls[bit >> 6] &= ~(1L << (bit & 63));
+            values[column][row] = value;
+        }
+    }
+
+    protected void setNull(int row, int column)
+    {
+        int bit = (row * numColumns) + column;
+        nulls[bit >> 6] |= (1L << (bit & 63));
+        values[column][row] = 0;
+    }
+}
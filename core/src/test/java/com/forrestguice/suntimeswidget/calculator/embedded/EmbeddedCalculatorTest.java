@@ -0,0 +1,235 @@
+/**
+    Copyright (C) 2023 Forrest Guice
+    This file is part of SuntimesCalendars.
+
+    SuntimesCalendars is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    SuntimesCalendars is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with SuntimesCalendars.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.forrestguice.suntimeswidget.calculator.embedded;
+
+import com.forrestguice.suntimeswidget.calculator.core.CalculatorProviderContract;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.List;
+import java.util.TimeZone;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Reference values are the worked examples in Meeus, "Astronomical Algorithms" (2nd ed.), and the 2024 equinox/solstice and
+ * moon phase times published by the US Naval Observatory (rounded to the minute). Fixtures (test resources) are query results in the
+ * provider's layout (see CalculatorResults.Fixture).
+ */
+public class EmbeddedCalculatorTest
+{
+    private static final long MINUTE = 60 * 1000L;
+
+    private static long utc(int year, int month, int day, int hour, int minute)
+    {
+        Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+        calendar.clear();
+        calendar.set(year, month - 1, day, hour, minute);
+        return calendar.getTimeInMillis();
+    }
+
+    private static void assertNear(long expected, long actual, long tolerance) {
+        assertTrue("expected " + expected + " +/- " + tolerance + " but was " + actual + " (" + (actual - expected) + ")", Math.abs(actual - expected) <= tolerance);
+    }
+
+    @Test
+    public void test_meeus_examples()
+    {
+        assertEquals(2443192.65118, LunarCalculator.phase(-283, LunarCalculator.PHASE_NEW), 0.00001);       // 49.a; new moon 1977 Feb
+        assertEquals(2467636.49186, LunarCalculator.phase(544, LunarCalculator.PHASE_THIRD), 0.00001);     // 49.b; last quarter 2044 Jan
+        assertEquals(2437837.39245, SeasonCalculator.season(1962, SeasonCalculator.SUMMER), 0.00001);     // 27.a; june solstice 1962
+
+        double t = AstroMath.julianCentury(2448908.5);    // 25.a; 1992 Oct 13.0 TD
+        assertEquals(199.90895, SolarCalculator.apparentLongitude(t), 0.0002);
+        assertEquals(-7.78507, SolarCalculator.declination(t), 0.0002);
+
+        double[] moon = LunarCalculator.position(2448724.5);    // 47.a; 1992 Apr 12.0 TD (truncated series)
+        assertEquals(133.162655, moon[0], 0.01);
+        assertEquals(-3.229126, moon[1], 0.01);
+        assertEquals(368409.7, moon[2], 100);
+    }
+
+    @Test
+    public void test_seasons_2024()
+    {
+        EmbeddedCalculator calculator = new EmbeddedCalculator(33.45, -111.94, TimeZone.getTimeZone("US/Arizona"));
+        String[] projection = new String[] { CalculatorProviderContract.COLUMN_SEASON_SPRING, CalculatorProviderContract.COLUMN_SEASON_SUMMER,
+                CalculatorProviderContract.COLUMN_SEASON_AUTUMN, CalculatorProviderContract.COLUMN_SEASON_WINTER, CalculatorProviderContract.COLUMN_SEASON_YEAR };
+        List<Object[]> rows = calculator.query(CalculatorProviderContract.QUERY_SEASONS, new long[] {2024, 2024}, projection);
+        assertEquals(1, rows.size());
+
+        Object[] row = rows.get(0);
+        assertNear(utc(2024, 3, 20, 3, 6), (Long) row[0], 2 * MINUTE);
+        assertNear(utc(2024, 6, 20, 20, 51), (Long) row[1], 2 * MINUTE);
+        assertNear(utc(2024, 9, 22, 12, 44), (Long) row[2], 2 * MINUTE);
+        assertNear(utc(2024, 12, 21, 9, 21), (Long) row[3], 2 * MINUTE);
+        assertEquals(2024, row[4]);
+    }
+
+    @Test
+    public void test_moonPhases_2024()
+    {
+        EmbeddedCalculator calculator = new EmbeddedCalculator(33.45, -111.94, TimeZone.getTimeZone("US/Arizona"));
+        long start = utc(2024, 1, 1, 0, 0);
+        List<Object[]> rows = calculator.query(CalculatorProviderContract.QUERY_MOONPHASE, new long[] {start, start}, null);
+        assertEquals(1, rows.size());
+
+        Object[] row = rows.get(0);    // next phases after 2024 Jan 1
+        assertNear(utc(2024, 1, 11, 11, 57), (Long) row[0], 2 * MINUTE);
+        assertNear(utc(2024, 1, 18, 3, 52), (Long) row[1], 2 * MINUTE);
+        assertNear(utc(2024, 1, 25, 17, 54), (Long) row[2], 2 * MINUTE);
+        assertNear(utc(2024, 1, 4, 3, 30), (Long) row[3], 2 * MINUTE);
+
+        rows = calculator.query(CalculatorProviderContract.QUERY_MOONPHASE, new long[] {start, utc(2025, 1, 1, 0, 0)}, null);
+        assertTrue(rows.size() >= 12 && rows.size() <= 14);
+        for (int i=0; i<4; i++)
+        {
+            long previous = start;    // no phases before the start of the range; each phase once per lunation
+            for (int j=0; j<rows.size(); j++)
+            {
+                long phase = (Long) rows.get(j)[i];
+                assertTrue(phase > start);
+                if (j > 0) {
+                    assertNear(previous + (long)(29.53 * 24 * 60 * MINUTE), phase, 16 * 60 * MINUTE);
+                }
+                previous = phase;
+            }
+        }
+    }
+
+    @Test
+    public void test_compare()
+    {
+        String[] columns = new String[] { "a", "b", "c" };
+        List<Object[]> rows0 = Arrays.asList(new Object[] { 1000L, 1.0, "x" }, new Object[] { 2000L, 2.0, "y" });
+        assertEquals(0, CalculatorResults.compare(columns, rows0, columns, rows0, 0));
+
+        List<Object[]> rows1 = Arrays.asList(new Object[] { 2050L, 2.001, "y" }, new Object[] { 950L, 0.9999, "x" });    // rows in a different order
+        assertEquals(0, CalculatorResults.compare(columns, rows0, columns, rows1, 100));
+        assertEquals(4, CalculatorResults.compare(columns, rows0, columns, rows1, 10));    // 1000 and 2000 (and 950 and 2050) have no counterpart
+
+        List<Object[]> polar = Arrays.asList(new Object[] { 1000L, 1.0, "x" }, new Object[] { null, 2.0, "y" });
+        assertEquals(1, CalculatorResults.compare(columns, polar, columns, rows0, 0));    // provider has a value, embedded doesn't
+        assertEquals(1, CalculatorResults.compare(columns, rows0, columns, polar, 0));
+
+        List<Object[]> extra = Arrays.asList(new Object[] { 1000L, 1.0, "x" }, new Object[] { 2000L, 2.0, "y" }, new Object[] { 90000L, 3.0, "z" });
+        assertEquals(3, CalculatorResults.compare(columns, extra, columns, rows0, 0));    // values outside the provider's span are compared too
+
+        List<Object[]> decimals = Arrays.asList(new Object[] { 1000L, 1.1, "x" }, new Object[] { 2000L, 2.0, "w" });
+        assertEquals(4, CalculatorResults.compare(columns, decimals, columns, rows0, 0));    // 1.1 vs 1.0, w vs y (both ways)
+
+        String[] other = new String[] { "c", "d", "a" };    // columns are matched by name
+        List<Object[]> rows2 = Arrays.asList(new Object[] { "x", 5L, 1000 }, new Object[] { "y", 6L, 2000 });
+        assertEquals(0, CalculatorResults.compare(columns, rows0, other, rows2, 0));
+    }
+
+    public static final String[] FIXTURES = new String[] { "moonphases_2024.txt", "seasons_2024.txt" };
+
+    @Test
+    public void test_fixtures() throws IOException
+    {
+        for (String name : FIXTURES)
+        {
+            InputStream in = getClass().getResourceAsStream(name);
+            assertNotNull("missing fixture " + name, in);
+            CalculatorResults.Fixture fixture = CalculatorResults.Fixture.read(new InputStreamReader(in, "UTF-8"));
+            in.close();
+
+            EmbeddedCalculator calculator = new EmbeddedCalculator(fixture.latitude, fixture.longitude, fixture.timezone);
+            List<Object[]> rows = calculator.query(fixture.query, fixture.range, fixture.columns);
+            assertEquals(name, fixture.rows.size(), rows.size());
+            assertEquals(name, 0, CalculatorResults.compare(fixture.columns, rows, fixture.columns, fixture.rows, 2 * MINUTE));
+
+            CalculatorResults.Fixture copy = CalculatorResults.Fixture.read(new StringReader(fixture.write()));
+            assertEquals(name, 0, CalculatorResults.compare(fixture.columns, copy.rows, fixture.columns, fixture.rows, 0));
+        }
+    }
+
+    @Test
+    public void test_sun()
+    {
+        TimeZone timezone = TimeZone.getTimeZone("US/Arizona");
+        EmbeddedCalculator calculator = new EmbeddedCalculator(33.45, -111.94, timezone);
+        long start = utc(2024, 3, 1, 12, 0);
+        List<Object[]> rows = calculator.query(CalculatorProviderContract.QUERY_SUN, new long[] {start, start + 30L * 24 * 60 * MINUTE}, null);
+        assertEquals(31, rows.size());
+
+        for (Object[] row : rows)
+        {
+            long astroRise = (Long) row[6], nauticalRise = (Long) row[4], civilRise = (Long) row[2], rise = (Long) row[0];
+            long noon = (Long) row[8], set = (Long) row[1], civilSet = (Long) row[3], nauticalSet = (Long) row[5], astroSet = (Long) row[7];
+            assertTrue(astroRise < nauticalRise && nauticalRise < civilRise && civilRise < rise && rise < noon);
+            assertTrue(noon < set && set < civilSet && civilSet < nauticalSet && nauticalSet < astroSet);
+            assertNear(noon, (rise + set) / 2, 2 * MINUTE);
+            assertSunAltitude(SolarCalculator.ALTITUDE_ACTUAL, 33.45, -111.94, rise);
+            assertSunAltitude(SolarCalculator.ALTITUDE_CIVIL, 33.45, -111.94, civilSet);
+        }
+
+        List<Object[]> polar = new EmbeddedCalculator(78.22, 15.65, TimeZone.getTimeZone("UTC"))
+                .query(CalculatorProviderContract.QUERY_SUN, new long[] {utc(2024, 6, 21, 12, 0), utc(2024, 6, 21, 12, 0)}, null);
+        assertNull(polar.get(0)[0]);    // midnight sun
+        assertNull(polar.get(0)[1]);
+        assertNotNull(polar.get(0)[8]);
+    }
+
+    private static void assertSunAltitude(double expected, double latitude, double longitude, long millis)
+    {
+        double jd = AstroMath.toJulianDay(millis);
+        double t = AstroMath.julianCentury(jd);
+        double lambda = SolarCalculator.apparentLongitude(t);
+        double epsilon = SolarCalculator.correctedObliquity(t);
+        double ra = Math.toDegrees(Math.atan2(AstroMath.cos(epsilon) * AstroMath.sin(lambda), AstroMath.cos(lambda)));
+        double altitude = AstroMath.altitude(jd, latitude, longitude, ra, SolarCalculator.declination(t));
+        assertEquals(expected, altitude, 0.1);
+    }
+
+    @Test
+    public void test_moon()
+    {
+        TimeZone timezone = TimeZone.getTimeZone("US/Arizona");
+        LunarCalculator moon = new LunarCalculator(33.45, -111.94);
+        EmbeddedCalculator calculator = new EmbeddedCalculator(33.45, -111.94, timezone);
+        long start = utc(2024, 1, 1, 12, 0);
+        List<Object[]> rows = calculator.query(CalculatorProviderContract.QUERY_MOON, new long[] {start, start + 29L * 24 * 60 * MINUTE}, null);
+        assertEquals(30, rows.size());
+
+        int rises = 0, sets = 0;
+        for (Object[] row : rows)
+        {
+            if (row[0] != null) {
+                assertEquals(0, moon.riseSetAltitude((Long) row[0]), 0.05);
+                rises++;
+            }
+            if (row[1] != null) {
+                assertEquals(0, moon.riseSetAltitude((Long) row[1]), 0.05);
+                sets++;
+            }
+        }
+        assertTrue(rises >= 28 && sets >= 28);    // the moon skips about one rise (and set) each month
+    }
+}
@@ -0,0 +1,206 @@
+/**
+    Copyright (C) 2023 Forrest Guice
+    This file is part of SuntimesCalendars.
+
+    SuntimesCalendars is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    SuntimesCalendars is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with SuntimesCalendars.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.forrestguice.suntimeswidget.calendar.core;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+
+public class CalendarContentStreamTest
+{
+    private static final String[] COLUMNS = new String[] { "title", "description", "dtstart", "dtend", "altitude" };
+
+    public static class Rows implements CalendarContentStream.RowReader
+    {
+        public final ArrayList<Object[]> rows = new ArrayList<>();
+        public int limit = Integer.MAX_VALUE;
+
+        @Override
+        public boolean onRow(String[] columns, Object[] values)
+        {
+            assertEquals(Arrays.asList(COLUMNS), Arrays.asList(columns));
+            rows.add(values);
+            return rows.size() < limit;
+        }
+    }
+
+    public static byte[] writeRows(Object[]... rows) throws IOException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        CalendarContentStream.Writer writer = new CalendarContentStream.Writer(out, COLUMNS);
+        for (Object[] row : rows) {
+            writer.writeRow(row);
+        }
+        writer.finish();
+        return out.toByteArray();
+    }
+
+    public static String longString(int length)
+    {
+        StringBuilder s = new StringBuilder();
+        while (s.length() < length) {
+            s.append("\u00e9v\u00e9nement \u263e ");    // multi-byte characters
+        }
+        return s.toString();
+    }
+
+    @Test
+    public void test_roundTrip() throws IOException
+    {
+        String desc = longString(100 * 1024);    // larger than writeUTF allows (64KB)
+        byte[] bytes = writeRows(new Object[] { "Sunrise", desc, 1000L, 2000L, 1.5 },
+                                 new Object[] { "Sunset", null, 3000, (short) 4000, 2.5f },
+                                 new Object[] { "", "", Long.MIN_VALUE, Long.MAX_VALUE, true });
+
+        Rows reader = new Rows();
+        assertEquals(3, CalendarContentStream.read(new ByteArrayInputStream(bytes), reader));
+        assertEquals(3, reader.rows.size());
+
+        Object[] row = reader.rows.get(0);
+        assertEquals("Sunrise", row[0]);
+        assertEquals(desc, row[1]);
+        assertEquals(1000L, row[2]);
+        assertEquals(2000L, row[3]);
+        assertEquals(1.5, row[4]);
+
+        row = reader.rows.get(1);
+        assertEquals("Sunset", row[0]);
+        assertNull(row[1]);
+        assertEquals(3000L, row[2]);    // ints and shorts are widened to long
+        assertEquals(4000L, row[3]);
+        assertEquals(2.5, row[4]);
+
+        row = reader.rows.get(2);
+        assertEquals("", row[0]);
+        assertEquals("", row[1]);
+        assertEquals(Long.MIN_VALUE, row[2]);
+        assertEquals(Long.MAX_VALUE, row[3]);
+        assertEquals(1L, row[4]);    // booleans are written as 0 or 1
+    }
+
+    @Test
+    public void test_roundTrip_map() throws IOException
+    {
+        HashMap<String, Object> values = new HashMap<>();
+        values.put("title", "Full Moon");
+        values.put("dtstart", 5000L);
+        values.put("unused", "ignored");
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        CalendarContentStream.Writer writer = new CalendarContentStream.Writer(out, COLUMNS);
+        writer.writeRow(values);
+        writer.writeRow("short row");    // missing values are written as null
+        writer.finish();
+
+        Rows reader = new Rows();
+        assertEquals(2, CalendarContentStream.read(new ByteArrayInputStream(out.toByteArray()), reader));
+        assertEquals(Arrays.asList("Full Moon", null, 5000L, null, null), Arrays.asList(reader.rows.get(0)));
+        assertEquals(Arrays.asList("short row", null, null, null, null), Arrays.asList(reader.rows.get(1)));
+    }
+
+    @Test
+    public void test_empty() throws IOException
+    {
+        Rows reader = new Rows();
+        assertEquals(0, CalendarContentStream.read(new ByteArrayInputStream(writeRows()), reader));
+        assertTrue(reader.rows.isEmpty());
+    }
+
+    @Test
+    public void test_readerStops() throws IOException
+    {
+        byte[] bytes = writeRows(new Object[] { "a" }, new Object[] { "b" }, new Object[] { "c" });
+        Rows reader = new Rows();
+        reader.limit = 2;
+        assertEquals(2, CalendarContentStream.read(new ByteArrayInputStream(bytes), reader));
+        assertEquals(2, reader.rows.size());
+    }
+
+    @Test
+    public void test_truncated() throws IOException
+    {
+        byte[] bytes = writeRows(new Object[] { "Sunrise", longString(1000), 1000L, 2000L, 1.5 });
+        for (int length : new int[] { 0, 3, bytes.length / 2, bytes.length - 1 })
+        {
+            try {
+                CalendarContentStream.read(new ByteArrayInputStream(Arrays.copyOf(bytes, length)), new Rows());
+                fail("expected IOException (truncated at " + length + " of " + bytes.length + ")");
+            } catch (IOException e) { /* EXPECTED */ }
+        }
+    }
+
+    @Test
+    public void test_malformed() throws IOException
+    {
+        byte[] bytes = writeRows(new Object[] { "Sunrise" });
+        byte[] badMagic = Arrays.copyOf(bytes, bytes.length);
+        badMagic[0] = 0;
+        byte[] badVersion = Arrays.copyOf(bytes, bytes.length);
+        badVersion[5] = (byte) (CalendarContentStream.FORMAT_VERSION + 1);
+        byte[] badMarker = Arrays.copyOf(bytes, bytes.length);
+        badMarker[bytes.length - 1] = 7;
+
+        for (byte[] value : new byte[][] { badMagic, badVersion, badMarker })
+        {
+            try {
+                CalendarContentStream.read(new ByteArrayInputStream(value), new Rows());
+                fail("expected IOException");
+            } catch (IOException e) { /* EXPECTED */ }
+        }
+    }
+
+    @Test
+    public void test_formatVersion1() throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);    // format 1; strings written with writeUTF
+        out.writeInt(CalendarContentStream.MAGIC);
+        out.writeShort(1);
+        out.writeShort(COLUMNS.length);
+        for (String column : COLUMNS) {
+            out.writeUTF(column);
+        }
+        out.writeByte(CalendarContentStream.ROW);
+        out.writeByte(CalendarContentStream.TYPE_STRING);
+        out.writeUTF("Moonrise \u263e");
+        out.writeByte(CalendarContentStream.TYPE_NULL);
+        out.writeByte(CalendarContentStream.TYPE_LONG);
+        out.writeLong(1000L);
+        out.writeByte(CalendarContentStream.TYPE_NULL);
+        out.writeByte(CalendarContentStream.TYPE_DOUBLE);
+        out.writeDouble(-0.5);
+        out.writeByte(CalendarContentStream.END);
+        out.flush();
+
+        Rows reader = new Rows();
+        assertEquals(1, CalendarContentStream.read(new ByteArrayInputStream(bytes.toByteArray()), reader));
+        assertEquals(Arrays.asList("Moonrise \u263e", null, 1000L, null, -0.5), Arrays.asList(reader.rows.get(0)));
+    }
+}
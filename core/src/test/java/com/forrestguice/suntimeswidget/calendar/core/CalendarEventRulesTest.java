@@ -0,0 +1,101 @@
+/**
+    Copyright (C) 2023 Forrest Guice
+    This file is part of SuntimesCalendars.
+
+    SuntimesCalendars is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    SuntimesCalendars is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with SuntimesCalendars.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.forrestguice.suntimeswidget.calendar.core;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+
+public class CalendarEventRulesTest
+{
+    private static final String[] PHASES = new String[] { "new", "first", "full", "third", "super new", "super full", "micro new", "micro full" };
+
+    @Test
+    public void test_phaseString()
+    {
+        assertEquals("new", MoonEvents.phaseString(0, 380000, PHASES));
+        assertEquals("super new", MoonEvents.phaseString(0, 357000, PHASES));
+        assertEquals("micro new", MoonEvents.phaseString(0, 406000, PHASES));
+        assertEquals("super full", MoonEvents.phaseString(2, 357000, PHASES));
+        assertEquals("micro full", MoonEvents.phaseString(2, 406000, PHASES));
+        assertEquals("first", MoonEvents.phaseString(1, 357000, PHASES));    // quarters are never super/micro
+        assertEquals("third", MoonEvents.phaseString(3, 406000, PHASES));
+        assertEquals("full", MoonEvents.phaseString(2, -1, PHASES));         // unknown distance
+    }
+
+    @Test
+    public void test_apsis()
+    {
+        long day = 24 * 60 * 60 * 1000L;
+        assertEquals(17, MoonEvents.estimateApsisCount(new long[] {0, 365 * day}));
+        assertTrue(MoonEvents.isApsisRow(2, day));
+        assertTrue(!MoonEvents.isApsisRow(1, day));
+        assertTrue(!MoonEvents.isApsisRow(2, 0));
+        assertEquals(day + 60 * 1000, MoonEvents.nextApsisQuery(day));
+    }
+
+    @Test
+    public void test_toLegacyColumn()
+    {
+        int[] expected = new int[] {0, 3, 2, 5, 4, 7, 6, 1};
+        for (int i=0; i<expected.length; i++)
+        {
+            assertEquals(expected[i], SeasonEvents.toLegacyColumn(i, 5));
+            assertEquals(i, SeasonEvents.toLegacyColumn(i, 6));
+        }
+    }
+
+    @Test
+    public void test_render()
+    {
+        HashMap<String, Object> data = new HashMap<>();
+        data.put(TemplateRenderer.PATTERN_EVENT, "Full Moon");
+        data.put(TemplateRenderer.PATTERN_LOC, "Prime $1 Meridian");    // replacement chars are literal
+        data.put(TemplateRenderer.PATTERN_COLOR, 42);
+        data.put(TemplateRenderer.PATTERN_PERCENT, "%");
+        TemplateRenderer.Values values = TemplateRenderer.values(data);
+
+        assertEquals("Full Moon @ Prime $1 Meridian", TemplateRenderer.render("%M @ %loc", values));
+        assertEquals("42 [] 100%", TemplateRenderer.render("%color [%dist] 100%%", values));
+        assertEquals("no patterns", TemplateRenderer.render("no patterns", values));
+        assertNull(TemplateRenderer.render(null, values));
+    }
+
+    @Test
+    public void test_values()
+    {
+        boolean[] flags = CalendarEventValues.concat(new boolean[] {true, false}, new boolean[] {true});
+        assertEquals("true|false|true", CalendarEventValues.join(flags));
+        String[] parsed = CalendarEventValues.split("true|false|true", 3);
+        assertEquals(3, parsed.length);
+        boolean[] flags1 = CalendarEventValues.parseFlags(parsed);
+        assertTrue(flags1[0] && !flags1[1] && flags1[2]);
+
+        assertNull(CalendarEventValues.split("true|false", 3));    // mismatched count
+        assertNull(CalendarEventValues.split(null, 3));
+
+        String[] strings = CalendarEventValues.concat(new String[] {"a"}, new String[0], new String[] {"b", "c"});
+        assertEquals("a|b|c", CalendarEventValues.join(strings));
+        assertEquals("", CalendarEventValues.join(new boolean[0]));
+    }
+}
@@ -0,0 +1,197 @@
+/**
+    Copyright (C) 2023 Forrest Guice
+    This file is part of SuntimesCalendars.
+
+    SuntimesCalendars is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    SuntimesCalendars is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with SuntimesCalendars.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.forrestguice.suntimeswidget.calendar.core;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+public class SunEventsTest
+{
+    private static final long DAY = 24 * 60 * 60 * 1000L;
+    private static final long HOUR = 60 * 60 * 1000L;
+
+    /**
+     * @param days rows of [rise-start, rise-end, set-start, set-end] (hours past midnight, or null)
+     */
+    public static TimeTable createRows(Long[]... days)
+    {
+        TimeTable rows = new TimeTable(4, days.length);
+        for (int row=0; row<days.length; row++) {
+            for (int column=0; column<4; column++) {
+                rows.set(row, column, (days[row][column] != null ? (row * DAY) + (days[row][column] * HOUR) : null));
+            }
+        }
+        return rows;
+    }
+
+    @Test
+    public void test_timeTable()
+    {
+        TimeTable rows = createRows(new Long[] {5L, null, 17L, 18L}, new Long[] {null, null, null, null});
+        assertEquals(2, rows.getCount());
+        assertEquals(4, rows.getColumnCount());
+        assertTrue(!rows.isNull(0, 0) && rows.isNull(0, 1) && !rows.isNull(0, 2));
+        assertEquals(5 * HOUR, rows.getLong(0, 0));
+        assertEquals(DAY - 6 * HOUR, rows.getLong(0, 3));
+        for (int i=0; i<4; i++) {
+            assertTrue(rows.isNull(1, i));
+        }
+        assertTrue(rows.isNull(2, 0));     // out of range
+        assertTrue(rows.isNull(0, 4));
+
+        rows.set(1, 1, 42L);
+        assertTrue(!rows.isNull(1, 1) && rows.isNull(1, 0) && rows.isNull(1, 2));
+        assertEquals(42L, rows.getLong(1, 1));
+    }
+
+    @Test
+    public void test_findSpan_avg()
+    {
+        TimeTable rows = createRows(new Long[] {5L, 6L, 18L, 19L});
+        long[] span = new long[2];
+        assertEquals(SunEvents.SUN_EVENT_AVG, SunEvents.findSpan(rows, 0, 0, span));
+        assertEquals(5 * HOUR, span[0]);
+        assertEquals(6 * HOUR, span[1]);
+
+        assertEquals(SunEvents.SUN_EVENT_AVG, SunEvents.findSpan(rows, 0, 2, span));
+        assertEquals(18 * HOUR, span[0]);
+        assertEquals(19 * HOUR, span[1]);
+    }
+
+    @Test
+    public void test_findSpan_polarTwilight()
+    {
+        // the sun doesn't rise (polar twilight); rising edge spans [rise-start, set-end]
+        TimeTable rows = createRows(new Long[] {10L, null, null, 14L}, new Long[] {11L, null, null, 13L}, new Long[] {null, null, null, null});
+        long[] span = new long[2];
+        assertEquals(SunEvents.SUN_EVENT_EDGE, SunEvents.findSpan(rows, 0, 0, span));
+        assertEquals(10 * HOUR, span[0]);
+        assertEquals(14 * HOUR, span[1]);
+
+        assertEquals(SunEvents.SUN_EVENT_NONE, SunEvents.findSpan(rows, 0, 2, span));
+        assertEquals(SunEvents.SUN_EVENT_EDGE, SunEvents.findSpan(rows, 1, 0, span));
+        assertEquals(DAY + 11 * HOUR, span[0]);
+        assertEquals(DAY + 13 * HOUR, span[1]);
+
+        assertEquals(SunEvents.SUN_EVENT_NONE, SunEvents.findSpan(rows, 2, 0, span));    // polar night
+        assertEquals(SunEvents.SUN_EVENT_NONE, SunEvents.findSpan(rows, 2, 2, span));
+    }
+
+    @Test
+    public void test_findSpan_whiteNight()
+    {
+        // the sun sets but twilight doesn't end (white night); setting edge spans [set-start, next rise-end]
+        TimeTable rows = createRows(new Long[] {null, 2L, 22L, null}, new Long[] {null, 1L, 23L, null}, new Long[] {null, null, 23L, null});
+        long[] span = new long[2];
+        assertEquals(SunEvents.SUN_EVENT_EDGE, SunEvents.findSpan(rows, 0, 2, span));
+        assertEquals(22 * HOUR, span[0]);
+        assertEquals(DAY + HOUR, span[1]);
+
+        assertEquals(SunEvents.SUN_EVENT_FALLBACK, SunEvents.findSpan(rows, 1, 2, span));    // next day lacks rise-end
+        assertEquals(DAY + 23 * HOUR, span[0]);
+        assertEquals(span[0], span[1]);
+
+        assertEquals(SunEvents.SUN_EVENT_NONE, SunEvents.findSpan(rows, 2, 2, span));        // no next row
+        assertEquals(SunEvents.SUN_EVENT_NONE, SunEvents.findSpan(rows, 0, 0, span));        // end-only
+    }
+
+    @Test
+    public void test_sunEventRun()
+    {
+        // three days of polar twilight, a day of polar night, then two more days of polar twilight
+        TimeTable rows = createRows(new Long[] {10L, null, null, 14L}, new Long[] {11L, null, null, 13L}, new Long[] {11L, null, null, 12L},
+                                      new Long[] {null, null, null, null},
+                                      new Long[] {11L, null, null, 13L}, new Long[] {10L, null, null, 14L}, new Long[] {6L, 9L, 16L, 19L});
+        ArrayList<SunEventRun> merged = new ArrayList<>();
+        SunEventRun run = new SunEventRun();
+        long[] span = new long[2];
+        for (int row=0; row<rows.getCount(); row++)
+        {
+            if (SunEvents.findSpan(rows, row, 0, span) == SunEvents.SUN_EVENT_EDGE)
+            {
+                if (!run.append(row, span, "polar twilight"))
+                {
+                    merged.add(run);
+                    run = new SunEventRun();
+                    assertTrue(run.append(row, span, "polar twilight"));
+                }
+            }
+        }
+        merged.add(run);
+
+        assertEquals(2, merged.size());
+        assertEquals(3, merged.get(0).getDays());
+        assertEquals(10 * HOUR, merged.get(0).getStart());
+        assertEquals(2 * DAY + 12 * HOUR, merged.get(0).getEnd());
+        assertEquals(2, merged.get(1).getDays());
+        assertEquals(4 * DAY + 11 * HOUR, merged.get(1).getStart());
+        assertEquals(5 * DAY + 14 * HOUR, merged.get(1).getEnd());
+
+        SunEventRun run1 = new SunEventRun();
+        assertTrue(run1.isEmpty());
+        assertTrue(run1.append(0, new long[] {0, 1}, "white night"));
+        assertTrue(!run1.append(1, new long[] {2, 3}, "polar twilight"));    // different description
+        assertTrue(!run1.append(2, new long[] {4, 5}, "white night"));       // not consecutive
+        assertEquals(1, run1.getDays());
+        run1.clear();
+        assertTrue(run1.isEmpty());
+    }
+
+    @Test
+    public void test_createEvent()
+    {
+        // an ordinary day, two days of polar twilight, then a day that ends the run
+        TimeTable rows = createRows(new Long[] {6L, 7L, 17L, 18L}, new Long[] {10L, null, null, 14L}, new Long[] {11L, null, null, 13L}, new Long[] {9L, 10L, 15L, 16L});
+        final ArrayList<String> events = new ArrayList<>();
+        SunEvents.EventSink sink = new SunEvents.EventSink()
+        {
+            @Override
+            public void onEvent(int kind, long start, long end, String desc) {
+                events.add(kind + ":" + (start / HOUR) + "-" + (end / HOUR) + ":" + desc);
+            }
+            @Override
+            public void onEvent(int kind, long start, String desc) {
+                events.add(kind + ":" + (start / HOUR) + ":" + desc);
+            }
+        };
+
+        SunEventRun run = new SunEventRun(0);
+        for (int row=0; row<rows.getCount(); row++) {
+            SunEvents.createEvent(rows, row, 0, "dawn", "polar twilight", "twilight", run, sink);
+        }
+        SunEvents.flushEvents(sink, run);
+        assertEquals(3, events.size());
+        assertEquals("0:6-7:dawn", events.get(0));
+        assertEquals("0:34-61:polar twilight", events.get(1));    // merged [day 1 10h, day 2 13h]
+        assertEquals("0:81-82:dawn", events.get(2));
+        assertTrue(run.isEmpty());
+
+        events.clear();
+        for (int row=0; row<rows.getCount(); row++) {
+            SunEvents.createEvent(rows, row, 0, "dawn", "polar twilight", "twilight", null, sink);
+        }
+        assertEquals(4, events.size());    // an event for each day
+        assertEquals("0:34-38:polar twilight", events.get(1));
+        assertEquals("0:59-61:polar twilight", events.get(2));
+    }
+}